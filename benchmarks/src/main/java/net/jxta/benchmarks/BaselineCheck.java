@@ -0,0 +1,190 @@
+package net.jxta.benchmarks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Compares a JMH JSON result file with a baseline result file.
+ * <p/>
+ * A benchmark regresses when its score is worse than the baseline score by more than the tolerance.
+ * For throughput benchmarks a lower score is worse, for all other modes a higher score is worse.
+ * Benchmarks which are only in one of the files are reported but not treated as regressions.
+ * A missing baseline is an error. When publishing, the results are copied to the baseline instead of
+ * being compared with it.
+ * <p/>
+ * Usage: {@code BaselineCheck <results.json> <baseline.json> [tolerance percent] [publish]}
+ */
+public final class BaselineCheck {
+
+    private static final double DEFAULT_TOLERANCE = 10.0;
+
+    private BaselineCheck() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BaselineCheck <results.json> <baseline.json> [tolerance percent] [publish]");
+            throw new IllegalArgumentException("Missing arguments");
+        }
+
+        File results = new File(args[0]);
+        File baseline = new File(args[1]);
+        double tolerance = (args.length > 2) ? Double.parseDouble(args[2]) : DEFAULT_TOLERANCE;
+        boolean publish = (args.length > 3) && Boolean.parseBoolean(args[3]);
+
+        if (publish) {
+            copy(results, baseline);
+            System.out.println("Published " + results + " as " + baseline);
+            return;
+        }
+
+        if (!baseline.exists()) {
+            throw new IllegalStateException("No baseline " + baseline + ". Publish one with -Dbaseline.publish=true on the reference machine and commit it.");
+        }
+
+        List<String> regressions = check(read(results), read(baseline), tolerance);
+
+        if (!regressions.isEmpty()) {
+            for (String regression : regressions) {
+                System.err.println("REGRESSION " + regression);
+            }
+
+            throw new IllegalStateException(regressions.size() + " benchmark(s) regressed by more than " + tolerance + "%");
+        }
+
+        System.out.println("No benchmark regressed by more than " + tolerance + "%");
+    }
+
+    /**
+     * Returns a description of each benchmark of the results which regressed compared to the baseline.
+     */
+    static List<String> check(Map<String, Score> results, Map<String, Score> baseline, double tolerance) {
+        List<String> regressions = new ArrayList<String>();
+
+        for (Map.Entry<String, Score> entry : results.entrySet()) {
+            Score base = baseline.get(entry.getKey());
+            Score current = entry.getValue();
+
+            if (null == base) {
+                System.out.println("NEW " + entry.getKey() + " = " + current);
+                continue;
+            }
+
+            double change = 100.0 * (current.value - base.value) / base.value;
+
+            if (!current.higherIsBetter) {
+                change = -change;
+            }
+
+            String line = String.format("%s %s -> %s (%+.1f%%)", entry.getKey(), base, current, change);
+
+            if (change < -tolerance) {
+                regressions.add(line);
+            } else {
+                System.out.println("OK " + line);
+            }
+        }
+
+        for (String key : baseline.keySet()) {
+            if (!results.containsKey(key)) {
+                System.out.println("MISSING " + key);
+            }
+        }
+
+        return regressions;
+    }
+
+    /**
+     * Reads the primary scores of a JMH JSON result file, keyed by benchmark, mode and parameters.
+     */
+    static Map<String, Score> read(File file) throws IOException {
+        Map<String, Score> scores = new LinkedHashMap<String, Score>();
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+
+        try {
+            JsonArray runs = new JsonParser().parse(reader).getAsJsonArray();
+
+            for (JsonElement element : runs) {
+                JsonObject run = element.getAsJsonObject();
+                StringBuilder key = new StringBuilder(run.get("benchmark").getAsString());
+                String mode = run.get("mode").getAsString();
+
+                key.append(" [").append(mode).append(']');
+
+                if (run.has("params")) {
+                    for (Map.Entry<String, JsonElement> param : run.getAsJsonObject("params").entrySet()) {
+                        key.append(' ').append(param.getKey()).append('=').append(param.getValue().getAsString());
+                    }
+                }
+
+                JsonObject metric = run.getAsJsonObject("primaryMetric");
+
+                scores.put(key.toString(), new Score(metric.get("score").getAsDouble(), metric.get("scoreUnit").getAsString(), "thrpt".equals(mode)));
+            }
+        } finally {
+            reader.close();
+        }
+
+        return scores;
+    }
+
+    private static void copy(File from, File to) throws IOException {
+        File parent = to.getAbsoluteFile().getParentFile();
+
+        if (!parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+
+        InputStream in = new FileInputStream(from);
+
+        try {
+            OutputStream out = new FileOutputStream(to);
+
+            try {
+                byte[] buffer = new byte[8192];
+                int read;
+
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    static final class Score {
+
+        final double value;
+        final String unit;
+        final boolean higherIsBetter;
+
+        Score(double value, String unit, boolean higherIsBetter) {
+            this.value = value;
+            this.unit = unit;
+            this.higherIsBetter = higherIsBetter;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.3f %s", value, unit);
+        }
+    }
+}
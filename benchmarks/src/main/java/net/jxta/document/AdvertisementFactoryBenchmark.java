@@ -0,0 +1,100 @@
+package net.jxta.document;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import net.jxta.id.IDFactory;
+import net.jxta.peergroup.IModuleDefinitions;
+import net.jxta.peergroup.PeerGroupID;
+import net.jxta.pipe.PipeService;
+import net.jxta.protocol.PeerAdvertisement;
+import net.jxta.protocol.PeerGroupAdvertisement;
+import net.jxta.protocol.PipeAdvertisement;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Creation of advertisements through the {@link AdvertisementFactory}, both empty instances of a type and
+ * instances read from a document as done by discovery and the cache manager, and serialization of an
+ * unchanged advertisement with and without the serialized form cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AdvertisementFactoryBenchmark {
+
+    @Param({"jxta:PA", "jxta:PipeAdvertisement", "jxta:PGA"})
+    public String advertisementType;
+
+    private String xml;
+
+    private Advertisement adv;
+
+    @Setup
+    public void setUp() {
+        adv = AdvertisementFactory.newAdvertisement(advertisementType);
+
+        if (adv instanceof PeerAdvertisement) {
+            PeerAdvertisement peerAdv = (PeerAdvertisement) adv;
+
+            peerAdv.setPeerGroupID(PeerGroupID.defaultNetPeerGroupID);
+            peerAdv.setPeerID(IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID));
+            peerAdv.setName("benchmark peer");
+        } else if (adv instanceof PipeAdvertisement) {
+            PipeAdvertisement pipeAdv = (PipeAdvertisement) adv;
+
+            pipeAdv.setPipeID(IDFactory.newPipeID(PeerGroupID.defaultNetPeerGroupID));
+            pipeAdv.setType(PipeService.UnicastType);
+            pipeAdv.setName("benchmark pipe");
+        } else if (adv instanceof PeerGroupAdvertisement) {
+            PeerGroupAdvertisement groupAdv = (PeerGroupAdvertisement) adv;
+
+            groupAdv.setPeerGroupID(IDFactory.newPeerGroupID());
+            groupAdv.setModuleSpecID(IModuleDefinitions.allPurposePeerGroupSpecID);
+            groupAdv.setName("benchmark group");
+        }
+
+        xml = adv.getDocument(MimeMediaType.XMLUTF8).toString();
+    }
+
+    @Benchmark
+    public Advertisement newAdvertisement() {
+        return AdvertisementFactory.newAdvertisement(advertisementType);
+    }
+
+    @Benchmark
+    public Advertisement newAdvertisementFromDocument() throws IOException {
+        XMLDocument doc = (XMLDocument) StructuredDocumentFactory.newStructuredDocument(MimeMediaType.XMLUTF8, new StringReader(xml));
+
+        return AdvertisementFactory.newAdvertisement(doc);
+    }
+
+    @Benchmark
+    public byte[] serializeSignedDocument() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+        adv.getSignedDocument().sendToStream(bos);
+
+        return bos.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] getSignedDocumentBytes() throws IOException {
+        return adv.getSignedDocumentBytes();
+    }
+}
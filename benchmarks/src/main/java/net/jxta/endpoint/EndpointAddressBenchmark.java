@@ -0,0 +1,61 @@
+package net.jxta.endpoint;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing and hashing of {@link EndpointAddress}es, which are created for every message received and used as
+ * keys of the messenger and route tables.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EndpointAddressBenchmark {
+
+    @Param({
+        "tcp://192.168.1.10:9701",
+        "jxta://uuid-59616261646162614E5047205032503393B5C2F6CA7A41FBB0F890173088E79404/EndpointService:jxta-NetGroup/PeerView"
+    })
+    public String address;
+
+    private EndpointAddress parsed;
+
+    @Setup
+    public void setUp() {
+        parsed = new EndpointAddress(address);
+    }
+
+    @Benchmark
+    public EndpointAddress parse() {
+        return new EndpointAddress(address);
+    }
+
+    @Benchmark
+    public int parseAndHash() {
+        return new EndpointAddress(address).hashCode();
+    }
+
+    @Benchmark
+    public boolean parseAndEquals() {
+        return parsed.equals(new EndpointAddress(address));
+    }
+
+    @Benchmark
+    public String print() {
+        return new EndpointAddress(address).toString();
+    }
+}
@@ -0,0 +1,61 @@
+package net.jxta.id;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.concurrent.TimeUnit;
+
+import net.jxta.peergroup.PeerGroupID;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Construction of IDs from their URI form, as done whenever an advertisement or message is read.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IDFactoryBenchmark {
+
+    @Param({"peer", "pipe", "group"})
+    public String idType;
+
+    private URI uri;
+
+    @Setup
+    public void setUp() {
+        ID id;
+
+        if ("peer".equals(idType)) {
+            id = IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID);
+        } else if ("pipe".equals(idType)) {
+            id = IDFactory.newPipeID(PeerGroupID.defaultNetPeerGroupID);
+        } else {
+            id = IDFactory.newPeerGroupID();
+        }
+
+        uri = id.toURI();
+    }
+
+    @Benchmark
+    public ID fromURI() throws URISyntaxException {
+        return IDFactory.fromURI(uri);
+    }
+
+    @Benchmark
+    public ID fromURIString() throws URISyntaxException {
+        return IDFactory.fromURI(new URI(uri.toString()));
+    }
+}
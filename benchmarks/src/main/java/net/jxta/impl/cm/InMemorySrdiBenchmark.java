@@ -0,0 +1,145 @@
+package net.jxta.impl.cm;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.jxta.id.IDFactory;
+import net.jxta.peer.PeerID;
+import net.jxta.peergroup.PeerGroupID;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Queries of a populated {@link InMemorySrdi} by exact value, by wild-card value and by primary key only.
+ * Run with {@code -t} to measure the throughput of concurrent queries.
+ * <p/>
+ * The {@code mixed} group runs queries against concurrent adds, peer removals and garbage collection, the
+ * contention the index sees on a rendezvous peer receiving SRDI pushes from many edges.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InMemorySrdiBenchmark {
+
+    private static final int PEERS = 1000;
+
+    /**
+     * Peers whose entries the mixed group adds and removes.
+     */
+    private static final int CHURN_PEERS = 100;
+
+    /**
+     * Relative expiration of the entries added by the mixed group, short enough that the collector finds work.
+     */
+    private static final long CHURN_EXPIRATION = 100;
+
+    @Param({"10000", "100000"})
+    public int records;
+
+    @Param({"1", "16"})
+    public int shards;
+
+    private InMemorySrdi srdi;
+
+    private PeerID[] churnPeers;
+
+    @State(Scope.Thread)
+    public static class Query {
+
+        private final Random random = new Random();
+
+        String nextValue(int records) {
+            return "value" + random.nextInt(records);
+        }
+
+        PeerID nextPeer(PeerID[] peers) {
+            return peers[random.nextInt(peers.length)];
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        PeerID[] peers = new PeerID[PEERS];
+
+        for (int i = 0; i < PEERS; i++) {
+            peers[i] = IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID);
+        }
+
+        srdi = new InMemorySrdi(null, "benchmark", shards);
+        for (int i = 0; i < records; i++) {
+            srdi.add("Adv", "Name", "value" + i, peers[i % PEERS], Long.MAX_VALUE);
+        }
+
+        churnPeers = new PeerID[CHURN_PEERS];
+        for (int i = 0; i < CHURN_PEERS; i++) {
+            churnPeers[i] = IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        srdi.stop();
+        srdi.clear();
+    }
+
+    @Benchmark
+    public List<PeerID> queryExact(Query query) throws IOException {
+        return srdi.query("Adv", "Name", query.nextValue(records), 10);
+    }
+
+    @Benchmark
+    public List<PeerID> queryWildcard(Query query) throws IOException {
+        return srdi.query("Adv", "Name", query.nextValue(records) + "*", 10);
+    }
+
+    @Benchmark
+    public List<PeerID> queryPrimaryKey() throws IOException {
+        return srdi.query("Adv", null, null, 10);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(4)
+    public List<PeerID> mixedQuery(Query query) throws IOException {
+        return srdi.query("Adv", "Name", query.nextValue(records), 10);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(2)
+    public void mixedAdd(Query query) throws IOException {
+        srdi.add("Adv", "Name", query.nextValue(records), query.nextPeer(churnPeers), CHURN_EXPIRATION);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void mixedRemove(Query query) throws IOException {
+        srdi.remove(query.nextPeer(churnPeers));
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void mixedGarbageCollect() throws IOException {
+        srdi.garbageCollect();
+    }
+}
@@ -0,0 +1,142 @@
+package net.jxta.impl.cm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.jxta.document.AdvertisementFactory;
+import net.jxta.id.IDFactory;
+import net.jxta.impl.util.threads.TaskManager;
+import net.jxta.peergroup.PeerGroupID;
+import net.jxta.protocol.PeerAdvertisement;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Searches of a populated {@link XIndiceAdvertisementCache}, by exact value, by wild-card value and by a wild-card
+ * matching every record. Run with {@code -t} to measure the throughput of concurrent searches. The
+ * {@code readWrite} group measures searches by several threads while another thread continuously updates an
+ * unrelated directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XIndiceAdvertisementCacheBenchmark {
+
+    private static final String DN = "Peers";
+    private static final String WRITE_DN = "Groups";
+    private static final int PEER_NAMES = 100;
+
+    @Param({"1000", "10000"})
+    public int records;
+
+    private File storeRoot;
+    private TaskManager taskManager;
+    private XIndiceAdvertisementCache cache;
+
+    @State(Scope.Thread)
+    public static class Query {
+
+        private final Random random = new Random();
+
+        String nextName() {
+            return "peer" + random.nextInt(PEER_NAMES);
+        }
+
+        String nextFile() {
+            return Integer.toString(random.nextInt(PEER_NAMES));
+        }
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        storeRoot = File.createTempFile("xindice", "bench");
+        if (!storeRoot.delete() || !storeRoot.mkdirs()) {
+            throw new IOException("Could not create " + storeRoot);
+        }
+
+        taskManager = new TaskManager();
+        cache = new XIndiceAdvertisementCache(storeRoot.toURI(), "benchmark", taskManager);
+
+        for (int i = 0; i < records; i++) {
+            PeerAdvertisement peerAdv = (PeerAdvertisement) AdvertisementFactory.newAdvertisement(PeerAdvertisement.getAdvertisementType());
+
+            peerAdv.setPeerGroupID(PeerGroupID.defaultNetPeerGroupID);
+            peerAdv.setPeerID(IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID));
+            peerAdv.setName("peer" + (i % PEER_NAMES));
+            cache.save(DN, Integer.toString(i), peerAdv);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        cache.stop();
+        taskManager.shutdown();
+        delete(storeRoot);
+    }
+
+    @Benchmark
+    public List<InputStream> searchExact(Query query) {
+        return cache.search(DN, "Name", query.nextName(), 10, null);
+    }
+
+    @Benchmark
+    public List<InputStream> searchWildcard(Query query) {
+        return cache.search(DN, "Name", query.nextName() + "*", 10, null);
+    }
+
+    @Benchmark
+    public List<InputStream> searchAnyName() {
+        return cache.search(DN, "Name", "*", 10, null);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(4)
+    public List<InputStream> readWriteSearch(Query query) {
+        return cache.search(DN, "Name", query.nextName(), 10, null);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public void readWriteUpdate(Query query) throws IOException {
+        PeerAdvertisement peerAdv = (PeerAdvertisement) AdvertisementFactory.newAdvertisement(PeerAdvertisement.getAdvertisementType());
+
+        peerAdv.setPeerGroupID(PeerGroupID.defaultNetPeerGroupID);
+        peerAdv.setPeerID(IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID));
+        peerAdv.setName("writer");
+        cache.save(WRITE_DN, query.nextFile(), peerAdv);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+
+        if (null != children) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+
+        file.delete();
+    }
+}
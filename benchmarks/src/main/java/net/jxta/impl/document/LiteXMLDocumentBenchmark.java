@@ -0,0 +1,80 @@
+package net.jxta.impl.document;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import net.jxta.document.MimeMediaType;
+import net.jxta.document.XMLDocument;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing and printing of {@link LiteXMLDocument}s shaped like advertisements: a root element holding
+ * a number of child elements, some with attributes and nested elements.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LiteXMLDocumentBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int elements;
+
+    private String xml;
+    private XMLDocument document;
+
+    @Setup
+    public void setUp() throws IOException {
+        LiteXMLDocument doc = (LiteXMLDocument) LiteXMLDocument.INSTANTIATOR.newInstance(MimeMediaType.XMLUTF8, "jxta:PA");
+
+        doc.addAttribute("xmlns:jxta", "http://jxta.org");
+        for (int i = 0; i < elements; i++) {
+            if (i % 3 == 0) {
+                LiteXMLElement child = doc.createElement("Svc" + (i % 10));
+
+                doc.appendChild(child);
+                child.addAttribute("type", "jxta:Param");
+                child.appendChild(doc.createElement("MCID", "urn:jxta:uuid-DEADBEEFDEAFBABAFEEDBABE000000" + i + "05"));
+            } else {
+                doc.appendChild(doc.createElement("Svc" + (i % 10), "value & <escaped> text " + i));
+            }
+        }
+
+        xml = doc.toString();
+        document = parse();
+    }
+
+    @Benchmark
+    public XMLDocument parse() throws IOException {
+        return (XMLDocument) LiteXMLDocument.INSTANTIATOR.newInstance(MimeMediaType.XMLUTF8, new StringReader(xml));
+    }
+
+    @Benchmark
+    public XMLDocument parseReadOnly() throws IOException {
+        return LiteXMLDocument.newReadOnlyInstance(MimeMediaType.XMLUTF8, new StringReader(xml));
+    }
+
+    @Benchmark
+    public String print() throws IOException {
+        StringWriter writer = new StringWriter(xml.length());
+
+        document.sendToWriter(writer);
+
+        return writer.toString();
+    }
+}
@@ -0,0 +1,79 @@
+package net.jxta.impl.endpoint;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.jxta.endpoint.ByteArrayMessageElement;
+import net.jxta.endpoint.Message;
+import net.jxta.endpoint.StringMessageElement;
+import net.jxta.endpoint.WireFormatMessageFactory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serialization and deserialization of messages in the binary wire format.
+ * <p/>
+ * The messages are built like the ones exchanged by the endpoint, a few small string elements followed by a
+ * binary payload. CBJX is disabled as it requires a peer group.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireFormatMessageBinaryBenchmark {
+
+    @Param({"0", "1024", "65536"})
+    public int payloadSize;
+
+    private Message message;
+    private byte[] serialized;
+    private ByteArrayOutputStream out;
+    private WireFormatMessageBinary.Instantiator instantiator;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] payload = new byte[payloadSize];
+
+        new Random(42).nextBytes(payload);
+
+        message = new Message();
+        message.addMessageElement("jxta", new StringMessageElement("EndpointSourceAddress", "tcp://192.168.1.10:9701", null));
+        message.addMessageElement("jxta", new StringMessageElement("EndpointDestinationAddress", "jxta://uuid-59616261646162614E5047205032503393B5C2F6CA7A41FBB0F890173088E79404/PipeService/urn:jxta:uuid-59616261646162614E50472050325033", null));
+        message.addMessageElement("app", new StringMessageElement("Type", "benchmark", null));
+        message.addMessageElement("app", new ByteArrayMessageElement("Payload", null, payload, null));
+
+        out = new ByteArrayOutputStream(payloadSize + 1024);
+        instantiator = new WireFormatMessageBinary.Instantiator();
+        serialized = serialize();
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        WireFormatMessageBinary wire = new WireFormatMessageBinary(message, WireFormatMessageFactory.DEFAULT_WIRE_MIME, null, true, null, false);
+
+        out.reset();
+        wire.sendToStream(out);
+
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public Message deserialize() throws IOException {
+        return instantiator.fromBufferExternal(ByteBuffer.wrap(serialized), WireFormatMessageFactory.DEFAULT_WIRE_MIME, null, true, null);
+    }
+}
@@ -0,0 +1,99 @@
+package net.jxta.impl.protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import net.jxta.document.MimeMediaType;
+import net.jxta.document.StructuredDocumentFactory;
+import net.jxta.id.IDFactory;
+import net.jxta.peergroup.PeerGroupID;
+import net.jxta.protocol.SrdiMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and decoding of resolver SRDI messages, in the gzipped XML form
+ * propagated to the rendezvous and in the binary encoding negotiated with
+ * peers which announced it.
+ * <p/>
+ * SrdiMessageBinaryTest checks that the binary encoding of these messages is
+ * smaller than the gzipped XML.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SrdiMessageBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    public int entries;
+
+    private ResolverSrdiMsgImpl message;
+    private byte[] xml;
+    private byte[] binary;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<SrdiMessage.Entry> list = new ArrayList<SrdiMessage.Entry>(entries);
+
+        for (int i = 0; i < entries; i++) {
+            String key = (i % 2 == 0) ? "Name" : "PeerGroupID";
+
+            list.add(new SrdiMessage.Entry(key, IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID).toString(), 7200000L));
+        }
+
+        SrdiMessageImpl srdi = new SrdiMessageImpl(IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID), SrdiMessage.REPLICATE, "Peers", list);
+
+        message = new ResolverSrdiMsgImpl("benchmark", null, srdi);
+        xml = encodeXml();
+        binary = encodeBinary();
+    }
+
+    @Benchmark
+    public byte[] encodeXml() throws IOException {
+        ResolverSrdiMsgImpl sent = new ResolverSrdiMsgImpl(message.getHandlerName(), null, message.getSrdiMessage().toString());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gos = new GZIPOutputStream(out);
+
+        sent.getDocument(MimeMediaType.XMLUTF8).sendToStream(gos);
+        gos.close();
+
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public SrdiMessage decodeXml() throws IOException {
+        ResolverSrdiMsgImpl received = new ResolverSrdiMsgImpl(
+                StructuredDocumentFactory.newStructuredDocument(MimeMediaType.XMLUTF8, new GZIPInputStream(new ByteArrayInputStream(xml))), null);
+
+        return received.getSrdiMessage();
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return message.toBinary();
+    }
+
+    @Benchmark
+    public SrdiMessage decodeBinary() throws IOException {
+        return ResolverSrdiMsgImpl.fromBinary(binary, null).getSrdiMessage();
+    }
+}
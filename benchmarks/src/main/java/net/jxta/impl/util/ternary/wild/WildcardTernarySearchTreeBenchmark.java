@@ -0,0 +1,114 @@
+package net.jxta.impl.util.ternary.wild;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Infix, prefix and suffix wild-card searches of a {@link WildcardTernarySearchTreeImpl} holding keys shaped like
+ * those of the in-memory SRDI search index, with and without the n-gram index. As in the search index every term
+ * starts with the primary key and attribute, and each search stops after ten results.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class WildcardTernarySearchTreeBenchmark {
+
+    private static final int THRESHOLD = 10;
+
+    @Param({"1000000"})
+    public int keys;
+
+    @Param({"true", "false"})
+    public boolean ngramIndex;
+
+    private WildcardTernarySearchTreeImpl<String> tree;
+
+    private String[] names;
+
+    @State(Scope.Thread)
+    public static class Query {
+
+        private final Random random = new Random();
+
+        String nextName(String[] names) {
+            return names[random.nextInt(names.length)];
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+
+        tree = new WildcardTernarySearchTreeImpl<String>('*', ngramIndex);
+        names = new String[keys];
+
+        for (int i = 0; i < keys; i++) {
+            names[i] = "peer" + randomPart(random) + randomPart(random) + "-" + i;
+
+            String key = "Adv.Name=" + names[i];
+
+            tree.put(key, key);
+        }
+    }
+
+    /**
+     * Returns four random base 36 digits.
+     */
+    private static String randomPart(Random random) {
+        return Integer.toString(36 * 36 * 36 + random.nextInt(36 * 36 * 36 * 35), 36);
+    }
+
+    @Benchmark
+    public int searchInfix(Query query) {
+        String name = query.nextName(names);
+
+        // Part of the random section of the name
+        return search("Adv.Name=*" + name.substring(5, 9) + "*");
+    }
+
+    @Benchmark
+    public int searchPrefix(Query query) {
+        String name = query.nextName(names);
+
+        return search("Adv.Name=" + name.substring(0, 8) + "*");
+    }
+
+    @Benchmark
+    public int searchSuffix(Query query) {
+        String name = query.nextName(names);
+
+        return search("Adv.Name=*" + name.substring(name.length() - 6));
+    }
+
+    private int search(String term) {
+        final int[] found = new int[1];
+
+        tree.search(term, new WildcardTernarySearchTreeMatchListener<String>() {
+
+            public void resultFound(String key, String value) {
+                found[0]++;
+            }
+
+            public boolean continueSearch() {
+                return found[0] < THRESHOLD;
+            }
+        });
+
+        return found[0];
+    }
+}
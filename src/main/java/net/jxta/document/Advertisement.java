@@ -61,9 +61,14 @@ import net.jxta.impl.membership.pse.PSEMembershipService;
 
 import net.jxta.id.ID;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.UndeclaredThrowableException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  *  Advertisements are core JXTA objects that are used to advertise Peers,
@@ -92,12 +97,90 @@ import java.lang.reflect.UndeclaredThrowableException;
  */
 public abstract class Advertisement {
 
+    /**
+     * The system property which may be used to disable caching of the
+     * serialized forms of advertisements.
+     */
+    public final static String SERIALIZED_FORM_CACHE_SYSPROP = "net.jxta.document.Advertisement.serializedFormCache";
+
+    /**
+     * If {@code true} then the serialized forms of advertisements which track
+     * their modifications are cached.
+     */
+    private final static boolean SERIALIZED_FORM_CACHE = Boolean.parseBoolean(System.getProperty(SERIALIZED_FORM_CACHE_SYSPROP, "true"));
+
+    /**
+     * Counts the changes made to this object.
+     */
+    private transient AtomicInteger modCount = new AtomicInteger(0);
+
+    /**
+     * The serialized documents of this advertisement, by MIME type, or
+     * {@code null} if none have been cached.
+     */
+    private transient Map<MimeMediaType, byte[]> serializedForms = null;
+
+    /**
+     * The serialized signed document of this advertisement or {@code null} if
+     * it has not been cached.
+     */
+    private transient byte[] serializedSignedForm = null;
+
+    /**
+     * The modification count at which the cached serialized forms were
+     * generated.
+     */
+    private transient int serializedFormsModCount = -1;
+
     /**
      * {@inheritDoc}
      */
     @Override
     public Advertisement clone() throws CloneNotSupportedException {
-        return (Advertisement) super.clone();
+        Advertisement clone = (Advertisement) super.clone();
+
+        clone.modCount = new AtomicInteger(0);
+        clone.serializedForms = null;
+        clone.serializedSignedForm = null;
+        clone.serializedFormsModCount = -1;
+
+        return clone;
+    }
+
+    /**
+     * Returns the number of times this object has been modified since
+     * it was created. This permits the detection of changes that require
+     * refreshing of other data which depends upon the advertisement.
+     *
+     * @return int the current modification count.
+     */
+    public int getModCount() {
+        return modCount.get();
+    }
+
+    /**
+     * Increments the modification count for this advertisement.
+     *
+     * @return the new modification count.
+     */
+    protected int incModCount() {
+        return modCount.incrementAndGet();
+    }
+
+    /**
+     * Returns {@code true} if every change to this advertisement, including
+     * changes made by sub-classes, increments the modification count. Only
+     * the serialized forms of such advertisements are cached by
+     * {@link #getDocumentBytes(MimeMediaType)} and
+     * {@link #getSignedDocumentBytes()}.
+     * <p/>
+     * This implementation returns {@code false}.
+     *
+     * @return {@code true} if all modifications of this advertisement are
+     * counted.
+     */
+    protected boolean isModCountTracked() {
+        return false;
     }
 
     /**
@@ -306,6 +389,89 @@ public abstract class Advertisement {
         }
     }
 
+    /**
+     * Returns the serialized form of {@link #getDocument(MimeMediaType)}. If
+     * this advertisement tracks its modifications the bytes are cached until
+     * the advertisement is next modified.
+     * <p/>
+     * The returned array may be shared and must not be modified.
+     *
+     * @param asMimeType MimeMediaType format representation requested.
+     * @return The serialized document.
+     * @throws IOException Thrown for errors serializing the document.
+     */
+    public final synchronized byte[] getDocumentBytes(MimeMediaType asMimeType) throws IOException {
+        if (!isSerializedFormCached()) {
+            return toBytes(getDocument(asMimeType));
+        }
+
+        if (null == serializedForms) {
+            serializedForms = new HashMap<MimeMediaType, byte[]>(2);
+        }
+
+        byte[] result = serializedForms.get(asMimeType);
+
+        if (null == result) {
+            result = toBytes(getDocument(asMimeType));
+            serializedForms.put(asMimeType, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the serialized form of {@link #getSignedDocument()}. If this
+     * advertisement tracks its modifications the bytes are cached until the
+     * advertisement is next modified, signed or verified.
+     * <p/>
+     * The returned array may be shared and must not be modified.
+     *
+     * @return The serialized document, with an XML signature if it exists.
+     * @throws IOException Thrown for errors serializing the document.
+     */
+    public final synchronized byte[] getSignedDocumentBytes() throws IOException {
+        if (!isSerializedFormCached()) {
+            return toBytes(getSignedDocument());
+        }
+
+        if (null == serializedSignedForm) {
+            serializedSignedForm = toBytes(getSignedDocument());
+        }
+
+        return serializedSignedForm;
+    }
+
+    /**
+     * Discards the cached serialized forms if the advertisement has been
+     * modified since they were generated.
+     *
+     * @return {@code true} if the serialized forms of this advertisement may
+     * be cached.
+     */
+    private boolean isSerializedFormCached() {
+        if (!SERIALIZED_FORM_CACHE || !isModCountTracked()) {
+            return false;
+        }
+
+        int currentModCount = getModCount();
+
+        if (serializedFormsModCount != currentModCount) {
+            serializedForms = null;
+            serializedSignedForm = null;
+            serializedFormsModCount = currentModCount;
+        }
+
+        return true;
+    }
+
+    private static byte[] toBytes(Document doc) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(1024);
+
+        doc.sendToStream(bos);
+
+        return bos.toByteArray();
+    }
+
     /**
      * A valid signature when an advertisement is signed or verified successfully. Otherwise, it
      * returns null.
@@ -357,6 +523,7 @@ public abstract class Advertisement {
      */
     public final synchronized boolean sign(PSECredential pseCredential, boolean includePublicKey, boolean includePeerID)
     {
+        incModCount();
         this.xmlSignatureInfoElement=null;
         this.xmlSignatureElement=null;
         this.xmlSignature=null;
@@ -396,6 +563,7 @@ public abstract class Advertisement {
      */
     public final synchronized boolean verify(PSECredential pseCredential, boolean verifyKeyWithKeystore)
     {
+        incModCount();
         try
         {
 
@@ -66,6 +66,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
 import java.util.zip.CRC32;
 import java.util.zip.Checksum;
 
@@ -342,6 +343,17 @@ public class ByteArrayMessageElement extends MessageElement {
         return result;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * <p/>The returned buffer is a read-only view of the backing array, no
+     * copy is made.
+     */
+    @Override
+    public synchronized ByteBuffer getByteBuffer() {
+        return ByteBuffer.wrap(b, offset, len).slice().asReadOnlyBuffer();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -72,6 +72,7 @@ import java.io.OutputStream;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
@@ -426,6 +427,20 @@ public abstract class MessageElement implements Document {
         return result;
     }
 
+    /**
+     * Returns the contents of this element as a ByteBuffer. The buffer may
+     * share the storage of this element and should be considered read-only.
+     * <p/>
+     * <p/>This implementation wraps the result of {@link #getBytes(boolean)}.
+     * Sub-classes which hold their contents in memory should override this
+     * implementation to avoid the copy.
+     *
+     * @return ByteBuffer Contents of message element.
+     */
+    public ByteBuffer getByteBuffer() {
+        return ByteBuffer.wrap(getBytes(false));
+    }
+
     /**
      * {@inheritDoc}
      * <p/>
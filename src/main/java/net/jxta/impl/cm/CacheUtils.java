@@ -60,6 +60,7 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Level;
+import java.util.regex.Pattern;
 
 import net.jxta.document.Element;
 import net.jxta.document.StructuredDocument;
@@ -127,4 +128,30 @@ public class CacheUtils {
             return value.indexOf('*') != -1;
         }
 
+	/**
+	 * Converts a query value with {@code *} wildcards to a pattern matching
+	 * the whole of a value, quoting the literal parts.
+	 * @param value the query value.
+	 * @return the pattern.
+	 */
+	public static Pattern compileWildcards(String value) {
+		StringBuilder regex = new StringBuilder();
+		int start = 0;
+		int star;
+
+		while ((star = value.indexOf('*', start)) >= 0) {
+			if (star > start) {
+				regex.append(Pattern.quote(value.substring(start, star)));
+			}
+			regex.append(".*");
+			start = star + 1;
+		}
+
+		if (start < value.length()) {
+			regex.append(Pattern.quote(value.substring(start)));
+		}
+
+		return Pattern.compile(regex.toString(), Pattern.DOTALL);
+	}
+
 }
@@ -114,4 +114,25 @@ public class DeltaTracker {
 		deltas.put(dn, deltasForDn);
 	}
 	
+	/**
+	 * Records deltas which withdraw the specified index entries of a
+	 * directory, by announcing them with an expiration of zero.
+	 */
+	public void generateRemovalDeltas(String dn, Map<String, String> indexFields) {
+		if(!trackingDeltas || indexFields.isEmpty()) {
+			return;
+		}
+		
+		List<Entry> deltasForDn = deltas.get(dn);
+		if(deltasForDn == null) {
+		    deltasForDn = new LinkedList<Entry>();
+		}
+		
+		for(Map.Entry<String, String> indexField : indexFields.entrySet()) {
+			deltasForDn.add(new Entry(indexField.getKey(), indexField.getValue(), 0));
+		}
+		
+		deltas.put(dn, deltasForDn);
+	}
+	
 }
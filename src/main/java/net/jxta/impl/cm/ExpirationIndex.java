@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2001-2007 Sun Microsystems, Inc.  All rights reserved.
+ *
+ *  The Sun Project JXTA(TM) Software License
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *
+ *  3. The end-user documentation included with the redistribution, if any, must
+ *     include the following acknowledgment: "This product includes software
+ *     developed by Sun Microsystems, Inc. for JXTA(TM) technology."
+ *     Alternately, this acknowledgment may appear in the software itself, if
+ *     and wherever such third-party acknowledgments normally appear.
+ *
+ *  4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA" must
+ *     not be used to endorse or promote products derived from this software
+ *     without prior written permission. For written permission, please contact
+ *     Project JXTA at http://www.jxta.org.
+ *
+ *  5. Products derived from this software may not be called "JXTA", nor may
+ *     "JXTA" appear in their name, without prior written permission of Sun.
+ *
+ *  THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+ *  INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ *  FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SUN
+ *  MICROSYSTEMS OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ *  OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ *  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ *  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *  JXTA is a registered trademark of Sun Microsystems, Inc. in the United
+ *  States and other countries.
+ *
+ *  Please see the license information page at :
+ *  <http://www.jxta.org/project/www/license.html> for instructions on use of
+ *  the license in source files.
+ *
+ *  ====================================================================
+ *
+ *  This software consists of voluntary contributions made by many individuals
+ *  on behalf of Project JXTA. For more information on Project JXTA, please see
+ *  http://www.jxta.org.
+ *
+ *  This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+
+package net.jxta.impl.cm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * An in-memory index of record keys ordered by the absolute time at which
+ * the records expire. Allows the expired records to be found without
+ * scanning the whole record database.
+ */
+final class ExpirationIndex {
+
+    /**
+     * The keys ordered by expiration time, then by key.
+     */
+    private final TreeSet<Entry> ordered = new TreeSet<Entry>();
+
+    /**
+     * The expiration time of each key.
+     */
+    private final Map<String, Long> expirations = new HashMap<String, Long>();
+
+    /**
+     * Sets the expiration time of a key.
+     *
+     * @param key       the record key
+     * @param expiresAt absolute time in milliseconds at which the record expires
+     */
+    synchronized void put(String key, long expiresAt) {
+        Long previous = expirations.put(key, expiresAt);
+
+        if (null != previous) {
+            ordered.remove(new Entry(previous, key));
+        }
+
+        ordered.add(new Entry(expiresAt, key));
+    }
+
+    /**
+     * Sets the expiration time of a key unless it already has one.
+     *
+     * @param key       the record key
+     * @param expiresAt absolute time in milliseconds at which the record expires
+     * @return {@code true} if the key was added.
+     */
+    synchronized boolean putIfAbsent(String key, long expiresAt) {
+        if (expirations.containsKey(key)) {
+            return false;
+        }
+
+        put(key, expiresAt);
+        return true;
+    }
+
+    /**
+     * Removes a key.
+     *
+     * @param key the record key
+     */
+    synchronized void remove(String key) {
+        Long previous = expirations.remove(key);
+
+        if (null != previous) {
+            ordered.remove(new Entry(previous, key));
+        }
+    }
+
+    /**
+     * Returns the keys which expired at or before the specified time, earliest
+     * first. The keys remain in the index.
+     *
+     * @param now the current absolute time in milliseconds
+     * @param max the maximum number of keys to return
+     * @return the expired keys
+     */
+    synchronized List<String> getExpired(long now, int max) {
+        List<String> result = new ArrayList<String>(Math.min(max, ordered.size()));
+        Iterator<Entry> each = ordered.iterator();
+
+        while (each.hasNext() && (result.size() < max)) {
+            Entry entry = each.next();
+
+            if (entry.expiresAt > now) {
+                break;
+            }
+
+            result.add(entry.key);
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the earliest expiration time.
+     *
+     * @return the earliest absolute expiration time or {@code Long.MAX_VALUE}
+     * if the index is empty.
+     */
+    synchronized long getNextExpiration() {
+        return ordered.isEmpty() ? Long.MAX_VALUE : ordered.first().expiresAt;
+    }
+
+    /**
+     * Returns the number of keys in the index.
+     *
+     * @return the number of keys in the index.
+     */
+    synchronized int size() {
+        return expirations.size();
+    }
+
+    /**
+     * Removes all keys.
+     */
+    synchronized void clear() {
+        ordered.clear();
+        expirations.clear();
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+
+        final long expiresAt;
+        final String key;
+
+        Entry(long expiresAt, String key) {
+            this.expiresAt = expiresAt;
+            this.key = key;
+        }
+
+        public int compareTo(Entry other) {
+            if (expiresAt != other.expiresAt) {
+                return (expiresAt < other.expiresAt) ? -1 : 1;
+            }
+
+            return key.compareTo(other.key);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return (obj instanceof Entry) && (0 == compareTo((Entry) obj));
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode();
+        }
+    }
+}
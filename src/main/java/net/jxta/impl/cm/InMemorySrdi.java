@@ -70,10 +70,14 @@ import net.jxta.peergroup.PeerGroup;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 
 /**
@@ -84,6 +88,11 @@ import java.util.Set;
  * Two additional indexes are maintained along the search index to speed up searches based on {@link PeerID}s
  * and the Garbage Collection run. Those indexes are {@link Map} based.
  *
+ * The three indexes are partitioned into shards by the hash of the {@link SearchKey}; each shard has its own
+ * lock so that updates to different keys do not contend with each other. Exact lookups are served by a single
+ * shard while prefix and wild-card queries, peer removal and the Garbage Collection visit every shard in turn.
+ * The number of shards may be set with the {@link #SHARDS_SYSPROP} system property.
+ *
  * Due to its peculiar design, the calculation of the {@link PeerID} hashcode is extremely expensive;
  * This is why this Implementation does not use the {@link Entry} nor the {@link PeerID} objects directly
  * See comments in {@link PeerIdKey}
@@ -95,16 +104,24 @@ public class InMemorySrdi implements SrdiAPI {
 
     private final static transient Logger LOG = Logging.getLogger( InMemorySrdi.class.getName(  ) );
 
+    /**
+     * System property used to configure the number of index shards.
+     */
+    public static final String SHARDS_SYSPROP = "net.jxta.impl.cm.InMemorySrdi.shards";
+
+    /**
+     * Default number of index shards.
+     */
+    public static final int DEFAULT_SHARDS = 16;
+
+    // The wild-card character of the search index
+    private static final char WILDCARD = '*';
+
     // Store of back end objects in use so we can support the static clear functionality
     private static Hashtable<PeerGroup, List<SrdiAPI>> backends = new Hashtable<PeerGroup, List<SrdiAPI>>(  );
 
-    // Three in-memory indexes used to store, search and garbage collect the SRDI
-    private GcIndex gcIndex = null;
-    private PeerIdIndex peerIdIndex = null;
-    private SearchIndex searchIndex = null;
-
-    // Used as a lock to ensure all operations on the above three indexes are thread safe
-    private final Object indexLock = new Object(  );
+    // The index shards, each holding three in-memory indexes used to store, search and garbage collect the SRDI
+    private final Shard[] shards;
 
     // Stopped indicator
     private volatile boolean stopped = false;
@@ -112,12 +129,53 @@ public class InMemorySrdi implements SrdiAPI {
     // Usage name for this index
     private final String indexName;
 
+    /**
+     * A partition of the index. The write lock ensures that all updates to the three indexes of the shard are
+     * applied atomically; the indexes are individually synchronized so lookups do not need to take it.
+     */
+    private static final class Shard {
+
+        final GcIndex gcIndex;
+        final PeerIdIndex peerIdIndex;
+        final SearchIndex searchIndex;
+        final ReadWriteLock lock = new ReentrantReadWriteLock(  );
+
+        Shard( String indexName ) {
+
+            this.gcIndex = new GcIndex( indexName );
+            this.peerIdIndex = new PeerIdIndex( indexName );
+            this.searchIndex = new SearchIndex( indexName );
+        }
+    }
+
     public InMemorySrdi( PeerGroup group, String indexName ) {
 
+        this( group, indexName, Integer.getInteger( SHARDS_SYSPROP, DEFAULT_SHARDS ) );
+    }
+
+    /**
+     * @param group the group of this index
+     * @param indexName the name of this index
+     * @param numShards the number of partitions of the index
+     */
+    public InMemorySrdi( PeerGroup group, String indexName, int numShards ) {
+
+        if ( numShards < 1 ) {
+
+            throw new IllegalArgumentException( "Number of shards must be positive: " + numShards );
+        }
+
         // The index name is only used for logging
         this.indexName = ( ( group == null ) ? "none" : ( ( group.getPeerGroupName(  ) == null ) ? "NPG" : group.getPeerGroupName(  ) ) ) +
             ":" + indexName;
 
+        this.shards = new Shard[ numShards ];
+
+        for ( int i = 0; i < numShards; i++ ) {
+
+            this.shards [ i ] = new Shard( this.indexName + "#" + i );
+        }
+
         List<SrdiAPI> idxs = null;
 
         synchronized ( backends ) {
@@ -138,14 +196,12 @@ public class InMemorySrdi implements SrdiAPI {
             }
 
             idxs.add( this );
-            this.gcIndex = new GcIndex( this.indexName );
-            this.peerIdIndex = new PeerIdIndex( this.indexName );
-            this.searchIndex = new SearchIndex( this.indexName );
         }
 
         if ( Logging.SHOW_INFO && LOG.isInfoEnabled() ) {
 
-            LOG.info( "[" + ( ( group == null ) ? "none" : group.toString(  ) ) + "] : Initialized " + indexName );
+            LOG.info( "[" + ( ( group == null ) ? "none" : group.toString(  ) ) + "] : Initialized " + indexName + " with " + numShards +
+                " shard(s)" );
         }
     }
 
@@ -205,6 +261,14 @@ public class InMemorySrdi implements SrdiAPI {
         }
     }
 
+    /**
+     * Returns the shard holding the given key.
+     */
+    private Shard shardFor( SearchKey searchKey ) {
+
+        return this.shards [ ( searchKey.hashCode(  ) & 0x7fffffff ) % this.shards.length ];
+    }
+
     /* (non-Javadoc)
      * @see net.jxta.impl.cm.SrdiAPI#clear()
      */
@@ -220,11 +284,19 @@ public class InMemorySrdi implements SrdiAPI {
 
         try {
 
-            synchronized ( indexLock ) {
+            for ( Shard shard : this.shards ) {
 
-                this.gcIndex.clear(  );
-                this.peerIdIndex.clear(  );
-                this.searchIndex.clear(  );
+                shard.lock.writeLock(  ).lock(  );
+
+                try {
+
+                    shard.gcIndex.clear(  );
+                    shard.peerIdIndex.clear(  );
+                    shard.searchIndex.clear(  );
+                } finally {
+
+                    shard.lock.writeLock(  ).unlock(  );
+                }
             }
         } catch ( Throwable th ) {
 
@@ -255,83 +327,104 @@ public class InMemorySrdi implements SrdiAPI {
             //A small logging counter
             long counter = 0;
 
-            Long[] expirations = this.gcIndex.getAllKeys(  );
+            // Sweep the shards one at a time so that only one of them is ever locked by the GC
+            for ( Shard shard : this.shards ) {
+
+                if ( this.stopped ) {
 
-            // Now loop over extracted items in a non synchronized (e.g. non blocking) loop
-            for ( int i = 0; i < expirations.length; i++ ) {
+                    return;
+                }
 
-                Long expiration = expirations [ i ];
+                counter += garbageCollect( shard, now );
+            }
 
-                if ( expiration.compareTo( now ) > 0 ) {
+            if ( Logging.SHOW_DEBUG && LOG.isDebugEnabled() ) {
 
-                    // This entry is not yet expired, we are done, exit the GC
-                    if ( Logging.SHOW_DEBUG && LOG.isDebugEnabled() ) {
+                LOG.debug( "[" + this.indexName + "] GC: cleared " + counter + " item(s) from the index" );
+            }
 
-                        LOG.debug( "[" + this.indexName + "] GC: cleared " + counter + " item(s) from the index" );
-                    }
+            printStatus(  );
+        } catch ( Throwable th ) {
 
-                    printStatus(  );
+            if ( Logging.SHOW_ERROR && LOG.isErrorEnabled( ) ) {
 
-                    return;
-                }
+                LOG.error( "[" + this.indexName + "] GC: Unexpected exception encountered!", th );
+            }
+
+            throw new IOException( th );
+        }
+    }
 
-                // This entry is expired, process it...
-                synchronized ( this.indexLock ) {
+    /**
+     * Removes the items of a shard which expired before the given time.
+     *
+     * @return the number of expiration times which were cleared
+     */
+    private long garbageCollect( Shard shard, Long now ) {
 
-                    // Remove and recover the items
-                    Set<GcKey> items = gcIndex.remove( expiration );
+        long counter = 0;
 
-                    // See if we have any item to process
-                    if ( items != null ) {
+        Long[] expirations = shard.gcIndex.getAllKeys(  );
 
-                        for ( GcKey gcKey : items ) {
+        // Now loop over extracted items in a non synchronized (e.g. non blocking) loop
+        for ( int i = 0; i < expirations.length; i++ ) {
 
-                            // Recover the search key
-                            SearchKey searchKey = gcKey.getSearchKey(  );
+            Long expiration = expirations [ i ];
 
-                            if ( Logging.SHOW_DEBUG && LOG.isDebugEnabled() ) {
+            if ( expiration.compareTo( now ) > 0 ) {
 
-                                LOG.debug( "[" + this.indexName + "] GC: using tree key " + searchKey );
-                            }
+                // This entry is not yet expired, we are done with this shard
+                break;
+            }
 
-                            // Clean-up the search index
-                            this.searchIndex.remove( searchKey, gcKey.getPeerIdKey(  ) );
+            // This entry is expired, process it...
+            shard.lock.writeLock(  ).lock(  );
 
-                            // Clean-up the peers Index
-                            this.peerIdIndex.remove( gcKey.getPeerIdKey(  ), searchKey );
-                        }
+            try {
 
-                        // Increment the logging counter
-                        counter++;
-                    } else {
+                // Remove and recover the items
+                Set<GcKey> items = shard.gcIndex.remove( expiration );
+
+                // See if we have any item to process
+                if ( items != null ) {
+
+                    for ( GcKey gcKey : items ) {
+
+                        // Recover the search key
+                        SearchKey searchKey = gcKey.getSearchKey(  );
 
-                        // This *is* possible if the index item was removed via a call to add(), below, after we called getAllKeys() but before we
-                        // iterated down to the expiration key to process the entry.  Just log it and carry on...
-                    	// LOGGING: was FINER
                         if ( Logging.SHOW_DEBUG && LOG.isDebugEnabled() ) {
 
-                            LOG.debug( "[" + this.indexName + "] GC: Removing GC Index using: " + expiration +
-                                " returned a null set.  Assuming it's already been removed via a concurrent add()." );
+                            LOG.debug( "[" + this.indexName + "] GC: using tree key " + searchKey );
                         }
-                    }
-                }
-            }
 
-            if ( Logging.SHOW_DEBUG && LOG.isDebugEnabled() ) {
+                        // Clean-up the search index
+                        shard.searchIndex.remove( searchKey, gcKey.getPeerIdKey(  ) );
 
-                LOG.debug( "[" + this.indexName + "] GC: cleared ALL ( e.g." + counter + " ) item(s) from the index" );
-            }
+                        // Clean-up the peers Index
+                        shard.peerIdIndex.remove( gcKey.getPeerIdKey(  ), searchKey );
+                    }
 
-            printStatus(  );
-        } catch ( Throwable th ) {
+                    // Increment the logging counter
+                    counter++;
+                } else {
 
-            if ( Logging.SHOW_ERROR && LOG.isErrorEnabled( ) ) {
+                    // This *is* possible if the index item was removed via a call to add(), below, after we called getAllKeys() but before we
+                    // iterated down to the expiration key to process the entry.  Just log it and carry on...
+                	// LOGGING: was FINER
+                    if ( Logging.SHOW_DEBUG && LOG.isDebugEnabled() ) {
 
-                LOG.error( "[" + this.indexName + "] GC: Unexpected exception encountered!", th );
-            }
+                        LOG.debug( "[" + this.indexName + "] GC: Removing GC Index using: " + expiration +
+                            " returned a null set.  Assuming it's already been removed via a concurrent add()." );
+                    }
+                }
+            } finally {
 
-            throw new IOException( th );
+                shard.lock.writeLock(  ).unlock(  );
+            }
         }
+
+        return counter;
     }
 
     private void printStatus(  ) {
@@ -350,14 +443,22 @@ public class InMemorySrdi implements SrdiAPI {
             sb.append( 
                 "------------------------------------------------------------------------------------------------------------------------\n" );
 
-            synchronized ( indexLock ) {
+            for ( Shard shard : this.shards ) {
 
-                sb.append( this.gcIndex.getStats(  ) );
-                sb.append( "\n\n" );
-                sb.append( this.peerIdIndex.getStats(  ) );
-                sb.append( "\n" );
-                sb.append( this.searchIndex.getStats(  ) );
-                sb.append( "\n" );
+                shard.lock.readLock(  ).lock(  );
+
+                try {
+
+                    sb.append( shard.gcIndex.getStats(  ) );
+                    sb.append( "\n\n" );
+                    sb.append( shard.peerIdIndex.getStats(  ) );
+                    sb.append( "\n" );
+                    sb.append( shard.searchIndex.getStats(  ) );
+                    sb.append( "\n" );
+                } finally {
+
+                    shard.lock.readLock(  ).unlock(  );
+                }
             }
 
             sb.append( 
@@ -377,7 +478,9 @@ public class InMemorySrdi implements SrdiAPI {
 
         try {
 
-            return this.searchIndex.getValueList( new SearchKey( primaryKey, attribute, value ) );
+            SearchKey searchKey = new SearchKey( primaryKey, attribute, value );
+
+            return shardFor( searchKey ).searchIndex.getValueList( searchKey );
         } catch ( Throwable th ) {
 
             if ( Logging.SHOW_ERROR && LOG.isErrorEnabled() ) {
@@ -418,7 +521,7 @@ public class InMemorySrdi implements SrdiAPI {
             //////////////////////////////////////////////////
             if ( null == attribute ) {
 
-                return this.searchIndex.search( searchKey, threshold, true );
+                return searchShards( searchKey, threshold, true );
             }
 
             //////////////////////////////////////////////////
@@ -426,7 +529,13 @@ public class InMemorySrdi implements SrdiAPI {
             // Standard Search
             //
             //////////////////////////////////////////////////
-            return this.searchIndex.search( searchKey, threshold, false );
+            if ( searchKey.getKey(  ).indexOf( WILDCARD ) < 0 ) {
+
+                // An exact key lives in a single shard
+                return shardFor( searchKey ).searchIndex.search( searchKey, threshold, false );
+            }
+
+            return searchShards( searchKey, threshold, false );
         } catch ( Throwable th ) {
 
             if ( Logging.SHOW_ERROR && LOG.isErrorEnabled() ) {
@@ -438,6 +547,35 @@ public class InMemorySrdi implements SrdiAPI {
         }
     }
 
+    /**
+     * Searches every shard, merging the results until the threshold is reached.
+     */
+    private List<PeerID> searchShards( SearchKey searchKey, int threshold, boolean prefixOnly ) {
+
+        // A peer may have registered keys in several shards
+        Map<PeerIdKey, PeerID> results = new LinkedHashMap<PeerIdKey, PeerID>(  );
+
+        for ( Shard shard : this.shards ) {
+
+            if ( ( threshold >= 0 ) && ( results.size(  ) >= threshold ) ) {
+
+                break;
+            }
+
+            for ( PeerID peerId : shard.searchIndex.search( searchKey, threshold, prefixOnly ) ) {
+
+                if ( ( threshold >= 0 ) && ( results.size(  ) >= threshold ) ) {
+
+                    break;
+                }
+
+                results.put( new PeerIdKey( peerId ), peerId );
+            }
+        }
+
+        return Collections.synchronizedList( new ArrayList<PeerID>( results.values(  ) ) );
+    }
+
     /* (non-Javadoc)
      * @see net.jxta.impl.cm.SrdiAPI#remove(net.jxta.peer.PeerID)
      */
@@ -453,41 +591,45 @@ public class InMemorySrdi implements SrdiAPI {
             // A simple logging counter
             long counter = 0;
 
-            // Find the entry in the Peer Index
-            Map<SearchKey, Long> entries = this.peerIdIndex.get( peerIdKey );
+            // The keys of a peer are spread across the shards
+            for ( Shard shard : this.shards ) {
 
-            if ( entries == null ) { // Nothing to do...
+                // Find the entry in the Peer Index
+                Map<SearchKey, Long> entries = shard.peerIdIndex.get( peerIdKey );
 
-                if ( Logging.SHOW_DEBUG && LOG.isDebugEnabled() ) {
+                if ( entries == null ) { // Nothing to do...
 
-                    LOG.debug( "[" + indexName + "]  Did not Remove:  Peer ID " + peerIdKey + ": is not in the index" );
+                    continue;
                 }
 
-                return;
-            }
+                shard.lock.writeLock(  ).lock(  );
+
+                try {
 
-            synchronized ( indexLock ) {
+                    for ( java.util.Map.Entry<SearchKey, Long> entry : entries.entrySet(  ) ) {
 
-                for ( java.util.Map.Entry<SearchKey, Long> entry : entries.entrySet(  ) ) {
+                        SearchKey searchKey = entry.getKey(  );
+                        Long expiration = entry.getValue(  );
 
-                    SearchKey searchKey = entry.getKey(  );
-                    Long expiration = entry.getValue(  );
+                        // Removal is performed by expiration of the Entry e.g; moving the GC Item to an expiration of -1
+                        // Prevent any modification while me manipulated the expiration entry of the item
+                        GcKey gcKey = new GcKey( searchKey, peerIdKey );
 
-                    // Removal is performed by expiration of the Entry e.g; moving the GC Item to an expiration of -1
-                    // Prevent any modification while me manipulated the expiration entry of the item
-                    GcKey gcKey = new GcKey( searchKey, peerIdKey );
+                        // Re-add to the GC index at an expired position
+                        shard.gcIndex.add( -1L, gcKey );
 
-                    // Re-add to the GC index at an expired position
-                    this.gcIndex.add( -1L, gcKey );
+                        // Update the search index
+                        shard.searchIndex.update( searchKey, peerIdKey, -1L );
 
-                    // Update the search index
-                    this.searchIndex.update( searchKey, peerIdKey, -1L );
+                        // Remove old gc entry
+                        shard.gcIndex.remove( expiration, gcKey );
 
-                    // Remove old gc entry
-                    this.gcIndex.remove( expiration, gcKey );
+                        // Increment logging counter
+                        counter++;
+                    }
+                } finally {
 
-                    // Increment logging counter
-                    counter++;
+                    shard.lock.writeLock(  ).unlock(  );
                 }
             }
 
@@ -541,24 +683,31 @@ public class InMemorySrdi implements SrdiAPI {
                     ( expiration - TimeUtils.timeNow(  ) ) + "ms (at: " + expiration + ")" );
             }
 
-            synchronized ( indexLock ) {
+            Shard shard = shardFor( searchKey );
+
+            shard.lock.writeLock(  ).lock(  );
+
+            try {
 
                 // Add it (back) at the proper location
-                this.gcIndex.add( expiration, gcKey );
+                shard.gcIndex.add( expiration, gcKey );
 
                 // Add/replace it in the peers ID Index
-                this.peerIdIndex.update( peerIdKey, searchKey, expiration );
+                shard.peerIdIndex.update( peerIdKey, searchKey, expiration );
 
                 // Finally, add/replace it in the search index with FULL key
 
                 // Create a default map in case this node does not exist
-                Long previousExpiration = searchIndex.update( searchKey, peerIdKey, expiration );
+                Long previousExpiration = shard.searchIndex.update( searchKey, peerIdKey, expiration );
 
                 // Remove the original entry from the GC index if it existed (as long as it's not the same expiration)
                 if ( ( previousExpiration != null ) && ( previousExpiration != expiration ) ) {
 
-                    this.gcIndex.remove( previousExpiration, gcKey );
+                    shard.gcIndex.remove( previousExpiration, gcKey );
                 }
+            } finally {
+
+                shard.lock.writeLock(  ).unlock(  );
             }
         } catch ( Throwable th ) {
 
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2001-2007 Sun Microsystems, Inc.  All rights reserved.
+ *
+ *  The Sun Project JXTA(TM) Software License
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *
+ *  3. The end-user documentation included with the redistribution, if any, must
+ *     include the following acknowledgment: "This product includes software
+ *     developed by Sun Microsystems, Inc. for JXTA(TM) technology."
+ *     Alternately, this acknowledgment may appear in the software itself, if
+ *     and wherever such third-party acknowledgments normally appear.
+ *
+ *  4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA" must
+ *     not be used to endorse or promote products derived from this software
+ *     without prior written permission. For written permission, please contact
+ *     Project JXTA at http://www.jxta.org.
+ *
+ *  5. Products derived from this software may not be called "JXTA", nor may
+ *     "JXTA" appear in their name, without prior written permission of Sun.
+ *
+ *  THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+ *  INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ *  FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SUN
+ *  MICROSYSTEMS OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ *  OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ *  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ *  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *  JXTA is a registered trademark of Sun Microsystems, Inc. in the United
+ *  States and other countries.
+ *
+ *  Please see the license information page at :
+ *  <http://www.jxta.org/project/www/license.html> for instructions on use of
+ *  the license in source files.
+ *
+ *  ====================================================================
+ *
+ *  This software consists of voluntary contributions made by many individuals
+ *  on behalf of Project JXTA. For more information on Project JXTA, please see
+ *  http://www.jxta.org.
+ *
+ *  This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.cm;
+
+import java.util.Arrays;
+
+/**
+ * A set of non-negative {@code int}s held in an open addressing hash table,
+ * avoiding the boxing and entry objects of a {@code HashSet<Integer>}.
+ * Not synchronized.
+ */
+final class IntHashSet {
+
+    private static final int EMPTY = -1;
+
+    private int[] slots = newSlots(8);
+
+    private int size = 0;
+
+    private static int[] newSlots(int capacity) {
+        int[] slots = new int[capacity];
+
+        Arrays.fill(slots, EMPTY);
+        return slots;
+    }
+
+    private int index(int value) {
+        int hash = value * 0x9E3779B9;
+
+        return (hash ^ (hash >>> 16)) & (slots.length - 1);
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @param value the value, which must not be negative
+     * @return {@code true} if the value was added
+     */
+    boolean add(int value) {
+        if ((size + 1) * 4 > slots.length * 3) {
+            resize(slots.length * 2);
+        }
+
+        int i = index(value);
+
+        while (EMPTY != slots[i]) {
+            if (value == slots[i]) {
+                return false;
+            }
+            i = (i + 1) & (slots.length - 1);
+        }
+
+        slots[i] = value;
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes a value.
+     *
+     * @param value the value
+     * @return {@code true} if the value was removed
+     */
+    boolean remove(int value) {
+        int mask = slots.length - 1;
+        int i = index(value);
+
+        while (value != slots[i]) {
+            if (EMPTY == slots[i]) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+
+        // shift back the following values of the cluster which hashed before the hole
+        int j = i;
+
+        while (true) {
+            j = (j + 1) & mask;
+            if (EMPTY == slots[j]) {
+                break;
+            }
+
+            int home = index(slots[j]);
+            boolean between = (i <= j) ? ((i < home) && (home <= j)) : ((i < home) || (home <= j));
+
+            if (!between) {
+                slots[i] = slots[j];
+                i = j;
+            }
+        }
+
+        slots[i] = EMPTY;
+        size--;
+        return true;
+    }
+
+    /**
+     * Returns {@code true} if the set holds the value.
+     *
+     * @param value the value
+     * @return {@code true} if the set holds the value
+     */
+    boolean contains(int value) {
+        int i = index(value);
+
+        while (EMPTY != slots[i]) {
+            if (value == slots[i]) {
+                return true;
+            }
+            i = (i + 1) & (slots.length - 1);
+        }
+
+        return false;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return 0 == size;
+    }
+
+    /**
+     * Returns the values in no particular order.
+     *
+     * @return the values
+     */
+    int[] toArray() {
+        int[] values = new int[size];
+        int count = 0;
+
+        for (int slot : slots) {
+            if (EMPTY != slot) {
+                values[count++] = slot;
+            }
+        }
+
+        return values;
+    }
+
+    private void resize(int capacity) {
+        int[] old = slots;
+
+        slots = newSlots(capacity);
+        size = 0;
+        for (int value : old) {
+            if (EMPTY != value) {
+                add(value);
+            }
+        }
+    }
+}
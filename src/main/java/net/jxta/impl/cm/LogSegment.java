@@ -0,0 +1,520 @@
+/*
+ * Copyright (c) 2001-2007 Sun Microsystems, Inc.  All rights reserved.
+ *
+ *  The Sun Project JXTA(TM) Software License
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *
+ *  3. The end-user documentation included with the redistribution, if any, must
+ *     include the following acknowledgment: "This product includes software
+ *     developed by Sun Microsystems, Inc. for JXTA(TM) technology."
+ *     Alternately, this acknowledgment may appear in the software itself, if
+ *     and wherever such third-party acknowledgments normally appear.
+ *
+ *  4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA" must
+ *     not be used to endorse or promote products derived from this software
+ *     without prior written permission. For written permission, please contact
+ *     Project JXTA at http://www.jxta.org.
+ *
+ *  5. Products derived from this software may not be called "JXTA", nor may
+ *     "JXTA" appear in their name, without prior written permission of Sun.
+ *
+ *  THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+ *  INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ *  FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SUN
+ *  MICROSYSTEMS OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ *  OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ *  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ *  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *  JXTA is a registered trademark of Sun Microsystems, Inc. in the United
+ *  States and other countries.
+ *
+ *  Please see the license information page at :
+ *  <http://www.jxta.org/project/www/license.html> for instructions on use of
+ *  the license in source files.
+ *
+ *  ====================================================================
+ *
+ *  This software consists of voluntary contributions made by many individuals
+ *  on behalf of Project JXTA. For more information on Project JXTA, please see
+ *  http://www.jxta.org.
+ *
+ *  This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.cm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * One append-only segment file of the {@link LogStructuredAdvertisementCache}
+ * write-ahead log.
+ * <p/>
+ * A segment is a sequence of frames. Each frame is the length of its payload,
+ * the CRC32 of the payload and the payload itself. The payload of a
+ * {@link #PUT} frame holds the record key, its lifetime, expiry and index
+ * fields followed by the record bytes, so that the record bytes of a frame
+ * start at {@code length - dataLength} and the index can be rebuilt without
+ * parsing the documents. A {@link #REMOVE} frame holds only the record key.
+ * <p/>
+ * The frames are written and the segment statistics are updated while the
+ * write lock of the cache is held. Reads are positional and may be made
+ * concurrently.
+ */
+final class LogSegment {
+
+    /**
+     * Frame type of a saved record.
+     */
+    static final byte PUT = 1;
+
+    /**
+     * Frame type of a removed record.
+     */
+    static final byte REMOVE = 2;
+
+    /**
+     * The size of the frame header, the payload length and checksum.
+     */
+    static final int HEADER_SIZE = 8;
+
+    /**
+     * The file name suffix of segment files.
+     */
+    static final String SUFFIX = ".log";
+
+    /**
+     * The sequence number of the segment. Frames in segments with higher
+     * sequence numbers were written later.
+     */
+    final long sequence;
+
+    private final File file;
+
+    private final boolean sync;
+
+    private volatile FileChannel channel;
+
+    private volatile boolean closed = false;
+
+    /**
+     * The number of bytes in the segment.
+     */
+    private long size;
+
+    /**
+     * The number of bytes of the frames still referenced by the index and of
+     * the {@link #REMOVE} frames.
+     */
+    long liveBytes = 0;
+
+    /**
+     * The number of records still referenced by the index.
+     */
+    int liveRecords = 0;
+
+    /**
+     * If {@code true} then the segment holds {@link #REMOVE} frames.
+     */
+    boolean hasRemoves = false;
+
+    /**
+     * Opens or creates a segment.
+     *
+     * @param dir      the directory of the segment files
+     * @param sequence the sequence number of the segment
+     * @param sync     if {@code true} every append is forced to the device
+     * @throws IOException if the segment file cannot be opened
+     */
+    LogSegment(File dir, long sequence, boolean sync) throws IOException {
+        this.sequence = sequence;
+        this.file = new File(dir, fileName(sequence));
+        this.sync = sync;
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+        this.size = channel.size();
+    }
+
+    /**
+     * Returns the file name of the segment with the specified sequence number.
+     *
+     * @param sequence the sequence number
+     * @return the file name of the segment
+     */
+    static String fileName(long sequence) {
+        String hex = Long.toHexString(sequence);
+
+        return "0000000000000000".substring(hex.length()) + hex + SUFFIX;
+    }
+
+    /**
+     * Returns the sequence number of a segment file name.
+     *
+     * @param name the file name
+     * @return the sequence number or -1 if the name is not that of a segment.
+     */
+    static long parseSequence(String name) {
+        if (!name.endsWith(SUFFIX)) {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()), 16);
+        } catch (NumberFormatException notSegment) {
+            return -1;
+        }
+    }
+
+    /**
+     * Encodes a {@link #PUT} frame.
+     *
+     * @param dn            the directory name
+     * @param fn            the file name
+     * @param advertisement {@code true} if the data is an advertisement
+     * @param lifetime      absolute lifetime in milliseconds
+     * @param expiry        relative expiry in milliseconds
+     * @param indexables    the index fields of the record
+     * @param data          the record bytes
+     * @return the frame
+     * @throws IOException if a key or index field is too long to be encoded
+     */
+    static ByteBuffer encodePut(String dn, String fn, boolean advertisement, long lifetime, long expiry, Map<String, String> indexables, byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length + 256);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeByte(PUT);
+        out.writeUTF(dn);
+        out.writeUTF(fn);
+        out.writeBoolean(advertisement);
+        out.writeLong(lifetime);
+        out.writeLong(expiry);
+        out.writeShort(indexables.size());
+        for (Map.Entry<String, String> field : indexables.entrySet()) {
+            out.writeUTF(field.getKey());
+            out.writeUTF(field.getValue());
+        }
+        out.writeInt(data.length);
+        out.write(data);
+        out.close();
+
+        return seal(bytes.toByteArray());
+    }
+
+    /**
+     * Encodes a {@link #REMOVE} frame.
+     *
+     * @param dn the directory name
+     * @param fn the file name
+     * @return the frame
+     * @throws IOException if a key is too long to be encoded
+     */
+    static ByteBuffer encodeRemove(String dn, String fn) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeByte(REMOVE);
+        out.writeUTF(dn);
+        out.writeUTF(fn);
+        out.close();
+
+        return seal(bytes.toByteArray());
+    }
+
+    /**
+     * Fills in the header of an encoded frame.
+     */
+    private static ByteBuffer seal(byte[] frame) {
+        CRC32 crc = new CRC32();
+
+        crc.update(frame, HEADER_SIZE, frame.length - HEADER_SIZE);
+
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+
+        buffer.putInt(0, frame.length - HEADER_SIZE);
+        buffer.putInt(4, (int) crc.getValue());
+
+        return buffer;
+    }
+
+    /**
+     * Appends a frame to the end of the segment.
+     *
+     * @param frame the frame
+     * @return the position of the frame in the segment
+     * @throws IOException if the frame could not be written
+     */
+    long append(ByteBuffer frame) throws IOException {
+        long position = size;
+
+        try {
+            write(channel, frame);
+        } catch (ClosedChannelException interrupted) {
+            // the channel was closed by the interruption of a reader
+            write(reopen(interrupted), frame);
+        }
+
+        return position;
+    }
+
+    private void write(FileChannel out, ByteBuffer frame) throws IOException {
+        while (frame.hasRemaining()) {
+            size += out.write(frame, size);
+        }
+
+        if (sync) {
+            out.force(false);
+        }
+    }
+
+    /**
+     * Forces the frames appended so far to the device, whether or not every
+     * append is.
+     *
+     * @throws IOException if the frames could not be forced
+     */
+    void force() throws IOException {
+        try {
+            channel.force(false);
+        } catch (ClosedChannelException interrupted) {
+            // the channel was closed by the interruption of a reader
+            reopen(interrupted).force(false);
+        }
+    }
+
+    /**
+     * Returns the number of bytes in the segment.
+     *
+     * @return the number of bytes in the segment
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * Reads bytes from the segment.
+     *
+     * @param position the position of the first byte
+     * @param length   the number of bytes
+     * @return the bytes
+     * @throws IOException if the bytes could not be read
+     */
+    byte[] read(long position, int length) throws IOException {
+        byte[] result = new byte[length];
+
+        try {
+            readFully(channel, ByteBuffer.wrap(result), position);
+        } catch (ClosedChannelException interrupted) {
+            // the channel was closed by the interruption of another thread
+            readFully(reopen(interrupted), ByteBuffer.wrap(result), position);
+        }
+
+        return result;
+    }
+
+    private synchronized FileChannel reopen(ClosedChannelException interrupted) throws IOException {
+        if (closed) {
+            throw interrupted;
+        }
+
+        if (!channel.isOpen()) {
+            channel = new RandomAccessFile(file, "rw").getChannel();
+        }
+
+        return channel;
+    }
+
+    private static void readFully(FileChannel in, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = in.read(buffer, position);
+
+            if (read < 0) {
+                throw new EOFException("Unexpected end of segment");
+            }
+
+            position += read;
+        }
+    }
+
+    /**
+     * Reads all the frames of the segment in the order in which they were
+     * written. Reading stops at the first frame which is truncated or fails
+     * its checksum, as left behind by an interrupted write.
+     *
+     * @return the valid frames of the segment
+     * @throws IOException if the segment could not be read
+     */
+    Scan scan() throws IOException {
+        byte[] contents = read(0, (int) size);
+        List<Frame> frames = new ArrayList<Frame>();
+        ByteBuffer buffer = ByteBuffer.wrap(contents);
+        CRC32 crc = new CRC32();
+        int position = 0;
+
+        while (contents.length - position >= HEADER_SIZE) {
+            int length = buffer.getInt(position);
+            int checksum = buffer.getInt(position + 4);
+
+            if ((length <= 0) || (length > contents.length - position - HEADER_SIZE)) {
+                break;
+            }
+
+            crc.reset();
+            crc.update(contents, position + HEADER_SIZE, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+
+            frames.add(decode(contents, position, HEADER_SIZE + length));
+            position += HEADER_SIZE + length;
+        }
+
+        return new Scan(contents, frames, position);
+    }
+
+    private static Frame decode(byte[] contents, int position, int length) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(contents, position + HEADER_SIZE, length - HEADER_SIZE));
+        Frame frame = new Frame(position, length);
+
+        frame.type = in.readByte();
+        frame.dn = in.readUTF();
+        frame.fn = in.readUTF();
+
+        if (PUT == frame.type) {
+            frame.advertisement = in.readBoolean();
+            frame.lifetime = in.readLong();
+            frame.expiry = in.readLong();
+
+            int fields = in.readShort();
+
+            if (0 == fields) {
+                frame.indexables = Collections.emptyMap();
+            } else {
+                frame.indexables = new HashMap<String, String>(fields * 2);
+                for (int i = 0; i < fields; i++) {
+                    frame.indexables.put(in.readUTF(), in.readUTF());
+                }
+            }
+
+            frame.dataLength = in.readInt();
+        }
+
+        return frame;
+    }
+
+    /**
+     * Truncates the segment, discarding the frames after the specified position.
+     *
+     * @param length the new length of the segment
+     * @throws IOException if the segment could not be truncated
+     */
+    void truncate(long length) throws IOException {
+        channel.truncate(length);
+        size = length;
+    }
+
+    /**
+     * Closes the segment file.
+     */
+    void close() throws IOException {
+        closed = true;
+        channel.close();
+    }
+
+    /**
+     * Closes and deletes the segment file.
+     *
+     * @return {@code true} if the file was deleted
+     */
+    boolean delete() throws IOException {
+        close();
+
+        return file.delete();
+    }
+
+    @Override
+    public String toString() {
+        return file.getName() + "[" + liveRecords + " records, " + liveBytes + "/" + size + " bytes live]";
+    }
+
+    /**
+     * The contents of a segment and the frames read from them.
+     */
+    static final class Scan {
+
+        final byte[] contents;
+
+        final List<Frame> frames;
+
+        /**
+         * The number of bytes of the segment which hold valid frames.
+         */
+        final int validLength;
+
+        Scan(byte[] contents, List<Frame> frames, int validLength) {
+            this.contents = contents;
+            this.frames = frames;
+            this.validLength = validLength;
+        }
+    }
+
+    /**
+     * A decoded frame.
+     */
+    static final class Frame {
+
+        /**
+         * The position of the frame in the segment.
+         */
+        final int position;
+
+        /**
+         * The length of the frame including its header.
+         */
+        final int length;
+
+        byte type;
+        String dn;
+        String fn;
+        boolean advertisement;
+        long lifetime;
+        long expiry;
+        Map<String, String> indexables;
+        int dataLength;
+
+        Frame(int position, int length) {
+            this.position = position;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,1155 @@
+/*
+ * Copyright (c) 2001-2007 Sun Microsystems, Inc.  All rights reserved.
+ *
+ *  The Sun Project JXTA(TM) Software License
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *
+ *  3. The end-user documentation included with the redistribution, if any, must
+ *     include the following acknowledgment: "This product includes software
+ *     developed by Sun Microsystems, Inc. for JXTA(TM) technology."
+ *     Alternately, this acknowledgment may appear in the software itself, if
+ *     and wherever such third-party acknowledgments normally appear.
+ *
+ *  4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA" must
+ *     not be used to endorse or promote products derived from this software
+ *     without prior written permission. For written permission, please contact
+ *     Project JXTA at http://www.jxta.org.
+ *
+ *  5. Products derived from this software may not be called "JXTA", nor may
+ *     "JXTA" appear in their name, without prior written permission of Sun.
+ *
+ *  THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+ *  INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ *  FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SUN
+ *  MICROSYSTEMS OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ *  OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ *  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ *  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *  JXTA is a registered trademark of Sun Microsystems, Inc. in the United
+ *  States and other countries.
+ *
+ *  Please see the license information page at :
+ *  <http://www.jxta.org/project/www/license.html> for instructions on use of
+ *  the license in source files.
+ *
+ *  ====================================================================
+ *
+ *  This software consists of voluntary contributions made by many individuals
+ *  on behalf of Project JXTA. For more information on Project JXTA, please see
+ *  http://www.jxta.org.
+ *
+ *  This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.cm;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+import net.jxta.document.Advertisement;
+import net.jxta.document.StructuredDocument;
+import net.jxta.impl.util.TimeUtils;
+import net.jxta.impl.util.threads.TaskManager;
+import net.jxta.logging.Logger;
+import net.jxta.logging.Logging;
+import net.jxta.protocol.SrdiMessage.Entry;
+
+/**
+ * An append-only, log-structured advertisement cache.
+ * <p/>
+ * Records are appended to a write-ahead log of {@link LogSegment segment}
+ * files and are never rewritten in place, so a save costs one sequential
+ * write rather than the random page writes and index updates of the
+ * {@link XIndiceAdvertisementCache}. The location, lifetime and index fields
+ * of every record are held in memory along with, for each directory, the
+ * postings of every index field value. The index is rebuilt by replaying the
+ * segments when the cache is opened.
+ * <p/>
+ * Replaced and removed records leave dead frames behind them. A background
+ * task purges the expired records, deletes the segments which no longer hold
+ * any live record and compacts the segments which are mostly dead by copying
+ * their live frames to the end of the log. Records saved together usually
+ * expire together, so most segments are deleted without being copied.
+ * <p/>
+ * To use this cache set the {@link CacheManager#CACHE_IMPL_SYSPROP} system
+ * property to the name of this class.
+ */
+public class LogStructuredAdvertisementCache extends AbstractAdvertisementCache {
+
+    private final static Logger LOG = Logging.getLogger(LogStructuredAdvertisementCache.class.getName());
+
+    /**
+     * The default maximum period between GC operations.
+     */
+    public final static long DEFAULT_GC_MAX_INTERVAL = TimeUtils.ANHOUR;
+
+    /**
+     * The default size at which the active segment is sealed and a new one
+     * started.
+     */
+    public final static long DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The period at which we check whether maintenance is needed.
+     */
+    private final static long MAINTENANCE_CHECK_PERIOD = TimeUtils.AMINUTE;
+
+    /**
+     * Sealed segments in which no more than this fraction of the bytes is live
+     * are compacted.
+     */
+    private final static double COMPACTION_THRESHOLD = 0.5;
+
+    /**
+     * The maximum number of expired records purged while holding the lock.
+     */
+    private final static int GC_BATCH_SIZE = 1000;
+
+    /**
+     * The directory holding the segment files.
+     */
+    private final File rootDir;
+
+    /**
+     * If {@code true} every append is forced to the device.
+     */
+    private final boolean sync;
+
+    private final long segmentSize;
+
+    /**
+     * The maximum period between GC operations.
+     */
+    private final long gcMaxInterval;
+
+    /**
+     * The absolute time in milliseconds after which the next GC operation will
+     * begin.
+     */
+    private volatile long gcTime;
+
+    /**
+     * Guards the segments and the index.
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Lock readLock = lock.readLock();
+    private final Lock writeLock = lock.writeLock();
+
+    /**
+     * The segments by sequence number. The last is the active segment.
+     */
+    private final TreeMap<Long, LogSegment> segments = new TreeMap<Long, LogSegment>();
+
+    /**
+     * The segment to which frames are appended.
+     */
+    private LogSegment active;
+
+    /**
+     * The live records by key.
+     */
+    private final Map<String, Record> records = new HashMap<String, Record>();
+
+    /**
+     * The live records and their postings by directory name.
+     */
+    private final Map<String, Directory> directories = new HashMap<String, Directory>();
+
+    /**
+     * The keys of the records ordered by the time at which they expire.
+     */
+    private final ExpirationIndex expirations = new ExpirationIndex();
+
+    /**
+     * Synchronized upon itself.
+     */
+    private final DeltaTracker deltaTracker = new DeltaTracker();
+
+    /**
+     * Serializes GC and compaction.
+     */
+    private final Object maintenanceLock = new Object();
+
+    private final ScheduledExecutorService executor;
+
+    private final ScheduledFuture<?> maintenanceTaskHandle;
+
+    /**
+     * If {@code true} then a maintenance operation is scheduled or running.
+     */
+    private final AtomicBoolean maintenanceRunning = new AtomicBoolean(false);
+
+    /**
+     * If {@code true} then this cache has been stopped.
+     */
+    private volatile boolean stopped = false;
+
+    /**
+     * Constructor for the cache with the default garbage collection interval.
+     *
+     * @param storeRoot persistence location
+     * @param areaName  storage area name
+     * @param taskManager the task manager used for maintenance
+     * @throws IOException thrown for failures initializing the store.
+     */
+    public LogStructuredAdvertisementCache(URI storeRoot, String areaName, TaskManager taskManager) throws IOException {
+        this(storeRoot, areaName, taskManager, DEFAULT_GC_MAX_INTERVAL, false);
+    }
+
+    /**
+     * Constructor for the cache.
+     *
+     * @param storeRoot   persistence location
+     * @param areaName    storage area name
+     * @param taskManager the task manager used for maintenance
+     * @param gcInterval  garbage collect max interval in milliseconds or &lt;= 0 to use default value.
+     * @param trackDeltas when true deltas are tracked
+     * @throws IOException thrown for failures initializing the store.
+     */
+    public LogStructuredAdvertisementCache(URI storeRoot, String areaName, TaskManager taskManager, long gcInterval, boolean trackDeltas) throws IOException {
+        this(storeRoot, areaName, taskManager, gcInterval, trackDeltas, DEFAULT_SEGMENT_SIZE);
+    }
+
+    LogStructuredAdvertisementCache(URI storeRoot, String areaName, TaskManager taskManager, long gcInterval, boolean trackDeltas, long segmentSize) throws IOException {
+        this.executor = taskManager.getScheduledExecutorService();
+        this.gcMaxInterval = (0 >= gcInterval) ? DEFAULT_GC_MAX_INTERVAL : gcInterval;
+        this.segmentSize = segmentSize;
+        deltaTracker.setTrackingDeltas(trackDeltas);
+
+        rootDir = new File(new File(new File(storeRoot), "cmlog"), areaName).getAbsoluteFile();
+        if (!rootDir.isDirectory() && !rootDir.mkdirs()) {
+            throw new IOException("Cannot create directory " + rootDir);
+        }
+
+        // as for the XIndice cache, deferred checkpoints mean no sync on every write
+        ResourceBundle jxtaRsrcs = ResourceBundle.getBundle("net.jxta.user");
+        String checkpointStr = jxtaRsrcs.getString("impl.cm.defferedcheckpoint");
+
+        sync = (null == checkpointStr) || !checkpointStr.equalsIgnoreCase("true");
+
+        writeLock.lock();
+        try {
+            recover();
+        } catch (IOException failed) {
+            closeSegments();
+            throw failed;
+        } finally {
+            writeLock.unlock();
+        }
+
+        gcTime = TimeUtils.toAbsoluteTimeMillis(gcMaxInterval);
+        maintenanceTaskHandle = executor.scheduleAtFixedRate(new MaintenanceCheck(), MAINTENANCE_CHECK_PERIOD, MAINTENANCE_CHECK_PERIOD, TimeUnit.MILLISECONDS);
+
+        Logging.logCheckedConfig(LOG, "Instantiated log structured cache for: ", rootDir, " with ", records.size(), " records in ", segments.size(), " segments");
+    }
+
+    @Override
+    public String toString() {
+        return "Log structured cache for " + rootDir + "[" + super.toString() + "]";
+    }
+
+    /**
+     * Rebuilds the index by replaying the segments in the order in which they
+     * were written, then starts a new active segment.
+     */
+    private void recover() throws IOException {
+        List<Long> sequences = new ArrayList<Long>();
+        File[] files = rootDir.listFiles();
+
+        if (null != files) {
+            for (File file : files) {
+                long sequence = LogSegment.parseSequence(file.getName());
+
+                if (sequence >= 0) {
+                    sequences.add(sequence);
+                }
+            }
+        }
+
+        Collections.sort(sequences);
+
+        long now = TimeUtils.timeNow();
+
+        for (long sequence : sequences) {
+            LogSegment segment = new LogSegment(rootDir, sequence, sync);
+
+            segments.put(sequence, segment);
+
+            LogSegment.Scan scan = segment.scan();
+
+            if (scan.validLength < segment.size()) {
+                Logging.logCheckedWarning(LOG, "Discarding ", segment.size() - scan.validLength, " damaged bytes at the end of ", segment);
+                segment.truncate(scan.validLength);
+            }
+
+            for (LogSegment.Frame frame : scan.frames) {
+                Record previous = records.get(key(frame.dn, frame.fn));
+
+                if (LogSegment.REMOVE == frame.type) {
+                    segment.hasRemoves = true;
+                    segment.liveBytes += frame.length;
+                    if (null != previous) {
+                        unindex(previous);
+                    }
+                } else if (frame.lifetime > now) {
+                    index(new Record(frame.dn, frame.fn, segment, frame.position, frame.length, frame.dataLength, frame.advertisement, frame.lifetime, frame.expiry, frame.indexables));
+                } else if (null != previous) {
+                    // an expired version still masks the versions before it
+                    unindex(previous);
+                }
+            }
+        }
+
+        long next = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+
+        active = new LogSegment(rootDir, next, sync);
+        segments.put(next, active);
+    }
+
+    private static String key(String dn, String fn) {
+        return dn + "/" + fn;
+    }
+
+    /**
+     * Adds a record to the index, replacing any previous version of it.
+     * Must be called while holding the write lock.
+     */
+    private void index(Record record) {
+        Record previous = records.put(record.key, record);
+        Directory directory = directories.get(record.dn);
+
+        if (null == directory) {
+            directory = new Directory();
+            directories.put(record.dn, directory);
+        }
+
+        if (null != previous) {
+            previous.segment.liveRecords--;
+            previous.segment.liveBytes -= previous.length;
+            directory.remove(previous);
+        }
+
+        directory.add(record);
+        record.segment.liveRecords++;
+        record.segment.liveBytes += record.length;
+        expirations.put(record.key, record.lifetime);
+    }
+
+    /**
+     * Removes a record from the index. Must be called while holding the write
+     * lock.
+     */
+    private void unindex(Record record) {
+        records.remove(record.key);
+        expirations.remove(record.key);
+        record.segment.liveRecords--;
+        record.segment.liveBytes -= record.length;
+
+        Directory directory = directories.get(record.dn);
+
+        directory.remove(record);
+        if (directory.records.isEmpty()) {
+            directories.remove(record.dn);
+        }
+    }
+
+    /**
+     * Appends a frame to the active segment, starting a new segment if the
+     * active one is full. Must be called while holding the write lock.
+     *
+     * @return the position of the frame in the active segment
+     */
+    private long append(ByteBuffer frame) throws IOException {
+        if (stopped) {
+            throw new IOException("Cache has been stopped");
+        }
+
+        if ((active.size() > 0) && (active.size() + frame.remaining() > segmentSize)) {
+            long next = active.sequence + 1;
+
+            active = new LogSegment(rootDir, next, sync);
+            segments.put(next, active);
+        }
+
+        return active.append(frame);
+    }
+
+    /**
+     * Writes a record and adds it to the index.
+     *
+     * @return the resulting relative lifetime of the record
+     */
+    private long put(String dn, String fn, boolean advertisement, byte[] data, long lifetime, long expiration, Map<String, String> indexables) throws IOException {
+        String key = key(dn, fn);
+
+        writeLock.lock();
+        try {
+            long absoluteLifetime = TimeUtils.toAbsoluteTimeMillis(lifetime);
+            Record previous = records.get(key);
+
+            if ((null != previous) && (previous.lifetime > absoluteLifetime)) {
+                // make sure we don't override the original value
+                absoluteLifetime = previous.lifetime;
+            }
+
+            // make sure expiration does not exceed lifetime
+            long relativeLifetime = TimeUtils.toRelativeTimeMillis(absoluteLifetime);
+            long boundedExpiration = Math.min(relativeLifetime, expiration);
+
+            ByteBuffer frame = LogSegment.encodePut(dn, fn, advertisement, absoluteLifetime, boundedExpiration, indexables, data);
+            int length = frame.remaining();
+            long position = append(frame);
+
+            index(new Record(dn, fn, active, position, length, data.length, advertisement, absoluteLifetime, boundedExpiration, indexables));
+
+            return relativeLifetime;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void save(String dn, String fn, Advertisement adv, long lifetime, long expiration) throws IOException {
+
+        if (lifetime < 0 || expiration < 0) {
+            throw new IllegalArgumentException("Bad expiration or lifetime.");
+        }
+
+        // Serialize and extract the index fields before taking any locks.
+        StructuredDocument<?> doc = (StructuredDocument<?>) adv.getSignedDocument();
+        Map<String, String> indexables = CacheUtils.getIndexfields(adv.getIndexFields(), doc);
+        byte[] data = adv.getSignedDocumentBytes();
+
+        long relativeLifetime = put(dn, fn, true, data, lifetime, expiration, indexables);
+
+        if (expiration > 0) {
+            // Update for SRDI with our caches lifetime only if we are prepared to share the advertisement with others.
+            synchronized (deltaTracker) {
+                deltaTracker.generateDeltas(dn, adv, doc, relativeLifetime);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void save(String dn, String fn, byte[] data, long lifetime, long expiration) throws IOException {
+
+        if (lifetime < 0 || expiration < 0) {
+            throw new IllegalArgumentException("Bad expiration or lifetime.");
+        }
+
+        put(dn, fn, false, data, lifetime, expiration, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove(String dn, String fn) throws IOException {
+        Map<String, String> withdrawn = null;
+
+        writeLock.lock();
+        try {
+            Record record = records.get(key(dn, fn));
+
+            if (null == record) {
+                return;
+            }
+
+            if (record.advertisement && (TimeUtils.toRelativeTimeMillis(record.lifetime) > 0)) {
+                withdrawn = record.indexables;
+            }
+
+            delete(record);
+        } finally {
+            writeLock.unlock();
+        }
+
+        if (null != withdrawn) {
+            // Withdraw the index entries rather than announce them again.
+            synchronized (deltaTracker) {
+                deltaTracker.generateRemovalDeltas(dn, withdrawn);
+            }
+        }
+    }
+
+    /**
+     * Removes a record from the index, logging the removal unless the record
+     * has expired and would not be restored by a replay anyway. Must be called
+     * while holding the write lock.
+     */
+    private void delete(Record record) throws IOException {
+        if (record.lifetime > TimeUtils.timeNow()) {
+            ByteBuffer frame = LogSegment.encodeRemove(record.dn, record.fn);
+            int length = frame.remaining();
+
+            append(frame);
+            active.hasRemoves = true;
+            active.liveBytes += length;
+        }
+
+        unindex(record);
+    }
+
+    /**
+     * Reads the bytes of a record. Must be called while holding the read or
+     * write lock.
+     */
+    private static byte[] read(Record record) throws IOException {
+        return record.segment.read(record.position + record.length - record.dataLength, record.dataLength);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public InputStream getInputStream(String dn, String fn) throws IOException {
+        readLock.lock();
+        try {
+            Record record = records.get(key(dn, fn));
+
+            if (null == record) {
+                return null;
+            }
+
+            return new ByteArrayInputStream(read(record));
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getLifetime(String dn, String fn) {
+        readLock.lock();
+        try {
+            Record record = records.get(key(dn, fn));
+
+            return (null == record) ? -1 : TimeUtils.toRelativeTimeMillis(record.lifetime);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getExpirationtime(String dn, String fn) {
+        readLock.lock();
+        try {
+            Record record = records.get(key(dn, fn));
+
+            return (null == record) ? -1 : CacheUtils.getRelativeExpiration(record.lifetime, record.expiry);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<InputStream> getRecords(String dn, int threshold, List<Long> expirations, boolean purge) throws IOException {
+        List<InputStream> results = new ArrayList<InputStream>();
+
+        if (null == dn) {
+            return results;
+        }
+
+        List<Record> expired = new ArrayList<Record>();
+
+        readLock.lock();
+        try {
+            Directory directory = directories.get(dn);
+
+            if (null == directory) {
+                return results;
+            }
+
+            for (Record record : directory.records.values()) {
+                if (results.size() >= threshold) {
+                    break;
+                }
+
+                long relativeExpiry = CacheUtils.getRelativeExpiration(record.lifetime, record.expiry);
+
+                if (relativeExpiry > 0) {
+                    results.add(new ByteArrayInputStream(read(record)));
+                    if (null != expirations) {
+                        expirations.add(relativeExpiry);
+                    }
+                } else if (purge) {
+                    expired.add(record);
+                }
+            }
+        } finally {
+            readLock.unlock();
+        }
+
+        if (!expired.isEmpty()) {
+            writeLock.lock();
+            try {
+                for (Record record : expired) {
+                    // it may have been replaced since we released the read lock
+                    if (record == records.get(record.key)) {
+                        delete(record);
+                    }
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<InputStream> search(String dn, String attribute, String value, int threshold, List<Long> expirations) throws IOException {
+        List<InputStream> results = new ArrayList<InputStream>();
+
+        readLock.lock();
+        try {
+            Directory directory = directories.get(dn);
+            TreeMap<String, Set<String>> postings = (null == directory) ? null : directory.postings.get(attribute);
+
+            if (null == postings) {
+                return results;
+            }
+
+            Iterator<Map.Entry<String, Set<String>>> candidates;
+            Pattern pattern = null;
+            String prefix = null;
+
+            if ((null == value) || "*".equals(value)) {
+                candidates = postings.entrySet().iterator();
+            } else if (!CacheUtils.hasWildcards(value)) {
+                Set<String> fns = postings.get(value);
+
+                if (null == fns) {
+                    return results;
+                }
+
+                candidates = Collections.singletonMap(value, fns).entrySet().iterator();
+            } else if (value.indexOf('*') == value.length() - 1) {
+                prefix = value.substring(0, value.length() - 1);
+                candidates = postings.tailMap(prefix).entrySet().iterator();
+            } else {
+                pattern = CacheUtils.compileWildcards(value);
+                candidates = postings.entrySet().iterator();
+            }
+
+            while (candidates.hasNext() && (results.size() < threshold)) {
+                Map.Entry<String, Set<String>> candidate = candidates.next();
+
+                if ((null != prefix) && !candidate.getKey().startsWith(prefix)) {
+                    break;
+                }
+
+                if ((null != pattern) && !pattern.matcher(candidate.getKey()).matches()) {
+                    continue;
+                }
+
+                for (String fn : candidate.getValue()) {
+                    if (results.size() >= threshold) {
+                        break;
+                    }
+
+                    Record record = directory.records.get(fn);
+                    long relativeExpiry = CacheUtils.getRelativeExpiration(record.lifetime, record.expiry);
+
+                    if (record.advertisement && (relativeExpiry > 0)) {
+                        results.add(new ByteArrayInputStream(read(record)));
+                        if (null != expirations) {
+                            expirations.add(relativeExpiry);
+                        }
+                    }
+                }
+            }
+
+            return results;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<Entry> getEntries(String dn, boolean clearDeltas) {
+        List<Entry> entries = new ArrayList<Entry>();
+
+        readLock.lock();
+        try {
+            Directory directory = directories.get(dn);
+
+            if (null != directory) {
+                for (Record record : directory.records.values()) {
+                    long relativeLifetime = TimeUtils.toRelativeTimeMillis(record.lifetime);
+
+                    if (relativeLifetime <= 0) {
+                        continue;
+                    }
+
+                    for (Map.Entry<String, String> field : record.indexables.entrySet()) {
+                        entries.add(new Entry(field.getKey(), field.getValue(), relativeLifetime));
+                    }
+                }
+            }
+        } finally {
+            readLock.unlock();
+        }
+
+        if (clearDeltas) {
+            synchronized (deltaTracker) {
+                deltaTracker.clearDeltas(dn);
+            }
+        }
+
+        return entries;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<Entry> getDeltas(String dn) {
+        synchronized (deltaTracker) {
+            return deltaTracker.getDeltas(dn);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setTrackDeltas(boolean trackDeltas) {
+        synchronized (deltaTracker) {
+            deltaTracker.setTrackingDeltas(trackDeltas);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Purges the expired records in batches of at most {@link #GC_BATCH_SIZE}
+     * records, then deletes or compacts the sealed segments which are empty or
+     * mostly dead.
+     */
+    public void garbageCollect() throws IOException {
+        synchronized (maintenanceLock) {
+            long gcStart = TimeUtils.timeNow();
+            int purged = purgeExpired(gcStart);
+            int compacted = 0;
+
+            for (LogSegment segment : getCompactable()) {
+                if (stopped) {
+                    break;
+                }
+
+                compact(segment);
+                compacted++;
+            }
+
+            Logging.logCheckedDebug(LOG, "Purged ", purged, " expired records and compacted ", compacted, " segments in ", TimeUtils.timeNow() - gcStart, "ms");
+        }
+    }
+
+    private int purgeExpired(long now) {
+        int purged = 0;
+
+        while (!stopped) {
+            List<String> expired = expirations.getExpired(now, GC_BATCH_SIZE);
+
+            if (expired.isEmpty()) {
+                break;
+            }
+
+            writeLock.lock();
+            try {
+                for (String key : expired) {
+                    Record record = records.get(key);
+
+                    if (null == record) {
+                        expirations.remove(key);
+                    } else if (record.lifetime <= now) {
+                        // no need to log the removal, a replay skips the expired records
+                        unindex(record);
+                        purged++;
+                    }
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        return purged;
+    }
+
+    /**
+     * Returns the sealed segments which are mostly dead, oldest first. The
+     * removal frames count as live, as they must be kept while an older
+     * segment may hold the removed record, except in the oldest segment.
+     */
+    private List<LogSegment> getCompactable() {
+        List<LogSegment> compactable = new ArrayList<LogSegment>();
+
+        readLock.lock();
+        try {
+            for (LogSegment segment : segments.values()) {
+                if (segment == active) {
+                    continue;
+                }
+
+                boolean oldest = (segment.sequence == segments.firstKey());
+
+                if ((segment.liveBytes <= segment.size() * COMPACTION_THRESHOLD) || (oldest && (0 == segment.liveRecords))) {
+                    compactable.add(segment);
+                }
+            }
+        } finally {
+            readLock.unlock();
+        }
+
+        return compactable;
+    }
+
+    /**
+     * Copies the live frames of a sealed segment to the end of the log and
+     * deletes the segment. The copies are forced to the device before the
+     * segment is deleted. Must be called while synchronized on the
+     * maintenance lock.
+     */
+    private void compact(LogSegment segment) throws IOException {
+        boolean copy;
+
+        readLock.lock();
+        try {
+            copy = (segment.liveRecords > 0) || (segment.hasRemoves && (segments.firstKey() < segment.sequence));
+        } finally {
+            readLock.unlock();
+        }
+
+        // Sealed segments are never written again, read it before taking the write lock.
+        LogSegment.Scan scan = copy ? segment.scan() : null;
+
+        writeLock.lock();
+        try {
+            if (stopped) {
+                return;
+            }
+
+            if (null != scan) {
+                LogSegment firstCopy = active;
+                boolean copied = false;
+
+                for (LogSegment.Frame frame : scan.frames) {
+                    Record record = records.get(key(frame.dn, frame.fn));
+
+                    if (LogSegment.PUT == frame.type) {
+                        if ((null != record) && (record.segment == segment) && (record.position == frame.position)) {
+                            long position = append(ByteBuffer.wrap(scan.contents, frame.position, frame.length));
+
+                            index(record.moveTo(active, position));
+                            copied = true;
+                        }
+                    } else if (segments.firstKey() < segment.sequence) {
+                        // An older segment may still hold the removed record.
+                        // The current version would no longer mask it once
+                        // expired, so keep the removal.
+                        append(ByteBuffer.wrap(scan.contents, frame.position, frame.length));
+                        active.hasRemoves = true;
+                        active.liveBytes += frame.length;
+                        copied = true;
+
+                        if (null != record) {
+                            // keep the current version after the removal
+                            long position = append(ByteBuffer.wrap(record.segment.read(record.position, record.length)));
+
+                            index(record.moveTo(active, position));
+                        }
+                    }
+                }
+
+                if (copied) {
+                    // The copies must be durable before the segment goes.
+                    for (LogSegment written : segments.tailMap(firstCopy.sequence).values()) {
+                        written.force();
+                    }
+                }
+            }
+
+            segments.remove(segment.sequence);
+        } finally {
+            writeLock.unlock();
+        }
+
+        // No reader can reach the segment once the index no longer refers to it.
+        if (!segment.delete()) {
+            Logging.logCheckedWarning(LOG, "Failed to delete segment ", segment);
+        }
+    }
+
+    /**
+     * Returns the number of segment files of the log.
+     *
+     * @return the number of segment files of the log.
+     */
+    int getSegmentCount() {
+        readLock.lock();
+        try {
+            return segments.size();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void stop() throws IOException {
+        writeLock.lock();
+        try {
+            if (stopped) {
+                return;
+            }
+
+            stopped = true;
+            maintenanceTaskHandle.cancel(false);
+            closeSegments();
+            records.clear();
+            directories.clear();
+            expirations.clear();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void closeSegments() {
+        for (LogSegment segment : segments.values()) {
+            try {
+                // discard anything left after a failed append
+                if (segment == active) {
+                    segment.truncate(segment.size());
+                }
+
+                segment.close();
+            } catch (IOException failed) {
+                Logging.logCheckedError(LOG, "Failed to close segment ", segment, "\n", failed);
+            }
+        }
+
+        segments.clear();
+    }
+
+    /**
+     * Decides whether a maintenance operation is needed.
+     */
+    private final class MaintenanceCheck implements Runnable {
+
+        /**
+         * {@inheritDoc}
+         */
+        public void run() {
+
+            try {
+
+                if (stopped) {
+                    return;
+                }
+
+                long now = TimeUtils.timeNow();
+
+                if ((now > gcTime) || (now >= expirations.getNextExpiration()) || !getCompactable().isEmpty()) {
+                    if (maintenanceRunning.compareAndSet(false, true)) {
+                        gcTime = TimeUtils.toAbsoluteTimeMillis(gcMaxInterval);
+
+                        executor.execute(new Maintenance());
+                    }
+                }
+
+            } catch (Throwable all) {
+
+                Logging.logCheckedError(LOG, "Uncaught Throwable in thread :", Thread.currentThread().getName(), "\n", all);
+
+            }
+        }
+    }
+
+    /**
+     * Purges the expired records and compacts the log.
+     */
+    private final class Maintenance implements Runnable {
+
+        /**
+         * {@inheritDoc}
+         */
+        public void run() {
+
+            try {
+
+                garbageCollect();
+
+            } catch (Throwable all) {
+
+                Logging.logCheckedError(LOG, "Uncaught Throwable in thread :", Thread.currentThread().getName(), "\n", all);
+
+            } finally {
+
+                maintenanceRunning.set(false);
+
+            }
+        }
+    }
+
+    /**
+     * The location and metadata of a live record.
+     */
+    private static final class Record {
+
+        final String key;
+        final String dn;
+        final String fn;
+        final LogSegment segment;
+
+        /**
+         * The position of the frame of the record in its segment.
+         */
+        final long position;
+
+        /**
+         * The length of the frame.
+         */
+        final int length;
+
+        /**
+         * The length of the record bytes at the end of the frame.
+         */
+        final int dataLength;
+
+        final boolean advertisement;
+
+        /**
+         * Absolute lifetime in milliseconds.
+         */
+        final long lifetime;
+
+        /**
+         * Relative expiry in milliseconds.
+         */
+        final long expiry;
+
+        final Map<String, String> indexables;
+
+        Record(String dn, String fn, LogSegment segment, long position, int length, int dataLength, boolean advertisement, long lifetime, long expiry, Map<String, String> indexables) {
+            this.key = key(dn, fn);
+            this.dn = dn;
+            this.fn = fn;
+            this.segment = segment;
+            this.position = position;
+            this.length = length;
+            this.dataLength = dataLength;
+            this.advertisement = advertisement;
+            this.lifetime = lifetime;
+            this.expiry = expiry;
+            this.indexables = indexables;
+        }
+
+        Record moveTo(LogSegment segment, long position) {
+            return new Record(dn, fn, segment, position, length, dataLength, advertisement, lifetime, expiry, indexables);
+        }
+    }
+
+    /**
+     * The live records of a directory and the postings of their index fields.
+     */
+    private static final class Directory {
+
+        /**
+         * The records by file name.
+         */
+        final TreeMap<String, Record> records = new TreeMap<String, Record>();
+
+        /**
+         * For each index field, the file names of the records by field value.
+         */
+        final Map<String, TreeMap<String, Set<String>>> postings = new HashMap<String, TreeMap<String, Set<String>>>();
+
+        void add(Record record) {
+            records.put(record.fn, record);
+
+            for (Map.Entry<String, String> field : record.indexables.entrySet()) {
+                TreeMap<String, Set<String>> values = postings.get(field.getKey());
+
+                if (null == values) {
+                    values = new TreeMap<String, Set<String>>();
+                    postings.put(field.getKey(), values);
+                }
+
+                Set<String> fns = values.get(field.getValue());
+
+                if (null == fns) {
+                    fns = new TreeSet<String>();
+                    values.put(field.getValue(), fns);
+                }
+
+                fns.add(record.fn);
+            }
+        }
+
+        void remove(Record record) {
+            records.remove(record.fn);
+
+            for (Map.Entry<String, String> field : record.indexables.entrySet()) {
+                TreeMap<String, Set<String>> values = postings.get(field.getKey());
+                Set<String> fns = (null == values) ? null : values.get(field.getValue());
+
+                if (null == fns) {
+                    continue;
+                }
+
+                fns.remove(record.fn);
+                if (fns.isEmpty()) {
+                    values.remove(field.getValue());
+                    if (values.isEmpty()) {
+                        postings.remove(field.getKey());
+                    }
+                }
+            }
+        }
+    }
+}
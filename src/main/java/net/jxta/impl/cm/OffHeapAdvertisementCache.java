@@ -0,0 +1,1096 @@
+/*
+ * Copyright (c) 2001-2007 Sun Microsystems, Inc.  All rights reserved.
+ *
+ *  The Sun Project JXTA(TM) Software License
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *
+ *  3. The end-user documentation included with the redistribution, if any, must
+ *     include the following acknowledgment: "This product includes software
+ *     developed by Sun Microsystems, Inc. for JXTA(TM) technology."
+ *     Alternately, this acknowledgment may appear in the software itself, if
+ *     and wherever such third-party acknowledgments normally appear.
+ *
+ *  4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA" must
+ *     not be used to endorse or promote products derived from this software
+ *     without prior written permission. For written permission, please contact
+ *     Project JXTA at http://www.jxta.org.
+ *
+ *  5. Products derived from this software may not be called "JXTA", nor may
+ *     "JXTA" appear in their name, without prior written permission of Sun.
+ *
+ *  THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+ *  INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ *  FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SUN
+ *  MICROSYSTEMS OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ *  OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ *  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ *  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *  JXTA is a registered trademark of Sun Microsystems, Inc. in the United
+ *  States and other countries.
+ *
+ *  Please see the license information page at :
+ *  <http://www.jxta.org/project/www/license.html> for instructions on use of
+ *  the license in source files.
+ *
+ *  ====================================================================
+ *
+ *  This software consists of voluntary contributions made by many individuals
+ *  on behalf of Project JXTA. For more information on Project JXTA, please see
+ *  http://www.jxta.org.
+ *
+ *  This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.cm;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+import net.jxta.document.Advertisement;
+import net.jxta.document.StructuredDocument;
+import net.jxta.impl.util.TimeUtils;
+import net.jxta.impl.util.threads.TaskManager;
+import net.jxta.logging.Logger;
+import net.jxta.logging.Logging;
+import net.jxta.protocol.SrdiMessage.Entry;
+
+/**
+ * A non-persistent advertisement cache for peers, such as rendezvous and
+ * relays, which do not need their cache to survive a restart.
+ * <p/>
+ * The record bytes are held outside of the Java heap in the direct buffer
+ * slabs of a {@link SlabAllocator}, so a large cache adds little to the work
+ * of the garbage collector. The on-heap index refers to records by
+ * {@code int} id: directory names and index field names are interned to
+ * {@code int} symbols, and the postings of each field value, like the
+ * expiration buckets, are {@link IntHashSet}s of record ids.
+ * <p/>
+ * The total size of the slabs is capped by {@link #CAPACITY_SYSPROP}. When
+ * a save does not fit, records are evicted in order of expiration, one
+ * {@link #BUCKET_WIDTH} bucket at a time, starting with those which expire
+ * first. When deltas are tracked, the index entries of evicted advertisements
+ * are withdrawn with deltas whose expiration is zero, as for a removal.
+ * <p/>
+ * The store root and area name are only used to identify the cache, nothing
+ * is written to disk. To use this cache set the
+ * {@link CacheManager#CACHE_IMPL_SYSPROP} system property to the name of
+ * this class.
+ */
+public class OffHeapAdvertisementCache extends AbstractAdvertisementCache {
+
+    private final static Logger LOG = Logging.getLogger(OffHeapAdvertisementCache.class.getName());
+
+    /**
+     * The system property which sets the maximum number of bytes of record
+     * storage of each cache.
+     */
+    public final static String CAPACITY_SYSPROP = "net.jxta.impl.cm.offheap.capacity";
+
+    /**
+     * The default maximum number of bytes of record storage of each cache.
+     */
+    public final static long DEFAULT_CAPACITY = 64 * 1024 * 1024;
+
+    /**
+     * The default maximum period between GC operations.
+     */
+    public final static long DEFAULT_GC_MAX_INTERVAL = TimeUtils.ANHOUR;
+
+    private final static int SLAB_SIZE = 1024 * 1024;
+
+    private final static int CHUNK_SIZE = 256;
+
+    /**
+     * The width of the expiration buckets.
+     */
+    final static long BUCKET_WIDTH = TimeUtils.AMINUTE;
+
+    /**
+     * The period at which we check whether a GC operation is needed.
+     */
+    private final static long GC_CHECK_PERIOD = TimeUtils.AMINUTE;
+
+    private final String areaName;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Lock readLock = lock.readLock();
+    private final Lock writeLock = lock.writeLock();
+
+    /**
+     * The record bytes. Guarded by the lock, as is the whole index.
+     */
+    private final SlabAllocator slabs;
+
+    /**
+     * The records by id.
+     */
+    private Record[] records = new Record[64];
+
+    /**
+     * The ids of the removed records, available for reuse.
+     */
+    private int[] freeIds = new int[64];
+
+    private int freeIdCount = 0;
+
+    /**
+     * The lowest id which has never been used.
+     */
+    private int nextId = 0;
+
+    private final Map<String, Integer> dnSymbols = new HashMap<String, Integer>();
+
+    private final Map<String, Integer> fieldSymbols = new HashMap<String, Integer>();
+
+    /**
+     * The directories by directory name symbol.
+     */
+    private final List<Directory> directories = new ArrayList<Directory>();
+
+    /**
+     * The ids of the records by {@code lifetime / BUCKET_WIDTH}.
+     */
+    private final TreeMap<Long, IntHashSet> buckets = new TreeMap<Long, IntHashSet>();
+
+    private long evictions = 0;
+
+    /**
+     * Synchronized upon itself.
+     */
+    private final DeltaTracker deltaTracker = new DeltaTracker();
+
+    private final ScheduledExecutorService executor;
+
+    private final ScheduledFuture<?> gcTaskHandle;
+
+    /**
+     * If {@code true} then a GC operation is scheduled or running.
+     */
+    private final AtomicBoolean gcRunning = new AtomicBoolean(false);
+
+    /**
+     * The maximum period between GC operations.
+     */
+    private final long gcMaxInterval;
+
+    /**
+     * The absolute time in milliseconds after which the next GC operation will
+     * begin.
+     */
+    private volatile long gcTime;
+
+    /**
+     * If {@code true} then this cache has been stopped.
+     */
+    private volatile boolean stopped = false;
+
+    /**
+     * Constructor for the cache with the default garbage collection interval.
+     *
+     * @param storeRoot   ignored, nothing is persisted
+     * @param areaName    storage area name
+     * @param taskManager the task manager used for garbage collection
+     */
+    public OffHeapAdvertisementCache(URI storeRoot, String areaName, TaskManager taskManager) {
+        this(storeRoot, areaName, taskManager, DEFAULT_GC_MAX_INTERVAL, false);
+    }
+
+    /**
+     * Constructor for the cache.
+     *
+     * @param storeRoot   ignored, nothing is persisted
+     * @param areaName    storage area name
+     * @param taskManager the task manager used for garbage collection
+     * @param gcInterval  garbage collect max interval in milliseconds or &lt;= 0 to use default value.
+     * @param trackDeltas when true deltas are tracked
+     */
+    public OffHeapAdvertisementCache(URI storeRoot, String areaName, TaskManager taskManager, long gcInterval, boolean trackDeltas) {
+        this(areaName, taskManager, gcInterval, trackDeltas, Long.getLong(CAPACITY_SYSPROP, DEFAULT_CAPACITY), SLAB_SIZE, CHUNK_SIZE);
+    }
+
+    OffHeapAdvertisementCache(String areaName, TaskManager taskManager, long gcInterval, boolean trackDeltas, long capacity, int slabSize, int chunkSize) {
+        this.areaName = areaName;
+        this.executor = taskManager.getScheduledExecutorService();
+        this.gcMaxInterval = (0 >= gcInterval) ? DEFAULT_GC_MAX_INTERVAL : gcInterval;
+        this.slabs = new SlabAllocator(capacity, slabSize, chunkSize);
+        deltaTracker.setTrackingDeltas(trackDeltas);
+
+        gcTime = TimeUtils.toAbsoluteTimeMillis(gcMaxInterval);
+        gcTaskHandle = executor.scheduleAtFixedRate(new GC_Task(), GC_CHECK_PERIOD, GC_CHECK_PERIOD, TimeUnit.MILLISECONDS);
+
+        Logging.logCheckedConfig(LOG, "Instantiated off-heap cache for: ", areaName, " with a capacity of ", capacity, " bytes");
+    }
+
+    @Override
+    public String toString() {
+        return "Off-heap cache for " + areaName + "[" + super.toString() + "]";
+    }
+
+    /**
+     * Returns the symbol of a name, allocating one if needed. Must be called
+     * while holding the write lock.
+     */
+    private static int intern(Map<String, Integer> symbols, String name) {
+        Integer symbol = symbols.get(name);
+
+        if (null == symbol) {
+            symbol = symbols.size();
+            symbols.put(name, symbol);
+        }
+
+        return symbol;
+    }
+
+    /**
+     * Returns the record with the specified key. Must be called while holding
+     * the read or write lock.
+     */
+    private Record getRecord(String dn, String fn) {
+        Directory directory = getDirectory(dn);
+        Integer id = (null == directory) ? null : directory.records.get(fn);
+
+        return (null == id) ? null : records[id];
+    }
+
+    private Directory getDirectory(String dn) {
+        Integer symbol = dnSymbols.get(dn);
+
+        return (null == symbol) ? null : directories.get(symbol);
+    }
+
+    /**
+     * Stores a record and adds it to the index, replacing any previous
+     * version of it and evicting records if needed.
+     *
+     * @param evicted receives the evicted advertisements whose index entries
+     *                must be withdrawn.
+     * @return the resulting relative lifetime of the record
+     */
+    private long put(String dn, String fn, boolean advertisement, byte[] data, long lifetime, long expiration, Map<String, String> indexables, List<Evicted> evicted) throws IOException {
+        writeLock.lock();
+        try {
+            if (stopped) {
+                throw new IOException("Cache has been stopped");
+            }
+
+            int needed = slabs.chunksFor(data.length);
+
+            if (needed > slabs.getCapacityChunks()) {
+                throw new IOException("Record of " + data.length + " bytes exceeds the capacity of the cache");
+            }
+
+            long absoluteLifetime = TimeUtils.toAbsoluteTimeMillis(lifetime);
+            Record previous = getRecord(dn, fn);
+
+            if (null != previous) {
+                if (previous.lifetime > absoluteLifetime) {
+                    // make sure we don't override the original value
+                    absoluteLifetime = previous.lifetime;
+                }
+
+                release(previous);
+            }
+
+            // make sure expiration does not exceed lifetime
+            long relativeLifetime = TimeUtils.toRelativeTimeMillis(absoluteLifetime);
+            long boundedExpiration = Math.min(relativeLifetime, expiration);
+
+            if (needed > slabs.getFreeChunks()) {
+                evict(needed, evicted);
+            }
+
+            int[] fields = new int[indexables.size()];
+            String[] values = new String[indexables.size()];
+            int field = 0;
+
+            for (Map.Entry<String, String> indexable : indexables.entrySet()) {
+                fields[field] = intern(fieldSymbols, indexable.getKey());
+                values[field] = indexable.getValue();
+                field++;
+            }
+
+            int dnSymbol = intern(dnSymbols, dn);
+
+            if (dnSymbol == directories.size()) {
+                directories.add(new Directory());
+            }
+
+            index(new Record(allocateId(), dnSymbol, fn, advertisement, absoluteLifetime, boundedExpiration, slabs.store(data), data.length, fields, values));
+
+            return relativeLifetime;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private int allocateId() {
+        if (freeIdCount > 0) {
+            return freeIds[--freeIdCount];
+        }
+
+        if (nextId == records.length) {
+            records = Arrays.copyOf(records, records.length * 2);
+        }
+
+        return nextId++;
+    }
+
+    /**
+     * Adds a record to the index. Must be called while holding the write lock.
+     */
+    private void index(Record record) {
+        Directory directory = directories.get(record.dn);
+
+        records[record.id] = record;
+        directory.records.put(record.fn, record.id);
+
+        for (int field = 0; field < record.fields.length; field++) {
+            TreeMap<String, IntHashSet> postings = directory.getPostings(record.fields[field], true);
+            IntHashSet ids = postings.get(record.values[field]);
+
+            if (null == ids) {
+                ids = new IntHashSet();
+                postings.put(record.values[field], ids);
+            }
+            ids.add(record.id);
+        }
+
+        Long bucketKey = record.lifetime / BUCKET_WIDTH;
+        IntHashSet bucket = buckets.get(bucketKey);
+
+        if (null == bucket) {
+            bucket = new IntHashSet();
+            buckets.put(bucketKey, bucket);
+        }
+        bucket.add(record.id);
+    }
+
+    /**
+     * Removes a record from the index and releases its storage. Must be
+     * called while holding the write lock.
+     */
+    private void release(Record record) {
+        Directory directory = directories.get(record.dn);
+
+        directory.records.remove(record.fn);
+
+        for (int field = 0; field < record.fields.length; field++) {
+            TreeMap<String, IntHashSet> postings = directory.getPostings(record.fields[field], false);
+            IntHashSet ids = postings.get(record.values[field]);
+
+            ids.remove(record.id);
+            if (ids.isEmpty()) {
+                postings.remove(record.values[field]);
+            }
+        }
+
+        Long bucketKey = record.lifetime / BUCKET_WIDTH;
+        IntHashSet bucket = buckets.get(bucketKey);
+
+        bucket.remove(record.id);
+        if (bucket.isEmpty()) {
+            buckets.remove(bucketKey);
+        }
+
+        slabs.free(record.chunk);
+        records[record.id] = null;
+
+        if (freeIdCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeIds.length * 2);
+        }
+        freeIds[freeIdCount++] = record.id;
+    }
+
+    /**
+     * Evicts the records which expire first until the specified number of
+     * chunks is free. Must be called while holding the write lock.
+     *
+     * @param withdrawn receives the unexpired advertisements which were
+     *                  evicted, if deltas are being tracked.
+     */
+    private void evict(int needed, List<Evicted> withdrawn) {
+        boolean trackingDeltas = isTrackingDeltas();
+        List<String> dnNames = null;
+        List<String> fieldNames = null;
+        int evicted = 0;
+
+        while (needed > slabs.getFreeChunks()) {
+            for (int id : buckets.get(buckets.firstKey()).toArray()) {
+                Record record = records[id];
+
+                if (trackingDeltas && record.advertisement && (record.fields.length > 0) && (TimeUtils.toRelativeTimeMillis(record.lifetime) > 0)) {
+                    if (null == dnNames) {
+                        dnNames = getNames(dnSymbols);
+                        fieldNames = getNames(fieldSymbols);
+                    }
+
+                    withdrawn.add(new Evicted(dnNames.get(record.dn), getIndexFields(record, fieldNames)));
+                }
+
+                release(record);
+                evicted++;
+
+                if (needed <= slabs.getFreeChunks()) {
+                    break;
+                }
+            }
+        }
+
+        evictions += evicted;
+        Logging.logCheckedDebug(LOG, "Evicted ", evicted, " records from ", this);
+    }
+
+    /**
+     * Returns the index fields of a record. Must be called while holding the
+     * read or write lock.
+     */
+    private static Map<String, String> getIndexFields(Record record, List<String> fieldNames) {
+        Map<String, String> indexFields = new HashMap<String, String>();
+
+        for (int field = 0; field < record.fields.length; field++) {
+            indexFields.put(fieldNames.get(record.fields[field]), record.values[field]);
+        }
+
+        return indexFields;
+    }
+
+    /**
+     * Generates the deltas withdrawing the index entries of evicted
+     * advertisements. Must be called without holding the lock.
+     */
+    private void withdraw(List<Evicted> evicted) {
+        if (evicted.isEmpty()) {
+            return;
+        }
+
+        synchronized (deltaTracker) {
+            for (Evicted each : evicted) {
+                deltaTracker.generateRemovalDeltas(each.dn, each.indexFields);
+            }
+        }
+    }
+
+    /**
+     * Reads the bytes of a record. Must be called while holding the read or
+     * write lock.
+     */
+    private byte[] read(Record record) {
+        return slabs.read(record.chunk, record.length);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void save(String dn, String fn, Advertisement adv, long lifetime, long expiration) throws IOException {
+
+        if (lifetime < 0 || expiration < 0) {
+            throw new IllegalArgumentException("Bad expiration or lifetime.");
+        }
+
+        // Serialize and extract the index fields before taking any locks.
+        StructuredDocument<?> doc = (StructuredDocument<?>) adv.getSignedDocument();
+        Map<String, String> indexables = CacheUtils.getIndexfields(adv.getIndexFields(), doc);
+        byte[] data = adv.getSignedDocumentBytes();
+
+        List<Evicted> evicted = new ArrayList<Evicted>();
+        long relativeLifetime = put(dn, fn, true, data, lifetime, expiration, indexables, evicted);
+
+        withdraw(evicted);
+
+        if (expiration > 0) {
+            // Update for SRDI with our caches lifetime only if we are prepared to share the advertisement with others.
+            synchronized (deltaTracker) {
+                deltaTracker.generateDeltas(dn, adv, doc, relativeLifetime);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void save(String dn, String fn, byte[] data, long lifetime, long expiration) throws IOException {
+
+        if (lifetime < 0 || expiration < 0) {
+            throw new IllegalArgumentException("Bad expiration or lifetime.");
+        }
+
+        List<Evicted> evicted = new ArrayList<Evicted>();
+
+        put(dn, fn, false, data, lifetime, expiration, Collections.<String, String>emptyMap(), evicted);
+        withdraw(evicted);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove(String dn, String fn) throws IOException {
+        Map<String, String> withdrawn = null;
+
+        writeLock.lock();
+        try {
+            Record record = getRecord(dn, fn);
+
+            if (null == record) {
+                return;
+            }
+
+            if (record.advertisement && (record.fields.length > 0) && (TimeUtils.toRelativeTimeMillis(record.lifetime) > 0) && isTrackingDeltas()) {
+                withdrawn = getIndexFields(record, getNames(fieldSymbols));
+            }
+
+            release(record);
+        } finally {
+            writeLock.unlock();
+        }
+
+        if (null != withdrawn) {
+            // Withdraw the index entries rather than announce them again.
+            synchronized (deltaTracker) {
+                deltaTracker.generateRemovalDeltas(dn, withdrawn);
+            }
+        }
+    }
+
+    private boolean isTrackingDeltas() {
+        synchronized (deltaTracker) {
+            return deltaTracker.isTrackingDeltas();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public InputStream getInputStream(String dn, String fn) {
+        readLock.lock();
+        try {
+            Record record = getRecord(dn, fn);
+
+            return (null == record) ? null : new ByteArrayInputStream(read(record));
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getLifetime(String dn, String fn) {
+        readLock.lock();
+        try {
+            Record record = getRecord(dn, fn);
+
+            return (null == record) ? -1 : TimeUtils.toRelativeTimeMillis(record.lifetime);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getExpirationtime(String dn, String fn) {
+        readLock.lock();
+        try {
+            Record record = getRecord(dn, fn);
+
+            return (null == record) ? -1 : CacheUtils.getRelativeExpiration(record.lifetime, record.expiry);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<InputStream> getRecords(String dn, int threshold, List<Long> expirations, boolean purge) {
+        List<InputStream> results = new ArrayList<InputStream>();
+
+        if (null == dn) {
+            return results;
+        }
+
+        List<Record> expired = new ArrayList<Record>();
+
+        readLock.lock();
+        try {
+            Directory directory = getDirectory(dn);
+
+            if (null == directory) {
+                return results;
+            }
+
+            for (int id : directory.records.values()) {
+                if (results.size() >= threshold) {
+                    break;
+                }
+
+                Record record = records[id];
+                long relativeExpiry = CacheUtils.getRelativeExpiration(record.lifetime, record.expiry);
+
+                if (relativeExpiry > 0) {
+                    results.add(new ByteArrayInputStream(read(record)));
+                    if (null != expirations) {
+                        expirations.add(relativeExpiry);
+                    }
+                } else if (purge) {
+                    expired.add(record);
+                }
+            }
+        } finally {
+            readLock.unlock();
+        }
+
+        if (!expired.isEmpty()) {
+            writeLock.lock();
+            try {
+                for (Record record : expired) {
+                    // it may have been replaced since we released the read lock
+                    if (record == records[record.id]) {
+                        release(record);
+                    }
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<InputStream> search(String dn, String attribute, String value, int threshold, List<Long> expirations) {
+        List<InputStream> results = new ArrayList<InputStream>();
+
+        readLock.lock();
+        try {
+            Directory directory = getDirectory(dn);
+            Integer field = fieldSymbols.get(attribute);
+            TreeMap<String, IntHashSet> postings = ((null == directory) || (null == field)) ? null : directory.getPostings(field, false);
+
+            if (null == postings) {
+                return results;
+            }
+
+            Iterator<Map.Entry<String, IntHashSet>> candidates;
+            Pattern pattern = null;
+            String prefix = null;
+
+            if ((null == value) || "*".equals(value)) {
+                candidates = postings.entrySet().iterator();
+            } else if (!CacheUtils.hasWildcards(value)) {
+                IntHashSet ids = postings.get(value);
+
+                if (null == ids) {
+                    return results;
+                }
+
+                candidates = Collections.singletonMap(value, ids).entrySet().iterator();
+            } else if (value.indexOf('*') == value.length() - 1) {
+                prefix = value.substring(0, value.length() - 1);
+                candidates = postings.tailMap(prefix).entrySet().iterator();
+            } else {
+                pattern = CacheUtils.compileWildcards(value);
+                candidates = postings.entrySet().iterator();
+            }
+
+            while (candidates.hasNext() && (results.size() < threshold)) {
+                Map.Entry<String, IntHashSet> candidate = candidates.next();
+
+                if ((null != prefix) && !candidate.getKey().startsWith(prefix)) {
+                    break;
+                }
+
+                if ((null != pattern) && !pattern.matcher(candidate.getKey()).matches()) {
+                    continue;
+                }
+
+                for (int id : candidate.getValue().toArray()) {
+                    if (results.size() >= threshold) {
+                        break;
+                    }
+
+                    Record record = records[id];
+                    long relativeExpiry = CacheUtils.getRelativeExpiration(record.lifetime, record.expiry);
+
+                    if (record.advertisement && (relativeExpiry > 0)) {
+                        results.add(new ByteArrayInputStream(read(record)));
+                        if (null != expirations) {
+                            expirations.add(relativeExpiry);
+                        }
+                    }
+                }
+            }
+
+            return results;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<Entry> getEntries(String dn, boolean clearDeltas) {
+        List<Entry> entries = new ArrayList<Entry>();
+        List<String> fieldNames = null;
+
+        readLock.lock();
+        try {
+            Directory directory = getDirectory(dn);
+
+            if (null != directory) {
+                for (int id : directory.records.values()) {
+                    Record record = records[id];
+                    long relativeLifetime = TimeUtils.toRelativeTimeMillis(record.lifetime);
+
+                    if ((relativeLifetime <= 0) || (0 == record.fields.length)) {
+                        continue;
+                    }
+
+                    if (null == fieldNames) {
+                        fieldNames = getNames(fieldSymbols);
+                    }
+
+                    for (int field = 0; field < record.fields.length; field++) {
+                        entries.add(new Entry(fieldNames.get(record.fields[field]), record.values[field], relativeLifetime));
+                    }
+                }
+            }
+        } finally {
+            readLock.unlock();
+        }
+
+        if (clearDeltas) {
+            synchronized (deltaTracker) {
+                deltaTracker.clearDeltas(dn);
+            }
+        }
+
+        return entries;
+    }
+
+    /**
+     * Returns the directory or index field names by symbol. Must be called
+     * while holding the read or write lock.
+     */
+    private static List<String> getNames(Map<String, Integer> symbols) {
+        String[] names = new String[symbols.size()];
+
+        for (Map.Entry<String, Integer> symbol : symbols.entrySet()) {
+            names[symbol.getValue()] = symbol.getKey();
+        }
+
+        return Arrays.asList(names);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<Entry> getDeltas(String dn) {
+        synchronized (deltaTracker) {
+            return deltaTracker.getDeltas(dn);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void setTrackDeltas(boolean trackDeltas) {
+        synchronized (deltaTracker) {
+            deltaTracker.setTrackingDeltas(trackDeltas);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Releases the expired records one expiration bucket at a time.
+     */
+    public void garbageCollect() {
+        long gcStart = TimeUtils.timeNow();
+        int purged = 0;
+        boolean more = true;
+
+        while (more && !stopped) {
+            writeLock.lock();
+            try {
+                if (buckets.isEmpty() || (buckets.firstKey() * BUCKET_WIDTH > gcStart)) {
+                    break;
+                }
+
+                Long bucketKey = buckets.firstKey();
+
+                for (int id : buckets.get(bucketKey).toArray()) {
+                    Record record = records[id];
+
+                    if (record.lifetime <= gcStart) {
+                        release(record);
+                        purged++;
+                    }
+                }
+
+                // the bucket of the current time may hold records which have not expired
+                more = !buckets.containsKey(bucketKey);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        Logging.logCheckedDebug(LOG, "Purged ", purged, " expired records from ", this, " in ", TimeUtils.timeNow() - gcStart, "ms");
+    }
+
+    /**
+     * Returns the absolute time of the start of the earliest expiration bucket.
+     */
+    private long getNextExpiration() {
+        readLock.lock();
+        try {
+            return buckets.isEmpty() ? Long.MAX_VALUE : buckets.firstKey() * BUCKET_WIDTH;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of records evicted to make room for others.
+     *
+     * @return the number of records evicted to make room for others.
+     */
+    long getEvictionCount() {
+        readLock.lock();
+        try {
+            return evictions;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of bytes of the allocated slabs.
+     *
+     * @return the number of bytes of the allocated slabs.
+     */
+    long getAllocatedBytes() {
+        readLock.lock();
+        try {
+            return slabs.getAllocatedBytes();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void stop() {
+        writeLock.lock();
+        try {
+            if (stopped) {
+                return;
+            }
+
+            stopped = true;
+            gcTaskHandle.cancel(false);
+            directories.clear();
+            dnSymbols.clear();
+            fieldSymbols.clear();
+            buckets.clear();
+            Arrays.fill(records, null);
+            slabs.clear();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private final class GC_Task implements Runnable {
+
+        /**
+         * {@inheritDoc}
+         * <p/>
+         * Responsible for initiating GC operations.
+         */
+        public void run() {
+
+            try {
+
+                if (stopped) {
+                    return;
+                }
+
+                long now = TimeUtils.timeNow();
+
+                if ((now > gcTime) || (now >= getNextExpiration())) {
+                    if (gcRunning.compareAndSet(false, true)) {
+                        gcTime = TimeUtils.toAbsoluteTimeMillis(gcMaxInterval);
+
+                        executor.execute(new RecordGC());
+                    }
+                }
+
+            } catch (Throwable all) {
+
+                Logging.logCheckedError(LOG, "Uncaught Throwable in thread :", Thread.currentThread().getName(), "\n", all);
+
+            }
+        }
+    }
+
+    /**
+     * An Executor task which performs the record garbage collection operation.
+     */
+    private final class RecordGC implements Runnable {
+
+        /**
+         * {@inheritDoc}
+         */
+        public void run() {
+
+            try {
+
+                garbageCollect();
+
+            } catch (Throwable all) {
+
+                Logging.logCheckedError(LOG, "Uncaught Throwable in thread :", Thread.currentThread().getName(), "\n", all);
+
+            } finally {
+
+                gcRunning.set(false);
+
+            }
+        }
+    }
+
+    /**
+     * A stored record.
+     */
+    private static final class Record {
+
+        final int id;
+
+        /**
+         * The directory name symbol.
+         */
+        final int dn;
+
+        final String fn;
+
+        final boolean advertisement;
+
+        /**
+         * Absolute lifetime in milliseconds.
+         */
+        final long lifetime;
+
+        /**
+         * Relative expiry in milliseconds.
+         */
+        final long expiry;
+
+        /**
+         * The first chunk of the record bytes.
+         */
+        final int chunk;
+
+        final int length;
+
+        /**
+         * The index field name symbols, each with the value at the same
+         * position in {@link #values}.
+         */
+        final int[] fields;
+
+        final String[] values;
+
+        Record(int id, int dn, String fn, boolean advertisement, long lifetime, long expiry, int chunk, int length, int[] fields, String[] values) {
+            this.id = id;
+            this.dn = dn;
+            this.fn = fn;
+            this.advertisement = advertisement;
+            this.lifetime = lifetime;
+            this.expiry = expiry;
+            this.chunk = chunk;
+            this.length = length;
+            this.fields = fields;
+            this.values = values;
+        }
+    }
+
+    /**
+     * The index entries of an evicted advertisement.
+     */
+    private static final class Evicted {
+
+        final String dn;
+
+        final Map<String, String> indexFields;
+
+        Evicted(String dn, Map<String, String> indexFields) {
+            this.dn = dn;
+            this.indexFields = indexFields;
+        }
+    }
+
+    /**
+     * The records of a directory and the postings of their index fields.
+     */
+    private static final class Directory {
+
+        /**
+         * The record ids by file name.
+         */
+        final Map<String, Integer> records = new HashMap<String, Integer>();
+
+        /**
+         * By index field name symbol, the ids of the records by field value.
+         */
+        private final List<TreeMap<String, IntHashSet>> postings = new ArrayList<TreeMap<String, IntHashSet>>();
+
+        TreeMap<String, IntHashSet> getPostings(int field, boolean create) {
+            while (create && (postings.size() <= field)) {
+                postings.add(null);
+            }
+
+            TreeMap<String, IntHashSet> values = (field < postings.size()) ? postings.get(field) : null;
+
+            if (create && (null == values)) {
+                values = new TreeMap<String, IntHashSet>();
+                postings.set(field, values);
+            }
+
+            return values;
+        }
+    }
+}
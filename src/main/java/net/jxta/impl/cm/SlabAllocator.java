@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2001-2007 Sun Microsystems, Inc.  All rights reserved.
+ *
+ *  The Sun Project JXTA(TM) Software License
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *
+ *  3. The end-user documentation included with the redistribution, if any, must
+ *     include the following acknowledgment: "This product includes software
+ *     developed by Sun Microsystems, Inc. for JXTA(TM) technology."
+ *     Alternately, this acknowledgment may appear in the software itself, if
+ *     and wherever such third-party acknowledgments normally appear.
+ *
+ *  4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA" must
+ *     not be used to endorse or promote products derived from this software
+ *     without prior written permission. For written permission, please contact
+ *     Project JXTA at http://www.jxta.org.
+ *
+ *  5. Products derived from this software may not be called "JXTA", nor may
+ *     "JXTA" appear in their name, without prior written permission of Sun.
+ *
+ *  THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+ *  INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ *  FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SUN
+ *  MICROSYSTEMS OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ *  OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ *  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ *  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *  JXTA is a registered trademark of Sun Microsystems, Inc. in the United
+ *  States and other countries.
+ *
+ *  Please see the license information page at :
+ *  <http://www.jxta.org/project/www/license.html> for instructions on use of
+ *  the license in source files.
+ *
+ *  ====================================================================
+ *
+ *  This software consists of voluntary contributions made by many individuals
+ *  on behalf of Project JXTA. For more information on Project JXTA, please see
+ *  http://www.jxta.org.
+ *
+ *  This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.cm;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stores byte arrays outside of the Java heap in direct buffer slabs.
+ * <p/>
+ * The slabs are divided into chunks of a fixed size and each stored array
+ * occupies a chain of chunks, so any free chunk may be reused whatever the
+ * size of the array which is stored next. The chains and the free list are
+ * held in a single {@code int} array indexed by chunk. Slabs are allocated
+ * as needed until the capacity is reached and are never released.
+ * <p/>
+ * Not synchronized. Concurrent reads are safe once the writes which they
+ * read have been safely published.
+ */
+final class SlabAllocator {
+
+    private static final int END = -1;
+
+    private final int chunkSize;
+
+    private final int chunksPerSlab;
+
+    private final int maxSlabs;
+
+    private final List<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+
+    /**
+     * For each chunk the next chunk of its chain or of the free list.
+     */
+    private int[] next = new int[0];
+
+    private int freeHead = END;
+
+    private int freeChunks = 0;
+
+    /**
+     * @param capacity  the maximum number of bytes of the slabs
+     * @param slabSize  the number of bytes of each slab
+     * @param chunkSize the number of bytes of each chunk
+     */
+    SlabAllocator(long capacity, int slabSize, int chunkSize) {
+        if ((chunkSize <= 0) || (slabSize < chunkSize) || (capacity < slabSize)) {
+            throw new IllegalArgumentException("Bad capacity, slab or chunk size.");
+        }
+
+        this.chunkSize = chunkSize;
+        this.chunksPerSlab = slabSize / chunkSize;
+        this.maxSlabs = (int) Math.min(Integer.MAX_VALUE / chunksPerSlab, capacity / slabSize);
+    }
+
+    /**
+     * Returns the number of chunks needed to store an array.
+     *
+     * @param length the length of the array
+     * @return the number of chunks needed to store the array
+     */
+    int chunksFor(int length) {
+        return Math.max(1, (length + chunkSize - 1) / chunkSize);
+    }
+
+    /**
+     * Returns the number of chunks which may still be allocated, including
+     * those of the slabs which have not been allocated yet.
+     *
+     * @return the number of chunks which may still be allocated
+     */
+    int getFreeChunks() {
+        return freeChunks + (maxSlabs - slabs.size()) * chunksPerSlab;
+    }
+
+    /**
+     * Returns the number of chunks of the full capacity.
+     *
+     * @return the number of chunks of the full capacity
+     */
+    int getCapacityChunks() {
+        return maxSlabs * chunksPerSlab;
+    }
+
+    /**
+     * Returns the number of bytes of the allocated slabs.
+     *
+     * @return the number of bytes of the allocated slabs
+     */
+    long getAllocatedBytes() {
+        return (long) slabs.size() * chunksPerSlab * chunkSize;
+    }
+
+    /**
+     * Stores an array.
+     *
+     * @param data the array
+     * @return the first chunk of the stored array, or -1 if there is not
+     *         enough free space
+     */
+    int store(byte[] data) {
+        int needed = chunksFor(data.length);
+
+        if (needed > getFreeChunks()) {
+            return END;
+        }
+
+        int first = END;
+        int last = END;
+        int offset = 0;
+
+        for (int i = 0; i < needed; i++) {
+            if (END == freeHead) {
+                addSlab();
+            }
+
+            int chunk = freeHead;
+
+            freeHead = next[chunk];
+            freeChunks--;
+            next[chunk] = END;
+
+            if (END == last) {
+                first = chunk;
+            } else {
+                next[last] = chunk;
+            }
+            last = chunk;
+
+            int length = Math.min(chunkSize, data.length - offset);
+
+            if (length > 0) {
+                ByteBuffer slab = slabFor(chunk);
+
+                slab.put(data, offset, length);
+                offset += length;
+            }
+        }
+
+        return first;
+    }
+
+    /**
+     * Reads a stored array.
+     *
+     * @param first  the first chunk of the array
+     * @param length the length of the array
+     * @return the array
+     */
+    byte[] read(int first, int length) {
+        byte[] data = new byte[length];
+        int offset = 0;
+        int chunk = first;
+
+        while (offset < length) {
+            int count = Math.min(chunkSize, length - offset);
+
+            slabFor(chunk).get(data, offset, count);
+            offset += count;
+            chunk = next[chunk];
+        }
+
+        return data;
+    }
+
+    /**
+     * Releases the chunks of a stored array.
+     *
+     * @param first the first chunk of the array
+     */
+    void free(int first) {
+        int chunk = first;
+
+        while (END != chunk) {
+            int following = next[chunk];
+
+            next[chunk] = freeHead;
+            freeHead = chunk;
+            freeChunks++;
+            chunk = following;
+        }
+    }
+
+    /**
+     * Releases all the chunks and drops the slabs, leaving their memory to be
+     * reclaimed along with the buffers.
+     */
+    void clear() {
+        slabs.clear();
+        next = new int[0];
+        freeHead = END;
+        freeChunks = 0;
+    }
+
+    /**
+     * Returns a view of a slab positioned at the start of a chunk.
+     */
+    private ByteBuffer slabFor(int chunk) {
+        ByteBuffer slab = slabs.get(chunk / chunksPerSlab).duplicate();
+
+        slab.position((chunk % chunksPerSlab) * chunkSize);
+        return slab;
+    }
+
+    private void addSlab() {
+        int base = slabs.size() * chunksPerSlab;
+
+        slabs.add(ByteBuffer.allocateDirect(chunksPerSlab * chunkSize));
+        next = Arrays.copyOf(next, base + chunksPerSlab);
+
+        // thread the chunks of the new slab onto the free list in order
+        for (int chunk = base + chunksPerSlab - 1; chunk >= base; chunk--) {
+            next[chunk] = freeHead;
+            freeHead = chunk;
+        }
+        freeChunks += chunksPerSlab;
+    }
+}
@@ -78,6 +78,10 @@ import net.jxta.id.IDFactory;
 import net.jxta.impl.protocol.ResolverSrdiMsgImpl;
 import net.jxta.impl.protocol.SrdiMessageImpl;
 import net.jxta.impl.util.JxtaHash;
+import net.jxta.impl.rendezvous.RendezVousServiceImpl;
+import net.jxta.impl.rendezvous.rpv.PeerView;
+import net.jxta.impl.rendezvous.rpv.PeerViewEvent;
+import net.jxta.impl.rendezvous.rpv.PeerViewListener;
 import net.jxta.logging.Logger;
 import net.jxta.logging.Logging;
 import net.jxta.peer.PeerID;
@@ -116,10 +120,17 @@ import net.jxta.resolver.ResolverService;
  * hops a query has been forwarded. This element could be used to detect/stop a
  * query forward loopback hopCount is checked to make ensure a query is not
  * forwarded more than twice.
+ * <p/>
+ * Replica peers are chosen by the position of an expression's digest in the
+ * sorted global peer view. With {@link #CONSISTENT_RING_SYSPROP} set they
+ * are chosen on a consistent hash ring instead, which moves far fewer
+ * expressions when rendezvous join or leave. The two mappings choose
+ * different peers, so every rendezvous of a group must use the same one.
+ * Otherwise entries are replicated to peers which queries do not visit.
  *
  * @see <a href="https://jxta-spec.dev.java.net/nonav/JXTAProtocols.html#proto-prp" target="_blank">JXTA Protocols Specification : Peer Resolver Protocol</a>
  */
-public class SrdiManager implements RendezvousListener {
+public class SrdiManager implements RendezvousListener, PeerViewListener {
 
     private final static Logger LOG = Logging.getLogger(SrdiManager.class.getName());
 
@@ -132,6 +143,18 @@ public class SrdiManager implements RendezvousListener {
     private final JxtaHash jxtaHash = new JxtaHash();
     private Credential credential = null;
 
+    /**
+     * Maps expressions to replica peers.
+     */
+    private final SrdiReplicaRing replicaRing = new SrdiReplicaRing(RING_VIRTUAL_NODES);
+
+    /**
+     * The peer view which keeps {@link #replicaRing} up to date or
+     * {@code null} if the ring is rebuilt from the global peer view on
+     * each lookup.
+     */
+    private volatile PeerView peerView = null;
+
     private SrdiManagerPeriodicPushTask srdiPushTask;
 
     /**
@@ -144,6 +167,25 @@ public class SrdiManager implements RendezvousListener {
      */
     public final static int RPV_REPLICATION_THRESHOLD = 2;
 
+    /**
+     * The number of points at which each rendezvous is placed on the replica
+     * ring. More points give a more even distribution of expressions.
+     */
+    private final static int RING_VIRTUAL_NODES = 64;
+
+    /**
+     * The system property which, if {@code true}, maps expressions to replica
+     * peers on a consistent hash ring. Peers which use the positional
+     * mapping do not look for replicas where the ring places them, so it
+     * must be set on all of the rendezvous of a group or none.
+     */
+    public final static String CONSISTENT_RING_SYSPROP = SrdiManager.class.getName() + ".consistentRing";
+
+    /**
+     * If {@code true} then replica peers are chosen on {@link #replicaRing}.
+     */
+    private final static boolean CONSISTENT_RING = Boolean.getBoolean(CONSISTENT_RING_SYSPROP);
+
     /**
      * Interface for pushing entries.
      */
@@ -179,6 +221,10 @@ public class SrdiManager implements RendezvousListener {
         resolver = group.getResolverService();
 
         group.getRendezVousService().addListener(this);
+
+        if (group.isRendezvous()) {
+            attachPeerView();
+        }
     }
 
     /**
@@ -186,6 +232,7 @@ public class SrdiManager implements RendezvousListener {
      */
     public synchronized void stop() {
         stopPush();
+        detachPeerView();
 
         RendezVousService rendezvous = group.getRendezVousService();
 
@@ -253,7 +300,7 @@ public class SrdiManager implements RendezvousListener {
      */
     public void pushSrdi(ID peer, SrdiMessage srdi) {
         try {
-            ResolverSrdiMsg resSrdi = new ResolverSrdiMsgImpl(handlername, credential, srdi.toString());
+            ResolverSrdiMsg resSrdi = new ResolverSrdiMsgImpl(handlername, credential, srdi);
 
             if (null == peer) {
                 resolver.sendSrdi(null, resSrdi);
@@ -388,6 +435,34 @@ public class SrdiManager implements RendezvousListener {
      * @return The replicaPeer value
      */
     public PeerID getReplicaPeer(String expression) {
+        if (!CONSISTENT_RING) {
+            return getPositionalReplicaPeer(expression);
+        }
+
+        if (null == peerView) {
+            // Not following a peer view, bring the ring up to date.
+            replicaRing.setMembers(getGlobalPeerView());
+        }
+
+        if (replicaRing.size() < RPV_REPLICATION_THRESHOLD) {
+            return null;
+        }
+
+        PeerID pid = replicaRing.get(expression);
+
+        Logging.logCheckedDebug(LOG, MessageFormat.format("[{0} / {1}] Found a direct peer {2}", group.getPeerGroupName(), handlername, pid));
+
+        return pid;
+    }
+
+    /**
+     * Maps an expression to the peer at the position of its digest in the
+     * sorted global peer view.
+     *
+     * @param expression expression to derive the mapping from
+     * @return The replicaPeer value
+     */
+    private PeerID getPositionalReplicaPeer(String expression) {
         PeerID pid;
         List<PeerID> rpv = getGlobalPeerView();
 
@@ -431,7 +506,7 @@ public class SrdiManager implements RendezvousListener {
             SrdiMessageImpl srdimsg = new SrdiMessageImpl(srcPid, // ttl of 0, avoids additional replication
                     0, primaryKey, secondarykey, value, expiration);
 
-            ResolverSrdiMsgImpl resSrdi = new ResolverSrdiMsgImpl(handlername, credential, srdimsg.toString());
+            ResolverSrdiMsgImpl resSrdi = new ResolverSrdiMsgImpl(handlername, credential, srdimsg);
 
             Logging.logCheckedDebug(LOG, MessageFormat.format("[{0} / {1}] Forwarding a SRDI messsage of type {2} to {3}", group.getPeerGroupName(),
                 handlername, primaryKey, peerid));
@@ -468,8 +543,10 @@ public class SrdiManager implements RendezvousListener {
                 break;
             case RendezvousEvent.BECAMERDV:
                 stopPush();
+                attachPeerView();
                 break;
             case RendezvousEvent.BECAMEEDGE:
+                detachPeerView();
                 startPush();
                 break;
             case RendezvousEvent.RDVFAILED:
@@ -508,6 +585,81 @@ public class SrdiManager implements RendezvousListener {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public void peerViewEvent(PeerViewEvent event) {
+
+        PeerID peer = (PeerID) event.getPeerViewElement().getPeerID();
+
+        switch (event.getType()) {
+
+            case PeerViewEvent.ADD:
+                replicaRing.add(peer);
+                break;
+
+            case PeerViewEvent.REMOVE:
+
+            case PeerViewEvent.FAIL:
+
+                // the local peer is always part of the global view
+                if (!group.getPeerID().equals(peer)) {
+                    replicaRing.remove(peer);
+                }
+                break;
+
+            default:
+                break;
+
+        }
+    }
+
+    /**
+     * Starts following the peer view of the rendezvous service so that the
+     * replica ring is updated as rendezvous join and leave.
+     */
+    private synchronized void attachPeerView() {
+
+        if (!CONSISTENT_RING) {
+            // The positional mapping reads the global peer view directly.
+            return;
+        }
+
+        RendezVousService rendezvous = group.getRendezVousService();
+
+        if (!(rendezvous instanceof RendezVousServiceImpl)) {
+            return;
+        }
+
+        PeerView view = ((RendezVousServiceImpl) rendezvous).getPeerView();
+
+        if ((null == view) || (view == peerView)) {
+            return;
+        }
+
+        detachPeerView();
+
+        // Register first so that no change is lost between the snapshot and
+        // the first event.
+        view.addListener(this);
+        replicaRing.setMembers(getGlobalPeerView());
+        peerView = view;
+    }
+
+    /**
+     * Stops following the peer view. The ring is then rebuilt from the
+     * global peer view on each lookup.
+     */
+    private synchronized void detachPeerView() {
+
+        PeerView view = peerView;
+
+        if (null != view) {
+            view.removeListener(this);
+            peerView = null;
+        }
+    }
+
     /**
      * Starts the periodic push of deltas at the specified rate, using the provided
      * {@link java.util.concurrent.ScheduledExecutorService} to control the periodic
@@ -0,0 +1,334 @@
+/*
+ * Copyright (c) 2001-2007 Sun Microsystems, Inc.  All rights reserved.
+ *
+ *  The Sun Project JXTA(TM) Software License
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *
+ *  3. The end-user documentation included with the redistribution, if any, must
+ *     include the following acknowledgment: "This product includes software
+ *     developed by Sun Microsystems, Inc. for JXTA(TM) technology."
+ *     Alternately, this acknowledgment may appear in the software itself, if
+ *     and wherever such third-party acknowledgments normally appear.
+ *
+ *  4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA" must
+ *     not be used to endorse or promote products derived from this software
+ *     without prior written permission. For written permission, please contact
+ *     Project JXTA at http://www.jxta.org.
+ *
+ *  5. Products derived from this software may not be called "JXTA", nor may
+ *     "JXTA" appear in their name, without prior written permission of Sun.
+ *
+ *  THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+ *  INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ *  FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SUN
+ *  MICROSYSTEMS OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ *  OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ *  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ *  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *  JXTA is a registered trademark of Sun Microsystems, Inc. in the United
+ *  States and other countries.
+ *
+ *  Please see the license information page at :
+ *  <http://www.jxta.org/project/www/license.html> for instructions on use of
+ *  the license in source files.
+ *
+ *  ====================================================================
+ *
+ *  This software consists of voluntary contributions made by many individuals
+ *  on behalf of Project JXTA. For more information on Project JXTA, please see
+ *  http://www.jxta.org.
+ *
+ *  This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+
+package net.jxta.impl.cm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.jxta.impl.util.JxtaHash;
+import net.jxta.peer.PeerID;
+
+/**
+ * A consistent hash ring which maps SRDI expressions to the rendezvous peers
+ * responsible for them.
+ * <p/>
+ * Each member peer is placed on the ring at a number of pseudo-random points
+ * (virtual nodes) derived from its ID. An expression is mapped to the owner of
+ * the first point at or after the hash of the expression, wrapping around at
+ * the end of the ring. When a peer joins or leaves the ring only the
+ * expressions adjacent to its points change owner, roughly {@code 1/n} of the
+ * total for a ring of {@code n} peers. The positional mapping previously used
+ * by {@link SrdiManager} moved almost every expression whenever the size of
+ * the peer view changed.
+ * <p/>
+ * The ring is copy-on-write. Membership changes are serialized and build a
+ * new immutable snapshot, lookups read the current snapshot without locking.
+ */
+final class SrdiReplicaRing {
+
+    /**
+     * Per thread hash used to locate expressions and virtual nodes.
+     */
+    private final static ThreadLocal<JxtaHash> HASH = new ThreadLocal<JxtaHash>() {
+        @Override
+        protected JxtaHash initialValue() {
+            return new JxtaHash();
+        }
+    };
+
+    /**
+     * An immutable view of the ring.
+     */
+    private final static class Snapshot {
+
+        /**
+         * The sorted points of all virtual nodes.
+         */
+        final long[] points;
+
+        /**
+         * The owner of each point.
+         */
+        final PeerID[] owners;
+
+        /**
+         * The member peers.
+         */
+        final Set<PeerID> members;
+
+        Snapshot(long[] points, PeerID[] owners, Set<PeerID> members) {
+            this.points = points;
+            this.owners = owners;
+            this.members = members;
+        }
+    }
+
+    private final static Snapshot EMPTY = new Snapshot(new long[0], new PeerID[0], Collections.<PeerID>emptySet());
+
+    /**
+     * The number of virtual nodes per member peer.
+     */
+    private final int virtualNodes;
+
+    /**
+     * The current view of the ring.
+     */
+    private volatile Snapshot ring = EMPTY;
+
+    /**
+     * Creates an empty ring.
+     *
+     * @param virtualNodes The number of points at which each member peer is
+     * placed on the ring.
+     */
+    SrdiReplicaRing(int virtualNodes) {
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("At least one virtual node is required");
+        }
+
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * Returns the number of member peers.
+     *
+     * @return The number of member peers.
+     */
+    int size() {
+        return ring.members.size();
+    }
+
+    /**
+     * Returns the member peers.
+     *
+     * @return An unmodifiable set of the member peers.
+     */
+    Set<PeerID> getMembers() {
+        return ring.members;
+    }
+
+    /**
+     * Adds a peer to the ring.
+     *
+     * @param peer The peer to add.
+     * @return {@code true} if the peer was not already a member.
+     */
+    synchronized boolean add(PeerID peer) {
+        if (ring.members.contains(peer)) {
+            return false;
+        }
+
+        update(Collections.singleton(peer), Collections.<PeerID>emptySet());
+        return true;
+    }
+
+    /**
+     * Removes a peer from the ring.
+     *
+     * @param peer The peer to remove.
+     * @return {@code true} if the peer was a member.
+     */
+    synchronized boolean remove(PeerID peer) {
+        if (!ring.members.contains(peer)) {
+            return false;
+        }
+
+        update(Collections.<PeerID>emptySet(), Collections.singleton(peer));
+        return true;
+    }
+
+    /**
+     * Makes the ring membership match the given peers. Only the differences
+     * from the current membership are applied.
+     *
+     * @param peers The peers which should be members.
+     * @return {@code true} if the membership changed.
+     */
+    synchronized boolean setMembers(Collection<PeerID> peers) {
+        Set<PeerID> current = ring.members;
+        Set<PeerID> added = new HashSet<PeerID>(peers);
+
+        added.removeAll(current);
+
+        Set<PeerID> removed = new HashSet<PeerID>(current);
+
+        removed.removeAll(peers);
+
+        if (added.isEmpty() && removed.isEmpty()) {
+            return false;
+        }
+
+        update(added, removed);
+        return true;
+    }
+
+    /**
+     * Returns the peer responsible for the given expression.
+     *
+     * @param expression The expression.
+     * @return The responsible peer or {@code null} if the ring is empty.
+     */
+    PeerID get(String expression) {
+        Snapshot current = ring;
+
+        if (0 == current.points.length) {
+            return null;
+        }
+
+        int pos = Arrays.binarySearch(current.points, hash(expression));
+
+        if (pos < 0) {
+            pos = -(pos + 1);
+            if (pos == current.points.length) {
+                pos = 0;
+            }
+        }
+
+        return current.owners[pos];
+    }
+
+    /**
+     * Builds and publishes a new snapshot. Callers must hold the ring lock.
+     *
+     * @param added The peers to add, none of which are members.
+     * @param removed The peers to remove, all of which are members.
+     */
+    private void update(Collection<PeerID> added, Collection<PeerID> removed) {
+        Snapshot current = ring;
+        List<Node> nodes = new ArrayList<Node>(current.points.length + added.size() * virtualNodes);
+
+        for (int i = 0; i < current.points.length; i++) {
+            if (!removed.contains(current.owners[i])) {
+                nodes.add(new Node(current.points[i], current.owners[i]));
+            }
+        }
+
+        for (PeerID peer : added) {
+            String prefix = peer.toString() + "#";
+
+            for (int i = 0; i < virtualNodes; i++) {
+                nodes.add(new Node(hash(prefix + i), peer));
+            }
+        }
+
+        Collections.sort(nodes);
+
+        // Colliding points are kept only once so that the binary search finds
+        // the same owner as the sort order selected.
+        long[] points = new long[nodes.size()];
+        PeerID[] owners = new PeerID[nodes.size()];
+        int count = 0;
+
+        for (Node node : nodes) {
+            if ((count > 0) && (points[count - 1] == node.point)) {
+                continue;
+            }
+
+            points[count] = node.point;
+            owners[count] = node.owner;
+            count++;
+        }
+
+        Set<PeerID> members = new HashSet<PeerID>(current.members);
+
+        members.removeAll(removed);
+        members.addAll(added);
+
+        ring = new Snapshot(Arrays.copyOf(points, count), Arrays.copyOf(owners, count), Collections.unmodifiableSet(members));
+    }
+
+    /**
+     * Returns the ring position of a string.
+     *
+     * @param value The string.
+     * @return The position.
+     */
+    private static long hash(String value) {
+        JxtaHash hash = HASH.get();
+
+        hash.update(value);
+        return hash.getDigestInteger().longValue();
+    }
+
+    /**
+     * A virtual node while a snapshot is being built.
+     */
+    private final static class Node implements Comparable<Node> {
+
+        final long point;
+        final PeerID owner;
+
+        Node(long point, PeerID owner) {
+            this.point = point;
+            this.owner = owner;
+        }
+
+        public int compareTo(Node other) {
+            if (point != other.point) {
+                return (point < other.point) ? -1 : 1;
+            }
+
+            return owner.toString().compareTo(other.owner.toString());
+        }
+    }
+}
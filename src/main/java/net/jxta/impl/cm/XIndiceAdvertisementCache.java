@@ -73,11 +73,13 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.ResourceBundle;
-import java.util.Timer;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import net.jxta.discovery.DiscoveryService;
 import net.jxta.document.Advertisement;
@@ -128,11 +130,12 @@ public class XIndiceAdvertisementCache extends AbstractAdvertisementCache implem
      * we start the GC early.
      */
     private final static int MAX_INCONVENIENCE_LEVEL = 1000;
-    private final static String DATABASE_FILE_NAME = "advertisements";
     /**
-     * Shared timer for scheduling GC tasks.
+     * The maximum number of expired records purged while holding the database
+     * write lock.
      */
-    private final static Timer GC_TIMER = new Timer("CM GC Timer", true);
+    private final static int GC_BATCH_SIZE = 64;
+    private final static String DATABASE_FILE_NAME = "advertisements";
     /**
      * the name we will use for the base directory
      */
@@ -151,10 +154,18 @@ public class XIndiceAdvertisementCache extends AbstractAdvertisementCache implem
      */
     private final XIndiceIndexer indexer;
     
+    /**
+     * Guards the record and index databases, which are shared by all
+     * directories and are not safe for concurrent modification. Reads take
+     * the read lock and proceed in parallel with each other. Modifications
+     * and closing the databases take the write lock.
+     */
+    private final ReentrantReadWriteLock dbLock = new ReentrantReadWriteLock();
+
     /**
      * If {@code true} then we will track changes to the indexes.
      */
-    private boolean trackDeltas;
+    private volatile boolean trackDeltas;
     /**
      * The current set of database changes we have accumulated.
      */
@@ -167,12 +178,22 @@ public class XIndiceAdvertisementCache extends AbstractAdvertisementCache implem
     /**
      * If {@code true} then this cache has been stopped.
      */
-    private boolean stop = false;
+    private volatile boolean stop = false;
     /**
      * The scheduler for our GC operations.
      */
     private final ScheduledFuture<?> gcTaskHandle;
 
+    /**
+     * If {@code true} then a GC operation is scheduled or running.
+     */
+    private final AtomicBoolean gcRunning = new AtomicBoolean(false);
+
+    /**
+     * The keys of the records ordered by the time at which they expire.
+     */
+    private final ExpirationIndex expirations = new ExpirationIndex();
+
     /**
      * The absolute time in milliseconds after which the next GC operation will
      * begin.
@@ -266,9 +287,12 @@ public class XIndiceAdvertisementCache extends AbstractAdvertisementCache implem
                 rebuildIndex();
             }
 
+            // Load the expiration times of the existing records.
+            executor.execute(new LoadExpirations());
+
             // Install Record GC task.
             gcTime = TimeUtils.toAbsoluteTimeMillis(gcMaxInterval);
-            gcTaskHandle = executor.scheduleAtFixedRate(new GC_Task(), GC_CHECK_PERIOD, GC_CHECK_PERIOD, TimeUnit.SECONDS);
+            gcTaskHandle = executor.scheduleAtFixedRate(new GC_Task(), GC_CHECK_PERIOD, GC_CHECK_PERIOD, TimeUnit.MILLISECONDS);
 
             Logging.logCheckedConfig(LOG, "Instantiated Cm for: ", rootDir.getAbsolutePath());
             
@@ -337,7 +361,7 @@ public class XIndiceAdvertisementCache extends AbstractAdvertisementCache implem
         return getRecords(dn, threshold, expirations, false);
     }
 
-    public synchronized List<InputStream> getRecords(String dn, int threshold, List<Long> expirations, boolean purge) {
+    public List<InputStream> getRecords(String dn, int threshold, List<Long> expirations, boolean purge) {
 
         ArrayList<InputStream> res = new ArrayList<InputStream>();
 
@@ -347,11 +371,22 @@ public class XIndiceAdvertisementCache extends AbstractAdvertisementCache implem
     	} else {
 
             IndexQuery iq = new IndexQuery(IndexQuery.SW, new Value(dn+'/'));
+            Lock readLock = dbLock.readLock();
 
             try {
 
-                SearchCallback callback = new SearchCallback(cacheDB, indexer, threshold, purge);
-                cacheDB.query(iq, callback);
+                SearchCallback callback = new SearchCallback(cacheDB, threshold, purge);
+
+                readLock.lock();
+                try {
+                    cacheDB.query(iq, callback);
+                } finally {
+                    readLock.unlock();
+                }
+
+                if (purge && !callback.expired.isEmpty()) {
+                    purgeExpired(dn, callback.expired);
+                }
 
                 Collection<SearchResult> searchResults = callback.results;
 
@@ -373,18 +408,136 @@ public class XIndiceAdvertisementCache extends AbstractAdvertisementCache implem
             return res;
     	}
     }
-    public synchronized void garbageCollect() {
+    /**
+     * Purges the expired records in batches of at most {@link #GC_BATCH_SIZE}
+     * records, earliest expiration first. The database write lock is only
+     * held while a batch of records is purged.
+     */
+    public void garbageCollect() {
 
-        // calling getRecords() is good enough since it removes expired entries
-        Map<String, NameIndexer> map = indexer.getIndexers();
+        long gcStart = TimeUtils.timeNow();
+        long maxPause = 0;
+        int batches = 0;
+        int purged = 0;
 
-        for (String indexName : map.keySet()) {
+        while (!stop) {
+            List<String> expired = expirations.getExpired(TimeUtils.timeNow(), GC_BATCH_SIZE);
 
-            long t0 = TimeUtils.timeNow();
-            getRecords(indexName, Integer.MAX_VALUE, null, true);
-            // LOGGING: was Finer
-            Logging.logCheckedDebug(LOG, "Cm garbageCollect :", indexName, " in :" + (TimeUtils.timeNow() - t0));
+            if (expired.isEmpty()) {
+                break;
+            }
+
+            // group the batch by directory
+            Map<String, List<String>> byDirectory = new HashMap<String, List<String>>();
 
+            for (String key : expired) {
+                int slash = key.indexOf('/');
+                String dn = (slash < 0) ? key : key.substring(0, slash);
+                List<String> keys = byDirectory.get(dn);
+
+                if (null == keys) {
+                    keys = new ArrayList<String>();
+                    byDirectory.put(dn, keys);
+                }
+                keys.add(key);
+            }
+
+            for (Map.Entry<String, List<String>> directory : byDirectory.entrySet()) {
+                long pauseStart = TimeUtils.timeNow();
+                int batchPurged = purgeExpiredKeys(directory.getKey(), directory.getValue());
+
+                if (batchPurged < 0) {
+                    // the failure has been logged, try again next time.
+                    return;
+                }
+
+                purged += batchPurged;
+                maxPause = Math.max(maxPause, TimeUtils.timeNow() - pauseStart);
+            }
+
+            batches++;
+        }
+
+        long elapsed = TimeUtils.timeNow() - gcStart;
+
+        Logging.logCheckedDebug(LOG, "Cm garbageCollect purged ", purged, " records in ", batches, " batches in ", elapsed,
+            "ms (", (elapsed > 0) ? (purged * TimeUtils.ASECOND / elapsed) : purged, " records/s). Longest pause ", maxPause,
+            "ms. ", expirations.size(), " records remain.");
+    }
+
+    /**
+     * Purges the specified records and their index entries if they are still
+     * expired.
+     *
+     * @param dn   directory name
+     * @param keys keys of expired records in the directory
+     * @return the number of records purged or -1 if the purge failed.
+     */
+    private int purgeExpiredKeys(String dn, List<String> keys) {
+        int purged = 0;
+
+        dbLock.writeLock().lock();
+        try {
+            for (String aKey : keys) {
+                Key key = new Key(aKey);
+                Record record = cacheDB.readRecord(key);
+
+                if (null == record) {
+                    expirations.remove(aKey);
+                    continue;
+                }
+
+                if (calcExpiration(record) >= 0) {
+                    // refreshed since it was indexed
+                    expirations.put(aKey, (Long) record.getMetaData(Record.LIFETIME));
+                    continue;
+                }
+
+                Map<String, String> indexables = getIndexables(record);
+
+                if (null != indexables) {
+                    indexer.removeFromIndex(addKey(dn, indexables), cacheDB.findValue(key));
+                }
+
+                cacheDB.deleteRecord(key);
+                expirations.remove(aKey);
+                purged++;
+            }
+
+            return purged;
+
+        } catch (DBException de) {
+
+            Logging.logCheckedWarning(LOG, "Exception while purging expired records\n", de);
+            return -1;
+
+        } catch (IOException ie) {
+
+            Logging.logCheckedWarning(LOG, "Exception while purging expired records\n", ie);
+            return -1;
+
+        } finally {
+            dbLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the index fields of the advertisement held by a record.
+     *
+     * @param record the record
+     * @return the index fields or {@code null} if the record does not contain
+     * an advertisement.
+     */
+    private static Map<String, String> getIndexables(Record record) {
+        try {
+            InputStream is = record.getValue().getInputStream();
+            XMLDocument asDoc = (XMLDocument) StructuredDocumentFactory.newStructuredDocument(MimeMediaType.XMLUTF8, is);
+            Advertisement adv = AdvertisementFactory.newAdvertisement(asDoc);
+
+            return CacheUtils.getIndexfields(adv.getIndexFields(), asDoc);
+        } catch (Exception notAnAdv) {
+            // raw records are not indexed
+            return null;
         }
     }
 
@@ -398,10 +551,10 @@ public class XIndiceAdvertisementCache extends AbstractAdvertisementCache implem
      *         document will expire. -1 is returned if the file is not
      *         recognized or already expired.
      */
-    public synchronized long getLifetime(String dn, String fn) {
+    public long getLifetime(String dn, String fn) {
         try {
             Key key = new Key(dn + "/" + fn);
-            Record record = cacheDB.readRecord(key);
+            Record record = readRecord(dn, key);
 
             if (record == null) return -1;
             
@@ -442,10 +595,10 @@ public class XIndiceAdvertisementCache extends AbstractAdvertisementCache implem
      * @return number of milliseconds until the file expires or -1 if the
      *         file is not recognized or already expired.
      */
-    public synchronized long getExpirationtime(String dn, String fn) {
+    public long getExpirationtime(String dn, String fn) {
         try {
             Key key = new Key(dn + "/" + fn);
-            Record record = cacheDB.readRecord(key);
+            Record record = readRecord(dn, key);
 
             // Retrieving amount of relative time record should stay in cache
             long expiration = calcExpiration(record);
@@ -539,7 +692,7 @@ public class XIndiceAdvertisementCache extends AbstractAdvertisementCache implem
         Key key = new Key(dn + "/" + fn);
         try {
 
-            Record record = cacheDB.readRecord(key);
+            Record record = readRecord(dn, key);
 
             if (record == null) return null;
             
@@ -570,17 +723,20 @@ public class XIndiceAdvertisementCache extends AbstractAdvertisementCache implem
      * @param fn file name
      * @throws IOException if an I/O error occurs
      */
-    public synchronized void remove(String dn, String fn) throws IOException {
+    public void remove(String dn, String fn) throws IOException {
 
+        if (fn == null) {
+            return;
+        }
+
+        dbLock.writeLock().lock();
         try {
-            if (fn == null) {
-                return;
-            }
             Key key = new Key(dn + "/" + fn);
             Record record = cacheDB.readRecord(key);
             long removePos = cacheDB.findValue(key);
 
             cacheDB.deleteRecord(key);
+            expirations.remove(dn + "/" + fn);
             if (record != null) {
                 try {
                     if (calcExpiration(record) > 0) {
@@ -610,6 +766,8 @@ public class XIndiceAdvertisementCache extends AbstractAdvertisementCache implem
             // entry does not exist
             Logging.logCheckedDebug(LOG, "failed to remove ", dn, "/", fn);
             
+        } finally {
+            dbLock.writeLock().unlock();
         }
         
     }
@@ -636,12 +794,12 @@ public class XIndiceAdvertisementCache extends AbstractAdvertisementCache implem
      * @return byte [] containing the file
      * @throws IOException if an I/O error occurs
      */
-    public synchronized byte[] restoreBytes(String dn, String fn) throws IOException {
+    public byte[] restoreBytes(String dn, String fn) throws IOException {
 
         try {
 
             Key key = new Key(dn + "/" + fn);
-            Record record = cacheDB.readRecord(key);
+            Record record = readRecord(dn, key);
 
             if (record == null) return null;
             
@@ -688,28 +846,32 @@ public class XIndiceAdvertisementCache extends AbstractAdvertisementCache implem
      * @param expiration Document (global) expiration time in relative ms
      * @throws IOException Thrown if there is a problem saving the document.
      */
-    public synchronized void save(String dn, String fn, Advertisement adv, long lifetime, long expiration) throws IOException {
+    public void save(String dn, String fn, Advertisement adv, long lifetime, long expiration) throws IOException {
+
+        if (expiration < 0 || lifetime <= 0) {
+            throw new IllegalArgumentException("Bad expiration or lifetime.");
+        }
+        XMLDocument doc;
 
         try {
+            doc = (XMLDocument) adv.getSignedDocument();
+        } catch (RuntimeException e) {
+            IOException failure = new IOException("Advertisement couldn't be saved");
+            failure.initCause(e);
+            throw failure;
+        }
 
-            if (expiration < 0 || lifetime <= 0) {
-                throw new IllegalArgumentException("Bad expiration or lifetime.");
-            }
-            XMLDocument doc;
+        // Serialize and extract the index fields before taking any locks.
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        doc.sendToStream(baos);
+        baos.close();
 
-            try {
-                doc = (XMLDocument) adv.getSignedDocument();
-            } catch (RuntimeException e) {
-                IOException failure = new IOException("Advertisement couldn't be saved");
-                failure.initCause(e);
-                throw failure;
-            }
+        Map<String, String> indexables = CacheUtils.getIndexfields(adv.getIndexFields(), doc);
 
-            // save the new version
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            doc.sendToStream(baos);
-            baos.close();
+        dbLock.writeLock().lock();
+        try {
 
+            // save the new version
             Key key = new Key(dn + "/" + fn);
             Value value = new Value(baos.toByteArray());
             Long oldLife = null;
@@ -741,7 +903,7 @@ public class XIndiceAdvertisementCache extends AbstractAdvertisementCache implem
             }
 
             long pos = cacheDB.writeRecord(key, value, absoluteLifetime, expiration);
-            Map<String, String> indexables = CacheUtils.getIndexfields(adv.getIndexFields(), doc);
+            expirations.put(dn + "/" + fn, absoluteLifetime);
             Map<String, String> keyedIdx = addKey(dn, indexables);
 
             Logging.logCheckedDebug(LOG, "Indexing ", keyedIdx, " at ", pos);
@@ -761,6 +923,8 @@ public class XIndiceAdvertisementCache extends AbstractAdvertisementCache implem
             failure.initCause(de);
             throw failure;
             
+        } finally {
+            dbLock.writeLock().unlock();
         }
 
     }
@@ -776,7 +940,7 @@ public class XIndiceAdvertisementCache extends AbstractAdvertisementCache implem
      * @param expiration Document (global) expiration time in relative ms
      * @throws IOException Thrown if there is a problem saving the document.
      */
-    public synchronized void save(String dn, String fn, byte[] data, long lifetime, long expiration) throws IOException {
+    public void save(String dn, String fn, byte[] data, long lifetime, long expiration) throws IOException {
 
         /*
          * REMINDER:
@@ -785,11 +949,12 @@ public class XIndiceAdvertisementCache extends AbstractAdvertisementCache implem
          * - expiration is the maximum amount of relative time an advertisement lives in cache
          */
 
-        try {
-            if (expiration < 0 || lifetime <= 0) {
-                throw new IllegalArgumentException("Bad expiration or lifetime.");
-            }
+        if (expiration < 0 || lifetime <= 0) {
+            throw new IllegalArgumentException("Bad expiration or lifetime.");
+        }
 
+        dbLock.writeLock().lock();
+        try {
             Key key = new Key(dn + "/" + fn);
             Value value = new Value(data);
             Long oldLife = null;
@@ -834,6 +999,7 @@ public class XIndiceAdvertisementCache extends AbstractAdvertisementCache implem
              * We register an absolute lifetime and a relative expiration
              */
             cacheDB.writeRecord(key, value, absoluteLifetime, expiration);
+            expirations.put(dn + "/" + fn, absoluteLifetime);
 
         } catch (DBException de) {
 
@@ -842,6 +1008,73 @@ public class XIndiceAdvertisementCache extends AbstractAdvertisementCache implem
             failure.initCause(de);
             throw failure;
 
+        } finally {
+            dbLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reads a record while holding the database read lock.
+     *
+     * @param dn  directory name
+     * @param key the record key
+     * @return the record or {@code null} if there is no such record.
+     * @throws DBException if a DB error occurs
+     */
+    private Record readRecord(String dn, Key key) throws DBException {
+        Lock readLock = dbLock.readLock();
+
+        readLock.lock();
+        try {
+            return cacheDB.readRecord(key);
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * Removes expired records and their index entries. Records which have
+     * been refreshed since they were found are left alone.
+     *
+     * @param dn      directory name
+     * @param expired keys of the expired records by position
+     */
+    private void purgeExpired(String dn, Map<Long, Key> expired) {
+        dbLock.writeLock().lock();
+        try {
+            List<Long> positions = new ArrayList<Long>(expired.size());
+            List<Key> keys = new ArrayList<Key>(expired.size());
+
+            for (Map.Entry<Long, Key> anExpired : expired.entrySet()) {
+                Record record = cacheDB.readRecord(anExpired.getValue());
+
+                if ((null != record) && (calcExpiration(record) < 0)) {
+                    positions.add(anExpired.getKey());
+                    keys.add(anExpired.getValue());
+                }
+            }
+
+            if (!positions.isEmpty()) {
+                indexer.purge(positions);
+
+                for (Key aKey : keys) {
+                    cacheDB.deleteRecord(aKey);
+                    expirations.remove(aKey.toString());
+                }
+            }
+
+            Logging.logCheckedDebug(LOG, "Purged ", keys.size(), " expired records from ", dn);
+
+        } catch (DBException ex) {
+
+            Logging.logCheckedWarning(LOG, "Exception while purging expired records\n", ex);
+
+        } catch (IOException ie) {
+
+            Logging.logCheckedWarning(LOG, "Exception while purging expired records\n", ie);
+
+        } finally {
+            dbLock.writeLock().unlock();
         }
     }
 
@@ -933,19 +1166,22 @@ public class XIndiceAdvertisementCache extends AbstractAdvertisementCache implem
     private final class SearchCallback implements BTreeCallback {
 
         private final BTreeFiler cacheDB;
-        private final XIndiceIndexer indexer;
         private final int threshold;
         private final Collection<SearchResult> results;
         private final boolean purge;
 
-        SearchCallback(BTreeFiler cacheDB, XIndiceIndexer indexer, int threshold) {
-            this(cacheDB, indexer, threshold, false);
+        /**
+         * If purging, the keys of the expired records found by position.
+         * Only valid for queries of the record database.
+         */
+        private final Map<Long, Key> expired = new HashMap<Long, Key>();
+
+        SearchCallback(BTreeFiler cacheDB, int threshold) {
+            this(cacheDB, threshold, false);
         }
 
-        SearchCallback(BTreeFiler cacheDB, XIndiceIndexer indexer, int threshold, boolean purge) {
+        SearchCallback(BTreeFiler cacheDB, int threshold, boolean purge) {
             this.cacheDB = cacheDB;
-            this.indexer = indexer;
-//            this.results = results;
             this.threshold = threshold;
             this.results = new ArrayList((threshold < 200) ? threshold : 200);
             this.purge = purge;
@@ -987,22 +1223,8 @@ public class XIndiceAdvertisementCache extends AbstractAdvertisementCache implem
             if (exp < 0) {
 
                 if (purge) {
-
-                    try {
-
-                        indexer.purge(pos);
-                        cacheDB.deleteRecord(record.getKey());
-
-                    } catch (DBException ex) {
-
-                        Logging.logCheckedWarning(LOG, "Exception while reading indexed\n", ex);
-
-                    } catch (IOException ie) {
-
-                        Logging.logCheckedWarning(LOG, "Exception while reading indexed", ie);
-                        
-                    }
-
+                    // purged once the query is complete and the read lock released.
+                    expired.put(pos, new Key(val));
                 } else {
                     inconvenienceLevel.incrementAndGet();
                 }
@@ -1052,13 +1274,21 @@ public class XIndiceAdvertisementCache extends AbstractAdvertisementCache implem
      * @param expirations List to contain expirations
      * @return Enumeration containing of all the documents as InputStreams
      */
-    public synchronized List<InputStream> search(String dn, String attribute, String value, int threshold, List<Long> expirations) {
+    public List<InputStream> search(String dn, String attribute, String value, int threshold, List<Long> expirations) {
 
         try {
             IndexQuery iq = getIndexQuery(value);
 
-            SearchCallback callback = new SearchCallback(cacheDB, indexer, threshold);
-            indexer.search(iq, dn + attribute, callback);
+            SearchCallback callback = new SearchCallback(cacheDB, threshold);
+            Lock readLock = dbLock.readLock();
+
+            readLock.lock();
+            try {
+                indexer.search(iq, dn + attribute, callback);
+            } finally {
+                readLock.unlock();
+            }
+
             Collection<SearchResult> searchResults = callback.results;
 
             List<InputStream> res = new ArrayList<InputStream>(searchResults.size());
@@ -1090,8 +1320,11 @@ public class XIndiceAdvertisementCache extends AbstractAdvertisementCache implem
      * @param clearDeltas if true clears the delta cache
      * @return SrdiMessage.Entries
      */
-    public synchronized List<SrdiMessage.Entry> getEntries(String dn, boolean clearDeltas) {
+    public List<SrdiMessage.Entry> getEntries(String dn, boolean clearDeltas) {
         List<SrdiMessage.Entry> res = new ArrayList<SrdiMessage.Entry>();
+        Lock readLock = dbLock.readLock();
+
+        readLock.lock();
         try {
             Map<String, NameIndexer> map = indexer.getIndexers();
             BTreeFiler listDB = indexer.getListDB();
@@ -1112,6 +1345,8 @@ public class XIndiceAdvertisementCache extends AbstractAdvertisementCache implem
 
             Logging.logCheckedError(LOG, "Exception while searching in index\n", ex);
 
+        } finally {
+            readLock.unlock();
         }
 
         if (clearDeltas) {
@@ -1193,14 +1428,15 @@ public class XIndiceAdvertisementCache extends AbstractAdvertisementCache implem
     /**
      * stop the cm
      */
-    public synchronized void stop() {
+    public void stop() {
+        dbLock.writeLock().lock();
         try {
 
             cacheDB.close();
             indexer.close();
             stop = true;
             gcTaskHandle.cancel(false);
-            GC_TIMER.purge();    
+            expirations.clear();
             
             //mindarchitect 16052014
             //Closing executor gracefully
@@ -1210,6 +1446,8 @@ public class XIndiceAdvertisementCache extends AbstractAdvertisementCache implem
 
             Logging.logCheckedError(LOG, "Unable to close advertisments.tbl\n", ex);
 
+        } finally {
+            dbLock.writeLock().unlock();
         }
 
     }
@@ -1231,11 +1469,15 @@ public class XIndiceAdvertisementCache extends AbstractAdvertisementCache implem
                 }
 
                 // Decide if it's time to run the GC operation.
-                if ((inconvenienceLevel.get() > MAX_INCONVENIENCE_LEVEL) || (TimeUtils.timeNow() > gcTime)) {
-                    inconvenienceLevel.set(0);
-                    gcTime = TimeUtils.toAbsoluteTimeMillis(gcMaxInterval);
+                long now = TimeUtils.timeNow();
 
-                    executor.execute(new RecordGC());
+                if ((inconvenienceLevel.get() > MAX_INCONVENIENCE_LEVEL) || (now > gcTime) || (now >= expirations.getNextExpiration())) {
+                    if (gcRunning.compareAndSet(false, true)) {
+                        inconvenienceLevel.set(0);
+                        gcTime = TimeUtils.toAbsoluteTimeMillis(gcMaxInterval);
+
+                        executor.execute(new RecordGC());
+                    }
                 }
 
             } catch (Throwable all) {
@@ -1272,6 +1514,69 @@ public class XIndiceAdvertisementCache extends AbstractAdvertisementCache implem
 
                 Logging.logCheckedError(LOG, "Uncaught Throwable in thread :", Thread.currentThread().getName(), "\n", all);
                 
+            } finally {
+                gcRunning.set(false);
+            }
+        }
+    }
+
+    /**
+     * An Executor task which loads the expiration times of the records
+     * already in the database into the expiration index.
+     */
+    private final class LoadExpirations implements Runnable {
+
+        /**
+         * {@inheritDoc}
+         */
+        public void run() {
+
+            try {
+
+                final List<String> keys = new ArrayList<String>();
+
+                dbLock.readLock().lock();
+                try {
+                    cacheDB.query(new IndexQuery(IndexQuery.ANY, "*"), new BTreeCallback() {
+                        public boolean indexInfo(Value val, long pos) {
+                            keys.add(val.toString());
+                            return !stop;
+                        }
+                    });
+                } finally {
+                    dbLock.readLock().unlock();
+                }
+
+                int loaded = 0;
+
+                for (String aKey : keys) {
+                    if (stop) {
+                        return;
+                    }
+
+                    int slash = aKey.indexOf('/');
+                    Lock readLock = dbLock.readLock();
+
+                    readLock.lock();
+                    try {
+                        Record record = cacheDB.readRecord(new Key(aKey));
+
+                        if ((null != record) && expirations.putIfAbsent(aKey, (Long) record.getMetaData(Record.LIFETIME))) {
+                            loaded++;
+                        }
+                    } finally {
+                        readLock.unlock();
+                    }
+                }
+
+                Logging.logCheckedDebug(LOG, "Loaded expiration times of ", loaded, " records");
+
+            } catch (Throwable all) {
+
+                if (!stop) {
+                    Logging.logCheckedError(LOG, "Uncaught Throwable in thread :", Thread.currentThread().getName(), "\n", all);
+                }
+
             }
         }
     }
@@ -1284,7 +1589,7 @@ public class XIndiceAdvertisementCache extends AbstractAdvertisementCache implem
      *
      * @throws java.io.IOException
      */
-    private synchronized void rebuildIndex() throws DBException, IOException {
+    private void rebuildIndex() throws DBException, IOException {
 
         Logging.logCheckedInfo(LOG, "Rebuilding indices");
         
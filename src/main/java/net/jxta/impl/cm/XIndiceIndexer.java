@@ -60,6 +60,7 @@ import net.jxta.impl.xindice.core.DBException;
 import net.jxta.impl.xindice.core.data.Key;
 import net.jxta.impl.xindice.core.data.Record;
 import net.jxta.impl.xindice.core.data.Value;
+import net.jxta.impl.xindice.core.filer.BTree;
 import net.jxta.impl.xindice.core.filer.BTreeCallback;
 import net.jxta.impl.xindice.core.filer.BTreeException;
 import net.jxta.impl.xindice.core.filer.BTreeFiler;
@@ -78,12 +79,12 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 public final class XIndiceIndexer {
 
@@ -91,11 +92,25 @@ public final class XIndiceIndexer {
 
     private final static String listFileName = "offsets";
 
+    /**
+     * System property for the number of tree nodes kept in memory by each
+     * index and by the list database. Defaults to the filer default.
+     */
+    public final static String NODE_CACHE_SIZE_SYSPROP = "net.jxta.impl.cm.XIndiceIndexer.nodeCacheSize";
+
+    /**
+     * System property for the number of pages kept in memory by each index
+     * and by the list database. Defaults to the filer default.
+     */
+    public final static String PAGE_CACHE_SIZE_SYSPROP = "net.jxta.impl.cm.XIndiceIndexer.pageCacheSize";
+
     private String dir = null;
     private String file = null;
-    private final Map<String, NameIndexer> indices = new HashMap<String, NameIndexer>();
+    private final Map<String, NameIndexer> indices = new ConcurrentHashMap<String, NameIndexer>();
     private BTreeFiler listDB = null;
     private boolean sync = true;
+    private Integer nodeCacheSize = Integer.getInteger(NODE_CACHE_SIZE_SYSPROP);
+    private Integer pageCacheSize = Integer.getInteger(PAGE_CACHE_SIZE_SYSPROP);
 
     /*
      *      XIndiceIndexer manages indexes to various advertisement types,
@@ -119,6 +134,36 @@ public final class XIndiceIndexer {
         this.sync = sync;
     }
 
+    /**
+     * Sets the number of tree nodes kept in memory by each index and by the
+     * list database. Must be called before {@link #setLocation}.
+     *
+     * @param nodeCacheSize the number of nodes
+     */
+    public void setNodeCacheSize(int nodeCacheSize) {
+        this.nodeCacheSize = nodeCacheSize;
+    }
+
+    /**
+     * Sets the number of pages kept in memory by each index and by the list
+     * database. Must be called before {@link #setLocation}.
+     *
+     * @param pageCacheSize the number of pages
+     */
+    public void setPageCacheSize(int pageCacheSize) {
+        this.pageCacheSize = pageCacheSize;
+    }
+
+    private void configure(BTree filer) {
+        filer.setSync(sync);
+        if (null != nodeCacheSize) {
+            filer.setNodeCacheSize(nodeCacheSize);
+        }
+        if (null != pageCacheSize) {
+            filer.setPageCacheSize(pageCacheSize);
+        }
+    }
+
     public void setLocation(String dir, String file) {
         this.dir = dir;
         this.file = file;
@@ -147,7 +192,7 @@ public final class XIndiceIndexer {
                         // location should be the same as in
                         // addToIndex below
                         indexer.setLocation(dir, file + "-" + name);
-                        indexer.setSync(sync);
+                        configure(indexer);
                         if (!indexer.open()) {
                             indexer.create();
                             indexer.open();
@@ -167,7 +212,7 @@ public final class XIndiceIndexer {
         try {
             // record pointers
             listDB = new BTreeFiler();
-            listDB.setSync(sync);
+            configure(listDB);
             listDB.setLocation(directory.getCanonicalPath(), file + "-" + listFileName);
             if (!listDB.open()) {
                 listDB.create();
@@ -339,7 +384,7 @@ public final class XIndiceIndexer {
                 indexer = new NameIndexer();
                 // location should be the same as in setLocation above
                 indexer.setLocation(dir, file + "-" + name);
-                indexer.setSync(sync);
+                configure(indexer);
                 if (!indexer.open()) {
                     indexer.create();
                     indexer.open();
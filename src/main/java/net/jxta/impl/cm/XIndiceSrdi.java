@@ -98,6 +98,18 @@ public class XIndiceSrdi implements SrdiAPI {
 
     private final static transient Logger LOG = Logging.getLogger(XIndiceSrdi.class.getName());
 
+    /**
+     * System property for the number of tree nodes kept in memory by the
+     * peer id database and each of its indexes. Defaults to the filer default.
+     */
+    public final static String NODE_CACHE_SIZE_SYSPROP = "net.jxta.impl.cm.XIndiceSrdi.nodeCacheSize";
+
+    /**
+     * System property for the number of pages kept in memory by the peer id
+     * database and each of its indexes. Defaults to the filer default.
+     */
+    public final static String PAGE_CACHE_SIZE_SYSPROP = "net.jxta.impl.cm.XIndiceSrdi.pageCacheSize";
+
     private volatile boolean stop = false;
     private final XIndiceIndexer srdiIndexer;
     private final BTreeFiler cacheDB;
@@ -154,6 +166,16 @@ public class XIndiceSrdi implements SrdiAPI {
 	        // lazy checkpoint
 	        cacheDB.setSync(false);
 	        cacheDB.setLocation(storageDir.getCanonicalPath(), indexName);
+
+	        Integer nodeCacheSize = Integer.getInteger(NODE_CACHE_SIZE_SYSPROP);
+	        Integer pageCacheSize = Integer.getInteger(PAGE_CACHE_SIZE_SYSPROP);
+
+	        if (null != nodeCacheSize) {
+	            cacheDB.setNodeCacheSize(nodeCacheSize);
+	        }
+	        if (null != pageCacheSize) {
+	            cacheDB.setPageCacheSize(pageCacheSize);
+	        }
 	
 	        if (!cacheDB.open()) {
 	            cacheDB.create();
@@ -163,6 +185,12 @@ public class XIndiceSrdi implements SrdiAPI {
 	
 	        // index
 	        srdiIndexer = new XIndiceIndexer(false);
+	        if (null != nodeCacheSize) {
+	            srdiIndexer.setNodeCacheSize(nodeCacheSize);
+	        }
+	        if (null != pageCacheSize) {
+	            srdiIndexer.setPageCacheSize(pageCacheSize);
+	        }
 	        srdiIndexer.setLocation(storageDir.getCanonicalPath(), indexName);
 	        if (!srdiIndexer.open()) {
 	            srdiIndexer.create();
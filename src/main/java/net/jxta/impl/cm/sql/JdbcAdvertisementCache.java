@@ -57,25 +57,29 @@
 package net.jxta.impl.cm.sql;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import javax.sql.ConnectionPoolDataSource;
 
 import net.jxta.document.Advertisement;
 import net.jxta.document.AdvertisementFactory;
-import net.jxta.document.Document;
 import net.jxta.document.MimeMediaType;
 import net.jxta.document.StructuredDocument;
 import net.jxta.document.StructuredDocumentFactory;
@@ -96,15 +100,18 @@ import net.jxta.protocol.SrdiMessage.Entry;
  * <ul>
  * <li>A connection pool is used to deal with concurrent access, rather than attempting
  * to synchronize access to a single connection.</li>
- * <li>We assume JDBC 3.0 prepared statement pooling is available in the database, rather
- * than trying to hold on to PreparedStatement objects for as long as possible (impossible
- * with the connection pool strategy in use).</li>
+ * <li>Connections taken from the pool are kept open between operations, each with its own
+ * cache of PreparedStatements, so that the statements are only parsed and planned once per
+ * connection rather than once per call.</li>
+ * <li>The schema carries a revision number so that indexes added in later versions are
+ * created when an existing database is opened.</li>
  * </ul>
  */
 public abstract class JdbcAdvertisementCache extends AbstractAdvertisementCache {
 
 	private static final Logger LOG = Logging.getLogger(JdbcAdvertisementCache.class.getName());
 	private static final int MAX_CONNECTIONS = 16;
+	private static final int CONNECTION_TIMEOUT = 60;
 	
 	private static final String CREATE_RECORD_TABLE_SQL 
 		= "CREATE TABLE Record \n" + 
@@ -132,6 +139,25 @@ public abstract class JdbcAdvertisementCache extends AbstractAdvertisementCache
 	private static final String CREATE_DELTA_EXPIRY_INDEX_SQL
 		= "CREATE INDEX RecordExpiryIndex ON Record ( lifetime )";
 	
+	/**
+	 * The current revision of the schema. Revision 2 adds indexes covering the
+	 * search and record listing queries.
+	 */
+	private static final int SCHEMA_REVISION = 2;
+	
+	private static final String CREATE_SCHEMA_REVISION_TABLE_SQL
+		= "CREATE TABLE SchemaRevision ( revision INT NOT NULL )";
+	
+	private static final String CREATE_INDEXFIELD_SEARCH_INDEX_SQL
+		= "CREATE INDEX IndexFieldSearchIndex ON IndexField ( dn, name, value, fn )";
+	
+	private static final String CREATE_RECORD_DN_LIFETIME_INDEX_SQL
+		= "CREATE INDEX RecordDnLifetimeIndex ON Record ( dn, lifetime, expiry )";
+	
+	private static final String GET_SCHEMA_REVISION_SQL = "SELECT revision FROM SchemaRevision";
+	private static final String DELETE_SCHEMA_REVISION_SQL = "DELETE FROM SchemaRevision";
+	private static final String PUT_SCHEMA_REVISION_SQL = "INSERT INTO SchemaRevision VALUES (?)";
+	
 	private static final String PUT_INDEXFIELD_SQL
 		= "INSERT INTO IndexField VALUES (?,?,?,?)";
 	
@@ -167,6 +193,15 @@ public abstract class JdbcAdvertisementCache extends AbstractAdvertisementCache
 	}
 	
 	private MiniConnectionPoolManager connPool;
+	private final Queue<CachedConnection> idleConnections = new ConcurrentLinkedQueue<CachedConnection>();
+	
+	/**
+	 * Connections are held open rather than closed back to the pool, so the
+	 * number in use is bounded here. Each permit covers one connection, in use
+	 * or idle, so a waiting thread is handed a released connection.
+	 */
+	private final Semaphore connectionPermits = new Semaphore(MAX_CONNECTIONS, true);
+	private volatile boolean stopped = false;
 	protected File dbDir;
 	private DeltaTracker deltaTracker;
 	
@@ -178,7 +213,7 @@ public abstract class JdbcAdvertisementCache extends AbstractAdvertisementCache
 		File dbParentDir = new File(storeRoot);
 		dbDir = new File(dbParentDir, areaName);
 		ConnectionPoolDataSource dataSource = createDataSource();
-		connPool = new MiniConnectionPoolManager(dataSource,MAX_CONNECTIONS);
+		connPool = new MiniConnectionPoolManager(dataSource,MAX_CONNECTIONS,CONNECTION_TIMEOUT);
 		deltaTracker = new DeltaTracker();
 		deltaTracker.setTrackingDeltas(trackDeltas);
 		
@@ -207,25 +242,67 @@ public abstract class JdbcAdvertisementCache extends AbstractAdvertisementCache
 		try {
 			conn = getConnection();
 			
-			if(testDatabaseSetUp(conn)) {
-				successful = true;
+			if(!testDatabaseSetUp(conn)) {
+				executeCreate(conn, CREATE_RECORD_TABLE_SQL);
+				executeCreate(conn, CREATE_INDEXFIELD_TABLE_SQL);
+				executeCreate(conn, CREATE_DELTA_EXPIRY_INDEX_SQL);
 			}
 			
-			executeCreate(conn, CREATE_RECORD_TABLE_SQL);
-			executeCreate(conn, CREATE_INDEXFIELD_TABLE_SQL);
-			executeCreate(conn, CREATE_DELTA_EXPIRY_INDEX_SQL);
+			int revision = getSchemaRevision(conn);
+			if(revision < 2) {
+				executeCreate(conn, CREATE_INDEXFIELD_SEARCH_INDEX_SQL);
+				executeCreate(conn, CREATE_RECORD_DN_LIFETIME_INDEX_SQL);
+			}
+			
+			if(revision < SCHEMA_REVISION) {
+				putSchemaRevision(conn, revision);
+			}
 			
 			conn.commit();
 			successful = true;
-		} 
-		catch(Exception e){
-			e.printStackTrace();
-		}
-		finally {
+		} finally {
 			closeResources(conn, !successful);
 		}
 	}
 	
+	/**
+	 * @return the revision of the schema in the database, 0 if it predates
+	 * revision tracking.
+	 */
+	private int getSchemaRevision(Connection conn) throws SQLException {
+		if(!tableExists(conn, "SchemaRevision")) {
+			return 0;
+		}
+		
+		Statement st = null;
+		ResultSet rs = null;
+		try {
+			st = conn.createStatement();
+			rs = st.executeQuery(GET_SCHEMA_REVISION_SQL);
+			return rs.next() ? rs.getInt(1) : 0;
+		} finally {
+			closeResultSet(rs);
+			closeStatement(st);
+		}
+	}
+	
+	private void putSchemaRevision(Connection conn, int oldRevision) throws SQLException {
+		if(oldRevision == 0 && !tableExists(conn, "SchemaRevision")) {
+			executeCreate(conn, CREATE_SCHEMA_REVISION_TABLE_SQL);
+		} else {
+			executeCreate(conn, DELETE_SCHEMA_REVISION_SQL);
+		}
+		
+		PreparedStatement st = null;
+		try {
+			st = conn.prepareStatement(PUT_SCHEMA_REVISION_SQL);
+			st.setInt(1, SCHEMA_REVISION);
+			st.executeUpdate();
+		} finally {
+			closeStatement(st);
+		}
+	}
+	
 	/**
 	 * Attempts to close the common resources used in most DB accesses. If any
 	 * exceptions occur, they are logged and ignored. 
@@ -282,10 +359,28 @@ public abstract class JdbcAdvertisementCache extends AbstractAdvertisementCache
 	private boolean testDatabaseSetUp(Connection conn) throws SQLException {
 
             // check to see if the Record table exists
-            return conn.getMetaData().getTables(null, null, "Record", null).next();
+            return tableExists(conn, "Record");
 
 	}
 	
+	private boolean tableExists(Connection conn, String table) throws SQLException {
+		// unquoted identifiers are stored in the case the database prefers
+		DatabaseMetaData metaData = conn.getMetaData();
+		if(metaData.storesUpperCaseIdentifiers()) {
+			table = table.toUpperCase();
+		} else if(metaData.storesLowerCaseIdentifiers()) {
+			table = table.toLowerCase();
+		}
+		
+		ResultSet rs = null;
+		try {
+			rs = metaData.getTables(null, null, table, null);
+			return rs.next();
+		} finally {
+			closeResultSet(rs);
+		}
+	}
+	
 	private Connection getConnection() throws SQLException {
 
             Connection connection = connPool.getConnection();
@@ -295,6 +390,127 @@ public abstract class JdbcAdvertisementCache extends AbstractAdvertisementCache
 
 	}
 	
+	/**
+	 * Takes an idle connection, or opens a new one from the pool if there is
+	 * none, waiting for another thread to release one if all are in use.
+	 * @throws SQLException if no connection is released within {@link #CONNECTION_TIMEOUT}
+	 * seconds, or the wait is interrupted.
+	 */
+	private CachedConnection acquireConnection() throws SQLException {
+		try {
+			if(!connectionPermits.tryAcquire(CONNECTION_TIMEOUT, TimeUnit.SECONDS)) {
+				throw new SQLException("Timeout while waiting for a free database connection");
+			}
+		} catch(InterruptedException e) {
+			SQLException wrapper = new SQLException("Interrupted while waiting for a database connection");
+			wrapper.initCause(e);
+			throw wrapper;
+		}
+		
+		boolean acquired = false;
+		try {
+			CachedConnection conn = idleConnections.poll();
+			if(conn == null) {
+				conn = new CachedConnection(getConnection());
+			}
+			
+			acquired = true;
+			return conn;
+		} finally {
+			if(!acquired) {
+				connectionPermits.release();
+			}
+		}
+	}
+	
+	/**
+	 * Returns a connection taken with {@link #acquireConnection()} for reuse,
+	 * keeping its statements open. If the connection cannot be rolled back it
+	 * is closed and returned to the pool instead, as is any connection released
+	 * after the cache has been stopped.
+	 * @param rollBack if true, an attempt will be made to roll back the connection.
+	 */
+	private void releaseConnection(CachedConnection conn, boolean rollBack) {
+		if(conn == null) return;
+		
+		try {
+			if(rollBack) {
+				try {
+					conn.rollback();
+				} catch(SQLException e) {
+					Logging.logCheckedError(LOG, "Failed to roll back connection\n", e);
+					conn.close();
+					return;
+				}
+			}
+			
+			if(stopped) {
+				conn.close();
+			} else {
+				idleConnections.offer(conn);
+			}
+		} finally {
+			connectionPermits.release();
+		}
+	}
+	
+	/**
+	 * A pooled connection held open together with the statements prepared on it.
+	 * Only used by one thread at a time.
+	 */
+	private static class CachedConnection {
+		
+		private final Connection conn;
+		private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+		
+		CachedConnection(Connection conn) {
+			this.conn = conn;
+		}
+		
+		/**
+		 * @return the statement for the given SQL, prepared on first use and
+		 * with its parameters cleared on subsequent ones.
+		 */
+		PreparedStatement prepare(String sql) throws SQLException {
+			PreparedStatement st = statements.get(sql);
+			if(st == null) {
+				st = conn.prepareStatement(sql);
+				statements.put(sql, st);
+			} else {
+				st.clearParameters();
+				st.clearBatch();
+				st.setMaxRows(0);
+			}
+			
+			return st;
+		}
+		
+		void commit() throws SQLException {
+			conn.commit();
+		}
+		
+		void rollback() throws SQLException {
+			conn.rollback();
+		}
+		
+		void close() {
+			for(PreparedStatement st : statements.values()) {
+				try {
+					st.close();
+				} catch(SQLException e) {
+					Logging.logCheckedError(LOG, "Failed to close statement\n", e);
+				}
+			}
+			statements.clear();
+			
+			try {
+				conn.close();
+			} catch(SQLException e) {
+				Logging.logCheckedError(LOG, "Failed to close connection\n", e);
+			}
+		}
+	}
+	
 	private void executeCreate(Connection conn, String sql) throws SQLException {
 		Statement st = null;
 		try {
@@ -307,13 +523,13 @@ public abstract class JdbcAdvertisementCache extends AbstractAdvertisementCache
 	
 	private static final String REMOVE_EXPIRED_RECORDS = "DELETE FROM Record WHERE lifetime < ?";
 	public void garbageCollect() throws IOException {
-		Connection conn = null;
+		CachedConnection conn = null;
 		PreparedStatement st = null;
 		boolean rollback = true;
 		try {
-			conn = getConnection();
+			conn = acquireConnection();
 			
-			st = conn.prepareStatement(REMOVE_EXPIRED_RECORDS);
+			st = conn.prepare(REMOVE_EXPIRED_RECORDS);
 			st.setLong(1, TimeUtils.timeNow());
 			st.executeUpdate();
 			
@@ -322,7 +538,7 @@ public abstract class JdbcAdvertisementCache extends AbstractAdvertisementCache
 		} catch(SQLException e) {
 			throw createWrapper("Error occurred while garbage collecting", e);
 		} finally {
-			closeResources(conn, rollback, st);
+			releaseConnection(conn, rollback);
 		}
 	}
 
@@ -338,13 +554,13 @@ public abstract class JdbcAdvertisementCache extends AbstractAdvertisementCache
 		  "  AND Record.fn = IndexField.fn";
 	public List<Entry> getEntries(String dn, boolean clearDeltas) throws IOException {
 		LinkedList<Entry> entries = new LinkedList<Entry>();
-		Connection conn = null;
+		CachedConnection conn = null;
 		PreparedStatement st = null;
 		ResultSet rs = null;
 		boolean rollback = true;
 		try {
-			conn = getConnection();
-			st = conn.prepareStatement(GET_ENTRIES_SQL);
+			conn = acquireConnection();
+			st = conn.prepare(GET_ENTRIES_SQL);
 			st.setString(1, dn);
 			st.execute();
 			
@@ -368,20 +584,20 @@ public abstract class JdbcAdvertisementCache extends AbstractAdvertisementCache
 			throw createWrapper("Unable to get entries for dn=[" + dn + "]", e);
 		} finally {
 			closeResultSet(rs);
-			closeResources(conn, rollback, st);
+			releaseConnection(conn, rollback);
 		}
 	}
 
 	private static final String GET_EXPIRATION_SQL = "SELECT lifetime, expiry FROM Record WHERE dn = ? AND fn = ?";
 	
 	public long getExpirationtime(String dn, String fn) throws IOException {
-		Connection conn = null;
+		CachedConnection conn = null;
 		PreparedStatement st = null;
 		ResultSet rs = null;
 		boolean rollback = true;
 		try {
-			conn = getConnection();
-			st = conn.prepareStatement(GET_EXPIRATION_SQL);
+			conn = acquireConnection();
+			st = conn.prepare(GET_EXPIRATION_SQL);
 			st.setString(1, dn);
 			st.setString(2, fn);
 			st.execute();
@@ -401,20 +617,20 @@ public abstract class JdbcAdvertisementCache extends AbstractAdvertisementCache
 			throw createWrapper("Unable to get expiration for dn=[" + dn + "], fn=[" + fn + "]", e);
 		} finally {
 			closeResultSet(rs);
-			closeResources(conn, rollback, st);
+			releaseConnection(conn, rollback);
 		}
 	}
 
 	private static final String GET_INPUT_STREAM_SQL = "SELECT data FROM Record WHERE dn = ? AND fn = ?";
 	
 	public InputStream getInputStream(String dn, String fn) throws IOException {
-		Connection conn = null;
+		CachedConnection conn = null;
 		PreparedStatement st = null;
 		ResultSet rs = null;
 		boolean rollback = true;
 		try {
-			conn = getConnection();
-			st = conn.prepareStatement(GET_INPUT_STREAM_SQL);
+			conn = acquireConnection();
+			st = conn.prepare(GET_INPUT_STREAM_SQL);
 			st.setString(1, dn);
 			st.setString(2, fn);
 			st.execute();
@@ -432,20 +648,20 @@ public abstract class JdbcAdvertisementCache extends AbstractAdvertisementCache
 			throw createWrapper("Unable to get input stream for dn=[" + dn + "], fn=[" + fn + "]", e);
 		} finally {
 			closeResultSet(rs);
-			closeResources(conn, rollback, st);
+			releaseConnection(conn, rollback);
 		}
 	}
 
 	private static final String GET_LIFETIME_SQL = "SELECT lifetime FROM Record WHERE dn = ? AND fn = ?";
 	
 	public long getLifetime(String dn, String fn) throws IOException {
-		Connection conn = null;
+		CachedConnection conn = null;
 		PreparedStatement st = null;
 		ResultSet rs = null;
 		boolean rollback = true;
 		try {
-			conn = getConnection();
-			st = conn.prepareStatement(GET_LIFETIME_SQL);
+			conn = acquireConnection();
+			st = conn.prepare(GET_LIFETIME_SQL);
 			st.setString(1, dn);
 			st.setString(2, fn);
 			
@@ -463,7 +679,7 @@ public abstract class JdbcAdvertisementCache extends AbstractAdvertisementCache
 			throw createWrapper("Unable to get lifetime for dn=[" + dn + "], fn=[" + fn + "]", e);
 		} finally {
 			closeResultSet(rs);
-			closeResources(conn, rollback, st);
+			releaseConnection(conn, rollback);
 		}
 	}
 	
@@ -475,14 +691,14 @@ public abstract class JdbcAdvertisementCache extends AbstractAdvertisementCache
 			return results;
 		}
 		
-		Connection conn = null;
+		CachedConnection conn = null;
 		PreparedStatement st = null;
 		ResultSet rs = null;
 		boolean rollback = true;
 		try {
-			conn = getConnection();
+			conn = acquireConnection();
 			String queryStr = GET_RECORDS_SQL;
-			st = conn.prepareStatement(queryStr);
+			st = conn.prepare(queryStr);
 			st.setString(1, dn);
 			st.setLong(2, TimeUtils.timeNow());
 			st.setMaxRows(threshold);
@@ -511,7 +727,7 @@ public abstract class JdbcAdvertisementCache extends AbstractAdvertisementCache
 			throw createWrapper("Error occurred while fetching records for dn=[" + dn + "]", e);
 		} finally {
 			closeResultSet(rs);
-			closeResources(conn, rollback, st);
+			releaseConnection(conn, rollback);
 		}
 		
 		return results;
@@ -525,16 +741,16 @@ public abstract class JdbcAdvertisementCache extends AbstractAdvertisementCache
 		  "  AND isAdvertisement = 1";
 	private static final String REMOVE_RECORD_SQL = "DELETE FROM Record WHERE dn = ? AND fn = ?";
 	public void remove(String dn, String fn) throws IOException {
-		Connection conn = null;
+		CachedConnection conn = null;
 		PreparedStatement fetchSt = null;
 		PreparedStatement st = null;
 		ResultSet rs = null;
 		boolean rollback = true;
 		try {
-			conn = getConnection();
+			conn = acquireConnection();
 			
 			if(deltaTracker.isTrackingDeltas()) {
-				fetchSt = conn.prepareStatement(GET_DATA_AND_EXPIRY_SQL);
+				fetchSt = conn.prepare(GET_DATA_AND_EXPIRY_SQL);
 				fetchSt.setString(1, dn);
 				fetchSt.setString(2, fn);
 				fetchSt.execute();
@@ -548,7 +764,7 @@ public abstract class JdbcAdvertisementCache extends AbstractAdvertisementCache
 				}
 			}
 			
-			st = conn.prepareStatement(REMOVE_RECORD_SQL);
+			st = conn.prepare(REMOVE_RECORD_SQL);
 			st.setString(1, dn);
 			st.setString(2, fn);
 			
@@ -562,7 +778,7 @@ public abstract class JdbcAdvertisementCache extends AbstractAdvertisementCache
 			throw createWrapper("Unable to remove record for dn=[" + dn + "], fn=[" + fn + "]", e);
 		} finally {
 			closeResultSet(rs);
-			closeResources(conn, rollback, fetchSt, st);
+			releaseConnection(conn, rollback);
 		}
 	}
 
@@ -572,23 +788,23 @@ public abstract class JdbcAdvertisementCache extends AbstractAdvertisementCache
 			throw new IllegalArgumentException("Bad expiration or lifetime.");
 		}
 		
-		Connection conn = null;
-		Statement st = null;
+		// Serialize and extract the index fields before taking a connection.
+		byte[] data = getBytesForAdvert(adv);
+		StructuredDocument<?> doc = (StructuredDocument<?>)adv.getSignedDocument();
+		Map<String, String> indexFields = CacheUtils.getIndexfields(adv.getIndexFields(), doc);
+		
+		CachedConnection conn = null;
 		boolean rollback = true;
 		try {
-			conn = getConnection();
-			boolean wasNew = putRecord(conn, dn, fn, true, getBytesForAdvert(adv), lifetime, expiration);
+			conn = acquireConnection();
+			boolean wasNew = putRecord(conn, dn, fn, true, data, lifetime, expiration);
 			
 			if(!wasNew) {
 				deleteIndexables(conn, dn, fn);
 			}
 			
-                        StructuredDocument<?> doc = (StructuredDocument<?>)adv.getSignedDocument();
-			Map<String, String> indexFields = CacheUtils.getIndexfields(adv.getIndexFields(), doc);
-			for(String indexField : indexFields.keySet()) {
-				if(!putIndexable(conn, dn, fn, indexField, indexFields.get(indexField))) {
-					return;
-				}
+			if(!putIndexables(conn, dn, fn, indexFields)) {
+				return;
 			}
 			
 			deltaTracker.generateDeltas(dn, adv, null, expiration);
@@ -598,40 +814,46 @@ public abstract class JdbcAdvertisementCache extends AbstractAdvertisementCache
 		} catch(SQLException e) {
 			throw createWrapper("Failed to write advertisement to cache", e);
 		} finally {
-			closeResources(conn, rollback, st);
+			releaseConnection(conn, rollback);
 		}
 	}
 	
 	private static final String DELETE_INDEXABLES_SQL = "DELETE FROM IndexField WHERE dn = ? AND fn = ?";
-	private void deleteIndexables(Connection conn, String dn, String fn) throws SQLException {
-		PreparedStatement st = null;
-		try {
-			st = conn.prepareStatement(DELETE_INDEXABLES_SQL);
-			st.setString(1, dn);
-			st.setString(2, fn);
-			
-			st.execute();
-		} finally {
-			closeStatement(st);
-		}
+	private void deleteIndexables(CachedConnection conn, String dn, String fn) throws SQLException {
+		PreparedStatement st = conn.prepare(DELETE_INDEXABLES_SQL);
+		st.setString(1, dn);
+		st.setString(2, fn);
+		
+		st.execute();
 	}
 
 	private static final String PUT_INDEXABLE_SQL = "INSERT INTO IndexField VALUES (?,?,?,?)";
-	private boolean putIndexable(Connection conn, String dn, String fn, String field, String value) throws SQLException {
-		PreparedStatement st = null;
-		try {
-			st = conn.prepareStatement(PUT_INDEXABLE_SQL);
+	
+	/**
+	 * Inserts all the index fields of a record as a single batch.
+	 * @return true if every field was inserted, false otherwise.
+	 */
+	private boolean putIndexables(CachedConnection conn, String dn, String fn, Map<String, String> indexFields) throws SQLException {
+		if(indexFields.isEmpty()) {
+			return true;
+		}
+		
+		PreparedStatement st = conn.prepare(PUT_INDEXABLE_SQL);
+		for(Map.Entry<String, String> indexField : indexFields.entrySet()) {
 			st.setString(1, dn);
 			st.setString(2, fn);
-			st.setString(3, field);
-			st.setString(4, value);
-			
-			st.executeUpdate();
-			
-			return st.getUpdateCount() == 1;
-		} finally {
-			closeStatement(st);
+			st.setString(3, indexField.getKey());
+			st.setString(4, indexField.getValue());
+			st.addBatch();
+		}
+		
+		for(int count : st.executeBatch()) {
+			if(count != 1 && count != Statement.SUCCESS_NO_INFO) {
+				return false;
+			}
 		}
+		
+		return true;
 	}
 
 	private IOException createWrapper(String message, SQLException e) {
@@ -641,10 +863,7 @@ public abstract class JdbcAdvertisementCache extends AbstractAdvertisementCache
 	}
 
 	private byte[] getBytesForAdvert(Advertisement adv) throws IOException {
-		Document doc = adv.getSignedDocument();
-		ByteArrayOutputStream byteStream = new ByteArrayOutputStream(2048);
-		doc.sendToStream(byteStream);
-		return byteStream.toByteArray();
+		return adv.getSignedDocumentBytes();
 	}
 
 	public void save(String dn, String fn, byte[] data, long lifetime,
@@ -653,10 +872,10 @@ public abstract class JdbcAdvertisementCache extends AbstractAdvertisementCache
 		if(lifetime < 0 || expiration < 0) {
 			throw new IllegalArgumentException("Bad expiration or lifetime.");
 		}
-		Connection conn = null;
+		CachedConnection conn = null;
 		boolean rollback = true;
 		try {
-			conn = getConnection();
+			conn = acquireConnection();
 			putRecord(conn, dn, fn, false, data, lifetime, expiration);
 			
 			conn.commit();
@@ -666,7 +885,7 @@ public abstract class JdbcAdvertisementCache extends AbstractAdvertisementCache
 			wrapper.initCause(e);
 			throw wrapper;
 		} finally {
-			closeResources(conn, rollback);
+			releaseConnection(conn, rollback);
 		}
 	}
 	
@@ -674,7 +893,7 @@ public abstract class JdbcAdvertisementCache extends AbstractAdvertisementCache
 	 * @return true if the record was new, false otherwise.
 	 * @throws SQLException if an error occurred, or writing the record failed
 	 */
-	private boolean putRecord(Connection conn, String dn, String fn, boolean isAdvertisement, byte[] data, long lifetime, long expiration) throws SQLException {
+	private boolean putRecord(CachedConnection conn, String dn, String fn, boolean isAdvertisement, byte[] data, long lifetime, long expiration) throws SQLException {
 		
 		long newLifetime = TimeUtils.toAbsoluteTimeMillis(lifetime);
 		Long oldLifetime = getOldLifetime(conn, dn, fn);
@@ -696,11 +915,10 @@ public abstract class JdbcAdvertisementCache extends AbstractAdvertisementCache
 	}
 
 	private static final String GET_OLD_LIFETIME_SQL = "SELECT lifetime FROM Record WHERE dn = ? AND fn = ?";
-	private Long getOldLifetime(Connection conn, String dn, String fn) throws SQLException {
-		PreparedStatement st = null;
+	private Long getOldLifetime(CachedConnection conn, String dn, String fn) throws SQLException {
 		ResultSet rs = null;
 		try {
-			st = conn.prepareStatement(GET_OLD_LIFETIME_SQL);
+			PreparedStatement st = conn.prepare(GET_OLD_LIFETIME_SQL);
 			st.setString(1, dn);
 			st.setString(2, fn);
 			
@@ -714,50 +932,39 @@ public abstract class JdbcAdvertisementCache extends AbstractAdvertisementCache
 			}
 		} finally {
 			closeResultSet(rs);
-			closeStatement(st);
 		}
 	}
 	
 	private static final String INSERT_RECORD_SQL = "INSERT INTO Record VALUES (?,?,?,?,?,?)";
-	private void insertRecord(Connection conn, String dn, String fn, boolean isAdvertisment, byte[] data, long newLifetime, long boundedExpiration) throws SQLException {
-		PreparedStatement st = null;
-		try {
-			st = conn.prepareStatement(INSERT_RECORD_SQL);
-			st.setString(1, dn);
-			st.setString(2, fn);
-			st.setInt(3, isAdvertisment ? 1 : 0);
-			st.setLong(4, newLifetime);
-			st.setLong(5, boundedExpiration);
-			st.setBytes(6, data);
-			st.execute();
-			
-			if(st.getUpdateCount() != 1) {
-				throw new SQLException("Incorrect number of rows updated");
-			}
-		} finally {
-			closeStatement(st);
+	private void insertRecord(CachedConnection conn, String dn, String fn, boolean isAdvertisment, byte[] data, long newLifetime, long boundedExpiration) throws SQLException {
+		PreparedStatement st = conn.prepare(INSERT_RECORD_SQL);
+		st.setString(1, dn);
+		st.setString(2, fn);
+		st.setInt(3, isAdvertisment ? 1 : 0);
+		st.setLong(4, newLifetime);
+		st.setLong(5, boundedExpiration);
+		st.setBytes(6, data);
+		st.execute();
+		
+		if(st.getUpdateCount() != 1) {
+			throw new SQLException("Incorrect number of rows updated");
 		}
 	}
 
 	private static final String UPDATE_RECORD_SQL = "UPDATE Record SET lifetime = ?, expiry = ?, data = ?, isAdvertisement = ? WHERE dn = ? AND fn = ?";
-	private void updateRecord(Connection conn, String dn, String fn, boolean isAdvertisement, byte[] data, long newLifetime, long expiration) throws SQLException {
-		PreparedStatement st = null;
-		try {
-			st = conn.prepareStatement(UPDATE_RECORD_SQL);
-			st.setLong(1, newLifetime);
-			st.setLong(2, expiration);
-			st.setBytes(3, data);
-			st.setInt(4, isAdvertisement ? 1 : 0);
-			st.setString(5, dn);
-			st.setString(6, fn);
-			
-			st.execute();
-			
-			if(st.getUpdateCount() != 1) {
-				throw new SQLException("Incorrect number of rows updated");
-			}
-		} finally {
-			closeStatement(st);
+	private void updateRecord(CachedConnection conn, String dn, String fn, boolean isAdvertisement, byte[] data, long newLifetime, long expiration) throws SQLException {
+		PreparedStatement st = conn.prepare(UPDATE_RECORD_SQL);
+		st.setLong(1, newLifetime);
+		st.setLong(2, expiration);
+		st.setBytes(3, data);
+		st.setInt(4, isAdvertisement ? 1 : 0);
+		st.setString(5, dn);
+		st.setString(6, fn);
+		
+		st.execute();
+		
+		if(st.getUpdateCount() != 1) {
+			throw new SQLException("Incorrect number of rows updated");
 		}
 	}
 
@@ -780,12 +987,13 @@ public abstract class JdbcAdvertisementCache extends AbstractAdvertisementCache
 		boolean withValueMatch = !("*".equals(value));
 		boolean returnExpiry = (expirations != null);
 		
-		Connection conn = null;
+		CachedConnection conn = null;
 		PreparedStatement st = null;
+		ResultSet resultSet = null;
 		boolean rollback = true;
 		try {
-			conn = getConnection();
-			st = conn.prepareStatement(SEARCH_RECORDS_SQL(withValueMatch));
+			conn = acquireConnection();
+			st = conn.prepare(SEARCH_RECORDS_SQL(withValueMatch));
 			
 			int attrIndex = 1;
 			st.setString(attrIndex++, attribute);
@@ -797,7 +1005,7 @@ public abstract class JdbcAdvertisementCache extends AbstractAdvertisementCache
 			st.setMaxRows(threshold);
 			
 			st.execute();
-			ResultSet resultSet = st.getResultSet();
+			resultSet = st.getResultSet();
 			
 			while(resultSet.next()) {
 				byte[] bytes = resultSet.getBytes(1);
@@ -818,7 +1026,8 @@ public abstract class JdbcAdvertisementCache extends AbstractAdvertisementCache
 		} catch(SQLException e) {
 			throw createWrapper("SQLException occurred while searching. dn=[" + dn + "], attribute=[" + attribute + "], value=[" + value + "]", e);
 		} finally {
-			closeResources(conn, rollback, st);
+			closeResultSet(resultSet);
+			releaseConnection(conn, rollback);
 		}
 	}
 
@@ -830,6 +1039,13 @@ public abstract class JdbcAdvertisementCache extends AbstractAdvertisementCache
 
 	public void stop() throws IOException {
 
+            stopped = true;
+
+            CachedConnection conn;
+            while((conn = idleConnections.poll()) != null) {
+                conn.close();
+            }
+
             try {
 
                 connPool.dispose();
@@ -0,0 +1,571 @@
+/*
+ * Copyright (c) 2001-2007 Sun Microsystems, Inc.  All rights reserved.
+ *
+ *  The Sun Project JXTA(TM) Software License
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *
+ *  3. The end-user documentation included with the redistribution, if any, must
+ *     include the following acknowledgment: "This product includes software
+ *     developed by Sun Microsystems, Inc. for JXTA(TM) technology."
+ *     Alternately, this acknowledgment may appear in the software itself, if
+ *     and wherever such third-party acknowledgments normally appear.
+ *
+ *  4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA" must
+ *     not be used to endorse or promote products derived from this software
+ *     without prior written permission. For written permission, please contact
+ *     Project JXTA at http://www.jxta.org.
+ *
+ *  5. Products derived from this software may not be called "JXTA", nor may
+ *     "JXTA" appear in their name, without prior written permission of Sun.
+ *
+ *  THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+ *  INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ *  FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SUN
+ *  MICROSYSTEMS OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ *  OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ *  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ *  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *  JXTA is a registered trademark of Sun Microsystems, Inc. in the United
+ *  States and other countries.
+ *
+ *  Please see the license information page at :
+ *  <http://www.jxta.org/project/www/license.html> for instructions on use of
+ *  the license in source files.
+ *
+ *
+ *  This software consists of voluntary contributions made by many individuals
+ *  on behalf of Project JXTA. For more information on Project JXTA, please see
+ *  http://www.jxta.org.
+ *
+ *  This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.discovery;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.jxta.impl.util.TimeUtils;
+import net.jxta.logging.Logger;
+import net.jxta.logging.Logging;
+
+/**
+ * A short lived cache of the local results of discovery queries. Used by
+ * rendezvous peers which frequently receive the same query from many edge
+ * peers within a short period.
+ * <p/>
+ * Results are keyed by the normalized query (directory, attribute, value and
+ * threshold) and kept for a fixed time to live. Identical queries which
+ * arrive while the results are still being looked up wait for that lookup
+ * rather than starting another one.
+ * <p/>
+ * Publishing or flushing an advertisement must be reported through
+ * {@link #invalidate(String, String[])} so that results which may include it
+ * are discarded.
+ */
+public class DiscoveryQueryCache {
+
+    private final static Logger LOG = Logging.getLogger(DiscoveryQueryCache.class.getName());
+
+    /**
+     * Performs the lookup for a query which is not cached.
+     */
+    public interface Lookup {
+
+        /**
+         * Looks up the results of the query.
+         *
+         * @param expirations Receives the expiration of each result.
+         * @return The results as serialized advertisements.
+         */
+        List<String> lookup(List<Long> expirations);
+    }
+
+    /**
+     * The results of a query.
+     */
+    public final static class Results {
+
+        private final List<String> responses;
+        private final List<Long> expirations;
+
+        Results(List<String> responses, List<Long> expirations) {
+            this.responses = responses;
+            this.expirations = expirations;
+        }
+
+        /**
+         * Returns the serialized advertisements.
+         *
+         * @return An unmodifiable list of the serialized advertisements.
+         */
+        public List<String> getResponses() {
+            return responses;
+        }
+
+        /**
+         * Returns the remaining relative expiration of each advertisement.
+         *
+         * @return An unmodifiable list of expirations in milliseconds.
+         */
+        public List<Long> getExpirations() {
+            return expirations;
+        }
+    }
+
+    /**
+     * The normalized form of a query.
+     */
+    private final static class Key {
+
+        final String attr;
+        final String value;
+        final int threshold;
+
+        Key(String attr, String value, int threshold) {
+            this.attr = attr;
+            this.value = value;
+            this.threshold = threshold;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) obj;
+
+            return (threshold == other.threshold) && equal(attr, other.attr) && equal(value, other.value);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = threshold;
+
+            result = 31 * result + ((null == attr) ? 0 : attr.hashCode());
+            result = 31 * result + ((null == value) ? 0 : value.hashCode());
+            return result;
+        }
+
+        private static boolean equal(String a, String b) {
+            return (null == a) ? (null == b) : a.equals(b);
+        }
+    }
+
+    /**
+     * A cached or in flight lookup.
+     */
+    private final static class Entry {
+
+        final FutureTask<Results> task;
+
+        /**
+         * The time at which the lookup completed or {@code Long.MAX_VALUE}
+         * while it is in flight.
+         */
+        volatile long completed = Long.MAX_VALUE;
+
+        Entry(FutureTask<Results> task) {
+            this.task = task;
+        }
+    }
+
+    /**
+     * The entries of each directory.
+     */
+    private final Map<String, ConcurrentMap<Key, Entry>> directories = new ConcurrentHashMap<String, ConcurrentMap<Key, Entry>>();
+
+    /**
+     * How long results are kept in milliseconds.
+     */
+    private final long timeToLive;
+
+    /**
+     * The maximum number of entries kept per directory.
+     */
+    private final int maxEntries;
+
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong coalesced = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong invalidations = new AtomicLong(0);
+
+    /**
+     * Creates a new cache.
+     *
+     * @param timeToLive How long results are kept in milliseconds.
+     * @param maxEntries The maximum number of queries for which results are kept.
+     */
+    public DiscoveryQueryCache(long timeToLive, int maxEntries) {
+        if (timeToLive <= 0) {
+            throw new IllegalArgumentException("Invalid time to live " + timeToLive);
+        }
+
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Invalid maximum entries " + maxEntries);
+        }
+
+        this.timeToLive = timeToLive;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Returns the results of a query, performing the lookup only if the
+     * results are neither cached nor already being looked up.
+     *
+     * @param dn        The directory searched.
+     * @param attr      The attribute searched or {@code null} for any record.
+     * @param value     The value searched.
+     * @param threshold The maximum number of results.
+     * @param lookup    Performs the lookup.
+     * @return The results of the query.
+     */
+    public Results get(String dn, String attr, String value, int threshold, final Lookup lookup) {
+        ConcurrentMap<Key, Entry> entries = getDirectory(dn);
+        Key key = new Key(attr, value, threshold);
+
+        while (true) {
+            long now = TimeUtils.timeNow();
+            Entry entry = entries.get(key);
+
+            if (null != entry) {
+                long completed = entry.completed;
+
+                if (Long.MAX_VALUE == completed) {
+                    coalesced.incrementAndGet();
+                    return await(entry, lookup);
+                }
+
+                if (TimeUtils.toRelativeTimeMillis(now, completed) < timeToLive) {
+                    hits.incrementAndGet();
+                    return age(await(entry, lookup), TimeUtils.toRelativeTimeMillis(now, completed));
+                }
+
+                // Expired, make way for a new lookup.
+                if (entries.remove(key, entry)) {
+                    size.decrementAndGet();
+                }
+                continue;
+            }
+
+            misses.incrementAndGet();
+
+            final Entry fresh = new Entry(new FutureTask<Results>(new Callable<Results>() {
+
+                public Results call() {
+                    List<Long> expirations = new ArrayList<Long>();
+                    List<String> responses = lookup.lookup(expirations);
+
+                    return new Results(Collections.unmodifiableList(responses), Collections.unmodifiableList(expirations));
+                }
+            }));
+
+            if (size.get() >= maxEntries) {
+                purge();
+            }
+
+            if (size.get() >= maxEntries) {
+                // Still full, look up without caching.
+                fresh.task.run();
+                return await(fresh, lookup);
+            }
+
+            if (null != entries.putIfAbsent(key, fresh)) {
+                // Lost the race to another lookup of the same query.
+                misses.decrementAndGet();
+                continue;
+            }
+
+            size.incrementAndGet();
+
+            fresh.task.run();
+            fresh.completed = TimeUtils.timeNow();
+
+            try {
+                return fresh.task.get();
+            } catch (Exception failed) {
+                if (entries.remove(key, fresh)) {
+                    size.decrementAndGet();
+                }
+
+                return rethrow(failed);
+            }
+        }
+    }
+
+    /**
+     * Discards the cached results of a directory which may be affected by a
+     * change to an advertisement. In flight lookups are discarded as well,
+     * queries already waiting for them still receive their results.
+     *
+     * @param dn     The directory of the advertisement.
+     * @param fields The index fields of the advertisement or {@code null}
+     *               to discard all of the results of the directory.
+     */
+    public void invalidate(String dn, String[] fields) {
+        ConcurrentMap<Key, Entry> entries = directories.get(dn);
+
+        if (null == entries) {
+            return;
+        }
+
+        List<String> indexed = (null == fields) ? null : Arrays.asList(fields);
+        Iterator<Map.Entry<Key, Entry>> eachEntry = entries.entrySet().iterator();
+
+        while (eachEntry.hasNext()) {
+            Map.Entry<Key, Entry> entry = eachEntry.next();
+            String attr = entry.getKey().attr;
+
+            if ((null == indexed) || (null == attr) || indexed.contains(attr)) {
+                if (entries.remove(entry.getKey(), entry.getValue())) {
+                    size.decrementAndGet();
+                    invalidations.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Discards all cached results.
+     */
+    public void clear() {
+        for (String dn : directories.keySet()) {
+            invalidate(dn, null);
+        }
+    }
+
+    /**
+     * Returns the number of queries answered from cached results.
+     *
+     * @return The number of cache hits.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of queries which waited for an identical query
+     * already being looked up.
+     *
+     * @return The number of coalesced queries.
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * Returns the number of queries which required a lookup.
+     *
+     * @return The number of cache misses.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of lookups which were avoided, either by a cache
+     * hit or by waiting for an identical query.
+     *
+     * @return The number of saved lookups.
+     */
+    public long getSavedLookups() {
+        return hits.get() + coalesced.get();
+    }
+
+    /**
+     * Returns the proportion of queries which did not require a lookup.
+     *
+     * @return The hit rate between 0 and 1.
+     */
+    public double getHitRate() {
+        long saved = getSavedLookups();
+        long total = saved + misses.get();
+
+        return (0 == total) ? 0.0 : (double) saved / total;
+    }
+
+    /**
+     * Returns the number of entries discarded by invalidation.
+     *
+     * @return The number of invalidated entries.
+     */
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    /**
+     * Returns the number of cached or in flight queries.
+     *
+     * @return The number of entries.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "DiscoveryQueryCache[hits=" + getHits() + ", coalesced=" + getCoalesced() + ", misses=" + getMisses() + ", size=" + size() + "]";
+    }
+
+    /**
+     * Reads a result returned by the cache manager.
+     *
+     * @param is The serialized advertisement.
+     * @return The serialized advertisement or {@code null} if it could not be read.
+     */
+    static String streamToString(InputStream is) {
+        StringBuilder result = new StringBuilder();
+        char[] buf = new char[512];
+
+        try {
+            Reader reader = new InputStreamReader(is, "UTF-8");
+
+            while (true) {
+                int c = reader.read(buf);
+
+                if (c == -1) {
+                    break;
+                }
+                result.append(buf, 0, c);
+            }
+        } catch (IOException failed) {
+
+            Logging.logCheckedWarning(LOG, "Failed reading cached advertisement\n", failed);
+            return null;
+
+        } finally {
+            try {
+                is.close();
+            } catch (IOException ignored) {}
+        }
+
+        return result.toString();
+    }
+
+    private ConcurrentMap<Key, Entry> getDirectory(String dn) {
+        ConcurrentMap<Key, Entry> entries = directories.get(dn);
+
+        if (null == entries) {
+            synchronized (directories) {
+                entries = directories.get(dn);
+                if (null == entries) {
+                    entries = new ConcurrentHashMap<Key, Entry>();
+                    directories.put(dn, entries);
+                }
+            }
+        }
+
+        return entries;
+    }
+
+    /**
+     * Removes expired entries.
+     */
+    private void purge() {
+        long now = TimeUtils.timeNow();
+
+        for (ConcurrentMap<Key, Entry> entries : directories.values()) {
+            Iterator<Map.Entry<Key, Entry>> eachEntry = entries.entrySet().iterator();
+
+            while (eachEntry.hasNext()) {
+                Map.Entry<Key, Entry> entry = eachEntry.next();
+                long completed = entry.getValue().completed;
+
+                if ((Long.MAX_VALUE != completed) && (TimeUtils.toRelativeTimeMillis(now, completed) >= timeToLive)) {
+                    if (entries.remove(entry.getKey(), entry.getValue())) {
+                        size.decrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for the lookup of an entry to complete. If the waiting thread is
+     * interrupted or the lookup failed the lookup is performed directly.
+     */
+    private Results await(Entry entry, Lookup lookup) {
+        try {
+            return entry.task.get();
+        } catch (InterruptedException woken) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException failed) {
+            Logging.logCheckedDebug(LOG, "Coalesced lookup failed, looking up directly\n", failed);
+        }
+
+        List<Long> expirations = new ArrayList<Long>();
+        List<String> responses = lookup.lookup(expirations);
+
+        return new Results(responses, expirations);
+    }
+
+    /**
+     * Reduces the expirations of cached results by their age, dropping the
+     * results which have since expired.
+     */
+    private static Results age(Results results, long age) {
+        if (age <= 0) {
+            return results;
+        }
+
+        List<String> responses = new ArrayList<String>(results.responses.size());
+        List<Long> expirations = new ArrayList<Long>(results.expirations.size());
+
+        for (int i = 0; i < results.responses.size(); i++) {
+            long remaining = results.expirations.get(i) - age;
+
+            if (remaining > 0) {
+                responses.add(results.responses.get(i));
+                expirations.add(remaining);
+            }
+        }
+
+        return new Results(Collections.unmodifiableList(responses), Collections.unmodifiableList(expirations));
+    }
+
+    private static <T> T rethrow(Exception failed) {
+        Throwable cause = (failed instanceof ExecutionException) ? failed.getCause() : failed;
+
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+
+        throw new IllegalStateException("Discovery lookup failed", cause);
+    }
+}
@@ -77,6 +77,7 @@ import net.jxta.impl.protocol.DiscoveryQuery;
 import net.jxta.impl.protocol.DiscoveryResponse;
 import net.jxta.impl.protocol.ResolverQuery;
 import net.jxta.impl.protocol.ResolverResponse;
+import net.jxta.impl.protocol.ResolverSrdiMsgImpl;
 import net.jxta.impl.protocol.SrdiMessageImpl;
 import net.jxta.impl.resolver.InternalQueryHandler;
 import net.jxta.impl.util.TimeUtils;
@@ -148,6 +149,22 @@ public class DiscoveryServiceImpl implements DiscoveryService, InternalQueryHand
      */
     private final static int MAX_RESPONSES = 50;
 
+    /**
+     * System property which sets how long, in milliseconds, a rendezvous
+     * keeps the local results of a discovery query. Zero disables caching.
+     */
+    public final static String QUERY_CACHE_TTL_SYSPROP = DiscoveryServiceImpl.class.getName() + ".queryCacheTTL";
+
+    /**
+     * The default time to live of cached query results.
+     */
+    private final static long DEFAULT_QUERY_CACHE_TTL = 5 * TimeUtils.ASECOND;
+
+    /**
+     * The maximum number of queries for which results are cached.
+     */
+    private final static int QUERY_CACHE_SIZE = 1024;
+
     /**
      * The cache manager we're going to use to cache jxta advertisements
      */
@@ -185,6 +202,12 @@ public class DiscoveryServiceImpl implements DiscoveryService, InternalQueryHand
     private SrdiManager srdiManager = null;
     private long runInterval = 30 * TimeUtils.ASECOND;
 
+    /**
+     * Cache of local query results, only used while this peer is a
+     * rendezvous.
+     */
+    private volatile DiscoveryQueryCache queryCache = null;
+
     /**
      * Encapsulates current Membership Service credential.
      */
@@ -577,6 +600,7 @@ public class DiscoveryServiceImpl implements DiscoveryService, InternalQueryHand
         if (srdiManager != null) srdiManager.stop();
 
         srdiIndex = null;
+        queryCache = null;
 
         // Forget about all remaining listeners.
         listeners.clear();
@@ -602,6 +626,7 @@ public class DiscoveryServiceImpl implements DiscoveryService, InternalQueryHand
 
                 Logging.logCheckedDebug(LOG, "flushing adv ", advName, " of type ", dirname[type]);
                 cm.remove(dirname[type], advName);
+                invalidateQueryCache(type, null);
 
             } else {
 
@@ -660,6 +685,7 @@ public class DiscoveryServiceImpl implements DiscoveryService, InternalQueryHand
 
         if (advName != null) {
             cm.remove(dirname[type], advName);
+            invalidateQueryCache(type, adv);
         }
     }
 
@@ -729,6 +755,33 @@ public class DiscoveryServiceImpl implements DiscoveryService, InternalQueryHand
 
         // save it
         cm.save(dirname[type], advName, adv, lifetime, expiration);
+        invalidateQueryCache(type, adv);
+    }
+
+    /**
+     * Discards cached query results which may be affected by a change to an
+     * advertisement.
+     *
+     * @param type The discovery type of the advertisement.
+     * @param adv  The advertisement or {@code null} if it is unknown.
+     */
+    private void invalidateQueryCache(int type, Advertisement adv) {
+        DiscoveryQueryCache cache = queryCache;
+
+        if (null != cache) {
+            cache.invalidate(dirname[type], (null == adv) ? null : adv.getIndexFields());
+        }
+    }
+
+    /**
+     * Returns the cache of local query results, which provides hit rate and
+     * saved lookup metrics.
+     *
+     * @return The query cache or {@code null} if this peer is not a
+     *         rendezvous or caching is disabled.
+     */
+    public DiscoveryQueryCache getQueryCache() {
+        return queryCache;
     }
 
     /**
@@ -962,7 +1015,31 @@ public class DiscoveryServiceImpl implements DiscoveryService, InternalQueryHand
         Logging.logCheckedDebug(LOG, "start local search query", dq.getAttr(), " ", dq.getValue());
 
         List<Long> expirations = new ArrayList<Long>();
-        List<InputStream> results = rawSearch(dq.getDiscoveryType(), dq.getAttr(), dq.getValue(), thresh, expirations);
+        List<?> results;
+        DiscoveryQueryCache cache = queryCache;
+
+        if (null != cache) {
+
+            final int type = dq.getDiscoveryType();
+            final String attr = dq.getAttr();
+            final String value = dq.getValue();
+            final int threshold = thresh;
+
+            DiscoveryQueryCache.Results cached = cache.get(dirname[type], attr, value, thresh, new DiscoveryQueryCache.Lookup() {
+
+                public List<String> lookup(List<Long> lookupExpirations) {
+                    return readResults(rawSearch(type, attr, value, threshold, lookupExpirations), lookupExpirations);
+                }
+            });
+
+            results = cached.getResponses();
+            expirations = cached.getExpirations();
+
+        } else {
+
+            results = rawSearch(dq.getDiscoveryType(), dq.getAttr(), dq.getValue(), thresh, expirations);
+
+        }
 
         if (!results.isEmpty()) {
 
@@ -1163,6 +1240,33 @@ public class DiscoveryServiceImpl implements DiscoveryService, InternalQueryHand
         resolver.sendResponse(peerid, pushRes);
     }
 
+    /**
+     * Reads the results of a raw search into strings so that they can be
+     * cached. Results which cannot be read are dropped along with their
+     * expiration.
+     *
+     * @param results     The results of the raw search.
+     * @param expirations The expirations of the results.
+     * @return The results as serialized advertisements.
+     */
+    private static List<String> readResults(List<InputStream> results, List<Long> expirations) {
+        List<String> responses = new ArrayList<String>(results.size());
+
+        for (int i = results.size() - 1; i >= 0; i--) {
+            String response = DiscoveryQueryCache.streamToString(results.get(i));
+
+            if (null != response) {
+                responses.add(response);
+            } else if (i < expirations.size()) {
+                expirations.remove(i);
+            }
+        }
+
+        Collections.reverse(responses);
+
+        return responses;
+    }
+
     /**
      * Search for Advertisements that matches attr and value.
      *
@@ -1400,8 +1504,7 @@ public class DiscoveryServiceImpl implements DiscoveryService, InternalQueryHand
 
         try {
 
-            XMLDocument asDoc = (XMLDocument) StructuredDocumentFactory.newStructuredDocument(MimeMediaType.XMLUTF8, new StringReader(message.getPayload()));
-            srdiMsg = new SrdiMessageImpl(asDoc);
+            srdiMsg = ResolverSrdiMsgImpl.getSrdiMessage(message);
 
         } catch (Exception e) {
 
@@ -1600,6 +1703,12 @@ public class DiscoveryServiceImpl implements DiscoveryService, InternalQueryHand
             srdiManager = null;
         }
 
+        long queryCacheTTL = Long.getLong(QUERY_CACHE_TTL_SYSPROP, DEFAULT_QUERY_CACHE_TTL);
+
+        if (queryCacheTTL > 0) {
+            queryCache = new DiscoveryQueryCache(queryCacheTTL, QUERY_CACHE_SIZE);
+        }
+
         if (!localonly) {
 
             srdiManager = new SrdiManager(group, handlerName, this, srdiIndex);
@@ -1625,6 +1734,8 @@ public class DiscoveryServiceImpl implements DiscoveryService, InternalQueryHand
         }
 
         isRdv = false;
+        queryCache = null;
+
         if (rendezvous.isConnectedToRendezVous()) {
             // if we have a rendezvous connection track deltas, otherwise wait
             // for a connect event to set this option
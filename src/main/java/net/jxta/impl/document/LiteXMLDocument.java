@@ -63,6 +63,8 @@ import net.jxta.document.XMLDocument;
 
 import java.io.*;
 import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This class is an implementation of the StructuredDocument interface using
@@ -154,6 +156,53 @@ public class LiteXMLDocument extends LiteXMLElement implements XMLDocument<LiteX
      */
     private final MimeMediaType mimeType;
 
+    /**
+     * If {@code true} the document may not be modified, which allows its
+     * elements to cache their names, values and attributes.
+     */
+    private final boolean readOnly;
+
+    /**
+     * If {@code true} the document was parsed by {@link LiteXMLPullParser},
+     * otherwise by the lenient scanner.
+     */
+    private boolean pullParsed = false;
+
+    /**
+     * The location of the document type declaration found by the pull parser
+     * or {@code null} if there was none. It precedes the root element and is
+     * therefore not moved by modifications.
+     */
+    private charRange docTypeRange = null;
+
+    /**
+     * Parses a read-only document. Read-only documents are cheaper to query
+     * and should be preferred for documents which are only read, such as
+     * received messages.
+     *
+     * @param mimeType The mime type of the document.
+     * @param in       The source of the document.
+     * @return The document.
+     * @throws IOException If the source could not be read.
+     */
+    public static LiteXMLDocument newReadOnlyInstance(MimeMediaType mimeType, InputStream in) throws IOException {
+        return new LiteXMLDocument(mimeType, in, true);
+    }
+
+    /**
+     * Parses a read-only document. Read-only documents are cheaper to query
+     * and should be preferred for documents which are only read, such as
+     * received messages.
+     *
+     * @param mimeType The mime type of the document.
+     * @param in       The source of the document.
+     * @return The document.
+     * @throws IOException If the source could not be read.
+     */
+    public static LiteXMLDocument newReadOnlyInstance(MimeMediaType mimeType, Reader in) throws IOException {
+        return new LiteXMLDocument(mimeType, in, true);
+    }
+
     /**
      * Creates new LiteXMLDocument
      */
@@ -171,6 +220,8 @@ public class LiteXMLDocument extends LiteXMLElement implements XMLDocument<LiteX
 
         this.mimeType = mimeType;
 
+        readOnly = false;
+
         docContent = new StringBuilder();
 
         for (int eachChar = type.length() - 1; eachChar >= 0; eachChar--) {
@@ -221,12 +272,21 @@ public class LiteXMLDocument extends LiteXMLElement implements XMLDocument<LiteX
      * Creates new LiteXMLDocument
      */
     LiteXMLDocument(MimeMediaType mimeType, InputStream in) throws IOException {
+        this(mimeType, in, false);
+    }
+
+    /**
+     * Creates new LiteXMLDocument
+     */
+    LiteXMLDocument(MimeMediaType mimeType, InputStream in, boolean readOnly) throws IOException {
         super(null, (LiteXMLElement.tagRange) null);
 
         parent = this;
 
         this.mimeType = mimeType;
 
+        this.readOnly = readOnly;
+
         docContent = new StringBuilder();
 
         String charset = mimeType.getParameter("charset");
@@ -242,12 +302,21 @@ public class LiteXMLDocument extends LiteXMLElement implements XMLDocument<LiteX
      * Creates new LiteXMLDocument
      */
     LiteXMLDocument(MimeMediaType mimeType, Reader in) throws IOException {
+        this(mimeType, in, false);
+    }
+
+    /**
+     * Creates new LiteXMLDocument
+     */
+    LiteXMLDocument(MimeMediaType mimeType, Reader in, boolean readOnly) throws IOException {
         super(null, (LiteXMLElement.tagRange) null);
 
         parent = this;
 
         this.mimeType = mimeType;
 
+        this.readOnly = readOnly;
+
         docContent = new StringBuilder();
 
         init(in);
@@ -279,6 +348,13 @@ public class LiteXMLDocument extends LiteXMLElement implements XMLDocument<LiteX
         return mimeType;
     }
 
+    /**
+     * @return {@code true} if this document may not be modified.
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -319,6 +395,10 @@ public class LiteXMLDocument extends LiteXMLElement implements XMLDocument<LiteX
      * {@inheritDoc}
      */
     public LiteXMLElement createElement(String name, String val) {
+        if (readOnly) {
+            throw new UnsupportedOperationException("Document is read-only.");
+        }
+
         return new LiteXMLElement(this, name, val);
     }
 
@@ -372,11 +452,18 @@ public class LiteXMLDocument extends LiteXMLElement implements XMLDocument<LiteX
             writer.write("<?xml version=\"1.0\" encoding=\"" + charset + "\"?>\n");
         }
 
-        tagRange result = getDocType(docContent, true);
+        if (pullParsed) {
+            if (null != docTypeRange) {
+                writer.write(docContent.substring(docTypeRange.start, docTypeRange.end + 1));
+                writer.write('\n');
+            }
+        } else {
+            tagRange result = getDocType(docContent, true);
 
-        if (result.isValid()) {
-            writer.write(docContent.substring(result.startTag.start, result.startTag.end + 1));
-            writer.write('\n');
+            if (result.isValid()) {
+                writer.write(docContent.substring(result.startTag.start, result.startTag.end + 1));
+                writer.write('\n');
+            }
         }
 
         printNice(writer, 0, true);
@@ -406,22 +493,165 @@ public class LiteXMLDocument extends LiteXMLElement implements XMLDocument<LiteX
      * Initialises LiteXMLDocument.
      */
     protected void init(Reader in) throws IOException {
-        loc = new tagRange();
-
-        char[] smallBuffer = new char[512];
+        char[] content = new char[4096];
+        int length = 0;
 
         do {
-            int readCount = in.read(smallBuffer);
+            if (length == content.length) {
+                char[] larger = new char[content.length * 2];
+
+                System.arraycopy(content, 0, larger, 0, length);
+                content = larger;
+            }
+
+            int readCount = in.read(content, length, content.length - length);
 
             if (readCount < 0) {
                 break;
             }
 
-            if (readCount > 0) {
-                docContent.append(smallBuffer, 0, readCount);
+            length += readCount;
+        } while (true);
+
+        docContent.append(content, 0, length);
+
+        pullParsed = parse(content, length);
+
+        if (!pullParsed) {
+            // not well-formed, leave it to the lenient scanner.
+            scan();
+        }
+
+        if (paranoidConsistencyChecking) {
+            checkConsistency();
+        }
+    }
+
+    /**
+     * Builds the element tree in a single pass of {@link LiteXMLPullParser}.
+     *
+     * @param content The document.
+     * @param length  The length of the document.
+     * @return {@code true} if the document was well-formed and parsed,
+     *         otherwise {@code false} and the document is unchanged.
+     */
+    private boolean parse(char[] content, int length) {
+        LiteXMLPullParser parser = new LiteXMLPullParser(content, length);
+        List<tagRange> ranges = new ArrayList<tagRange>();
+        int[] parents = new int[16];
+        int[] nameEnds = new int[16];
+        int[] open = new int[16];
+        int depth = 0;
+        charRange docType = null;
+        int docTypeNameStart = -1;
+        int docTypeNameEnd = -1;
+        boolean complete = false;
+
+        while (!complete) {
+            int event = parser.next();
+
+            switch (event) {
+                case LiteXMLPullParser.DOCTYPE:
+                    if (!ranges.isEmpty() || (null != docType)) {
+                        return false;
+                    }
+
+                    docType = new charRange(parser.getStart(), parser.getEnd());
+                    docTypeNameStart = parser.getNameStart();
+                    docTypeNameEnd = parser.getNameEnd();
+                    break;
+
+                case LiteXMLPullParser.START_TAG:
+                case LiteXMLPullParser.EMPTY_TAG:
+                    int index = ranges.size();
+                    charRange startTag = new charRange(parser.getStart(), parser.getEnd());
+                    tagRange range;
+
+                    if (index == 0 && (null != docType) && !parser.nameEquals(docTypeNameStart, docTypeNameEnd)) {
+                        // The root is the element named by the doctype, let the scanner find it.
+                        return false;
+                    }
+
+                    if (LiteXMLPullParser.EMPTY_TAG == event) {
+                        range = new tagRange(startTag, new charRange(startTag.start, startTag.end), new charRange(startTag.start, startTag.end));
+                    } else {
+                        range = new tagRange(startTag, new charRange(startTag.end + 1, -1), new charRange());
+                    }
+
+                    if (index == parents.length) {
+                        parents = grow(parents);
+                        nameEnds = grow(nameEnds);
+                    }
+
+                    ranges.add(range);
+                    parents[index] = (depth > 0) ? open[depth - 1] : -1;
+                    nameEnds[index] = parser.getNameEnd();
+
+                    if (LiteXMLPullParser.START_TAG == event) {
+                        if (depth == open.length) {
+                            open = grow(open);
+                        }
+
+                        open[depth++] = index;
+                    } else if (0 == depth) {
+                        complete = true;
+                    }
+                    break;
+
+                case LiteXMLPullParser.END_TAG:
+                    if (0 == depth) {
+                        return false;
+                    }
+
+                    int closing = open[depth - 1];
+                    tagRange closed = ranges.get(closing);
+
+                    if (!parser.nameEquals(closed.startTag.start + 1, nameEnds[closing])) {
+                        return false;
+                    }
+
+                    closed.endTag = new charRange(parser.getStart(), parser.getEnd());
+                    closed.body.end = closed.endTag.start - 1;
+                    depth--;
+
+                    complete = (0 == depth);
+                    break;
+
+                default:
+                    // end of document before the root was closed or malformed
+                    return false;
             }
+        }
 
-        } while (true);
+        LiteXMLElement[] elements = new LiteXMLElement[ranges.size()];
+
+        loc = ranges.get(0);
+        elements[0] = this;
+
+        for (int each = 1; each < elements.length; each++) {
+            elements[each] = createElement(ranges.get(each));
+            elements[parents[each]].addChild(elements[each]);
+        }
+
+        docTypeRange = docType;
+
+        return true;
+    }
+
+    private static int[] grow(int[] array) {
+        int[] larger = new int[array.length * 2];
+
+        System.arraycopy(array, 0, larger, 0, array.length);
+
+        return larger;
+    }
+
+    /**
+     * Builds the element tree with the lenient scanner, which tolerates
+     * documents which are not well-formed.
+     */
+    private void scan() {
+        loc = new tagRange();
 
         // startTag will contain the xml declaration
         loc.startTag.start = 0;
@@ -452,10 +682,6 @@ public class LiteXMLDocument extends LiteXMLElement implements XMLDocument<LiteX
         if (!loc.startTag.equals(loc.endTag)) {
             addChildTags(loc.body, this); // now add the subtags
         }
-
-        if (paranoidConsistencyChecking) {
-            checkConsistency();
-        }
     }
 
     protected tagRange getDocType(final StringBuilder source, boolean wholeElement) {
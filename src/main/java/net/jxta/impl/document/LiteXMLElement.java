@@ -377,6 +377,23 @@ public class LiteXMLElement implements XMLElement<LiteXMLElement>, Serializable
      */
     private List<LiteXMLElement> children;
 
+    /**
+     * The name of this element, once determined. Names can not be changed.
+     */
+    private transient String name = null;
+
+    /**
+     * The text value of this element, once determined, if the document is
+     * read-only.
+     */
+    private transient String textValue = null;
+
+    /**
+     * The attributes of this element, once determined, if the document is
+     * read-only.
+     */
+    private transient List<Attribute> attributes = null;
+
     /**
      * Creates new LiteXMLElement
      *
@@ -534,6 +551,10 @@ public class LiteXMLElement implements XMLElement<LiteXMLElement>, Serializable
             checkConsistency();
         }
 
+        if (null != name) {
+            return name;
+        }
+
         int current = loc.startTag.start + 1;
 
         while (current <= loc.startTag.end) {
@@ -546,7 +567,9 @@ public class LiteXMLElement implements XMLElement<LiteXMLElement>, Serializable
             current++;
         }
 
-        return getDocument().docContent.substring(loc.startTag.start + 1, current);
+        name = getDocument().docContent.substring(loc.startTag.start + 1, current);
+
+        return name;
     }
 
     /**
@@ -571,6 +594,10 @@ public class LiteXMLElement implements XMLElement<LiteXMLElement>, Serializable
      * {@inheritDoc}
      */
     public void appendChild(LiteXMLElement element) {
+        if (getDocument().isReadOnly()) {
+            throw new UnsupportedOperationException("Document is read-only.");
+        }
+
         if (element.getDocument() != getDocument()) {
             throw new IllegalArgumentException("Wrong document");
         }
@@ -647,6 +674,20 @@ public class LiteXMLElement implements XMLElement<LiteXMLElement>, Serializable
             element.uninserted = null;
         }
 
+        addChild(element);
+
+        if (paranoidConsistencyChecking) {
+            checkConsistency();
+        }
+    }
+
+    /**
+     * Adds an element whose content is already in the document, following
+     * those of the current children, as a child of this element.
+     *
+     * @param element The element.
+     */
+    void addChild(LiteXMLElement element) {
         element.parent = this;
 
         if (null == children) {
@@ -654,10 +695,6 @@ public class LiteXMLElement implements XMLElement<LiteXMLElement>, Serializable
         }
 
         children.add(element);
-
-        if (paranoidConsistencyChecking) {
-            checkConsistency();
-        }
     }
 
     /**
@@ -707,7 +744,15 @@ public class LiteXMLElement implements XMLElement<LiteXMLElement>, Serializable
      * {@inheritDoc}
      */
     public String getTextValue() {
-        return getTextValue(false, true);
+        if (!getDocument().isReadOnly()) {
+            return getTextValue(false, true);
+        }
+
+        if (null == textValue) {
+            textValue = getTextValue(false, true);
+        }
+
+        return textValue;
     }
 
     /**
@@ -1200,7 +1245,7 @@ public class LiteXMLElement implements XMLElement<LiteXMLElement>, Serializable
                                     getDocument().docContent.substring(aSubtag.endTag.start + 2, aSubtag.endTag.end), "\" ",
                                     aSubtag);
 
-                addTo.appendChild(newChild);
+                addTo.addChild(newChild);
 
                 if (paranoidConsistencyChecking) {
                     checkConsistency();
@@ -1266,10 +1311,26 @@ public class LiteXMLElement implements XMLElement<LiteXMLElement>, Serializable
             loc.endTag.start += by;
         }
 
-        for (Enumeration<LiteXMLElement> eachChild = getChildren(); eachChild.hasMoreElements();) {
-            LiteXMLElement aChild = eachChild.nextElement();
+        if (null != children) {
+            // The children are in document order, skip those which are
+            // entirely to the left of the shift zone.
+            int low = 0;
+            int high = children.size();
+
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                tagRange childLoc = children.get(middle).loc;
+
+                if (childLoc.endTag.end < beginningAt && childLoc.endTag.start < beginningAt) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
 
-            aChild.adjustLocations(beginningAt, by);
+            for (int eachChild = low; eachChild < children.size(); eachChild++) {
+                children.get(eachChild).adjustLocations(beginningAt, by);
+            }
         }
 
         if (paranoidConsistencyChecking) {
@@ -1433,8 +1494,6 @@ public class LiteXMLElement implements XMLElement<LiteXMLElement>, Serializable
      * @return Enumeration the attributes associated with this object.
      */
     public Enumeration<Attribute> getAttributes() {
-        List<Attribute> results = new ArrayList<Attribute>();
-
         if (null != uninserted) {
             throw new IllegalStateException("This element has not been added.");
         }
@@ -1443,6 +1502,25 @@ public class LiteXMLElement implements XMLElement<LiteXMLElement>, Serializable
             checkConsistency();
         }
 
+        if (!getDocument().isReadOnly()) {
+            return Collections.enumeration(scanAttributes());
+        }
+
+        if (null == attributes) {
+            attributes = scanAttributes();
+        }
+
+        return Collections.enumeration(attributes);
+    }
+
+    /**
+     * Returns the attributes found in the start tag of this element.
+     *
+     * @return the attributes of this element.
+     */
+    private List<Attribute> scanAttributes() {
+        List<Attribute> results = new ArrayList<Attribute>();
+
         // find the start of the first attribute
         int current = loc.startTag.start + 1;
 
@@ -1471,7 +1549,7 @@ public class LiteXMLElement implements XMLElement<LiteXMLElement>, Serializable
             current = nextAttr.endTag.end + 1;
         }
 
-        return Collections.enumeration(results);
+        return results;
     }
 
     /**
@@ -1552,6 +1630,10 @@ public class LiteXMLElement implements XMLElement<LiteXMLElement>, Serializable
             throw new IllegalStateException("This element has not been added.");
         }
 
+        if (getDocument().isReadOnly()) {
+            throw new UnsupportedOperationException("Document is read-only.");
+        }
+
         if (null == name) {
             throw new IllegalArgumentException("name must not be null");
         }
@@ -1653,6 +1735,18 @@ public class LiteXMLElement implements XMLElement<LiteXMLElement>, Serializable
             checkConsistency();
         }
 
+        if (getDocument().isReadOnly()) {
+            for (Enumeration<Attribute> eachAttr = getAttributes(); eachAttr.hasMoreElements();) {
+                Attribute anAttr = eachAttr.nextElement();
+
+                if (name.equals(anAttr.getName())) {
+                    return anAttr;
+                }
+            }
+
+            return null;
+        }
+
         // skip past the name portion
         int current = loc.startTag.start + 1;
 
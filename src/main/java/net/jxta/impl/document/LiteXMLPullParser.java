@@ -0,0 +1,421 @@
+/*
+ * Copyright (c) 2001-2007 Sun Microsystems, Inc.  All rights reserved.
+ *
+ *  The Sun Project JXTA(TM) Software License
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *
+ *  3. The end-user documentation included with the redistribution, if any, must
+ *     include the following acknowledgment: "This product includes software
+ *     developed by Sun Microsystems, Inc. for JXTA(TM) technology."
+ *     Alternately, this acknowledgment may appear in the software itself, if
+ *     and wherever such third-party acknowledgments normally appear.
+ *
+ *  4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA" must
+ *     not be used to endorse or promote products derived from this software
+ *     without prior written permission. For written permission, please contact
+ *     Project JXTA at http://www.jxta.org.
+ *
+ *  5. Products derived from this software may not be called "JXTA", nor may
+ *     "JXTA" appear in their name, without prior written permission of Sun.
+ *
+ *  THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+ *  INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ *  FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SUN
+ *  MICROSYSTEMS OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ *  OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ *  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ *  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *  JXTA is a registered trademark of Sun Microsystems, Inc. in the United
+ *  States and other countries.
+ *
+ *  Please see the license information page at :
+ *  <http://www.jxta.org/project/www/license.html> for instructions on use of
+ *  the license in source files.
+ *
+ *  ====================================================================
+ *
+ *  This software consists of voluntary contributions made by many individuals
+ *  on behalf of Project JXTA. For more information on Project JXTA, please see
+ *  http://www.jxta.org.
+ *
+ *  This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+
+package net.jxta.impl.document;
+
+/**
+ * A single pass pull parser for the markup of a {@link LiteXMLDocument}.
+ * <p/>
+ * Each call to {@link #next()} scans forward from the end of the previous
+ * markup to the next tag and reports its kind and location. Text, comments,
+ * CDATA sections and processing instructions are skipped; they remain part of
+ * the body of the enclosing element as they were with the original scanner.
+ * <p/>
+ * The parser only recognizes well-formed markup. Anything else, such as an
+ * unterminated tag or a {@code <} within a tag, is reported as
+ * {@link #MALFORMED} so that the caller can fall back to the lenient scanner.
+ */
+final class LiteXMLPullParser {
+
+    /**
+     * The end of the input was reached.
+     */
+    static final int END_DOCUMENT = 0;
+
+    /**
+     * A start tag, ie. {@code <tag attr="value">}.
+     */
+    static final int START_TAG = 1;
+
+    /**
+     * An empty-element tag, ie. {@code <tag attr="value"/>}.
+     */
+    static final int EMPTY_TAG = 2;
+
+    /**
+     * An end tag, ie. {@code </tag>}.
+     */
+    static final int END_TAG = 3;
+
+    /**
+     * A document type declaration, ie. {@code <!DOCTYPE tag>}.
+     */
+    static final int DOCTYPE = 4;
+
+    /**
+     * The input is not well-formed.
+     */
+    static final int MALFORMED = -1;
+
+    private static final String DOCTYPE_DECL = "<!DOCTYPE";
+
+    private final char[] source;
+    private final int length;
+
+    /**
+     * The position from which the next markup is searched.
+     */
+    private int current = 0;
+
+    private int start = -1;
+    private int end = -1;
+    private int nameStart = -1;
+    private int nameEnd = -1;
+
+    /**
+     * @param source The characters to parse.
+     * @param length The number of characters of the source to parse.
+     */
+    LiteXMLPullParser(char[] source, int length) {
+        this.source = source;
+        this.length = length;
+    }
+
+    /**
+     * Advances to the next tag.
+     *
+     * @return The kind of the tag, {@link #END_DOCUMENT} or {@link #MALFORMED}.
+     */
+    int next() {
+        while (true) {
+            int open = indexOf('<', current);
+
+            if (-1 == open) {
+                current = length;
+                return END_DOCUMENT;
+            }
+
+            if (open + 1 >= length) {
+                return MALFORMED;
+            }
+
+            char kind = source[open + 1];
+
+            if ('?' == kind) {
+                // processing instruction or xml declaration
+                if (!skipPast("?>", open + 2)) {
+                    return MALFORMED;
+                }
+                continue;
+            }
+
+            if ('!' == kind) {
+                if (startsWith("<!--", open)) {
+                    if (!skipPast("-->", open + 4)) {
+                        return MALFORMED;
+                    }
+                    continue;
+                }
+
+                if (startsWith("<![CDATA[", open)) {
+                    if (!skipPast("]]>", open + 9)) {
+                        return MALFORMED;
+                    }
+                    continue;
+                }
+
+                return declaration(open);
+            }
+
+            if ('/' == kind) {
+                return endTag(open);
+            }
+
+            return startTag(open);
+        }
+    }
+
+    /**
+     * @return The position of the {@code <} of the current tag.
+     */
+    int getStart() {
+        return start;
+    }
+
+    /**
+     * @return The position of the {@code >} of the current tag.
+     */
+    int getEnd() {
+        return end;
+    }
+
+    /**
+     * @return The position of the first character of the name of the current tag.
+     */
+    int getNameStart() {
+        return nameStart;
+    }
+
+    /**
+     * @return The position following the last character of the name of the current tag.
+     */
+    int getNameEnd() {
+        return nameEnd;
+    }
+
+    /**
+     * Returns {@code true} if the name of the current tag is the same as the
+     * characters of the source in the specified range.
+     *
+     * @param otherStart The position of the first character of the other name.
+     * @param otherEnd   The position following the last character of the other name.
+     * @return {@code true} if the names are the same.
+     */
+    boolean nameEquals(int otherStart, int otherEnd) {
+        int nameLength = nameEnd - nameStart;
+
+        if (nameLength != (otherEnd - otherStart)) {
+            return false;
+        }
+
+        for (int each = 0; each < nameLength; each++) {
+            if (source[nameStart + each] != source[otherStart + each]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private int startTag(int open) {
+        int pos = scanName(open + 1);
+
+        if (pos == nameStart) {
+            return MALFORMED;
+        }
+
+        // scan the attributes to the end of the tag
+        while (pos < length) {
+            char each = source[pos];
+
+            if ('>' == each) {
+                start = open;
+                end = pos;
+                current = pos + 1;
+
+                return ('/' == source[pos - 1]) ? EMPTY_TAG : START_TAG;
+            }
+
+            if (('"' == each) || ('\'' == each)) {
+                int closing = indexOf(each, pos + 1);
+
+                if (-1 == closing) {
+                    return MALFORMED;
+                }
+
+                pos = closing + 1;
+                continue;
+            }
+
+            if ('<' == each) {
+                return MALFORMED;
+            }
+
+            pos++;
+        }
+
+        return MALFORMED;
+    }
+
+    private int endTag(int open) {
+        int pos = scanName(open + 2);
+
+        if (pos == nameStart) {
+            return MALFORMED;
+        }
+
+        while ((pos < length) && Character.isWhitespace(source[pos])) {
+            pos++;
+        }
+
+        if ((pos >= length) || ('>' != source[pos])) {
+            return MALFORMED;
+        }
+
+        start = open;
+        end = pos;
+        current = pos + 1;
+
+        return END_TAG;
+    }
+
+    private int declaration(int open) {
+        boolean isDocType = startsWith(DOCTYPE_DECL, open);
+        int pos = open + 2;
+
+        if (isDocType) {
+            pos = open + DOCTYPE_DECL.length();
+
+            while ((pos < length) && Character.isWhitespace(source[pos])) {
+                pos++;
+            }
+
+            pos = scanName(pos);
+        }
+
+        // skip to the end of the declaration, including any internal subset.
+        int depth = 0;
+
+        while (pos < length) {
+            char each = source[pos];
+
+            if (('"' == each) || ('\'' == each)) {
+                int closing = indexOf(each, pos + 1);
+
+                if (-1 == closing) {
+                    return MALFORMED;
+                }
+
+                pos = closing + 1;
+                continue;
+            }
+
+            if ('[' == each) {
+                depth++;
+            } else if (']' == each) {
+                depth--;
+            } else if (('>' == each) && (depth <= 0)) {
+                start = open;
+                end = pos;
+                current = pos + 1;
+
+                if (isDocType) {
+                    return DOCTYPE;
+                }
+
+                // other declarations are skipped like comments.
+                return next();
+            }
+
+            pos++;
+        }
+
+        return MALFORMED;
+    }
+
+    /**
+     * Scans a name, setting the name range.
+     *
+     * @param from The position of the first character of the name.
+     * @return The position following the name.
+     */
+    private int scanName(int from) {
+        int pos = from;
+
+        while (pos < length) {
+            char each = source[pos];
+
+            if (Character.isWhitespace(each) || ('/' == each) || ('>' == each) || ('<' == each) || ('[' == each)) {
+                break;
+            }
+
+            pos++;
+        }
+
+        nameStart = from;
+        nameEnd = pos;
+
+        return pos;
+    }
+
+    private int indexOf(char target, int from) {
+        for (int pos = from; pos < length; pos++) {
+            if (target == source[pos]) {
+                return pos;
+            }
+        }
+
+        return -1;
+    }
+
+    private boolean startsWith(String prefix, int at) {
+        if (at + prefix.length() > length) {
+            return false;
+        }
+
+        for (int each = 0; each < prefix.length(); each++) {
+            if (prefix.charAt(each) != source[at + each]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Moves past the next occurrence of a terminator.
+     *
+     * @param terminator The terminator.
+     * @param from       The position from which to search.
+     * @return {@code true} if the terminator was found.
+     */
+    private boolean skipPast(String terminator, int from) {
+        char first = terminator.charAt(0);
+        int pos = from;
+
+        while ((pos = indexOf(first, pos)) != -1) {
+            if (startsWith(terminator, pos)) {
+                current = pos + terminator.length();
+                return true;
+            }
+
+            pos++;
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright (c) 2001-2007 Sun Microsystems, Inc.  All rights reserved.
+ *
+ *  The Sun Project JXTA(TM) Software License
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *
+ *  3. The end-user documentation included with the redistribution, if any, must
+ *     include the following acknowledgment: "This product includes software
+ *     developed by Sun Microsystems, Inc. for JXTA(TM) technology."
+ *     Alternately, this acknowledgment may appear in the software itself, if
+ *     and wherever such third-party acknowledgments normally appear.
+ *
+ *  4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA" must
+ *     not be used to endorse or promote products derived from this software
+ *     without prior written permission. For written permission, please contact
+ *     Project JXTA at http://www.jxta.org.
+ *
+ *  5. Products derived from this software may not be called "JXTA", nor may
+ *     "JXTA" appear in their name, without prior written permission of Sun.
+ *
+ *  THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+ *  INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ *  FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SUN
+ *  MICROSYSTEMS OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ *  OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ *  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ *  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *  JXTA is a registered trademark of Sun Microsystems, Inc. in the United
+ *  States and other countries.
+ *
+ *  Please see the license information page at :
+ *  <http://www.jxta.org/project/www/license.html> for instructions on use of
+ *  the license in source files.
+ *
+ *  ====================================================================
+ *
+ *  This software consists of voluntary contributions made by many individuals
+ *  on behalf of Project JXTA. For more information on Project JXTA, please see
+ *  http://www.jxta.org.
+ *
+ *  This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.endpoint;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import net.jxta.document.MimeMediaType;
+import net.jxta.impl.util.LZCodec;
+
+/**
+ * The content encodings which may be applied to serialized messages.
+ * Encodings are negotiated per connection by the message transports and
+ * identified on the wire by the {@code content-coding} header of the message
+ * package.
+ */
+public final class ContentCoding {
+
+    /**
+     * zlib deflate encoding.
+     */
+    public static final MimeMediaType DEFLATE = MimeMediaType.valueOf("application/deflate").intern();
+
+    /**
+     * Fast LZ encoding.
+     *
+     * @see LZCodec
+     */
+    public static final MimeMediaType LZ = MimeMediaType.valueOf("application/x-jxta-lz").intern();
+
+    /**
+     * The system property which sets the minimum serialized size in bytes
+     * for which a message is encoded.
+     */
+    public static final String THRESHOLD_SYSPROP = "net.jxta.impl.endpoint.ContentCoding.threshold";
+
+    /**
+     * The system property which lists, in order of preference, the content
+     * encodings which the transports will offer. An empty value disables
+     * content encoding.
+     */
+    public static final String ENCODINGS_SYSPROP = "net.jxta.impl.endpoint.ContentCoding.encodings";
+
+    /**
+     * The system property which sets the maximum size in bytes to which a
+     * received message may decode.
+     */
+    public static final String MAX_DECODED_SIZE_SYSPROP = "net.jxta.impl.endpoint.ContentCoding.maxDecodedSize";
+
+    /**
+     * The default encoding threshold.
+     */
+    public static final int DEFAULT_THRESHOLD = 2048;
+
+    /**
+     * The default maximum decoded message size, the largest message the HTTP
+     * transport will frame.
+     */
+    public static final int DEFAULT_MAX_DECODED_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Messages smaller than this number of bytes are not encoded.
+     */
+    private static final int THRESHOLD = Math.max(0, Integer.getInteger(THRESHOLD_SYSPROP, DEFAULT_THRESHOLD));
+
+    /**
+     * Received messages which would decode to more than this number of
+     * bytes are rejected.
+     */
+    private static final int MAX_DECODED_SIZE = Math.max(0, Integer.getInteger(MAX_DECODED_SIZE_SYSPROP, DEFAULT_MAX_DECODED_SIZE));
+
+    /**
+     * The encodings we support in our order of preference.
+     */
+    private static final MimeMediaType[] SUPPORTED = {LZ, DEFLATE};
+
+    /**
+     * The encodings we offer in our order of preference.
+     */
+    private static final MimeMediaType[] OFFERED = parseEncodings(System.getProperty(ENCODINGS_SYSPROP, LZ + "," + DEFLATE));
+
+    private ContentCoding() {}
+
+    /**
+     * Returns the minimum serialized size in bytes for which a message is
+     * encoded.
+     *
+     * @return the encoding threshold.
+     */
+    public static int getThreshold() {
+        return THRESHOLD;
+    }
+
+    /**
+     * Returns the maximum size in bytes to which a received message may
+     * decode.
+     *
+     * @return the maximum decoded message size.
+     */
+    public static int getMaxDecodedSize() {
+        return MAX_DECODED_SIZE;
+    }
+
+    /**
+     * Returns the encodings we support in our order of preference.
+     *
+     * @return the supported encodings.
+     */
+    public static MimeMediaType[] getSupportedEncodings() {
+        return SUPPORTED.clone();
+    }
+
+    /**
+     * Returns the encodings we offer to remote peers in our order of
+     * preference.
+     *
+     * @return the offered encodings. May be empty.
+     */
+    public static MimeMediaType[] getOfferedEncodings() {
+        return OFFERED.clone();
+    }
+
+    /**
+     * Returns {@code true} if the specified encoding is supported.
+     *
+     * @param encoding the encoding.
+     * @return {@code true} if the specified encoding is supported.
+     */
+    public static boolean isSupported(MimeMediaType encoding) {
+        for (MimeMediaType aSupported : SUPPORTED) {
+            if (aSupported.equals(encoding)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Selects the encoding to use for sending to a peer which accepts the
+     * specified encodings.
+     *
+     * @param accepted The encodings accepted by the remote peer in its order
+     *                 of preference. May be {@code null}.
+     * @return the encoding to use or {@code null} if there is no mutually
+     *         acceptable encoding.
+     */
+    public static MimeMediaType negotiate(MimeMediaType[] accepted) {
+        if (null == accepted) {
+            return null;
+        }
+
+        for (MimeMediaType anAccepted : accepted) {
+            for (MimeMediaType anOffered : OFFERED) {
+                if (anOffered.equals(anAccepted)) {
+                    return anOffered;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Parses a comma separated list of encodings. Unsupported encodings are
+     * ignored.
+     *
+     * @param encodings the encoding list.
+     * @return the supported encodings from the list.
+     */
+    public static MimeMediaType[] parseEncodings(String encodings) {
+        List<MimeMediaType> result = new ArrayList<MimeMediaType>();
+
+        for (String anEncoding : encodings.split(",")) {
+            anEncoding = anEncoding.trim();
+
+            if (0 == anEncoding.length()) {
+                continue;
+            }
+
+            try {
+                MimeMediaType type = MimeMediaType.valueOf(anEncoding);
+
+                if (isSupported(type) && !result.contains(type)) {
+                    result.add(type);
+                }
+            } catch (IllegalArgumentException ignored) {
+                // Unknown to us, skip it.
+            }
+        }
+
+        return result.toArray(new MimeMediaType[result.size()]);
+    }
+
+    /**
+     * Formats a list of encodings as a comma separated list.
+     *
+     * @param encodings the encodings.
+     * @return the encoding list.
+     */
+    public static String formatEncodings(MimeMediaType[] encodings) {
+        StringBuilder result = new StringBuilder();
+
+        for (MimeMediaType anEncoding : encodings) {
+            if (result.length() > 0) {
+                result.append(',');
+            }
+            result.append(anEncoding.toString());
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Encodes the content of the provided buffers. The buffers are not
+     * modified.
+     *
+     * @param encoding the encoding to apply.
+     * @param content  the content to encode.
+     * @return the encoded content.
+     * @throws IOException if the encoding is not supported.
+     */
+    public static byte[] encode(MimeMediaType encoding, ByteBuffer[] content) throws IOException {
+        int length = 0;
+
+        for (ByteBuffer aBuffer : content) {
+            length += aBuffer.remaining();
+        }
+
+        byte[] raw = new byte[length];
+        int offset = 0;
+
+        for (ByteBuffer aBuffer : content) {
+            int count = aBuffer.remaining();
+
+            aBuffer.duplicate().get(raw, offset, count);
+            offset += count;
+        }
+
+        return encode(encoding, raw);
+    }
+
+    /**
+     * Encodes the provided bytes.
+     *
+     * @param encoding the encoding to apply.
+     * @param raw      the content to encode.
+     * @return the encoded content.
+     * @throws IOException if the encoding is not supported.
+     */
+    public static byte[] encode(MimeMediaType encoding, byte[] raw) throws IOException {
+        if (LZ.equals(encoding)) {
+            return LZCodec.compress(raw);
+        } else if (DEFLATE.equals(encoding)) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+            try {
+                deflater.setInput(raw);
+                deflater.finish();
+
+                ByteArrayOutputStream encoded = new ByteArrayOutputStream(raw.length / 2 + 64);
+                byte[] chunk = new byte[8192];
+
+                while (!deflater.finished()) {
+                    int count = deflater.deflate(chunk);
+
+                    encoded.write(chunk, 0, count);
+                }
+
+                return encoded.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        throw new IOException("Unsupported content encoding : " + encoding);
+    }
+
+    /**
+     * Decodes the remaining content of the provided buffer. The content
+     * comes from a remote peer, so decoding stops as soon as the decoded
+     * size passes the specified maximum.
+     *
+     * @param encoding       the encoding which was applied to the content.
+     * @param encoded        the encoded content. The buffer position is
+     *                       advanced to its limit.
+     * @param maxDecodedSize the maximum number of decoded bytes.
+     * @return a buffer containing the decoded content.
+     * @throws IOException if the encoding is not supported, the content is
+     *                     corrupt or it decodes to more than
+     *                     {@code maxDecodedSize} bytes.
+     */
+    public static ByteBuffer decode(MimeMediaType encoding, ByteBuffer encoded, int maxDecodedSize) throws IOException {
+        byte[] bytes = new byte[encoded.remaining()];
+
+        encoded.get(bytes);
+
+        if (LZ.equals(encoding)) {
+            return ByteBuffer.wrap(LZCodec.decompress(bytes, maxDecodedSize));
+        } else if (DEFLATE.equals(encoding)) {
+            Inflater inflater = new Inflater();
+
+            try {
+                inflater.setInput(bytes);
+
+                ByteArrayOutputStream decoded = new ByteArrayOutputStream((int) Math.min((long) bytes.length * 3, maxDecodedSize));
+                byte[] chunk = new byte[8192];
+
+                while (!inflater.finished()) {
+                    int count = inflater.inflate(chunk);
+
+                    if ((0 == count) && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new IOException("Truncated deflate content");
+                    }
+
+                    if (decoded.size() + count > maxDecodedSize) {
+                        throw new IOException("Deflate content decodes to more than the limit of " + maxDecodedSize + " bytes");
+                    }
+
+                    decoded.write(chunk, 0, count);
+                }
+
+                return ByteBuffer.wrap(decoded.toByteArray());
+            } catch (DataFormatException corrupt) {
+                IOException failure = new IOException("Corrupt deflate content");
+
+                failure.initCause(corrupt);
+                throw failure;
+            } finally {
+                inflater.end();
+            }
+        }
+
+        throw new IOException("Unsupported content encoding : " + encoding);
+    }
+}
@@ -63,10 +63,12 @@ import net.jxta.endpoint.WireFormatMessageFactory;
 import net.jxta.logging.Logger;
 import net.jxta.logging.Logging;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 /**
  * A Message Element using a JXTA Message as the element data
@@ -79,9 +81,26 @@ public class JxtaMessageMessageElement extends MessageElement {
     private final static transient Logger LOG = Logging.getLogger(JxtaMessageMessageElement.class.getName());
 
     /**
-     *  The Message which is the data for this message element.
+     *  The Message which is the data for this message element. For elements
+     *  read from the wire this is {@code null} until the message is needed.
      **/
-    protected final Message msg;
+    protected Message msg;
+
+    /**
+     *  The wire form of the message or {@code null} if the element was built
+     *  from a Message.
+     **/
+    private final byte[] wire;
+
+    /**
+     *  Offset of the message within {@link #wire}.
+     **/
+    private final int wireOffset;
+
+    /**
+     *  Length of the message within {@link #wire}.
+     **/
+    private final int wireLength;
 
     /**
      *  A serialized form of the message.
@@ -105,6 +124,38 @@ public class JxtaMessageMessageElement extends MessageElement {
         super(name, type, sig);
 
         this.msg = msg;
+        this.wire = null;
+        this.wireOffset = 0;
+        this.wireLength = 0;
+    }
+
+    /**
+     * Create a new Message Element from the wire form of a message. The
+     * message is decoded only when it is first needed and the wire form is
+     * used as-is when the element is serialized. The provided bytes are
+     * <b>not</b> copied and must not be modified.
+     *
+     * @param name Name of the MessageElement. May be the empty string ("") if
+     * the MessageElement is not named.
+     * @param type Type of the MessageElement. Also the wire format type of
+     * the message.
+     * @param wire The array containing the wire form of the message.
+     * @param offset Offset of the message within the array.
+     * @param len Length of the message within the array.
+     * @param sig optional message digest/digital signature element or null if
+     * no signature is desired.
+     **/
+    public JxtaMessageMessageElement(String name, MimeMediaType type, byte[] wire, int offset, int len, MessageElement sig) {
+        super(name, type, sig);
+
+        if ((offset < 0) || (len < 0) || (offset + len > wire.length)) {
+            throw new IndexOutOfBoundsException("Invalid offset or length");
+        }
+
+        this.msg = null;
+        this.wire = wire;
+        this.wireOffset = offset;
+        this.wireLength = len;
     }
 
     /**
@@ -124,7 +175,7 @@ public class JxtaMessageMessageElement extends MessageElement {
             if (target instanceof JxtaMessageMessageElement) {
                 JxtaMessageMessageElement likeMe = (JxtaMessageMessageElement) target;
 
-                return super.equals(likeMe) && msg.equals(likeMe.msg);
+                return super.equals(likeMe) && getMsg().equals(likeMe.getMsg());
             } else {
                 // have to do a slow stream comparison.
                 // XXX 20020615 bondolo@jxta.org the performance of this could be much improved.
@@ -169,7 +220,7 @@ public class JxtaMessageMessageElement extends MessageElement {
     @Override
     public int hashCode() {
         int result = super.hashCode() * 6037 + // a prime
-                msg.hashCode();
+                getMsg().hashCode();
 
         return (0 != result) ? result : 1;
     }
@@ -187,6 +238,10 @@ public class JxtaMessageMessageElement extends MessageElement {
      **/
     @Override
     public long getByteLength() {
+        if (null != wire) {
+            return wireLength;
+        }
+
         initSerial();
 
         return serial.getByteLength();
@@ -197,6 +252,14 @@ public class JxtaMessageMessageElement extends MessageElement {
      **/
     @Override
     public byte[] getBytes(boolean copy) {
+        if (null != wire) {
+            byte[] result = new byte[wireLength];
+
+            System.arraycopy(wire, wireOffset, result, 0, wireLength);
+
+            return result;
+        }
+
         initSerial();
 
         ByteArrayOutputStream baos = new ByteArrayOutputStream((int) serial.getByteLength());
@@ -216,6 +279,10 @@ public class JxtaMessageMessageElement extends MessageElement {
      *  {@inheritDoc}
      **/
     public InputStream getStream() throws IOException {
+        if (null != wire) {
+            return new ByteArrayInputStream(wire, wireOffset, wireLength);
+        }
+
         initSerial();
 
         return serial.getStream();
@@ -226,6 +293,11 @@ public class JxtaMessageMessageElement extends MessageElement {
      **/
     @Override
     public void sendToStream(OutputStream sendTo) throws IOException {
+        if (null != wire) {
+            sendTo.write(wire, wireOffset, wireLength);
+            return;
+        }
+
         initSerial();
 
         serial.sendToStream(sendTo);
@@ -237,7 +309,43 @@ public class JxtaMessageMessageElement extends MessageElement {
      *  @return Returns a copy of the message which backs this element.
      **/
     public Message getMessage() {
-        return msg.clone();
+        return getMsg().clone();
+    }
+
+    /**
+     *  {@inheritDoc}
+     *  <p/>
+     *  For elements read from the wire the returned buffer is a read-only
+     *  view of the wire form, no copy is made.
+     **/
+    @Override
+    public ByteBuffer getByteBuffer() {
+        if (null != wire) {
+            return ByteBuffer.wrap(wire, wireOffset, wireLength).slice().asReadOnlyBuffer();
+        }
+
+        return super.getByteBuffer();
+    }
+
+    /**
+     *  Returns the message which backs this element, decoding it from the
+     *  wire form if necessary.
+     *
+     *  @return The message which backs this element.
+     **/
+    private synchronized Message getMsg() {
+        if (null == msg) {
+            try {
+                msg = WireFormatMessageBinary.fromSharedBuffer(ByteBuffer.wrap(wire, wireOffset, wireLength), type);
+            } catch (IOException failed) {
+                Logging.logCheckedError(LOG, "Could not decode message for element ", name, "\n", failed);
+                IllegalStateException failure = new IllegalStateException("Could not decode message for element " + name);
+                failure.initCause(failed);
+                throw failure;
+            }
+        }
+
+        return msg;
     }
 
     /**
@@ -245,7 +353,7 @@ public class JxtaMessageMessageElement extends MessageElement {
      **/
     private synchronized void initSerial() {
         if (null == serial) {
-            serial = WireFormatMessageFactory.toWire(msg, type, null);
+            serial = WireFormatMessageFactory.toWire(getMsg(), type, null);
         }
     }
 }
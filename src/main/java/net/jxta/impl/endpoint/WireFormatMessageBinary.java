@@ -138,7 +138,9 @@ public class WireFormatMessageBinary implements WireFormatMessage {
     private static final MimeMediaType[] myContentEncodings = {
 
         // we support raw binary!
-        null
+        null,
+        ContentCoding.LZ,
+        ContentCoding.DEFLATE
     };
 
     /**
@@ -196,11 +198,11 @@ public class WireFormatMessageBinary implements WireFormatMessage {
          * Read in a message header from the provided data stream.
          *
          * @param dis the data stream to read from
-         * @return hashmap containing the namespace id to namespace values
+         * @return table of namespaces indexed by namespace id
          * @throws IOException if EOF or other IOException is encountered
          *                     during the reading of the header.
          */
-        private static HashMap readHeader(DataInputStream dis) throws IOException {
+        private static String[] readHeader(DataInputStream dis) throws IOException {
             // Read message signature
             char[] msgsig = new char[4];
 
@@ -248,10 +250,10 @@ public class WireFormatMessageBinary implements WireFormatMessage {
 
             }
 
-            HashMap<Integer, String> id2namespace = new HashMap<Integer, String>(2 + namespaceCnt);
+            String[] id2namespace = new String[2 + namespaceCnt];
 
-            id2namespace.put(0, "");
-            id2namespace.put(1, "jxta");
+            id2namespace[0] = "";
+            id2namespace[1] = "jxta";
 
             int id = 2;
 
@@ -260,7 +262,7 @@ public class WireFormatMessageBinary implements WireFormatMessage {
                 try {
 
                     String namespace = readString(dis);
-                    id2namespace.put(id++, namespace);
+                    id2namespace[id++] = namespace;
 
                 } catch (IOException caught) {
 
@@ -280,11 +282,11 @@ public class WireFormatMessageBinary implements WireFormatMessage {
          * Read in a message header from the provided data stream.
          *
          * @param buffer the data buffer to read from
-         * @return hashmap containing the namespace id to namespace values
+         * @return table of namespaces indexed by namespace id
          * @throws IOException if EOF or other IOException is encountered
          *                     during the reading of the header.
          */
-        private static HashMap readHeader(ByteBuffer buffer) throws IOException {
+        private static String[] readHeader(ByteBuffer buffer) throws IOException {
             // Read message signature
             char[] msgsig = new char[4];
 
@@ -324,10 +326,10 @@ public class WireFormatMessageBinary implements WireFormatMessage {
 
             }
 
-            HashMap<Integer, String> id2namespace = new HashMap<Integer, String>(2 + namespaceCnt);
+            String[] id2namespace = new String[2 + namespaceCnt];
 
-            id2namespace.put(0, "");
-            id2namespace.put(1, "jxta");
+            id2namespace[0] = "";
+            id2namespace[1] = "jxta";
 
             int id = 2;
 
@@ -336,7 +338,7 @@ public class WireFormatMessageBinary implements WireFormatMessage {
                 try {
 
                     String namespace = readString(buffer);
-                    id2namespace.put(id++, namespace);
+                    id2namespace[id++] = namespace;
 
                 } catch (IOException caught) {
 
@@ -533,30 +535,19 @@ public class WireFormatMessageBinary implements WireFormatMessage {
                     "\' type = \'", type, "\' flags = ", Integer.toBinaryString(flags),
                     " datalen = ", dataLen);
 
+            if ((dataLen < 0) || (dataLen > buffer.remaining())) {
+                throw new IOException("Element data length " + dataLen + " exceeds message");
+            }
+
             Object[] res = new Object[2];
 
             res[0] = nsid & 0x000000FF;
 
-            byte[] value = null;
-            Message submsg = null;
+            // Value. The element refers to the data in place, it is not copied.
+            byte[] wire = buffer.array();
+            int dataOffset = buffer.arrayOffset() + buffer.position();
 
-            // Value
-            if (type.equalsIngoringParams(myTypes[0])) {
-                byte[] tempB = new byte[dataLen];
-                buffer.get(tempB);
-                InputStream subis = new ByteArrayInputStream(tempB);
-
-                submsg = WireFormatMessageFactory.fromWire(subis, type, null);
-                // buffer.position(buffer.position() + dataLen);
-
-            } else {
-
-                value = new byte[dataLen];
-                // LOGGING: was Finer
-                Logging.logCheckedDebug(LOG, MessageFormat.format("expecting {0} bytes, Buffer stats {1}", dataLen, buffer.toString()));
-                buffer.get(value);
-
-            }
+            buffer.position(buffer.position() + dataLen);
 
             MessageElement sig = null;
 
@@ -566,10 +557,11 @@ public class WireFormatMessageBinary implements WireFormatMessage {
                 sig = (MessageElement) sigRes[1];
             }
 
-            if (null != value) {
-                res[1] = new ByteArrayMessageElement(name, type, value, sig);
+            if (type.equalsIngoringParams(myTypes[0])) {
+                // sub-messages are decoded only if they are used.
+                res[1] = new JxtaMessageMessageElement(name, type, wire, dataOffset, dataLen, sig);
             } else {
-                res[1] = new JxtaMessageMessageElement(name, type, submsg, sig);
+                res[1] = new ByteArrayMessageElement(name, type, wire, dataOffset, dataLen, sig);
             }
 
             return res;
@@ -634,6 +626,17 @@ public class WireFormatMessageBinary implements WireFormatMessage {
             return bytes;
         }
 
+        /**
+         * Returns the namespace for the specified namespace id.
+         *
+         * @param idToNamespace table of namespaces indexed by namespace id.
+         * @param nsid the namespace id.
+         * @return the namespace or {@code null} if the id is not defined.
+         */
+        private static String lookupNamespace(String[] idToNamespace, int nsid) {
+            return (nsid < idToNamespace.length) ? idToNamespace[nsid] : null;
+        }
+
         private static Message emptyMsg()
         {
             Message tempMsg = new Message();
@@ -783,7 +786,7 @@ public class WireFormatMessageBinary implements WireFormatMessage {
 
             DataInputStream dis = new DataInputStream(is);
 
-            HashMap idToNamespace = readHeader(dis);
+            String[] idToNamespace = readHeader(dis);
 
             int elementCnt = dis.readShort();
 
@@ -818,7 +821,7 @@ public class WireFormatMessageBinary implements WireFormatMessage {
                     break;
                 }
 
-                String namespace = (String) idToNamespace.get(anElement[0]);
+                String namespace = lookupNamespace(idToNamespace, (Integer) anElement[0]);
 
                 if (null == namespace) {
                     if (Logging.SHOW_ERROR && LOG.isErrorEnabled()) {
@@ -861,14 +864,53 @@ public class WireFormatMessageBinary implements WireFormatMessage {
         }
 
         public Message fromBufferExternal(ByteBuffer buffer, MimeMediaType type, MimeMediaType contentEncoding, boolean paramDisableCbjx, PeerGroup paramGroup, boolean isEnforce) throws IOException {
-            // FIXME 20020504 bondolo@jxta.org  Ignores type and contentEncoding completely.
+            ByteBuffer wire;
+
+            if (null != contentEncoding) {
+                // The decoded content is already our own copy.
+                wire = ContentCoding.decode(contentEncoding, buffer, ContentCoding.getMaxDecodedSize());
+            } else {
+                // Take one copy of the whole message. The elements refer
+                // into it rather than each copying its own data.
+                byte[] copy = new byte[buffer.remaining()];
+
+                buffer.get(copy);
+                wire = ByteBuffer.wrap(copy);
+            }
+
+            try {
+                return readMessage(wire, type, paramDisableCbjx, paramGroup, isEnforce);
+            } finally {
+                if (null == contentEncoding) {
+                    // Leave the caller's buffer positioned after the message.
+                    buffer.position(buffer.position() - wire.remaining());
+                }
+            }
+        }
+
+        /**
+         * Read a message from a buffer whose contents will not change. The
+         * elements of the message refer directly to the backing array of the
+         * buffer. Only the element headers are decoded; element content is
+         * decoded when it is first used.
+         *
+         * @param buffer the buffer to read from. Must be backed by an array.
+         * @param type the mime type of the message.
+         * @param paramDisableCbjx if {@code true} then no CBJX trailer is expected.
+         * @param paramGroup the group used for CBJX verification.
+         * @param isEnforce if {@code true} then the CBJX trailer is verified.
+         * @return the message.
+         * @throws IOException if the message cannot be read.
+         */
+        Message readMessage(ByteBuffer buffer, MimeMediaType type, boolean paramDisableCbjx, PeerGroup paramGroup, boolean isEnforce) throws IOException {
+            // FIXME 20020504 bondolo@jxta.org  Ignores type completely.
             Message msg = new Message();
 
             if (Logging.SHOW_DEBUG && LOG.isDebugEnabled()) {
                 LOG.debug("Reading " + msg + " from " + buffer);
             }
 
-            HashMap idToNamespace = readHeader(buffer);
+            String[] idToNamespace = readHeader(buffer);
 
             int elementCnt = buffer.getShort();
 
@@ -905,7 +947,7 @@ public class WireFormatMessageBinary implements WireFormatMessage {
                     break;
                 }
 
-                String namespace = (String) idToNamespace.get(anElement[0]);
+                String namespace = lookupNamespace(idToNamespace, (Integer) anElement[0]);
 
                 if (null == namespace) {
                     if (Logging.SHOW_ERROR && LOG.isErrorEnabled()) {
@@ -1591,7 +1633,7 @@ public class WireFormatMessageBinary implements WireFormatMessage {
 
             partBuffers.add(ByteBuffer.wrap(header));
 
-            partBuffers.add(ByteBuffer.wrap(element.getBytes(false)));
+            partBuffers.add(element.getByteBuffer());
 
             if (null != sig) {
                 partBuffers.addAll(Arrays.asList(sig.getByteBuffers()));
@@ -1650,6 +1692,12 @@ public class WireFormatMessageBinary implements WireFormatMessage {
      */
     private final binaryMessageProxy msgProxy;
 
+    /**
+     * The encoded form of the message or {@code null} if the message is not
+     * encoded.
+     */
+    private final byte[] encoded;
+
     /**
      * Creates a new instance of WireFormatMessageBinary. Called only by the
      * Instantiator.
@@ -1689,10 +1737,12 @@ public class WireFormatMessageBinary implements WireFormatMessage {
         // sure we can support them.
         this.type = type;
 
-        // FIXME  20020504 bondolo@jxta.org Do something with encodings.
-        this.contentEncoding = myContentEncodings[0];
-
         msgProxy = new binaryMessageProxy(msg, type, false, null, false);
+
+        MimeMediaType encoding = selectContentEncoding(preferedContentEncodings);
+
+        this.encoded = encodeContent(encoding);
+        this.contentEncoding = (null == encoded) ? myContentEncodings[0] : encoding;
     }
 
     WireFormatMessageBinary(Message msg, MimeMediaType type, MimeMediaType[] preferedContentEncodings, boolean paramDisableCbjx, PeerGroup paramGroup, boolean isTls) throws IOException {
@@ -1725,10 +1775,72 @@ public class WireFormatMessageBinary implements WireFormatMessage {
         // sure we can support them.
         this.type = type;
 
-        // FIXME  20020504 bondolo@jxta.org Do something with encodings.
-        this.contentEncoding = myContentEncodings[0];
-
         msgProxy = new binaryMessageProxy(msg, type, paramDisableCbjx, paramGroup, isTls);
+
+        MimeMediaType encoding = selectContentEncoding(preferedContentEncodings);
+
+        this.encoded = encodeContent(encoding);
+        this.contentEncoding = (null == encoded) ? myContentEncodings[0] : encoding;
+    }
+
+    /**
+     * Read a message from a buffer whose contents will not change. The
+     * elements of the message refer directly to the backing array of the
+     * buffer.
+     *
+     * @param buffer the buffer to read from. Must be backed by an array.
+     * @param type the mime type of the message.
+     * @return the message.
+     * @throws IOException if the message cannot be read.
+     */
+    static Message fromSharedBuffer(ByteBuffer buffer, MimeMediaType type) throws IOException {
+        return ((Instantiator) INSTANTIATOR).readMessage(buffer, type, true, null, false);
+    }
+
+    /**
+     * Returns the first of the recipient's preferred content encodings which
+     * we support.
+     *
+     * @param preferedContentEncodings The ranked content encodings preferred by the recipient. May be {@code null}.
+     * @return The content encoding to use or {@code null} for raw content.
+     */
+    private static MimeMediaType selectContentEncoding(MimeMediaType[] preferedContentEncodings) {
+        if (null == preferedContentEncodings) {
+            return null;
+        }
+
+        for (MimeMediaType aPrefered : preferedContentEncodings) {
+            if ((null == aPrefered) || ContentCoding.isSupported(aPrefered)) {
+                return aPrefered;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Encodes the serialized message if it is large enough and the encoding
+     * actually reduces its size.
+     *
+     * @param encoding The content encoding to apply. May be {@code null}.
+     * @return The encoded message or {@code null} if the message is to be sent raw.
+     * @throws IOException if an io error occurs
+     */
+    private byte[] encodeContent(MimeMediaType encoding) throws IOException {
+        if ((null == encoding) || (msgProxy.getByteLength() < ContentCoding.getThreshold())) {
+            return null;
+        }
+
+        ByteBuffer[] raw = msgProxy.getByteBuffers();
+        long rawLength = 0;
+
+        for (ByteBuffer aBuffer : raw) {
+            rawLength += aBuffer.remaining();
+        }
+
+        byte[] result = ContentCoding.encode(encoding, raw);
+
+        return (result.length < rawLength) ? result : null;
     }
 
     /**
@@ -1781,6 +1893,10 @@ public class WireFormatMessageBinary implements WireFormatMessage {
             throw new IllegalStateException("message was unexpectedly modified!");
         }
 
+        if (null != encoded) {
+            return new ByteArrayInputStream(encoded);
+        }
+
         msg.modifiable = false;
         try {
             InputStream result = msgProxy.getStream();
@@ -1799,6 +1915,10 @@ public class WireFormatMessageBinary implements WireFormatMessage {
             throw new IllegalStateException("message was unexpectedly modified!");
         }
 
+        if (null != encoded) {
+            return new ByteBuffer[]{ByteBuffer.wrap(encoded)};
+        }
+
         msg.modifiable = false;
         try {
             ByteBuffer[] result = msgProxy.getByteBuffers();
@@ -1835,6 +1955,11 @@ public class WireFormatMessageBinary implements WireFormatMessage {
             throw new IllegalStateException("message was unexpectedly modified!");
         }
 
+        if (null != encoded) {
+            sendTo.write(encoded);
+            return;
+        }
+
         msg.modifiable = false;
         try {
             msgProxy.sendToStream(sendTo);
@@ -1851,6 +1976,10 @@ public class WireFormatMessageBinary implements WireFormatMessage {
             throw new IllegalStateException("message was unexpectedly modified!");
         }
 
+        if (null != encoded) {
+            return encoded.length;
+        }
+
         return msgProxy.getByteLength();
     }
 
@@ -92,6 +92,11 @@ public class MessagePackageHeader {
      */
     private final static String CONTENT_TYPE = "content-type";
 
+    /**
+     * Standard header name for content-coding
+     */
+    private final static String CONTENT_CODING = "content-coding";
+
     /**
      * The maximum size of Header data buffers we will emit.
      */
@@ -593,4 +598,30 @@ public class MessagePackageHeader {
 
         return MimeMediaType.valueOf(header.getValueString());
     }
+
+    /**
+     * Convenience method for setting the "{@code content-coding}" header.
+     *
+     * @param encoding content encoding of the message.
+     */
+    public void setContentEncodingHeader(MimeMediaType encoding) {
+        replaceHeader(CONTENT_CODING, encoding.toString());
+    }
+
+    /**
+     * Convenience method for getting the "{@code content-coding}" header.
+     *
+     * @return encoding from the header or {@code null} if there was no
+     * {@code content-coding} header.
+     */
+    public MimeMediaType getContentEncodingHeader() {
+        Iterator<Header> it = getHeader(CONTENT_CODING);
+
+        if (!it.hasNext()) {
+            return null;
+        }
+        Header header = it.next();
+
+        return MimeMediaType.valueOf(header.getValueString());
+    }
 }
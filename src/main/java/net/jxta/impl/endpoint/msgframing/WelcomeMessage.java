@@ -56,9 +56,11 @@
 
 package net.jxta.impl.endpoint.msgframing;
 
+import net.jxta.document.MimeMediaType;
 import net.jxta.endpoint.EndpointAddress;
 import net.jxta.id.ID;
 import net.jxta.id.IDFactory;
+import net.jxta.impl.endpoint.ContentCoding;
 import net.jxta.logging.Logger;
 import net.jxta.logging.Logging;
 
@@ -85,7 +87,13 @@ import java.util.List;
  * <li>The local peer's return address, the source address.</li>
  * <li>The local peer's peer id.</li>
  * <li>A flag which controls propagation behaviour for this connection.</li>
+ * <li>Optionally, the content encodings the local peer accepts for
+ * messages sent to it on this connection.</li>
  * </ul>
+ * <p/>
+ * Welcome Messages which list content encodings are emitted as version 3.1.
+ * Peers which do not understand this version treat the connection as one
+ * without content encoding.
  *
  * @see <a href="https://jxta-spec.dev.java.net/nonav/JXTAProtocols.html#trans-tcpipt"
  *      target="_blank">JXTA Protocols Specification : TCP/IP Message Transport</a>
@@ -114,6 +122,11 @@ public class WelcomeMessage {
      */
     private final static String WELCOME_VERSION_3_0 = "3.0";
 
+    /**
+     * Version string for Welcome Message Version 3.1
+     */
+    private final static String WELCOME_VERSION_3_1 = "3.1";
+
     /**
      * The current welcome message version. This is the only version we will emit.
      */
@@ -144,6 +157,12 @@ public class WelcomeMessage {
      */
     private int preferredMessageVersion;
 
+    /**
+     * The content encodings accepted for messages sent to the peer, in its
+     * order of preference.
+     */
+    private MimeMediaType[] contentEncodings = new MimeMediaType[0];
+
     /**
      * The welcome message version we are supporting
      */
@@ -187,15 +206,39 @@ public class WelcomeMessage {
      * @param preferredMsgVersion Binary Wire Messsage format we prefer.
      */
     public WelcomeMessage(EndpointAddress destAddr, EndpointAddress publicaddress, ID peerid, boolean dontPropagate, int preferredMsgVersion) {
+        this(destAddr, publicaddress, peerid, dontPropagate, preferredMsgVersion, null);
+    }
+
+    /**
+     * Creates a new instance of WelcomeMessage for our Welcome Message.
+     *
+     * @param destAddr            The destination address that we believe we are connecting to.
+     * @param publicaddress       Our return address, the purported source address of this connection.
+     * @param peerid              Our peerid, the logical return address.
+     * @param dontPropagate       If <tt>true</tt> this connection does not wish to receive any propagation/broadcast/notifications.
+     * @param preferredMsgVersion Binary Wire Messsage format we prefer.
+     * @param acceptedEncodings   The content encodings we accept in order of preference. May be {@code null}.
+     */
+    public WelcomeMessage(EndpointAddress destAddr, EndpointAddress publicaddress, ID peerid, boolean dontPropagate, int preferredMsgVersion, MimeMediaType[] acceptedEncodings) {
         destinationAddress = destAddr;
         publicAddress = publicaddress;
         peerID = peerid;
         noPropagate = dontPropagate;
-        versionString = CURRENTVERSION;
         preferredMessageVersion = preferredMsgVersion;
 
-        welcomeString = GREETING + SPACE + destAddr.toString() + SPACE + publicAddress.toString() + SPACE + peerID.toString()
-                + SPACE + (noPropagate ? "1" : "0") + SPACE + versionString;
+        if ((null == acceptedEncodings) || (0 == acceptedEncodings.length)) {
+            versionString = CURRENTVERSION;
+
+            welcomeString = GREETING + SPACE + destAddr.toString() + SPACE + publicAddress.toString() + SPACE + peerID.toString()
+                    + SPACE + (noPropagate ? "1" : "0") + SPACE + versionString;
+        } else {
+            versionString = WELCOME_VERSION_3_1;
+            contentEncodings = acceptedEncodings.clone();
+
+            welcomeString = GREETING + SPACE + destAddr.toString() + SPACE + publicAddress.toString() + SPACE + peerID.toString()
+                    + SPACE + (noPropagate ? "1" : "0") + SPACE + Integer.toString(preferredMessageVersion)
+                    + SPACE + ContentCoding.formatEncodings(contentEncodings) + SPACE + versionString;
+        }
 
         try {
             welcomeBytes = welcomeString.getBytes("UTF-8");
@@ -416,6 +459,35 @@ public class WelcomeMessage {
 
                 throw failure;
             }
+        } else if (WELCOME_VERSION_3_1.equals(versionString)) {
+            if (8 != thePieces.size()) {
+                throw new IOException("Invalid welcome message, incorrect number of tokens.");
+            }
+
+            String noPropagateStr = thePieces.get(4);
+
+            if (noPropagateStr.equals("1")) {
+                noPropagate = true;
+            } else if (noPropagateStr.equals("0")) {
+                noPropagate = false;
+            } else {
+                throw new IOException("Invalid welcome message, illegal value for propagate flag");
+            }
+
+            String preferredVersionStr = thePieces.get(5);
+
+            try {
+                preferredMessageVersion = Integer.valueOf(preferredVersionStr);
+            } catch (IllegalArgumentException failed) {
+                IOException failure = new IOException("Invalid welcome message, illegal value for preferred message version");
+
+                failure.initCause(failed);
+
+                throw failure;
+            }
+
+            // Encodings we do not know are ignored.
+            contentEncodings = ContentCoding.parseEncodings(thePieces.get(6));
         } else {
             // Unrecognized Welcome message version. Use default values.
             noPropagate = false;
@@ -503,6 +575,17 @@ public class WelcomeMessage {
         return preferredMessageVersion;
     }
 
+    /**
+     * Return the content encodings which the peer accepts for messages sent
+     * to it, in its order of preference. Only encodings we support are
+     * returned.
+     *
+     * @return The accepted content encodings. May be empty.
+     */
+    public MimeMediaType[] getContentEncodings() {
+        return contentEncodings.clone();
+    }
+
     /**
      * Return the version associated with the Welcome Message.
      *
@@ -37,9 +37,9 @@ public class JxtaMessageDecoder extends OneToOneDecoder {
         MimeMediaType contentType = message.getMessageHeader().getContentTypeHeader();
         ByteBuffer messageContents = message.getMessageContents().toByteBuffer();
         
-        // TODO: we should pull the "content-coding" header out and do something with it, presumably
-        // pass it to the factory. However, this is not done by TCPMessenger or MCastTransport either
-        return WireFormatMessageFactory.fromBufferExternal(messageContents, contentType, null, peerGroup);
+        MimeMediaType contentEncoding = message.getMessageHeader().getContentEncodingHeader();
+
+        return WireFormatMessageFactory.fromBufferExternal(messageContents, contentType, contentEncoding, peerGroup);
     }
 
 }
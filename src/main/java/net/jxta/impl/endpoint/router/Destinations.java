@@ -170,6 +170,12 @@ class Destinations {
          */
         private boolean welcomeNeeded = true;
 
+        /**
+         * If {@code true} the destination announced that it can read router
+         * message elements in the binary encoding.
+         */
+        private boolean binaryCapable = false;
+
         /**
          * @param messenger The messenger to cache information about.
          * @param incoming  If true, this is an incoming messenger, which means 
@@ -200,6 +206,14 @@ class Destinations {
             return res;
         }
 
+        synchronized boolean isBinaryCapable() {
+            return binaryCapable;
+        }
+
+        synchronized void setBinaryCapable() {
+            binaryCapable = true;
+        }
+
         synchronized boolean addIncomingMessenger(Messenger m) {
 
             // If we have no other incoming, we take it. No questions asked.
@@ -533,6 +547,18 @@ class Destinations {
         return ((wisdom != null) && wisdom.isWelcomeNeeded());
     }
 
+    /**
+     * Can that destination read router message elements in the binary encoding.
+     *
+     * @param destination The destination as an endpoint address (is automatically normalized to protocol and address only).
+     * @return true if the destination announced that it can read the binary encoding.
+     */
+    public boolean isBinaryCapable(EndpointAddress destination) {
+        Wisdom wisdom = getWisdom(destination);
+
+        return ((wisdom != null) && wisdom.isBinaryCapable());
+    }
+
     /*
      * information input.
      */
@@ -571,6 +597,19 @@ class Destinations {
         return true;
     }
 
+    /**
+     * The destination announced that it can read router message elements in the binary encoding.
+     *
+     * @param destination The destination as an endpoint address (is automatically normalized to protocol and address only).
+     */
+    public void setBinaryCapable(EndpointAddress destination) {
+        Wisdom wisdom = getWisdom(destination);
+
+        if (wisdom != null) {
+            wisdom.setBinaryCapable();
+        }
+    }
+
     /**
      * We tried to get a messenger but could not. We know that we do not have connectivity from our end, for now.  we may still
      * have an incoming. However, if we had to try and make a messenger, there probably isn't an incoming, but that's not our
@@ -1541,6 +1541,11 @@ public class EndpointRouter implements EndpointListener, EndpointRoutingTranspor
 
             lastHop = routerMsg.getLastHop();
 
+            // Remember whether the previous hop can read binary router headers
+            if (routerMsg.isBinaryCapable() && (lastHop != null)) {
+                destinations.setBinaryCapable(lastHop);
+            }
+
             // See if there's an originator full route adv inthere.
             // That's a good thing to keep.
             radv = routerMsg.getRouteAdv();
@@ -1862,6 +1867,7 @@ public class EndpointRouter implements EndpointListener, EndpointRoutingTranspor
 
             // We always modify the router message within the message
             routerMsg.setLastHop(localPeerAddr);
+            routerMsg.setBinary(destinations.isBinaryCapable(nextHop));
             routerMsg.updateMessage();
 
             Logging.logCheckedDebug(LOG, "Trying to forward to ", nextHop);
@@ -2465,6 +2471,7 @@ public class EndpointRouter implements EndpointListener, EndpointRoutingTranspor
             // Push the router header onto the message.
             // That's all we have to do for now.
 
+            routerMsg.setBinary(destinations.isBinaryCapable(theGatewayAddress));
             routerMsg.updateMessage();
 
         } catch (Exception ez1) {
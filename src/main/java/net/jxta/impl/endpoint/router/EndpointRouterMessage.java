@@ -57,9 +57,11 @@ package net.jxta.impl.endpoint.router;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
 import java.security.InvalidKeyException;
 import java.security.SignatureException;
 import java.security.cert.CertificateEncodingException;
@@ -67,6 +69,7 @@ import java.util.Enumeration;
 import java.util.Vector;
 
 import net.jxta.document.AdvertisementFactory;
+import net.jxta.document.Attribute;
 import net.jxta.document.MimeMediaType;
 import net.jxta.document.StructuredDocumentFactory;
 import net.jxta.document.StructuredDocumentUtils;
@@ -78,17 +81,28 @@ import net.jxta.endpoint.Message;
 import net.jxta.endpoint.MessageElement;
 import net.jxta.endpoint.TextDocumentMessageElement;
 import net.jxta.endpoint.WireFormatMessageFactory;
+import net.jxta.id.IDFactory;
 import net.jxta.impl.membership.pse.PSECredential;
 import net.jxta.impl.membership.pse.PSEMembershipService;
 import net.jxta.logging.Logger;
 import net.jxta.logging.Logging;
 import net.jxta.membership.MembershipService;
+import net.jxta.peer.PeerID;
 import net.jxta.protocol.AccessPointAdvertisement;
 import net.jxta.protocol.RouteAdvertisement;
 
 /**
  * Router Message element. This element is added to every message to carry route 
  * information for the EndpointRouter service.
+ *
+ * <p/>The element is either an XML document or, between peers which both support
+ * it, a compact binary encoding. Peers announce that they can read the binary
+ * encoding with the {@link #BinaryAttr} attribute of the XML document or by
+ * sending binary elements themselves. The binary encoding is a version byte
+ * followed by a sequence of fields, each made of a tag byte, a length and the
+ * encoded value. Fields with unknown tags are skipped. The encoded form of each
+ * field is kept until the field changes, so that forwarding a message only
+ * re-encodes the fields the forwarding peer modified.
  */
 public class EndpointRouterMessage {
 
@@ -104,6 +118,39 @@ public class EndpointRouterMessage {
     public static final String GatewayForwardTag = "Fwd";
     public static final String GatewayReverseTag = "Rvs";
 
+    /**
+     * Attribute of the XML document announcing the version of the binary encoding
+     * the sending peer can read.
+     */
+    public static final String BinaryAttr = "Bin";
+
+    /**
+     * The MIME type of router message elements in the binary encoding.
+     */
+    public static final MimeMediaType BINARY_MIME_TYPE = new MimeMediaType("application/x-jxta-erm").intern();
+
+    /**
+     * System property used to disable the binary encoding, in which case it is
+     * neither announced nor sent.
+     */
+    public static final String BINARY_SYSPROP = EndpointRouterMessage.class.getName() + ".binary";
+
+    static final boolean BINARY_ENABLED = Boolean.parseBoolean(System.getProperty(BINARY_SYSPROP, "true"));
+
+    /**
+     * The version of the binary encoding.
+     */
+    static final int BINARY_VERSION = 1;
+
+    // Tags of the fields of the binary encoding, also used as indexes of binaryFields.
+    private static final int SRC_FIELD = 0;
+    private static final int DEST_FIELD = 1;
+    private static final int LAST_HOP_FIELD = 2;
+    private static final int FORWARD_FIELD = 3;
+    private static final int REVERSE_FIELD = 4;
+    private static final int ROUTE_ADV_FIELD = 5;
+    private static final int FIELD_COUNT = 6;
+
     private EndpointAddress srcAddress = null; // PeerID-based EndpointAddress
     private EndpointAddress destAddress = null; // PeerID-based EndpointAddress
     private EndpointAddress lastHop = null; // Plain PeerID
@@ -128,6 +175,17 @@ public class EndpointRouterMessage {
     // Cache the element. At the minimum it simplifies removal.
     private transient MessageElement rmElem = null;
 
+    // The binary encoding of each field, null if the field changed since it
+    // was last encoded or decoded. The route advertisement is only decoded
+    // when asked for.
+    private final transient byte[][] binaryFields = new byte[FIELD_COUNT][];
+
+    // If true the element is to be written in the binary encoding.
+    private transient boolean binary = false;
+
+    // If true the peer which wrote the element can read the binary encoding.
+    private transient boolean binaryCapable = false;
+
 	private MembershipService membershipService;
 
     public boolean msgExists() {
@@ -162,11 +220,28 @@ public class EndpointRouterMessage {
                 return;
             }
 
+            if (BINARY_MIME_TYPE.equals(rmElem.getMimeType())) {
+                binary = true;
+                binaryCapable = true;
+
+                if (!readBinary(rmElem)) {
+                    // results in rmExists being false.
+                    return;
+                }
+
+                // All parsed ok, we're in sync.
+                rmExists = true;
+                rmDirty = false;
+                return;
+            }
+
             XMLDocument doc = (XMLDocument) StructuredDocumentFactory.newStructuredDocument(rmElem);
 
             Enumeration<XMLElement> each;
             XMLElement e;
 
+            binaryCapable = isBinaryAnnounced(doc);
+
             each = doc.getChildren();
             if (!each.hasMoreElements()) {
                 // results in rmExists being false.
@@ -276,12 +351,24 @@ public class EndpointRouterMessage {
         // The element was either created or changed. Replace whatever
         // if anything was in the message
 
+        if (binary) {
+            rmElem = new ByteArrayMessageElement(MESSAGE_NAME, BINARY_MIME_TYPE, writeBinary(), null);
+            message.replaceMessageElement(MESSAGE_NS, rmElem);
+
+            rmDirty = false;
+            return;
+        }
+
         XMLDocument doc = (XMLDocument)
                 StructuredDocumentFactory.newStructuredDocument(MimeMediaType.XMLUTF8, Name);
 
         doc.addAttribute("xmlns:jxta", "http://jxta.org");
         doc.addAttribute("xml:space", "preserve");
 
+        if (BINARY_ENABLED) {
+            doc.addAttribute(BinaryAttr, Integer.toString(BINARY_VERSION));
+        }
+
         XMLElement e;
 
         if (srcAddress != null) {
@@ -371,7 +458,7 @@ public class EndpointRouterMessage {
             }
         }
 
-        if (radv != null) {
+        if (getRouteAdv() != null) {
 
             try {
             	if(membershipService instanceof PSEMembershipService) {
@@ -398,6 +485,7 @@ public class EndpointRouterMessage {
         rmExists = true;
         rmDirty = true;
         srcAddress = address;
+        binaryFields[SRC_FIELD] = null;
 
         if(!WireFormatMessageFactory.CBJX_DISABLE && membershipService instanceof PSEMembershipService) {
             try {
@@ -465,6 +553,7 @@ public class EndpointRouterMessage {
         rmExists = true;
         rmDirty = true;
         destAddress = address;
+        binaryFields[DEST_FIELD] = null;
     }
 
     public EndpointAddress getDestAddress() {
@@ -475,6 +564,7 @@ public class EndpointRouterMessage {
         rmExists = true;
         rmDirty = true;
         lastHop = lhop;
+        binaryFields[LAST_HOP_FIELD] = null;
     }
 
     public EndpointAddress getLastHop() {
@@ -486,6 +576,7 @@ public class EndpointRouterMessage {
         rmDirty = true;
         forwardGateways = fhops;
         forwardCache = null;
+        binaryFields[FORWARD_FIELD] = null;
     }
 
     public Vector<AccessPointAdvertisement> getForwardHops() {
@@ -502,6 +593,15 @@ public class EndpointRouterMessage {
 
         reverseGateways.add(0, apa);
 
+        // The encoded hops which follow are unchanged
+        if (binaryFields[REVERSE_FIELD] != null) {
+            try {
+                binaryFields[REVERSE_FIELD] = prependHop(apa, binaryFields[REVERSE_FIELD]);
+            } catch (IOException failed) {
+                binaryFields[REVERSE_FIELD] = null;
+            }
+        }
+
         if (reverseCache == null) {
             return;
         }
@@ -528,6 +628,7 @@ public class EndpointRouterMessage {
 
         // Not worth updating the cache. Blast it.
         reverseCache = null;
+        binaryFields[REVERSE_FIELD] = null;
     }
 
     public Vector<AccessPointAdvertisement> getReverseHops() {
@@ -540,6 +641,18 @@ public class EndpointRouterMessage {
     }
 
     public RouteAdvertisement getRouteAdv() {
+        if ((radv == null) && (binaryFields[ROUTE_ADV_FIELD] != null)) {
+            try {
+                XMLDocument doc = (XMLDocument) StructuredDocumentFactory.newStructuredDocument(MimeMediaType.XMLUTF8,
+                        new ByteArrayInputStream(binaryFields[ROUTE_ADV_FIELD]));
+
+                radv = (RouteAdvertisement) AdvertisementFactory.newAdvertisement(doc);
+            } catch (Exception failed) {
+                Logging.logCheckedWarning(LOG, "Cannot read route advertisement\n", failed);
+                binaryFields[ROUTE_ADV_FIELD] = null;
+            }
+        }
+
         return radv;
     }
 
@@ -547,6 +660,272 @@ public class EndpointRouterMessage {
         rmExists = true;
         rmDirty = true;
         this.radv = radv;
+        binaryFields[ROUTE_ADV_FIELD] = null;
+    }
+
+    /**
+     * Selects the encoding of the element for the next call to {@link #updateMessage()}.
+     * The binary encoding is only used if enabled by {@link #BINARY_SYSPROP}.
+     *
+     * @param useBinary If {@code true} use the binary encoding, otherwise XML.
+     */
+    public void setBinary(boolean useBinary) {
+        useBinary &= BINARY_ENABLED;
+
+        if (binary != useBinary) {
+            binary = useBinary;
+
+            if (rmExists) {
+                rmDirty = true;
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the element is written in the binary encoding.
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * @return {@code true} if the peer which wrote the element announced that
+     * it can read the binary encoding.
+     */
+    public boolean isBinaryCapable() {
+        return binaryCapable;
+    }
+
+    private static boolean isBinaryAnnounced(XMLDocument doc) {
+        Attribute version = doc.getAttribute(BinaryAttr);
+
+        if (null == version) {
+            return false;
+        }
+
+        try {
+            return Integer.parseInt(version.getValue()) >= BINARY_VERSION;
+        } catch (NumberFormatException notVersion) {
+            return false;
+        }
+    }
+
+    /**
+     * Reads the fields of an element in the binary encoding.
+     *
+     * @param elem The element.
+     * @return {@code true} if the element contained at least one field.
+     * @throws IOException If the element could not be read.
+     */
+    private boolean readBinary(MessageElement elem) throws IOException {
+        DataInputStream in = new DataInputStream(elem.getStream());
+        int version = in.readUnsignedByte();
+
+        if (version != BINARY_VERSION) {
+            throw new IOException("Unsupported router message version " + version);
+        }
+
+        boolean any = false;
+        int tag;
+
+        while ((tag = in.read()) != -1) {
+            int length = in.readInt();
+
+            if ((length < 0) || (length > elem.getByteLength())) {
+                throw new IOException("Invalid router message field length " + length);
+            }
+
+            byte[] field = new byte[length];
+
+            in.readFully(field);
+
+            // Fields from later versions are skipped
+            if (tag >= FIELD_COUNT) {
+                continue;
+            }
+
+            switch (tag) {
+                case SRC_FIELD:
+                    srcAddress = new EndpointAddress(new String(field, "UTF-8"));
+                    break;
+
+                case DEST_FIELD:
+                    destAddress = new EndpointAddress(new String(field, "UTF-8"));
+                    break;
+
+                case LAST_HOP_FIELD:
+                    lastHop = new EndpointAddress(new String(field, "UTF-8"));
+                    break;
+
+                case FORWARD_FIELD:
+                    forwardGateways = readHops(field);
+                    break;
+
+                case REVERSE_FIELD:
+                    reverseGateways = readHops(field);
+                    break;
+
+                default:
+                    // The route advertisement is read on demand.
+                    break;
+            }
+
+            binaryFields[tag] = field;
+            any = true;
+        }
+
+        return any;
+    }
+
+    /**
+     * Writes the fields in the binary encoding, encoding those which changed.
+     *
+     * @return The encoded element.
+     */
+    private byte[] writeBinary() {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+
+        try {
+            out.writeByte(BINARY_VERSION);
+
+            for (int tag = 0; tag < FIELD_COUNT; tag++) {
+                if (binaryFields[tag] == null) {
+                    binaryFields[tag] = encodeField(tag);
+                }
+
+                if (binaryFields[tag] != null) {
+                    out.writeByte(tag);
+                    out.writeInt(binaryFields[tag].length);
+                    out.write(binaryFields[tag]);
+                }
+            }
+
+            out.flush();
+        } catch (IOException impossible) {
+            throw new IllegalStateException("Could not write to byte array", impossible);
+        }
+
+        return bos.toByteArray();
+    }
+
+    /**
+     * Encodes a field.
+     *
+     * @param tag The field.
+     * @return The encoded field or {@code null} if the field is not set.
+     * @throws IOException If the field could not be encoded.
+     */
+    private byte[] encodeField(int tag) throws IOException {
+        switch (tag) {
+            case SRC_FIELD:
+                return (srcAddress != null) ? srcAddress.toString().getBytes("UTF-8") : null;
+
+            case DEST_FIELD:
+                return (destAddress != null) ? destAddress.toString().getBytes("UTF-8") : null;
+
+            case LAST_HOP_FIELD:
+                return (lastHop != null) ? lastHop.toString().getBytes("UTF-8") : null;
+
+            case FORWARD_FIELD:
+                return encodeHops(forwardGateways);
+
+            case REVERSE_FIELD:
+                return encodeHops(reverseGateways);
+
+            case ROUTE_ADV_FIELD:
+                if (radv == null) {
+                    return null;
+                }
+
+                try {
+                    if (membershipService instanceof PSEMembershipService) {
+                        PSECredential tempCred = (PSECredential) membershipService.getDefaultCredential();
+                        radv.sign(tempCred, true, false);
+                    }
+
+                    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+                    radv.getSignedDocument().sendToStream(bos);
+                    return bos.toByteArray();
+                } catch (Exception e1) {
+                    Logging.logCheckedWarning(LOG, "Cannot add route advertisement");
+                    return null;
+                }
+
+            default:
+                throw new IllegalArgumentException("Unknown field " + tag);
+        }
+    }
+
+    private static byte[] encodeHops(Vector<AccessPointAdvertisement> hops) throws IOException {
+        if ((hops == null) || hops.isEmpty()) {
+            return null;
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+
+        out.writeInt(hops.size());
+        for (AccessPointAdvertisement hop : hops) {
+            writeHop(hop, out);
+        }
+        out.flush();
+
+        return bos.toByteArray();
+    }
+
+    private static byte[] prependHop(AccessPointAdvertisement hop, byte[] encodedHops) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(encodedHops.length + 128);
+        DataOutputStream out = new DataOutputStream(bos);
+        int count = new DataInputStream(new ByteArrayInputStream(encodedHops)).readInt();
+
+        out.writeInt(count + 1);
+        writeHop(hop, out);
+        out.write(encodedHops, 4, encodedHops.length - 4);
+        out.flush();
+
+        return bos.toByteArray();
+    }
+
+    private static void writeHop(AccessPointAdvertisement hop, DataOutputStream out) throws IOException {
+        Vector<String> addresses = hop.getVectorEndpointAddresses();
+
+        out.writeUTF((hop.getPeerID() != null) ? hop.getPeerID().toString() : "");
+        out.writeInt(addresses.size());
+        for (String address : addresses) {
+            out.writeUTF(address);
+        }
+    }
+
+    private static Vector<AccessPointAdvertisement> readHops(byte[] encodedHops) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(encodedHops));
+        int count = in.readInt();
+        Vector<AccessPointAdvertisement> hops = new Vector<AccessPointAdvertisement>(Math.min(count, 16));
+
+        for (int i = 0; i < count; i++) {
+            AccessPointAdvertisement hop = (AccessPointAdvertisement)
+                    AdvertisementFactory.newAdvertisement(AccessPointAdvertisement.getAdvertisementType());
+            String pid = in.readUTF();
+
+            if (pid.length() > 0) {
+                try {
+                    hop.setPeerID((PeerID) IDFactory.fromURI(new URI(pid)));
+                } catch (Exception badID) {
+                    throw new IOException("Invalid peer id " + pid);
+                }
+            }
+
+            int addresses = in.readInt();
+
+            for (int j = 0; j < addresses; j++) {
+                hop.addEndpointAddress(in.readUTF());
+            }
+
+            hops.add(hop);
+        }
+
+        return hops;
     }
 
     // Used only for debugging
@@ -560,7 +939,7 @@ public class EndpointRouterMessage {
         msgInfo.append("\n\tlastHop= ");
         msgInfo.append((lastHop != null) ? lastHop : "none");
         msgInfo.append("\n\tembedded radv= ");
-        msgInfo.append(radv != null ? radv.display() : "none");
+        msgInfo.append(getRouteAdv() != null ? radv.display() : "none");
         if (forwardGateways != null) {
             msgInfo.append("\n\tForward Hops:");
             for (int i = 0; i < forwardGateways.size(); ++i) {
@@ -599,6 +978,10 @@ public class EndpointRouterMessage {
             reverseGateways = null;
             radv = null;
             rmExists = false;
+
+            for (int tag = 0; tag < FIELD_COUNT; tag++) {
+                binaryFields[tag] = null;
+            }
         }
     }
 }
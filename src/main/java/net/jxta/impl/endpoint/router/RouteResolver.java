@@ -1160,8 +1160,7 @@ class RouteResolver implements Module, QueryHandler, SrdiHandler, SrdiPushEntrie
 
             Logging.logCheckedDebug(LOG, "Received a SRDI messsage in group", group.getPeerGroupName());
 
-            XMLDocument asDoc = (XMLDocument) StructuredDocumentFactory.newStructuredDocument(MimeMediaType.XMLUTF8, new StringReader(message.getPayload()));
-            srdiMsg = new SrdiMessageImpl(asDoc);
+            srdiMsg = ResolverSrdiMsgImpl.getSrdiMessage(message);
 
         } catch (Exception e) {
 
@@ -81,12 +81,21 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  *  Simple messenger that simply posts a message to a URL.
  *
  *  <p/>URL/HttpURLConnection is used, so (depending on your JDK) you will get
  *  reasonably good persistent connection management.
+ *
+ *  <p/>If the server accepts batched framing (see {@link HttpMessageFraming})
+ *  then messages are queued and a single sender posts all of the queued
+ *  messages in one request while the poller receives batched responses. The
+ *  thread sending a message waits until the request carrying it has been
+ *  accepted by the server, as it would for an unbatched send.
  */
 final class HttpClientMessenger extends BlockingMessenger {
 
@@ -128,6 +137,12 @@ final class HttpClientMessenger extends BlockingMessenger {
      */
     private final static int CONNECT_RETRIES = 2;
 
+    /**
+     *  The maximum number of messages which may be queued for batched sending
+     *  before senders are blocked.
+     */
+    private final static int MAXIMUM_PENDING_MESSAGES = 4 * HttpMessageFraming.MAXIMUM_BATCH_MESSAGES;
+
     /**
      *  Warn only once about obsolete proxies.
      */
@@ -165,6 +180,26 @@ final class HttpClientMessenger extends BlockingMessenger {
      */
     private MessagePoller poller = null;
 
+    /**
+     *  If {@code true} then the server accepted batched framing.
+     */
+    private volatile boolean batched = false;
+
+    /**
+     *  Messages waiting to be sent in a batch.
+     */
+    private final List<PendingMessage> pendingMessages = new ArrayList<PendingMessage>();
+
+    /**
+     *  If {@code true} then a batch sender is running.
+     */
+    private boolean batchSenderRunning = false;
+
+    /**
+     *  The failure which ended batched sending or {@code null}.
+     */
+    private IOException batchFailure = null;
+
     /**
      *  Constructs the messenger.
      *
@@ -263,6 +298,10 @@ final class HttpClientMessenger extends BlockingMessenger {
         if (null != stopPoller) {
             stopPoller.stop();
         }
+
+        synchronized (pendingMessages) {
+            pendingMessages.notifyAll();
+        }
     }
 
     /**
@@ -293,7 +332,11 @@ final class HttpClientMessenger extends BlockingMessenger {
         message.replaceMessageElement(EndpointServiceImpl.MESSAGE_DESTINATION_NS, dstAddressElement);
 
         try {
-            doSend(message);
+            if (batched) {
+                queueBatched(message);
+            } else {
+                doSend(message);
+            }
         } catch (IOException e) {
             // close this messenger
             close();
@@ -342,6 +385,10 @@ final class HttpClientMessenger extends BlockingMessenger {
         urlConn.setConnectTimeout(CONNECT_TIMEOUT);
         urlConn.setReadTimeout(CONNECT_TIMEOUT);
 
+        if (HttpMessageFraming.BATCH_FRAMING_ENABLED) {
+            urlConn.setRequestProperty(HttpMessageFraming.FRAMING_HEADER, HttpMessageFraming.BATCH_FRAMING);
+        }
+
         try {
             // this is where the connection is actually made, if not already
             // connected. If we can't connect, assume it is dead
@@ -406,7 +453,10 @@ final class HttpClientMessenger extends BlockingMessenger {
 
             EndpointAddress remoteAddress = new EndpointAddress("jxta", uniqueIdString.trim(), null, null);
 
-            Logging.logCheckedDebug(LOG, "Ping (", senderURL, ") -> ", remoteAddress);
+            // Servers which do not know about batched framing do not answer the header.
+            batched = HttpMessageFraming.isBatched(urlConn.getHeaderField(HttpMessageFraming.FRAMING_HEADER));
+
+            Logging.logCheckedDebug(LOG, "Ping (", senderURL, ") -> ", remoteAddress, " batched=", batched);
 
             return remoteAddress;
 
@@ -425,10 +475,78 @@ final class HttpClientMessenger extends BlockingMessenger {
         }
     }
 
+    /**
+     *  Queues a message to be sent in a batch and starts the batch sender if
+     *  it is not running. Blocks while the queue is full and then until the
+     *  batch containing the message has been sent.
+     *
+     *  @param msg The message to send.
+     *  @throws IOException If the batch containing the message could not be
+     *  sent or batched sending has already failed.
+     */
+    private void queueBatched(Message msg) throws IOException {
+        WireFormatMessage serialed = WireFormatMessageFactory.toWireExternal(msg, EndpointServiceImpl.DEFAULT_MESSAGE_TYPE, null, this.servletHttpTransport.group);
+        PendingMessage pending = new PendingMessage(msg, serialed);
+
+        synchronized (pendingMessages) {
+            try {
+                while ((pendingMessages.size() >= MAXIMUM_PENDING_MESSAGES) && (null == batchFailure) && !isClosed()) {
+                    pendingMessages.wait();
+                }
+
+                if (null != batchFailure) {
+                    throw new IOException("Failed sending to " + senderURL, batchFailure);
+                }
+
+                if (isClosed()) {
+                    throw new IOException("Messenger was closed, it cannot be used to send messages.");
+                }
+
+                pendingMessages.add(pending);
+
+                if (!batchSenderRunning) {
+                    batchSenderRunning = true;
+                    servletHttpTransport.group.getTaskManager().getExecutorService().execute(new BatchSender());
+                }
+
+                while (!pending.done) {
+                    if (isClosed() && pendingMessages.remove(pending)) {
+                        // not yet taken by the batch sender
+                        throw new IOException("Messenger was closed, it cannot be used to send messages.");
+                    }
+
+                    pendingMessages.wait();
+                }
+            } catch (InterruptedException woken) {
+                pendingMessages.remove(pending);
+                Thread.interrupted();
+                throw new InterruptedIOException("Interrupted while sending " + msg);
+            }
+        }
+
+        if (null != pending.failure) {
+            throw new IOException("Failed sending " + msg + " to " + senderURL, pending.failure);
+        }
+    }
+
     /**
      *  Connects to the http server and POSTs the message
      */
     private void doSend(Message msg) throws IOException {
+        WireFormatMessage serialed = WireFormatMessageFactory.toWireExternal(msg, EndpointServiceImpl.DEFAULT_MESSAGE_TYPE, null, this.servletHttpTransport.group);
+
+        doSend(Collections.singletonList(msg), Collections.singletonList(serialed), false);
+    }
+
+    /**
+     *  Connects to the http server and POSTs the messages.
+     *
+     *  @param msgs The messages to send. Exactly one unless {@code batch}.
+     *  @param serialeds The serialized forms of the messages.
+     *  @param batch If {@code true} then the messages are sent with batched
+     *  framing.
+     */
+    private void doSend(List<Message> msgs, List<WireFormatMessage> serialeds, boolean batch) throws IOException {
         long beginConnectTime = 0;
         long connectTime = 0;
 
@@ -436,7 +554,11 @@ final class HttpClientMessenger extends BlockingMessenger {
             beginConnectTime = TimeUtils.timeNow();
         }
 
-        WireFormatMessage serialed = WireFormatMessageFactory.toWireExternal(msg, EndpointServiceImpl.DEFAULT_MESSAGE_TYPE, null, this.servletHttpTransport.group);
+        long contentLength = 0;
+
+        for (WireFormatMessage serialed : serialeds) {
+            contentLength += batch ? HttpMessageFraming.getFrameLength(serialed) : serialed.getByteLength();
+        }
 
         for (int connectAttempt = 1; connectAttempt <= CONNECT_RETRIES; connectAttempt++) {
 
@@ -446,6 +568,7 @@ final class HttpClientMessenger extends BlockingMessenger {
 
             // open a connection to the other end
             HttpURLConnection urlConn = (HttpURLConnection) senderURL.openConnection();
+            boolean reusable = false;
 
             try {
                 urlConn.setRequestMethod("POST");
@@ -456,16 +579,30 @@ final class HttpClientMessenger extends BlockingMessenger {
                 urlConn.setConnectTimeout(CONNECT_TIMEOUT);
                 urlConn.setReadTimeout(CONNECT_TIMEOUT);
                 // FIXME 20040907 bondolo Should set message encoding http header.
-                urlConn.setRequestProperty("content-length", Long.toString(serialed.getByteLength()));
-                urlConn.setRequestProperty("content-type", serialed.getMimeType().toString());
-                // send the message
+                urlConn.setRequestProperty("content-length", Long.toString(contentLength));
+                urlConn.setRequestProperty("content-type", serialeds.get(0).getMimeType().toString());
+
+                if (batch) {
+                    urlConn.setRequestProperty(HttpMessageFraming.FRAMING_HEADER, HttpMessageFraming.BATCH_FRAMING);
+                    urlConn.setFixedLengthStreamingMode((int) contentLength);
+                }
+
+                // send the messages
                 OutputStream out = urlConn.getOutputStream();
 
                 if (TransportMeterBuildSettings.TRANSPORT_METERING && (transportBindingMeter != null)) {
                     connectTime = TimeUtils.timeNow();
                     transportBindingMeter.connectionEstablished(true, connectTime - beginConnectTime);
                 }
-                serialed.sendToStream(out);
+
+                for (WireFormatMessage serialed : serialeds) {
+                    if (batch) {
+                        HttpMessageFraming.writeFrame(out, serialed);
+                    } else {
+                        serialed.sendToStream(out);
+                    }
+                }
+
                 out.flush();
                 int responseCode;
 
@@ -505,7 +642,7 @@ final class HttpClientMessenger extends BlockingMessenger {
 
                 if (responseCode != HttpURLConnection.HTTP_OK) {
                     if (TransportMeterBuildSettings.TRANSPORT_METERING && (transportBindingMeter != null)) {
-                        transportBindingMeter.dataSent(true, serialed.getByteLength());
+                        transportBindingMeter.dataSent(true, contentLength);
                         transportBindingMeter.connectionDropped(true, TimeUtils.timeNow() - beginConnectTime);
                     }
                     throw new IOException( "Message not accepted: HTTP status " + "code=" + responseCode + 
@@ -515,13 +652,21 @@ final class HttpClientMessenger extends BlockingMessenger {
                 if (TransportMeterBuildSettings.TRANSPORT_METERING && (transportBindingMeter != null)) {
                     long messageSentTime = TimeUtils.timeNow();
 
-                    transportBindingMeter.messageSent(true, msg, messageSentTime - connectTime, serialed.getByteLength());
+                    for (int each = 0; each < msgs.size(); each++) {
+                        transportBindingMeter.messageSent(true, msgs.get(each), messageSentTime - connectTime, serialeds.get(each).getByteLength());
+                    }
                     transportBindingMeter.connectionClosed(true, messageSentTime - beginConnectTime);
                 }
 
                 // note that we successfully sent a message
                 lastUsed = TimeUtils.timeNow();
 
+                if (batch) {
+                    // Consume the (empty) response so that the connection
+                    // returns to the keep-alive cache.
+                    reusable = drainResponse(urlConn);
+                }
+
                 return;
             } finally {
                 // This does prevent the creation of an infinite number of connections
@@ -530,11 +675,163 @@ final class HttpClientMessenger extends BlockingMessenger {
                 // least we close them (they eventualy close anyway because the other side closes
                 // them but it takes too much time). If content-length is set, then jdk ignores
                 // the disconnect AND reuses the connection, which is what we want.
-                urlConn.disconnect();
+                if (!reusable) {
+                    urlConn.disconnect();
+                }
+            }
+        }
+
+        throw new IOException("Failed sending " + msgs.size() + " message(s) to " + senderURL);
+    }
+
+    /**
+     *  Reads and closes the response body of a connection so that the
+     *  underlying connection may be reused.
+     *
+     *  @param urlConn The connection.
+     *  @return {@code true} if the response was consumed otherwise
+     *  {@code false}.
+     */
+    private static boolean drainResponse(HttpURLConnection urlConn) {
+        try {
+            InputStream in = urlConn.getInputStream();
+            byte[] discard = new byte[256];
+
+            while (in.read(discard) >= 0) {
+                // discard
             }
+
+            in.close();
+            return true;
+        } catch (IOException ignored) {
+            return false;
         }
+    }
+
+    /**
+     *  A message queued for batched sending and the outcome of sending it.
+     */
+    private static class PendingMessage {
+
+        final Message msg;
+        final WireFormatMessage serialed;
 
-        throw new IOException("Failed sending " + msg + " to " + senderURL);
+        /**
+         *  If {@code true} then the message has been sent or has failed.
+         *  Guarded by {@code pendingMessages}.
+         */
+        boolean done = false;
+
+        /**
+         *  The reason sending the message failed or {@code null}.
+         */
+        IOException failure = null;
+
+        PendingMessage(Message msg, WireFormatMessage serialed) {
+            this.msg = msg;
+            this.serialed = serialed;
+        }
+    }
+
+    /**
+     *  Completes the given messages and wakes their senders. Must be called
+     *  while holding the lock of {@code pendingMessages}.
+     *
+     *  @param completed The messages to complete.
+     *  @param failure The reason they failed or {@code null} if they were
+     *  sent.
+     */
+    private void complete(List<PendingMessage> completed, IOException failure) {
+        for (PendingMessage each : completed) {
+            if (!each.done) {
+                each.failure = failure;
+                each.done = true;
+            }
+        }
+
+        pendingMessages.notifyAll();
+    }
+
+    /**
+     *  Sends the queued messages in batches until the queue is empty.
+     */
+    private class BatchSender implements Runnable {
+
+        /**
+         *  {@inheritDoc}
+         */
+        public void run() {
+            List<PendingMessage> batch = Collections.emptyList();
+
+            try {
+                while (true) {
+                    synchronized (pendingMessages) {
+                        if (pendingMessages.isEmpty() || (null != batchFailure)) {
+                            batchSenderRunning = false;
+                            pendingMessages.notifyAll();
+                            return;
+                        }
+
+                        // Fill the batch up to the message and byte limits.
+                        int count = 0;
+                        long bytes = 0;
+
+                        while ((count < pendingMessages.size()) && (count < HttpMessageFraming.MAXIMUM_BATCH_MESSAGES)
+                                && (bytes < HttpMessageFraming.MAXIMUM_BATCH_BYTES)) {
+                            bytes += HttpMessageFraming.getFrameLength(pendingMessages.get(count).serialed);
+                            count++;
+                        }
+
+                        List<PendingMessage> head = pendingMessages.subList(0, count);
+
+                        batch = new ArrayList<PendingMessage>(head);
+                        head.clear();
+                        pendingMessages.notifyAll();
+                    }
+
+                    List<Message> msgs = new ArrayList<Message>(batch.size());
+                    List<WireFormatMessage> serialeds = new ArrayList<WireFormatMessage>(batch.size());
+
+                    for (PendingMessage each : batch) {
+                        msgs.add(each.msg);
+                        serialeds.add(each.serialed);
+                    }
+
+                    try {
+                        doSend(msgs, serialeds, true);
+
+                        Logging.logCheckedDebug(LOG, "Sent batch of ", batch.size(), " messages to ", senderURL);
+
+                        synchronized (pendingMessages) {
+                            complete(batch, null);
+                        }
+                    } catch (IOException failed) {
+                        Logging.logCheckedWarning(LOG, "Failed sending batch of ", batch.size(), " messages to ", senderURL, "\n", failed);
+
+                        synchronized (pendingMessages) {
+                            batchFailure = failed;
+                            complete(batch, failed);
+                            complete(pendingMessages, failed);
+                            pendingMessages.clear();
+                        }
+
+                        close();
+                    }
+                }
+            } catch (Throwable all) {
+                Logging.logCheckedError(LOG, "Uncaught Throwable in batch sender for ", senderURL, "\n", all);
+
+                synchronized (pendingMessages) {
+                    if (null == batchFailure) {
+                        batchFailure = new IOException("Batch sender failed", all);
+                    }
+                    batchSenderRunning = false;
+                    complete(batch, batchFailure);
+                    complete(pendingMessages, batchFailure);
+                    pendingMessages.clear();
+                }
+            }
+        }
     }
 
     /**
@@ -656,6 +953,10 @@ final class HttpClientMessenger extends BlockingMessenger {
                         conn.setConnectTimeout(CONNECT_TIMEOUT);
                         conn.setReadTimeout(RESPONSE_TIMEOUT);
 
+                        if (batched) {
+                            conn.setRequestProperty(HttpMessageFraming.FRAMING_HEADER, HttpMessageFraming.BATCH_FRAMING);
+                        }
+
                         if (TransportMeterBuildSettings.TRANSPORT_METERING) {
                             beginConnectTime = TimeUtils.timeNow();
                         }
@@ -680,6 +981,7 @@ final class HttpClientMessenger extends BlockingMessenger {
 
                     InputStream inputStream;
                     MimeMediaType messageType;
+                    boolean batchedResponse;
 
                     try {
 
@@ -739,6 +1041,8 @@ final class HttpClientMessenger extends BlockingMessenger {
 
                         // FIXME 20040907 bondolo Should get message content-encoding from http header.
 
+                        batchedResponse = HttpMessageFraming.isBatched(conn.getHeaderField(HttpMessageFraming.FRAMING_HEADER));
+
                         inputStream = conn.getInputStream();
 
                         // reset connection attempt.
@@ -801,7 +1105,11 @@ final class HttpClientMessenger extends BlockingMessenger {
                             long messageReceiveStart = TimeUtils.timeNow();
                             Message incomingMsg;
 
-                            incomingMsg = WireFormatMessageFactory.fromWireExternal(inputStream, messageType, null, HttpClientMessenger.this.servletHttpTransport.group);
+                            if (batchedResponse) {
+                                incomingMsg = HttpMessageFraming.readFrame(inputStream, messageType, HttpClientMessenger.this.servletHttpTransport.group);
+                            } else {
+                                incomingMsg = WireFormatMessageFactory.fromWireExternal(inputStream, messageType, null, HttpClientMessenger.this.servletHttpTransport.group);
+                            }
 
                             if (TransportMeterBuildSettings.TRANSPORT_METERING && (transportBindingMeter != null)) {
                                 transportBindingMeter.messageReceived(true, incomingMsg, incomingMsg.getByteLength(),
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2001-2007 Sun Microsystems, Inc.  All rights reserved.
+ *
+ *  The Sun Project JXTA(TM) Software License
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *
+ *  3. The end-user documentation included with the redistribution, if any, must
+ *     include the following acknowledgment: "This product includes software
+ *     developed by Sun Microsystems, Inc. for JXTA(TM) technology."
+ *     Alternately, this acknowledgment may appear in the software itself, if
+ *     and wherever such third-party acknowledgments normally appear.
+ *
+ *  4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA" must
+ *     not be used to endorse or promote products derived from this software
+ *     without prior written permission. For written permission, please contact
+ *     Project JXTA at http://www.jxta.org.
+ *
+ *  5. Products derived from this software may not be called "JXTA", nor may
+ *     "JXTA" appear in their name, without prior written permission of Sun.
+ *
+ *  THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+ *  INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ *  FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SUN
+ *  MICROSYSTEMS OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ *  OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ *  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ *  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *  JXTA is a registered trademark of Sun Microsystems, Inc. in the United
+ *  States and other countries.
+ *
+ *  Please see the license information page at :
+ *  <http://www.jxta.org/project/www/license.html> for instructions on use of
+ *  the license in source files.
+ *
+ *  ====================================================================
+ *
+ *  This software consists of voluntary contributions made by many individuals
+ *  on behalf of Project JXTA. For more information on Project JXTA, please see
+ *  http://www.jxta.org.
+ *
+ *  This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+
+package net.jxta.impl.endpoint.servlethttp;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import net.jxta.document.MimeMediaType;
+import net.jxta.endpoint.Message;
+import net.jxta.endpoint.WireFormatMessage;
+import net.jxta.endpoint.WireFormatMessageFactory;
+import net.jxta.peergroup.PeerGroup;
+
+/**
+ *  The batched framing of the HTTP transport. In batched framing a request or
+ *  response body carries any number of messages, each preceded by its length
+ *  in bytes as a four byte big-endian integer. The body ends after the last
+ *  frame.
+ *
+ *  <p/>Batched framing is negotiated per request. A peer which can use it adds
+ *  the {@link #FRAMING_HEADER} header with the value {@link #BATCH_FRAMING} to
+ *  its requests. A peer which receives such a request answers with the same
+ *  header. Requests and responses without the header carry a single message
+ *  (or a sequence of unframed messages for poll responses) as before, so peers
+ *  which do not know about batched framing are unaffected.
+ */
+final class HttpMessageFraming {
+
+    /**
+     *  The HTTP header used to negotiate the framing.
+     */
+    final static String FRAMING_HEADER = "X-JXTA-Framing";
+
+    /**
+     *  The value of {@link #FRAMING_HEADER} for batched framing.
+     */
+    final static String BATCH_FRAMING = "batch";
+
+    /**
+     *  The system property which may be used to disable batched framing.
+     */
+    final static String BATCH_FRAMING_SYSPROP = "net.jxta.impl.endpoint.servlethttp.HttpMessageFraming.batch";
+
+    /**
+     *  If {@code true} then batched framing is offered and accepted.
+     */
+    final static boolean BATCH_FRAMING_ENABLED = Boolean.parseBoolean(System.getProperty(BATCH_FRAMING_SYSPROP, "true"));
+
+    /**
+     *  The maximum number of messages we put in a single request or response
+     *  body.
+     */
+    final static int MAXIMUM_BATCH_MESSAGES = 64;
+
+    /**
+     *  The number of bytes after which we stop adding messages to a request or
+     *  response body.
+     */
+    final static long MAXIMUM_BATCH_BYTES = 256 * 1024;
+
+    /**
+     *  The largest frame we will accept.
+     */
+    private final static int MAXIMUM_FRAME_LENGTH = 64 * 1024 * 1024;
+
+    /**
+     *  The initial size of the buffer into which a frame is read. The buffer
+     *  grows as the frame content arrives rather than being sized by the
+     *  untrusted frame length.
+     */
+    private final static int INITIAL_FRAME_BUFFER = 64 * 1024;
+
+    /**
+     *  The number of bytes of framing which precede each message.
+     */
+    final static int FRAME_OVERHEAD = 4;
+
+    private HttpMessageFraming() {
+        // never instantiated.
+    }
+
+    /**
+     *  Returns {@code true} if the given framing header value selects batched
+     *  framing and batched framing is enabled.
+     *
+     *  @param framing The value of the {@link #FRAMING_HEADER} header or
+     *  {@code null} if the header was not present.
+     *  @return {@code true} if batched framing should be used.
+     */
+    static boolean isBatched(String framing) {
+        return BATCH_FRAMING_ENABLED && BATCH_FRAMING.equalsIgnoreCase(framing);
+    }
+
+    /**
+     *  Returns the number of bytes the message occupies in a batch.
+     *
+     *  @param serialed The serialized message.
+     *  @return The number of bytes including the framing.
+     */
+    static long getFrameLength(WireFormatMessage serialed) {
+        return FRAME_OVERHEAD + serialed.getByteLength();
+    }
+
+    /**
+     *  Writes a message frame.
+     *
+     *  @param out The stream to which the frame is written.
+     *  @param serialed The serialized message.
+     *  @throws IOException For failures writing to the stream.
+     */
+    static void writeFrame(OutputStream out, WireFormatMessage serialed) throws IOException {
+        long length = serialed.getByteLength();
+
+        if (length > MAXIMUM_FRAME_LENGTH) {
+            throw new IOException("Message too large for batched framing : " + length);
+        }
+
+        DataOutputStream dos = new DataOutputStream(out);
+
+        dos.writeInt((int) length);
+        dos.flush();
+        serialed.sendToStream(out);
+    }
+
+    /**
+     *  Reads a message frame.
+     *
+     *  @param in The stream from which the frame is read.
+     *  @param type The mime type of the messages.
+     *  @param group The peer group in which the message is received.
+     *  @return The message.
+     *  @throws EOFException If the stream ended before the frame began.
+     *  @throws IOException For failures reading the stream or if the frame is
+     *  malformed.
+     */
+    static Message readFrame(InputStream in, MimeMediaType type, PeerGroup group) throws IOException {
+        DataInputStream dis = new DataInputStream(in);
+        int length = dis.readInt();
+
+        if ((length < 0) || (length > MAXIMUM_FRAME_LENGTH)) {
+            throw new IOException("Illegal frame length : " + length);
+        }
+
+        byte[] frame = new byte[Math.min(length, INITIAL_FRAME_BUFFER)];
+        int read = 0;
+
+        while (read < length) {
+            if (read == frame.length) {
+                frame = Arrays.copyOf(frame, (int) Math.min(2L * frame.length, length));
+            }
+
+            int count = dis.read(frame, read, frame.length - read);
+
+            if (count < 0) {
+                throw new IOException("Stream ended within a frame");
+            }
+
+            read += count;
+        }
+
+        return WireFormatMessageFactory.fromWireExternal(new ByteArrayInputStream(frame), type, null, group);
+    }
+}
@@ -183,7 +183,8 @@ class HttpMessageReceiver implements MessageReceiver {
         // the peer group (useful for HttpMessageServlet).
         servletContextHandler.setClassLoader(classLoader);
         servletContextHandler.setHandler(new ServletHandler());
-        servletContextHandler.addServlet(HttpMessageServlet.class.getName(), MSG_RECEIVER_RELATIVE_URI);
+        // Polls wait for messages asynchronously.
+        servletContextHandler.addServlet(HttpMessageServlet.class.getName(), MSG_RECEIVER_RELATIVE_URI).setAsyncSupported(true);
         servletContextHandler.setAttribute("HttpMessageReceiver", this);
         
         handlers.addHandler(servletContextHandler);
@@ -58,9 +58,21 @@ package net.jxta.impl.endpoint.servlethttp;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.EOFException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.NoSuchElementException;
-
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.http.Cookie;
@@ -79,6 +91,7 @@ import net.jxta.impl.endpoint.EndpointServiceImpl;
 import net.jxta.impl.endpoint.transportMeter.TransportBindingMeter;
 import net.jxta.impl.endpoint.transportMeter.TransportMeterBuildSettings;
 import net.jxta.impl.util.TimeUtils;
+import net.jxta.impl.util.threads.TaskManager;
 import net.jxta.logging.Logger;
 import net.jxta.logging.Logging;
 import net.jxta.peergroup.PeerGroup;
@@ -90,6 +103,11 @@ import net.jxta.peergroup.PeerGroup;
  *
  *  <p/>It also supports a ping operation. When the URI is <tt>/</tt> the
  *  response consists of the unique value portion of the local peer id.
+ *
+ *  <p/>When the container supports asynchronous processing, polls which are
+ *  waiting for messages do not hold a container thread. The response is
+ *  completed by the thread sending the message through the back channel
+ *  messenger or by a scheduled expiry.
  */
 public class HttpMessageServlet extends HttpServlet {
 
@@ -101,6 +119,23 @@ public class HttpMessageServlet extends HttpServlet {
      */
     private final static long MAXIMUM_RESPONSE_DURATION = 2 * TimeUtils.AMINUTE;
 
+    /**
+     *  The maximum duration in milliseconds we will wait for another message
+     *  to add to a batched response before sending what we have.
+     */
+    private final static long BATCH_LINGER = 5;
+
+    /**
+     *  The system property which may be used to disable asynchronous polls.
+     */
+    public final static String ASYNC_POLL_SYSPROP = "net.jxta.impl.endpoint.servlethttp.HttpMessageServlet.asyncPoll";
+
+    /**
+     *  If {@code true} then polls are processed asynchronously when the
+     *  container supports it.
+     */
+    private final static boolean ASYNC_POLL = Boolean.parseBoolean(System.getProperty(ASYNC_POLL_SYSPROP, "true"));
+
     /**
      *  Owner of this servlet.
      */
@@ -124,6 +159,11 @@ public class HttpMessageServlet extends HttpServlet {
      */
     private volatile boolean destroyed = false;
 
+    /**
+     *  The asynchronous polls in progress.
+     */
+    private final Set<AsyncPoll> asyncPolls = Collections.newSetFromMap(new ConcurrentHashMap<AsyncPoll, Boolean>());
+
     /**
      *  Recovers the Message Transport which owns this servlet from the context
      *  information.
@@ -194,6 +234,10 @@ public class HttpMessageServlet extends HttpServlet {
         destroyed = true;
         notifyAll();
 
+        for (AsyncPoll each : asyncPolls) {
+            each.finish();
+        }
+
     }
 
     /**
@@ -234,7 +278,7 @@ public class HttpMessageServlet extends HttpServlet {
         if (null == currentRequest.requestorAddr && !currentRequest.messageContent) {
 
             // this is only a ping request
-            pingResponse(res);
+            pingResponse(res, currentRequest.batched);
 
             if (TransportMeterBuildSettings.TRANSPORT_METERING) {
                 long connectionTime = TimeUtils.toRelativeTimeMillis(TimeUtils.timeNow(), currentRequest.requestStartTime);
@@ -272,6 +316,7 @@ public class HttpMessageServlet extends HttpServlet {
 
         // check if the request included polling (valid requestor peerId and timeout not -1)
         HttpServletMessenger messenger = null;
+        TaskManager taskManager = null;
 
         if ((null != currentRequest.requestorAddr) && (currentRequest.responseTimeout >= 0) && (null != currentRequest.destAddr)) {
 
@@ -287,8 +332,9 @@ public class HttpMessageServlet extends HttpServlet {
             }
 
             final PeerGroup peerGroup = owner.getServletHttpTransport().getPeerGroup();
+            taskManager = peerGroup.getTaskManager();
 			messenger = new HttpServletMessenger(peerGroup.getPeerGroupID(), 
-			                                     peerGroup.getTaskManager(),
+			                                     taskManager,
                                                  localAddress,
                                                  currentRequest.requestorAddr, 
                                                  messengerAliveFor);
@@ -309,11 +355,16 @@ public class HttpMessageServlet extends HttpServlet {
         // message in order to complete the transaction http-1.0-style.
 
         boolean mustSetContentLength = true;
+        boolean asyncStarted = false;
+
+        if (currentRequest.batched) {
+            res.setHeader(HttpMessageFraming.FRAMING_HEADER, HttpMessageFraming.BATCH_FRAMING);
+        }
 
         try {
-            // get the incoming message is there is one
+            // get the incoming messages if there are any
             if (currentRequest.messageContent) {
-                Message incomingMessage;
+                List<Message> incomingMessages = new ArrayList<Message>(1);
 
                 // read the stream
                 InputStream in = req.getInputStream();
@@ -334,7 +385,18 @@ public class HttpMessageServlet extends HttpServlet {
 
                     // FIXME 20040927 bondolo Should get message encoding from http header.
                     try {
-                        incomingMessage = WireFormatMessageFactory.fromWireExternal(in, contentMimeType, null, this.servletHttpTransport.getPeerGroup());
+                        if (currentRequest.batched) {
+                            // read frames until the body ends.
+                            while (true) {
+                                try {
+                                    incomingMessages.add(HttpMessageFraming.readFrame(in, contentMimeType, this.servletHttpTransport.getPeerGroup()));
+                                } catch (EOFException endOfBatch) {
+                                    break;
+                                }
+                            }
+                        } else {
+                            incomingMessages.add(WireFormatMessageFactory.fromWireExternal(in, contentMimeType, null, this.servletHttpTransport.getPeerGroup()));
+                        }
                     } catch (NoSuchElementException noValidWireFormat) {
                         IOException failure = new IOException("Unrecognized content type MIME type : " + contentType);
 
@@ -346,7 +408,9 @@ public class HttpMessageServlet extends HttpServlet {
                         lastReadWriteTime = TimeUtils.timeNow();
                         long receiveTime = TimeUtils.toRelativeTimeMillis(TimeUtils.timeNow(), currentRequest.requestStartTime);
 
-                        transportBindingMeter.messageReceived(false, incomingMessage, receiveTime, 0); // size=0 since it was already incorporated in the request size
+                        for (Message incomingMessage : incomingMessages) {
+                            transportBindingMeter.messageReceived(false, incomingMessage, receiveTime, 0); // size=0 since it was already incorporated in the request size
+                        }
                     }
 
                 } catch (IOException e) {
@@ -362,24 +426,38 @@ public class HttpMessageServlet extends HttpServlet {
                     return;
                 }
 
-                // post the incoming message to the endpoint demux
-                Logging.logCheckedDebug(LOG, "Handing ", incomingMessage, " to the endpoint.");
+                // post the incoming messages to the endpoint demux
+                for (Message incomingMessage : incomingMessages) {
+                    Logging.logCheckedDebug(LOG, "Handing ", incomingMessage, " to the endpoint.");
 
-                try {
+                    try {
 
-                    endpoint.processIncomingMessage(incomingMessage);
+                        endpoint.processIncomingMessage(incomingMessage);
 
-                } catch (Throwable e) {
+                    } catch (Throwable e) {
 
-                    Logging.logCheckedWarning(LOG, "Failure demuxing an incoming message\n", e);
+                        Logging.logCheckedWarning(LOG, "Failure demuxing an incoming message\n", e);
 
+                    }
                 }
             }
 
             boolean beganResponse = false;
 
             // Check if the back channel is to be used for sending messages.
-            if ((currentRequest.responseTimeout >= 0) && (null != messenger)) {
+            if ((currentRequest.responseTimeout >= 0) && (null != messenger) && ASYNC_POLL && req.isAsyncSupported() && !destroyed) {
+
+                Logging.logCheckedDebug(LOG, "Wait asynchronously for message from the messenger. timeout = ", currentRequest.responseTimeout);
+
+                AsyncPoll poll = new AsyncPoll(req, res, currentRequest, messenger, servletHttpTransport.getPeerGroup(), taskManager.getScheduledExecutorService(), transportBindingMeter);
+
+                asyncStarted = true;
+                poll.start();
+
+                // The response will be completed by the poll.
+                return;
+
+            } else if ((currentRequest.responseTimeout >= 0) && (null != messenger)) {
 
                 Logging.logCheckedDebug(LOG, "Wait for message from the messenger. timeout = ", currentRequest.responseTimeout, " destroyed = ", destroyed);
 
@@ -451,53 +529,60 @@ public class HttpMessageServlet extends HttpServlet {
 
                     }
 
-                    // send the message
-                    WireFormatMessage serialed = WireFormatMessageFactory.toWireExternal(outMsg, EndpointServiceImpl.DEFAULT_MESSAGE_TYPE, null, this.servletHttpTransport.getPeerGroup());
+                    if (currentRequest.batched) {
+                        sendBatch(req, res, currentRequest, messenger, outMsg, transportBindingMeter);
 
-                    // if only one message is being returned, set the content
-                    // length, otherwise try to use chunked encoding.
-                    if (currentRequest.extraResponsesTimeout < 0) {
-                        res.setContentLength((int) serialed.getByteLength());
-                    }
+                        // We never know the length of a batch in advance.
+                        mustSetContentLength = false;
+                    } else {
+                        // send the message
+                        WireFormatMessage serialed = WireFormatMessageFactory.toWireExternal(outMsg, EndpointServiceImpl.DEFAULT_MESSAGE_TYPE, null, this.servletHttpTransport.getPeerGroup());
 
-                    // Either way, we've done what had to be done.
-                    mustSetContentLength = false;
+                        // if only one message is being returned, set the content
+                        // length, otherwise try to use chunked encoding.
+                        if (currentRequest.extraResponsesTimeout < 0) {
+                            res.setContentLength((int) serialed.getByteLength());
+                        }
 
-                    // get the output stream for the response
-                    OutputStream out = res.getOutputStream();
+                        // Either way, we've done what had to be done.
+                        mustSetContentLength = false;
 
-                    // send the message
-                    try {
+                        // get the output stream for the response
+                        OutputStream out = res.getOutputStream();
 
-                        serialed.sendToStream(out);
-                        out.flush();
+                        // send the message
+                        try {
 
-                        messenger.messageSent(true);
+                            serialed.sendToStream(out);
+                            out.flush();
 
-                        Logging.logCheckedDebug(LOG, "Successfully sent ", outMsg, " on back channel to ", req.getRemoteHost());
+                            messenger.messageSent(true);
 
-                        if (TransportMeterBuildSettings.TRANSPORT_METERING && (transportBindingMeter != null)) {
-                            lastReadWriteTime = TimeUtils.timeNow();
-                            long sendTime = TimeUtils.toRelativeTimeMillis(lastReadWriteTime, startMessageSend);
-                            long bytesSent = serialed.getByteLength();
+                            Logging.logCheckedDebug(LOG, "Successfully sent ", outMsg, " on back channel to ", req.getRemoteHost());
 
-                            transportBindingMeter.messageSent(false, outMsg, sendTime, bytesSent);
-                        }
+                            if (TransportMeterBuildSettings.TRANSPORT_METERING && (transportBindingMeter != null)) {
+                                lastReadWriteTime = TimeUtils.timeNow();
+                                long sendTime = TimeUtils.toRelativeTimeMillis(lastReadWriteTime, startMessageSend);
+                                long bytesSent = serialed.getByteLength();
 
-                    } catch (IOException ex) {
+                                transportBindingMeter.messageSent(false, outMsg, sendTime, bytesSent);
+                            }
 
-                        Logging.logCheckedDebug(LOG, "Failed sending Message on back channel to ", req.getRemoteHost());
-                        messenger.messageSent(false);
+                        } catch (IOException ex) {
 
-                        if (TransportMeterBuildSettings.TRANSPORT_METERING && (transportBindingMeter != null)) {
-                            transportBindingMeter.connectionDropped(false,
-                                    TimeUtils.toRelativeTimeMillis(TimeUtils.timeNow(), currentRequest.requestStartTime));
-                        }
+                            Logging.logCheckedDebug(LOG, "Failed sending Message on back channel to ", req.getRemoteHost());
+                            messenger.messageSent(false);
+
+                            if (TransportMeterBuildSettings.TRANSPORT_METERING && (transportBindingMeter != null)) {
+                                transportBindingMeter.connectionDropped(false,
+                                        TimeUtils.toRelativeTimeMillis(TimeUtils.timeNow(), currentRequest.requestStartTime));
+                            }
 
-                        throw ex;
-                    } finally {
-                        // make sure the response is pushed out
-                        res.flushBuffer();
+                            throw ex;
+                        } finally {
+                            // make sure the response is pushed out
+                            res.flushBuffer();
+                        }
                     }
 
                     // Adjust the quit time based upon the extra response time available.
@@ -521,8 +606,8 @@ public class HttpMessageServlet extends HttpServlet {
 
         } finally {
 
-            // close the messenger
-            if (null != messenger) messenger.close();
+            // close the messenger unless the asynchronous poll now owns it.
+            if ((null != messenger) && !asyncStarted) messenger.close();
 
         }
 
@@ -545,17 +630,98 @@ public class HttpMessageServlet extends HttpServlet {
 
     }
 
+    /**
+     *  Sends a batch of messages on the back channel beginning with the
+     *  provided message. Messages which become available within
+     *  {@link #BATCH_LINGER} of the previous message are added to the batch
+     *  until the batch is full. The batch is then pushed out in one piece.
+     *
+     *  @param req The request we are processing.
+     *  @param res The response to which the batch is written.
+     *  @param currentRequest The request we are processing.
+     *  @param messenger The back channel messenger.
+     *  @param firstMsg The first message of the batch.
+     *  @param transportBindingMeter The meter or {@code null}.
+     *  @throws IOException For failures writing the response.
+     */
+    private void sendBatch(HttpServletRequest req, HttpServletResponse res, JxtaRequest currentRequest, HttpServletMessenger messenger, Message firstMsg, TransportBindingMeter transportBindingMeter) throws IOException {
+
+        OutputStream out = res.getOutputStream();
+        Message outMsg = firstMsg;
+        int messages = 0;
+        long bytes = 0;
+
+        try {
+            while (null != outMsg) {
+                long startMessageSend = TimeUtils.timeNow();
+                WireFormatMessage serialed = WireFormatMessageFactory.toWireExternal(outMsg, EndpointServiceImpl.DEFAULT_MESSAGE_TYPE, null, this.servletHttpTransport.getPeerGroup());
+
+                try {
+                    HttpMessageFraming.writeFrame(out, serialed);
+                } catch (IOException ex) {
+                    Logging.logCheckedDebug(LOG, "Failed sending Message on back channel to ", req.getRemoteHost());
+                    messenger.messageSent(false);
+
+                    if (TransportMeterBuildSettings.TRANSPORT_METERING && (transportBindingMeter != null)) {
+                        transportBindingMeter.connectionDropped(false,
+                                TimeUtils.toRelativeTimeMillis(TimeUtils.timeNow(), currentRequest.requestStartTime));
+                    }
+
+                    throw ex;
+                }
+
+                // The frame is in the response buffer, let the sender continue
+                // so that we may pick up its next message.
+                messenger.messageSent(true);
+
+                Logging.logCheckedDebug(LOG, "Batched ", outMsg, " on back channel to ", req.getRemoteHost());
+
+                if (TransportMeterBuildSettings.TRANSPORT_METERING && (transportBindingMeter != null)) {
+                    transportBindingMeter.messageSent(false, outMsg, TimeUtils.toRelativeTimeMillis(TimeUtils.timeNow(), startMessageSend), serialed.getByteLength());
+                }
+
+                messages++;
+                bytes += HttpMessageFraming.getFrameLength(serialed);
+
+                if ((messages >= HttpMessageFraming.MAXIMUM_BATCH_MESSAGES) || (bytes >= HttpMessageFraming.MAXIMUM_BATCH_BYTES)
+                        || (currentRequest.extraResponsesTimeout < 0) || destroyed) {
+                    break;
+                }
+
+                try {
+                    outMsg = messenger.waitForMessage(BATCH_LINGER);
+                } catch (InterruptedException ie) {
+                    Thread.interrupted();
+                    break;
+                }
+            }
+        } finally {
+            // make sure the batch is pushed out
+            out.flush();
+            res.flushBuffer();
+        }
+
+        Logging.logCheckedDebug(LOG, "Sent batch of ", messages, " messages on back channel to ", req.getRemoteHost());
+    }
+
     /**
      *  Returns a response to a ping request.  The response is the PeerID of
      *  this peer.
      *
      *  @param res The response to which the ping result should be sent.
+     *  @param batched If {@code true} then the requestor offered batched
+     *  framing and we accept it.
      */
-    private void pingResponse(HttpServletResponse res) throws IOException {
+    private void pingResponse(HttpServletResponse res, boolean batched) throws IOException {
 
         Logging.logCheckedDebug(LOG, "Responding to \'ping\' request with 200 and peerID");
 
         res.setStatus(HttpServletResponse.SC_OK);
+
+        if (batched) {
+            res.setHeader(HttpMessageFraming.FRAMING_HEADER, HttpMessageFraming.BATCH_FRAMING);
+        }
+
         res.setContentLength(pingResponseBytes.length);
         res.setContentType(MimeMediaType.TEXTUTF8.toString());
 
@@ -642,12 +808,382 @@ public class HttpMessageServlet extends HttpServlet {
         LOG.debug(builder.toString());
     }
 
+    /**
+     *  A poll which waits for messages from the back channel messenger
+     *  without holding a container thread. Messages handed over by the
+     *  messenger are written on one of its executor threads. Writes to the
+     *  response are synchronized on the poll.
+     */
+    class AsyncPoll implements HttpServletMessenger.PendingPoll, AsyncListener, Runnable {
+
+        private final HttpServletRequest req;
+
+        private final HttpServletResponse res;
+
+        private final JxtaRequest currentRequest;
+
+        private final HttpServletMessenger messenger;
+
+        private final PeerGroup group;
+
+        private final ScheduledExecutorService scheduledExecutorService;
+
+        private final TransportBindingMeter transportBindingMeter;
+
+        private AsyncContext asyncContext = null;
+
+        /**
+         *  Expires the poll. Rescheduled when the first message is sent.
+         */
+        private ScheduledFuture<?> expiry = null;
+
+        /**
+         *  Pushes out a partially filled batch.
+         */
+        private ScheduledFuture<?> lingerFlush = null;
+
+        private boolean beganResponse = false;
+
+        /**
+         *  If {@code true} then the expiry has been moved to the end of the
+         *  extra responses timeout.
+         */
+        private boolean extraResponses = false;
+
+        /**
+         *  The number of messages and bytes written since the response was
+         *  last flushed.
+         */
+        private int unflushedMessages = 0;
+
+        private long unflushedBytes = 0;
+
+        /**
+         *  If {@code true} then writing the response failed.
+         */
+        private boolean failed = false;
+
+        /**
+         *  If {@code true} then the response has been completed.
+         */
+        private boolean finished = false;
+
+        AsyncPoll(HttpServletRequest req, HttpServletResponse res, JxtaRequest currentRequest, HttpServletMessenger messenger, PeerGroup group, ScheduledExecutorService scheduledExecutorService, TransportBindingMeter transportBindingMeter) {
+            this.req = req;
+            this.res = res;
+            this.currentRequest = currentRequest;
+            this.messenger = messenger;
+            this.group = group;
+            this.scheduledExecutorService = scheduledExecutorService;
+            this.transportBindingMeter = transportBindingMeter;
+        }
+
+        /**
+         *  Puts the request in asynchronous mode and waits for the first
+         *  message.
+         */
+        void start() {
+            synchronized (this) {
+                asyncContext = req.startAsync(req, res);
+
+                // We expire the poll ourselves.
+                asyncContext.setTimeout(0);
+                asyncContext.addListener(this);
+                asyncPolls.add(this);
+
+                scheduleExpiry(currentRequest.responseTimeout);
+            }
+
+            await();
+        }
+
+        /**
+         *  Registers with the messenger for the next message and sends any
+         *  message which was already waiting.
+         */
+        private void await() {
+            while (true) {
+                Message waiting = messenger.registerPoll(this);
+
+                if (null == waiting) {
+                    if (messenger.isClosed()) {
+                        finish();
+                    }
+
+                    return;
+                }
+
+                // The sender is waiting for us to report the outcome.
+                boolean sent = send(waiting);
+
+                messenger.messageSent(sent);
+
+                if (!continuePolling()) {
+                    finish();
+                    return;
+                }
+            }
+        }
+
+        /**
+         *  {@inheritDoc}
+         */
+        public boolean messageAvailable(Message message) {
+            return send(message);
+        }
+
+        /**
+         *  {@inheritDoc}
+         */
+        public void resume() {
+            if (continuePolling()) {
+                await();
+            } else {
+                finish();
+            }
+        }
+
+        /**
+         *  {@inheritDoc}
+         */
+        public void messengerClosed() {
+            finish();
+        }
+
+        /**
+         *  Writes a message to the response.
+         *
+         *  @param outMsg The message.
+         *  @return {@code true} if the message was written.
+         */
+        private synchronized boolean send(Message outMsg) {
+            if (finished) {
+                return false;
+            }
+
+            long startMessageSend = TimeUtils.timeNow();
+
+            Logging.logCheckedDebug(LOG, "Sending ", outMsg, " on back channel to ", req.getRemoteHost());
+
+            try {
+                if (!beganResponse) {
+                    beganResponse = true;
+                    res.setStatus(HttpServletResponse.SC_OK);
+                    res.setContentType(EndpointServiceImpl.DEFAULT_MESSAGE_TYPE.toString());
+                }
+
+                WireFormatMessage serialed = WireFormatMessageFactory.toWireExternal(outMsg, EndpointServiceImpl.DEFAULT_MESSAGE_TYPE, null, group);
+                OutputStream out = res.getOutputStream();
+
+                if (currentRequest.batched) {
+                    HttpMessageFraming.writeFrame(out, serialed);
+                    unflushedMessages++;
+                    unflushedBytes += HttpMessageFraming.getFrameLength(serialed);
+                } else {
+                    // if only one message is being returned, set the content
+                    // length, otherwise try to use chunked encoding.
+                    if (currentRequest.extraResponsesTimeout < 0) {
+                        res.setContentLength((int) serialed.getByteLength());
+                    }
+
+                    serialed.sendToStream(out);
+                    unflushedMessages++;
+                }
+
+                if (!currentRequest.batched || (currentRequest.extraResponsesTimeout < 0)
+                        || (unflushedMessages >= HttpMessageFraming.MAXIMUM_BATCH_MESSAGES) || (unflushedBytes >= HttpMessageFraming.MAXIMUM_BATCH_BYTES)) {
+                    flush();
+                } else if (null == lingerFlush) {
+                    // Give further messages a moment to join the batch.
+                    lingerFlush = scheduledExecutorService.schedule(this, BATCH_LINGER, TimeUnit.MILLISECONDS);
+                }
+
+                Logging.logCheckedDebug(LOG, "Successfully sent ", outMsg, " on back channel to ", req.getRemoteHost());
+
+                if (TransportMeterBuildSettings.TRANSPORT_METERING && (transportBindingMeter != null)) {
+                    long sendTime = TimeUtils.toRelativeTimeMillis(TimeUtils.timeNow(), startMessageSend);
+
+                    transportBindingMeter.messageSent(false, outMsg, sendTime, serialed.getByteLength());
+                }
+            } catch (IOException ex) {
+                Logging.logCheckedDebug(LOG, "Failed sending Message on back channel to ", req.getRemoteHost());
+
+                if (TransportMeterBuildSettings.TRANSPORT_METERING && (transportBindingMeter != null)) {
+                    transportBindingMeter.connectionDropped(false,
+                            TimeUtils.toRelativeTimeMillis(TimeUtils.timeNow(), currentRequest.requestStartTime));
+                }
+
+                failed = true;
+                return false;
+            }
+
+            if (!extraResponses && (currentRequest.extraResponsesTimeout >= 0)) {
+                // Adjust the quit time based upon the extra response time available.
+                extraResponses = true;
+
+                if (null != expiry) {
+                    expiry.cancel(false);
+                    expiry = null;
+                }
+
+                long quitAt = TimeUtils.toAbsoluteTimeMillis(currentRequest.requestStartTime, currentRequest.extraResponsesTimeout);
+
+                scheduleExpiry(Math.max(1, TimeUtils.toRelativeTimeMillis(quitAt)));
+            }
+
+            return true;
+        }
+
+        /**
+         *  Flushes the response. Must be called while synchronized.
+         */
+        private void flush() throws IOException {
+            if (null != lingerFlush) {
+                lingerFlush.cancel(false);
+                lingerFlush = null;
+            }
+
+            unflushedMessages = 0;
+            unflushedBytes = 0;
+            res.flushBuffer();
+        }
+
+        /**
+         *  Returns {@code true} if the poll should wait for another message.
+         */
+        private synchronized boolean continuePolling() {
+            return !finished && !failed && !destroyed && (currentRequest.extraResponsesTimeout >= 0);
+        }
+
+        /**
+         *  Flushes a partially filled batch.
+         */
+        public void run() {
+            synchronized (this) {
+                lingerFlush = null;
+
+                if (finished) {
+                    return;
+                }
+
+                try {
+                    flush();
+                    return;
+                } catch (IOException ignored) {
+                    Logging.logCheckedDebug(LOG, "Failed flushing batch on back channel to ", req.getRemoteHost());
+                    failed = true;
+                }
+            }
+
+            messenger.cancelPoll(this);
+            finish();
+        }
+
+        /**
+         *  Schedules the expiry of the poll.
+         *
+         *  @param delay The delay in milliseconds. {@code 0} is forever.
+         */
+        private void scheduleExpiry(long delay) {
+            if (0 == delay) {
+                return;
+            }
+
+            expiry = scheduledExecutorService.schedule(new Runnable() {
+                public void run() {
+                    Logging.logCheckedDebug(LOG, "Terminating expired request.");
+                    messenger.cancelPoll(AsyncPoll.this);
+                    finish();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+
+        /**
+         *  Completes the response and closes the messenger.
+         */
+        void finish() {
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+
+                finished = true;
+
+                if (null != expiry) {
+                    expiry.cancel(false);
+                }
+
+                try {
+                    if (!beganResponse) {
+                        // We know we did not respond anything. Setting the
+                        // content length allows the connection to be kept
+                        // open unless what's on the other side is a 1.0 proxy.
+                        res.setContentLength(0);
+                    }
+
+                    flush();
+                } catch (IOException ignored) {
+                    Logging.logCheckedDebug(LOG, "Failed completing response to ", req.getRemoteHost());
+                } catch (IllegalStateException ignored) {
+                    // The request has already been completed by the container.
+                }
+
+                try {
+                    asyncContext.complete();
+                } catch (IllegalStateException ignored) {
+                    // The request has already been completed by the container.
+                }
+
+                asyncPolls.remove(this);
+            }
+
+            messenger.close();
+
+            Logging.logCheckedDebug(LOG, "Finished processing the request from ", req.getRemoteHost());
+
+            if (TransportMeterBuildSettings.TRANSPORT_METERING && (transportBindingMeter != null)) {
+                transportBindingMeter.connectionClosed(false,
+                        TimeUtils.toRelativeTimeMillis(TimeUtils.timeNow(), currentRequest.requestStartTime));
+            }
+        }
+
+        /**
+         *  {@inheritDoc}
+         */
+        public void onComplete(AsyncEvent event) {
+            // nothing to do.
+        }
+
+        /**
+         *  {@inheritDoc}
+         */
+        public void onTimeout(AsyncEvent event) {
+            messenger.cancelPoll(this);
+            finish();
+        }
+
+        /**
+         *  {@inheritDoc}
+         */
+        public void onError(AsyncEvent event) {
+            messenger.cancelPoll(this);
+            finish();
+        }
+
+        /**
+         *  {@inheritDoc}
+         */
+        public void onStartAsync(AsyncEvent event) {
+            // nothing to do.
+        }
+    }
+
     /**
      *  A servlet request.
      *
      *  @see <a href="https://jxta-spec.dev.java.net/nonav/JXTAProtocols.html#trans-httpt-msg-msgs" target="_blank">JXTA Protocols Specification : Standard JXTA Transport Bindings : HTTP Bindings</a>
      */
-    private static class JxtaRequest {
+    static class JxtaRequest {
 
         /**
          *  Absolute time in milliseconds at which this request began processing.
@@ -691,6 +1227,11 @@ public class HttpMessageServlet extends HttpServlet {
          */
         final boolean messageContent;
 
+        /**
+         *  If <tt>true</tt> then the request and response use batched framing.
+         */
+        final boolean batched;
+
         /**
          *  Construct a request.
          */
@@ -743,11 +1284,13 @@ public class HttpMessageServlet extends HttpServlet {
             // check for incoming message
             messageContent = hasMessageContent(req);
 
+            batched = HttpMessageFraming.isBatched(req.getHeader(HttpMessageFraming.FRAMING_HEADER));
+
             // LOGGING: was Finer
             Logging.logCheckedDebug(LOG,
                         "New JXTA Request for Requestor=", requestorAddr, "\n\tResponse Timeout=", responseTimeout,
                         "\tAdditional Response Timeout=", extraResponsesTimeout, "\tRequest Destination Address=", destAddr,
-                        "\tHas Message Content=", Boolean.toString(messageContent));
+                        "\tHas Message Content=", Boolean.toString(messageContent), "\tBatched=", Boolean.toString(batched));
 
         }
 
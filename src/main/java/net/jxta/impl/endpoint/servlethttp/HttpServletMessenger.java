@@ -56,6 +56,8 @@
 package net.jxta.impl.endpoint.servlethttp;
 
 import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
@@ -76,6 +78,12 @@ import net.jxta.peergroup.PeerGroupID;
 /**
  * Simple messenger that waits for a message to give back to the requesting client
  *
+ * <p/>The servlet either waits for messages using {@link #waitForMessage(long)}
+ * or registers a {@link PendingPoll}, so that waiting polls do not hold a
+ * thread. A message for a registered poll is written by an executor thread.
+ * As with the servlet thread the sender waits at most MAX_SENDING_WAIT for
+ * the write to complete.
+ *
  * <p/>This messenger is not entirely thread-safe. You should not use any
  * of the <code>sendMessage</code> methods from more than one thread.
  *
@@ -102,6 +110,40 @@ final class HttpServletMessenger extends BlockingMessenger {
     private final static long MAX_SENDING_BLOCK = 2 * TimeUtils.AMINUTE;
     private final static long MAX_SENDING_WAIT = 3 * TimeUtils.ASECOND;
 
+    /**
+     *  Delay before checking again whether a send has completed when the
+     *  messenger is due to expire.
+     */
+    private final static long EXPIRY_RECHECK_INTERVAL = 250;
+
+    /**
+     *  A poll which waits for a message without holding a thread.
+     */
+    interface PendingPoll {
+
+        /**
+         *  Sends a message on the poll. Called on an executor thread without
+         *  the messenger being locked.
+         *
+         *  @param message The message to send.
+         *  @return {@code true} if the message was sent otherwise {@code false}.
+         */
+        boolean messageAvailable(Message message);
+
+        /**
+         *  Called after the outcome of {@link #messageAvailable(Message)} has
+         *  been reported to the messenger. The poll should register for the
+         *  next message or complete its response.
+         */
+        void resume();
+
+        /**
+         *  Called when the messenger is closed while the poll is waiting. The
+         *  poll should complete its response.
+         */
+        void messengerClosed();
+    }
+
     private final static EndpointAddress nullEndpointAddr = new EndpointAddress("http", "0.0.0.0:0", null, null);
 
     private final EndpointAddress logicalAddress;
@@ -115,6 +157,16 @@ final class HttpServletMessenger extends BlockingMessenger {
     private int sendResult = SEND_IDLE;
     private long sendingSince = 0;
 
+    /**
+     *  The poll waiting for the next message or {@code null}.
+     */
+    private PendingPoll pendingPoll = null;
+
+    /**
+     *  Writes messages to registered polls.
+     */
+    private final Executor executor;
+
 	private ScheduledFuture<?> expirationTaskHandle;
 
     /**
@@ -127,8 +179,15 @@ final class HttpServletMessenger extends BlockingMessenger {
          */
         HttpServletMessenger messenger;
 
-        ScheduledExpiry(HttpServletMessenger toExpire) {
+        /**
+         *  The executor on which we reschedule ourselves while a send is in
+         *  progress.
+         */
+        final ScheduledExecutorService scheduledExecutorService;
+
+        ScheduledExpiry(HttpServletMessenger toExpire, ScheduledExecutorService scheduledExecutorService) {
             messenger = toExpire;
+            this.scheduledExecutorService = scheduledExecutorService;
         }
 
         /**
@@ -153,26 +212,27 @@ final class HttpServletMessenger extends BlockingMessenger {
 
                 HttpServletMessenger temp = messenger;
 
-                while( ( null != temp ) &&  ( null != temp.outgoingMessage || temp.sendResult == SEND_INPROGRESS  ) ){
-                	
-                    Logging.logCheckedDebug(LOG, "Waiting for outgoingMessage to clear before we close...", temp);
-
-                    // Wait a while
-                    try {
-                        Thread.sleep(250);
-                    } catch (InterruptedException ignore) {
-                    }
+                if (null == temp) {
+                    return;
+                }
 
-                    if( temp.isClosed() || null == this.messenger ){
+                synchronized (temp) {
+                    if (temp.isClosed()) {
                         Logging.logCheckedDebug(LOG, "Messenger closed while waiting for send to complete.  Operation cancelled: ", temp);
-                    	return;
+                        return;
                     }
 
+                    if ((null != temp.outgoingMessage) || (temp.sendResult == SEND_INPROGRESS)) {
+                        // Check again later rather than holding a thread.
+                        Logging.logCheckedDebug(LOG, "Waiting for outgoingMessage to clear before we close...", temp);
+                        temp.expirationTaskHandle = scheduledExecutorService.schedule(this, EXPIRY_RECHECK_INTERVAL, TimeUnit.MILLISECONDS);
+                        return;
+                    }
                 }
 
                 messenger = null;
 
-                if (null != temp) temp.close();
+                temp.close();
 
             } catch (Throwable all) {
 
@@ -200,12 +260,13 @@ final class HttpServletMessenger extends BlockingMessenger {
         super(peerGroupID, nullEndpointAddr, taskManager, false);
 
         this.logicalAddress = logicalAddress;
+        this.executor = taskManager.getExecutorService();
 
         this.srcAddressElement = new StringMessageElement(EndpointServiceImpl.MESSAGE_SOURCE_NAME, srcAddress.toString(), null);
 
         if ((0 != validFor) && (validFor < Long.MAX_VALUE)) {
             ScheduledExecutorService scheduledExecutorService = taskManager.getScheduledExecutorService();
-            expirationTaskHandle = scheduledExecutorService.schedule(new ScheduledExpiry(this), validFor, TimeUnit.MILLISECONDS);
+            expirationTaskHandle = scheduledExecutorService.schedule(new ScheduledExpiry(this, scheduledExecutorService), validFor, TimeUnit.MILLISECONDS);
         }
 
         Logging.logCheckedDebug(LOG, "HttpServletMessenger\n\t", this);
@@ -216,20 +277,31 @@ final class HttpServletMessenger extends BlockingMessenger {
      * {@inheritDoc}
      */
     @Override
-    public synchronized void closeImpl() {
+    public void closeImpl() {
 
-        Logging.logCheckedDebug(LOG, "close\n\t", this);
+        PendingPoll closedPoll;
 
-        ScheduledFuture<?> cancelExpire = expirationTaskHandle;
+        synchronized (this) {
+            Logging.logCheckedDebug(LOG, "close\n\t", this);
 
-        expirationTaskHandle = null;
-        if (null != cancelExpire) {
-            cancelExpire.cancel(false);
-        }
+            ScheduledFuture<?> cancelExpire = expirationTaskHandle;
 
-        super.close();
+            expirationTaskHandle = null;
+            if (null != cancelExpire) {
+                cancelExpire.cancel(false);
+            }
 
-        notifyAll();
+            super.close();
+
+            closedPoll = pendingPoll;
+            pendingPoll = null;
+
+            notifyAll();
+        }
+
+        if (null != closedPoll) {
+            closedPoll.messengerClosed();
+        }
     }
 
     /**
@@ -317,15 +389,34 @@ final class HttpServletMessenger extends BlockingMessenger {
             return true;
         }
 
-        // put the message on the outgoing "queue" of size 1
-        outgoingMessage = message;
         sendResult = SEND_INPROGRESS;
         sendingSince = now;
 
-        Logging.logCheckedDebug(LOG, "Queued ", message);
+        PendingPoll poll = pendingPoll;
 
-        // notify the servlet if it was waiting for a message
-        notifyAll();
+        if (null != poll) {
+            // A poll is waiting. Have the message written to it.
+            pendingPoll = null;
+
+            try {
+                executor.execute(new PollWriter(poll, message));
+            } catch (RejectedExecutionException shutdown) {
+                Logging.logCheckedDebug(LOG, "Could not hand ", message, " to the waiting poll\n", shutdown);
+                sendResult = SEND_IDLE;
+                pendingPoll = poll;
+                return false;
+            }
+
+            Logging.logCheckedDebug(LOG, "Handed ", message, " to the waiting poll");
+        } else {
+            // put the message on the outgoing "queue" of size 1
+            outgoingMessage = message;
+
+            Logging.logCheckedDebug(LOG, "Queued ", message);
+
+            // notify the servlet if it was waiting for a message
+            notifyAll();
+        }
 
         // wait for the result of the send Since there is ample
         // buffering underneath, we're not supposed to wait for long;
@@ -436,6 +527,78 @@ final class HttpServletMessenger extends BlockingMessenger {
         return result;
     }
 
+    /**
+     *  Registers a poll to be handed the next message. If a message is already
+     *  waiting it is returned instead and the caller must report the outcome
+     *  of sending it with {@link #messageSent(boolean)}.
+     *
+     *  @param poll The poll.
+     *  @return The waiting message or {@code null} if the poll was registered
+     *  or the messenger is closed.
+     */
+    synchronized Message registerPoll(PendingPoll poll) {
+
+        Message result = outgoingMessage;
+
+        if (null != result) {
+            outgoingMessage = null; // Msg can only be picked-up once.
+            return result;
+        }
+
+        if (!isClosed()) {
+            pendingPoll = poll;
+        }
+
+        return null;
+    }
+
+    /**
+     *  Unregisters a poll.
+     *
+     *  @param poll The poll.
+     *  @return {@code true} if the poll was registered, {@code false} if it
+     *  has already been handed a message or the messenger closed.
+     */
+    synchronized boolean cancelPoll(PendingPoll poll) {
+
+        if (pendingPoll != poll) {
+            return false;
+        }
+
+        pendingPoll = null;
+        return true;
+    }
+
+    /**
+     *  Writes a message to a poll and reports the outcome.
+     */
+    private class PollWriter implements Runnable {
+
+        private final PendingPoll poll;
+
+        private final Message message;
+
+        PollWriter(PendingPoll poll, Message message) {
+            this.poll = poll;
+            this.message = message;
+        }
+
+        /**
+         *  {@inheritDoc}
+         */
+        public void run() {
+            boolean sent = false;
+
+            try {
+                sent = poll.messageAvailable(message);
+            } finally {
+                messageSent(sent);
+            }
+
+            poll.resume();
+        }
+    }
+
     protected synchronized void messageSent(boolean wasSuccessful) {
 
         Logging.logCheckedDebug(LOG, "messageSent(", wasSuccessful, ")\n\t", this);
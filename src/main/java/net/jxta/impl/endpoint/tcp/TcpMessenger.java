@@ -86,6 +86,7 @@ import net.jxta.endpoint.WireFormatMessage;
 import net.jxta.endpoint.WireFormatMessageFactory;
 import net.jxta.id.ID;
 import net.jxta.impl.endpoint.BlockingMessenger;
+import net.jxta.impl.endpoint.ContentCoding;
 import net.jxta.impl.endpoint.EndpointServiceImpl;
 import net.jxta.impl.endpoint.msgframing.MessagePackageHeader;
 import net.jxta.impl.endpoint.msgframing.WelcomeMessage;
@@ -109,6 +110,20 @@ public class TcpMessenger extends BlockingMessenger implements Runnable {
      */
     private static final int MAX_WRITE_ATTEMPTS = 3;
 
+    /**
+     * The system property which controls whether outgoing messages are
+     * written with a gathering write directly from the buffers of the wire
+     * format message.
+     */
+    static final String GATHERING_WRITE_SYSPROP = "net.jxta.impl.endpoint.tcp.TcpMessenger.gatheringWrite";
+
+    /**
+     * If {@code true} then outgoing messages are written to the channel
+     * straight from the element buffers of the serialized message. Otherwise
+     * the serialized message is first copied into a single contiguous buffer.
+     */
+    private static final boolean GATHERING_WRITE = Boolean.parseBoolean(System.getProperty(GATHERING_WRITE_SYSPROP, "true"));
+
     /**
      * Description of our current location within the stream.
      */
@@ -159,6 +174,12 @@ public class TcpMessenger extends BlockingMessenger implements Runnable {
 
     private WelcomeMessage itsWelcome = null;
 
+    /**
+     * The content encoding negotiated for messages we send to the remote peer
+     * or {@code null} if messages are sent unencoded.
+     */
+    private volatile MimeMediaType sendEncoding = null;
+
     private final long createdAt = TimeUtils.timeNow();
     private long lastUsed = TimeUtils.timeNow();
 
@@ -184,8 +205,18 @@ public class TcpMessenger extends BlockingMessenger implements Runnable {
 
     private AtomicReference<readState> state = new AtomicReference<readState>(readState.WELCOME);
 
-    private final static int MAX_LEN = 4096;
-    private ByteBuffer buffer = ByteBuffer.allocate(MAX_LEN);
+    final static int MAX_LEN = 4096;
+
+    /**
+     * The receive buffer used when no large message is being received.
+     */
+    private final ByteBuffer standardBuffer = ByteBuffer.allocateDirect(MAX_LEN);
+
+    /**
+     * The current receive buffer. Either the standard buffer or a buffer from
+     * the transport's receive buffer pool.
+     */
+    private ByteBuffer buffer = standardBuffer;
 
     /**
      * Header from the current incoming message (if any).
@@ -592,7 +623,8 @@ public class TcpMessenger extends BlockingMessenger implements Runnable {
         // Send the welcome message
         WelcomeMessage myWelcome = new WelcomeMessage(fullDstAddress,
                                                       tcpTransport.getPublicAddress(),
-                                                      tcpTransport.group.getPeerID(), false);
+                                                      tcpTransport.group.getPeerID(), false, 0,
+                                                      ContentCoding.getOfferedEncodings());
         long written = write(new ByteBuffer[]{myWelcome.getByteBuffer()});
         tcpTransport.incrementBytesSent(written);
 
@@ -630,37 +662,56 @@ public class TcpMessenger extends BlockingMessenger implements Runnable {
         long size = 0;
 
         try {
-            // todo 20020730 bondolo@jxta.org Do something with content-coding here
-            // serialize the message.
-            WireFormatMessage serialed = WireFormatMessageFactory.toWireExternal(msg, WireFormatMessageFactory.DEFAULT_WIRE_MIME, null, this.tcpTransport.group);
-            ByteArrayOutputStream tempBAOS = new ByteArrayOutputStream();
-            serialed.sendToStream(tempBAOS);
-            ByteBuffer tempBB = ByteBuffer.wrap(tempBAOS.toByteArray());
+            // serialize the message, encoded if the remote peer accepts it.
+            MimeMediaType encoding = sendEncoding;
+            MimeMediaType[] encodings = (null == encoding) ? null : new MimeMediaType[]{encoding};
+            WireFormatMessage serialed = WireFormatMessageFactory.toWireExternal(msg, WireFormatMessageFactory.DEFAULT_WIRE_MIME, encodings, this.tcpTransport.group);
+            ByteBuffer[] bodyBuffers;
+
+            if (GATHERING_WRITE) {
+                // The buffers refer to the element data, no copy is made.
+                bodyBuffers = serialed.getByteBuffers();
+            } else {
+                ByteArrayOutputStream tempBAOS = new ByteArrayOutputStream();
+                serialed.sendToStream(tempBAOS);
+                bodyBuffers = new ByteBuffer[]{ByteBuffer.wrap(tempBAOS.toByteArray())};
+            }
+
+            for (ByteBuffer bodyBuffer : bodyBuffers) {
+                size += bodyBuffer.remaining();
+            }
 
             // Build the package header
             MessagePackageHeader header = new MessagePackageHeader();
 
             header.setContentTypeHeader(serialed.getMimeType());
-            size = tempBB.limit();
             header.setContentLengthHeader(size);
 
+            if (null != serialed.getContentEncoding()) {
+                header.setContentEncodingHeader(serialed.getContentEncoding());
+            }
+
             Logging.logCheckedDebug(LOG, "Sending ", msg, " (", size, ") to ", dstAddress, " via ", inetAddress.getHostAddress(), ":", port);
 
-            List<ByteBuffer> partBuffers = new ArrayList<ByteBuffer>();
+            ByteBuffer[] partBuffers = new ByteBuffer[bodyBuffers.length + 1];
 
-            partBuffers.add(header.getByteBuffer());
-            partBuffers.add(tempBB);
+            partBuffers[0] = header.getByteBuffer();
+            System.arraycopy(bodyBuffers, 0, partBuffers, 1, bodyBuffers.length);
 
             long written;
             writeLock.lock();
             try {
-                written = write(partBuffers.toArray(new ByteBuffer[partBuffers.size()]));
+                written = write(partBuffers);
             } finally {
                 writeLock.unlock();
             }
 
             if (TransportMeterBuildSettings.TRANSPORT_METERING && (transportBindingMeter != null)) {
                 transportBindingMeter.messageSent(initiator, msg, TimeUtils.timeNow() - sendBeginTime, written);
+
+                if (GATHERING_WRITE && (null == serialed.getContentEncoding())) {
+                    transportBindingMeter.dataSentWithoutCopy(initiator, size);
+                }
             }
 
             Logging.logCheckedDebug(LOG, MessageFormat.format("Sent {0} bytes {1} successfully via {2}:{3}", written, msg,
@@ -691,21 +742,19 @@ public class TcpMessenger extends BlockingMessenger implements Runnable {
     }
 
     /**
-     * Blocking write of byte buffers to the socket channel.
+     * Blocking gathering write of byte buffers to the socket channel.
      *
      * @param byteBuffers The bytes to write.
      * @return The number of bytes written.
      * @throws IOException Thrown for errors while writing message.
      */
     private long write(final ByteBuffer[] byteBuffers) throws IOException {
-        long nBytes = 0;
-        for (ByteBuffer byteBuffer : byteBuffers) nBytes += write(byteBuffer);
-        return nBytes;
-    }
-
-    private long write(final ByteBuffer byteBuffer) throws IOException {
         // Determine how many bytes there are to be written in the buffers.
-        long bytesToWrite = byteBuffer.remaining();
+        long bytesToWrite = 0;
+
+        for (ByteBuffer byteBuffer : byteBuffers) {
+            bytesToWrite += byteBuffer.remaining();
+        }
 
         if (bytesToWrite == 0L) {
             return 0L;
@@ -721,7 +770,7 @@ public class TcpMessenger extends BlockingMessenger implements Runnable {
                 // Write from the buffers until we write nothing.
                 do {
 
-                    wroteBytes = socketChannel.write(byteBuffer);
+                    wroteBytes = socketChannel.write(byteBuffers);
                     bytesWritten += wroteBytes;
 
                     if (wroteBytes < 0) throw new EOFException();
@@ -804,9 +853,10 @@ public class TcpMessenger extends BlockingMessenger implements Runnable {
             Logging.logCheckedDebug(LOG, "Creating a logical address from : ", itsWelcome.getWelcomeString());
 
             fullDstAddress = dstAddress;
+            sendEncoding = ContentCoding.negotiate(itsWelcome.getContentEncodings());
             logicalDestAddress = new EndpointAddress("jxta", itsWelcome.getPeerID().getUniqueValue().toString(), null, null);
 
-            Logging.logCheckedDebug(LOG, "Hello from ", itsWelcome.getPublicAddress(), " [", itsWelcome.getPeerID(), "] ");
+            Logging.logCheckedDebug(LOG, "Hello from ", itsWelcome.getPublicAddress(), " [", itsWelcome.getPeerID(), "] content encoding : ", sendEncoding);
             Logging.logCheckedDebug(LOG, "Registering Messenger from ", socketChannel.socket().getInetAddress().getHostAddress(), ":", socketChannel.socket().getPort());
 
             try {
@@ -877,10 +927,10 @@ public class TcpMessenger extends BlockingMessenger implements Runnable {
     }
 
     private Message processMessage(ByteBuffer buffer, MessagePackageHeader header) throws IOException {
-        // TODO 20020730 bondolo@jxta.org Do something with content-coding here.
         MimeMediaType msgMime = header.getContentTypeHeader();
+        MimeMediaType contentEncoding = header.getContentEncodingHeader();
 
-        return WireFormatMessageFactory.fromBuffer(buffer, msgMime, null);
+        return WireFormatMessageFactory.fromBufferExternal(buffer, msgMime, contentEncoding, tcpTransport.group);
     }
 
     /**
@@ -1034,14 +1084,18 @@ public class TcpMessenger extends BlockingMessenger implements Runnable {
 
                         ByteBuffer src = buffer;
 
-                        // create an array backed buffer
-                        Logging.logCheckedDebug(LOG, MessageFormat.format("{0} Reallocating a new buffer of size {1} to replace :{2}",
+                        // get a large enough buffer from the pool
+                        Logging.logCheckedDebug(LOG, MessageFormat.format("{0} Acquiring a pooled buffer of size {1} to replace :{2}",
                             Thread.currentThread(), header.getContentLengthHeader(), buffer.toString()));
 
                         // This implementation limits the message size to the MTU which is always < 2GB
-                        buffer = ByteBuffer.allocate((int) header.getContentLengthHeader());
+                        buffer = tcpTransport.getReceiveBufferPool().acquire((int) header.getContentLengthHeader());
                         buffer.put(src);
                         buffer.flip();
+
+                        if (src != standardBuffer) {
+                            tcpTransport.getReceiveBufferPool().release(src);
+                        }
                     }
                     state.set(readState.BODY);
                     /* FALLSTHROUGH */
@@ -1052,13 +1106,21 @@ public class TcpMessenger extends BlockingMessenger implements Runnable {
                     Logging.logCheckedDebug(LOG, MessageFormat.format(" {0} Proccessing Message Body. expecting {1}, {2} elements remaining {3}",
                         Thread.currentThread(), header.getContentLengthHeader(), buffer.toString(), buffer.remaining()));
 
-                    if (buffer.remaining() >= (int) header.getContentLengthHeader()) {
+                    int contentLength = (int) header.getContentLengthHeader();
+
+                    if (buffer.remaining() >= contentLength) {
 
                         Message msg;
 
+                        // The message is decoded from a slice covering exactly its content.
+                        ByteBuffer msgBuffer = buffer.slice();
+
+                        msgBuffer.limit(contentLength);
+                        buffer.position(buffer.position() + contentLength);
+
                         try {
 
-                            msg = processMessage(buffer, header);
+                            msg = processMessage(msgBuffer, header);
 
                         } catch (IOException io) {
 
@@ -1091,7 +1153,19 @@ public class TcpMessenger extends BlockingMessenger implements Runnable {
         } // while loop
 
         // prepare the buffer for more data
-        buffer.compact();
+        if ((buffer != standardBuffer) && (state.get() != readState.BODY) && (buffer.remaining() <= standardBuffer.capacity())) {
+            // The decoded messages hold no references to the buffer content,
+            // so the pooled buffer can go back to the pool.
+            standardBuffer.clear();
+            standardBuffer.put(buffer);
+            tcpTransport.getReceiveBufferPool().release(buffer);
+            buffer = standardBuffer;
+        } else if (buffer.hasRemaining()) {
+            buffer.compact();
+        } else {
+            buffer.clear();
+        }
+
         return msgs;
     }
 
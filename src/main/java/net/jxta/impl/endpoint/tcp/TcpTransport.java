@@ -77,6 +77,7 @@ import net.jxta.impl.endpoint.transportMeter.TransportMeterBuildSettings;
 import net.jxta.impl.endpoint.transportMeter.TransportServiceMonitor;
 import net.jxta.impl.meter.MonitorManager;
 import net.jxta.impl.protocol.TCPAdv;
+import net.jxta.impl.util.DirectBufferPool;
 import net.jxta.impl.util.TimeUtils;
 import net.jxta.logging.Logger;
 import net.jxta.logging.Logging;
@@ -153,6 +154,22 @@ public class TcpTransport implements Module, MessageSender, MessageReceiver {
     // Java's default is 50
     static final int MaxAcceptCnxBacklog = 50;
 
+    /**
+     * The system property which sets the largest pooled receive buffer size
+     * in bytes. Larger messages are received into unpooled buffers.
+     */
+    static final String RECEIVE_POOL_MAX_BUFFER_SIZE_SYSPROP = "net.jxta.impl.endpoint.tcp.TcpTransport.receivePoolMaxBufferSize";
+
+    /**
+     * The system property which sets the maximum number of bytes retained by
+     * the receive buffer pool.
+     */
+    static final String RECEIVE_POOL_SIZE_SYSPROP = "net.jxta.impl.endpoint.tcp.TcpTransport.receivePoolSize";
+
+    static final int DEFAULT_RECEIVE_POOL_MAX_BUFFER_SIZE = 1024 * 1024; // 1 MByte
+
+    static final int DEFAULT_RECEIVE_POOL_SIZE = 16 * 1024 * 1024; // 16 MBytes
+
     private String serverName = null;
     private final List<EndpointAddress> publicAddresses = new ArrayList<EndpointAddress>();
     private EndpointAddress publicAddress = null;
@@ -185,6 +202,12 @@ public class TcpTransport implements Module, MessageSender, MessageReceiver {
     private Thread messengerSelectorThread;
     Selector messengerSelector = null;
 
+    /**
+     * Direct buffers shared by all of our messengers for receiving messages
+     * which do not fit in their standard receive buffer.
+     */
+    private final DirectBufferPool receiveBufferPool;
+
     private final Map<TcpMessenger, SocketChannel> regisMap = new ConcurrentHashMap<TcpMessenger, SocketChannel>();
     private final Set<SocketChannel> unregisMap = Collections.synchronizedSet(new HashSet<SocketChannel>());
 
@@ -216,6 +239,10 @@ public class TcpTransport implements Module, MessageSender, MessageReceiver {
      */
     public TcpTransport() {
 
+        receiveBufferPool = new DirectBufferPool(TcpMessenger.MAX_LEN * 2,
+                Math.max(TcpMessenger.MAX_LEN * 2, Integer.getInteger(RECEIVE_POOL_MAX_BUFFER_SIZE_SYSPROP, DEFAULT_RECEIVE_POOL_MAX_BUFFER_SIZE)),
+                Math.max(0, Integer.getInteger(RECEIVE_POOL_SIZE_SYSPROP, DEFAULT_RECEIVE_POOL_SIZE)));
+
         // Add some selectors to the pool.
         try {
 
@@ -326,6 +353,16 @@ public class TcpTransport implements Module, MessageSender, MessageReceiver {
         return bytesReceived;
     }
 
+    /**
+     * Returns the pool of direct buffers used by our messengers for receiving
+     * large messages. The pool provides hit, miss and occupancy statistics.
+     *
+     * @return the receive buffer pool.
+     */
+    public DirectBufferPool getReceiveBufferPool() {
+        return receiveBufferPool;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -753,6 +790,8 @@ public class TcpTransport implements Module, MessageSender, MessageReceiver {
             extraWriteSelectors += MAX_WRITE_SELECTORS;
         }
 
+        receiveBufferPool.clear();
+
         endpoint.removeMessageTransport(this);
 
         endpoint = null;
@@ -765,6 +804,7 @@ public class TcpTransport implements Module, MessageSender, MessageReceiver {
             LOG.infoParams("Total bytes received : {}", getBytesReceived());
             LOG.infoParams("Total Messages received : {}", getMessagesReceived());
             LOG.infoParams("Total connections accepted : {}", getConnectionsAccepted());
+            LOG.infoParams("Receive buffer pool : {}", receiveBufferPool);
 
             LOG.info("TCP Message Transport shut down.");
 
@@ -221,6 +221,15 @@ public class TransportBindingMeter {
         cumulativeMetrics.dataSent(initator, size);
     }		
 	
+    public synchronized void dataSentWithoutCopy(boolean initator, long size) {
+        if (deltaMetrics == null) {	
+            createDeltaMetric();
+        }
+			
+        deltaMetrics.dataSentWithoutCopy(initator, size);
+        cumulativeMetrics.dataSentWithoutCopy(initator, size);
+    }
+
     public synchronized void sendFailure(boolean initator, Message message, long time, long size) {
         if (deltaMetrics == null) {	
             createDeltaMetric();
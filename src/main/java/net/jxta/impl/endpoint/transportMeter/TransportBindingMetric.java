@@ -84,6 +84,7 @@ public class TransportBindingMetric implements DocumentSerializable {
 
     private int acceptorBytesReceived;
     private int acceptorBytesSent;
+    private long acceptorBytesSentWithoutCopy;
     private int acceptorConnections;
     private int acceptorConnectionsClosed;
     private int acceptorConnectionsDropped;
@@ -101,6 +102,7 @@ public class TransportBindingMetric implements DocumentSerializable {
     private long acceptorTimeToFail;
     private int initiatorBytesReceived;
     private int initiatorBytesSent;
+    private long initiatorBytesSentWithoutCopy;
     private long initiatorTotalTimeConnected;
     private int initiatorConnections;
     private int initiatorConnectionsClosed;
@@ -229,6 +231,10 @@ public class TransportBindingMetric implements DocumentSerializable {
         return acceptorBytesSent;
     }
 
+    public long getAcceptorBytesSentWithoutCopy() {
+        return acceptorBytesSentWithoutCopy;
+    }
+
     public int getAcceptorConnections() {
         return acceptorConnections;
     }
@@ -293,6 +299,10 @@ public class TransportBindingMetric implements DocumentSerializable {
         return initiatorBytesSent;
     }
 
+    public long getInitiatorBytesSentWithoutCopy() {
+        return initiatorBytesSentWithoutCopy;
+    }
+
     public int getInitiatorConnections() {
         return initiatorConnections;
     }
@@ -377,6 +387,16 @@ public class TransportBindingMetric implements DocumentSerializable {
         return acceptorBytesSent + initiatorBytesSent;
     }
 
+    /**
+     * Get the number of sent bytes which were written directly from the
+     * message buffers without first being copied into an intermediate array.
+     *
+     * @return the number of bytes for which a copy was avoided.
+     */
+    public long getBytesSentWithoutCopy() {
+        return acceptorBytesSentWithoutCopy + initiatorBytesSentWithoutCopy;
+    }
+
     public int getConnections() {
         return acceptorConnections + initiatorConnections;
     }
@@ -767,6 +787,14 @@ public class TransportBindingMetric implements DocumentSerializable {
         }
     }
 
+    void dataSentWithoutCopy(boolean initiator, long size) {
+        if (initiator) {
+            initiatorBytesSentWithoutCopy += size;
+        } else {
+            acceptorBytesSentWithoutCopy += size;
+        }
+    }
+
     void sendFailure(boolean initiator, Message message, long time, long size) {
         if (initiator) {
             initiatorSendFailures++;
@@ -812,6 +840,7 @@ public class TransportBindingMetric implements DocumentSerializable {
 
         acceptorBytesReceived += other.acceptorBytesReceived;
         acceptorBytesSent += other.acceptorBytesSent;
+        acceptorBytesSentWithoutCopy += other.acceptorBytesSentWithoutCopy;
         acceptorConnections += other.acceptorConnections;
         acceptorConnectionsClosed += other.acceptorConnectionsClosed;
         acceptorConnectionsDropped += other.acceptorConnectionsDropped;
@@ -829,6 +858,7 @@ public class TransportBindingMetric implements DocumentSerializable {
         acceptorTimeToFail += other.acceptorTimeToFail;
         initiatorBytesReceived += other.initiatorBytesReceived;
         initiatorBytesSent += other.initiatorBytesSent;
+        initiatorBytesSentWithoutCopy += other.initiatorBytesSentWithoutCopy;
         initiatorTotalTimeConnected += other.initiatorTotalTimeConnected;
         initiatorConnections += other.initiatorConnections;
         initiatorConnectionsClosed += other.initiatorConnectionsClosed;
@@ -879,6 +909,10 @@ public class TransportBindingMetric implements DocumentSerializable {
             DocumentSerializableUtilities.addInt(element, "acceptorBytesSent", acceptorBytesSent);
         }
 
+        if (acceptorBytesSentWithoutCopy != 0) {
+            DocumentSerializableUtilities.addLong(element, "acceptorBytesSentWithoutCopy", acceptorBytesSentWithoutCopy);
+        }
+
         if (acceptorConnections != 0) {
             DocumentSerializableUtilities.addInt(element, "acceptorConnections", acceptorConnections);
         }
@@ -949,6 +983,10 @@ public class TransportBindingMetric implements DocumentSerializable {
             DocumentSerializableUtilities.addInt(element, "initiatorBytesSent", initiatorBytesSent);
         }
 
+        if (initiatorBytesSentWithoutCopy != 0) {
+            DocumentSerializableUtilities.addLong(element, "initiatorBytesSentWithoutCopy", initiatorBytesSentWithoutCopy);
+        }
+
         if (initiatorTotalTimeConnected != 0) {
             DocumentSerializableUtilities.addLong(element, "initiatorTotalTimeConnected", initiatorTotalTimeConnected);
         }
@@ -1053,6 +1091,8 @@ public class TransportBindingMetric implements DocumentSerializable {
                 acceptorBytesReceived = DocumentSerializableUtilities.getInt(childElement);
             } else if (tagName.equals("acceptorBytesSent")) {
                 acceptorBytesSent = DocumentSerializableUtilities.getInt(childElement);
+            } else if (tagName.equals("acceptorBytesSentWithoutCopy")) {
+                acceptorBytesSentWithoutCopy = DocumentSerializableUtilities.getLong(childElement);
             } else if (tagName.equals("acceptorConnections")) {
                 acceptorConnections = DocumentSerializableUtilities.getInt(childElement);
             } else if (tagName.equals("acceptorConnectionsClosed")) {
@@ -1087,6 +1127,8 @@ public class TransportBindingMetric implements DocumentSerializable {
                 initiatorBytesReceived = DocumentSerializableUtilities.getInt(childElement);
             } else if (tagName.equals("initiatorBytesSent")) {
                 initiatorBytesSent = DocumentSerializableUtilities.getInt(childElement);
+            } else if (tagName.equals("initiatorBytesSentWithoutCopy")) {
+                initiatorBytesSentWithoutCopy = DocumentSerializableUtilities.getLong(childElement);
             } else if (tagName.equals("initiatorTotalTimeConnected")) {
                 initiatorTotalTimeConnected = DocumentSerializableUtilities.getLong(childElement);
             } else if (tagName.equals("initiatorConnections")) {
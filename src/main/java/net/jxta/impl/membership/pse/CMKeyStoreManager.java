@@ -71,11 +71,12 @@ import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.cert.CertificateException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  *  Manages a Keystore located within the JXTA CM.
  **/
-public class CMKeyStoreManager implements KeyStoreManager {
+public class CMKeyStoreManager implements VersionedKeyStoreManager {
 
     private final static transient Logger LOG = Logging.getLogger(CMKeyStoreManager.class.getName());
 
@@ -104,6 +105,11 @@ public class CMKeyStoreManager implements KeyStoreManager {
      **/
     private final ID keystore_location;
 
+    /**
+     * Counts the changes made to the keystore through this manager.
+     */
+    private final AtomicLong changes = new AtomicLong(0);
+
     /**
      *  Default constructor.
      *
@@ -268,6 +274,7 @@ public class CMKeyStoreManager implements KeyStoreManager {
             bos.close();
 
             keystore_cm.save("Raw", keystore_location.toString(), bos.toByteArray(), Long.MAX_VALUE, 0);
+            changes.incrementAndGet();
 
         } catch (NoSuchAlgorithmException failed) {
 
@@ -291,6 +298,17 @@ public class CMKeyStoreManager implements KeyStoreManager {
     public void eraseKeyStore() throws IOException {
 
         keystore_cm.remove("Raw", keystore_location.toString());
+        changes.incrementAndGet();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The version counts the changes made through this manager. The keystore
+     * record is not expected to be changed by other means.
+     */
+    public long getKeyStoreVersion() {
+        return changes.get();
     }
 
     /**
@@ -68,11 +68,12 @@ import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.cert.CertificateException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Manages a Keystore located within a single File.
  */
-public class FileKeyStoreManager implements KeyStoreManager {
+public class FileKeyStoreManager implements VersionedKeyStoreManager {
 
     private final static transient Logger LOG = Logging.getLogger(URIKeyStoreManager.class.getName());
 
@@ -96,6 +97,11 @@ public class FileKeyStoreManager implements KeyStoreManager {
      */
     private final File keystore_location;
 
+    /**
+     * Counts the changes made to the keystore through this manager.
+     */
+    private final AtomicLong changes = new AtomicLong(0);
+
     /**
      * Default constructor.
      *
@@ -243,6 +249,7 @@ public class FileKeyStoreManager implements KeyStoreManager {
             OutputStream os = new FileOutputStream(keystore_location);
 
             store.store(os, password);
+            changes.incrementAndGet();
         } catch (NoSuchAlgorithmException failed) {
             KeyStoreException failure = new KeyStoreException("NoSuchAlgorithmException during keystore processing");
 
@@ -263,11 +270,38 @@ public class FileKeyStoreManager implements KeyStoreManager {
 
         if (keystore_location.isFile() && keystore_location.canWrite()) {
             keystore_location.delete();
+            changes.incrementAndGet();
         } else {
             throw new UnsupportedOperationException("Unable to delete");
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * The version is derived from the modification time and length of the
+     * keystore file and the number of changes made through this manager.
+     */
+    public long getKeyStoreVersion() {
+        return fileVersion(keystore_location, changes.get());
+    }
+
+    /**
+     * Returns a version for a keystore file.
+     *
+     * @param file The keystore file.
+     * @param changes The number of changes made to the file by the manager.
+     * @return The version of the keystore file.
+     */
+    static long fileVersion(File file, long changes) {
+        long version = file.lastModified();
+
+        version = version * 1000003L + file.length();
+        version = version * 1000003L + changes;
+
+        return (version == UNKNOWN_VERSION) ? 0 : version;
+    }
+
     /**
      *  {@inheritDoc}
      **/
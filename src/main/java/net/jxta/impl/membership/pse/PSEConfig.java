@@ -72,8 +72,17 @@ import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.jxta.logging.Logger;
 import net.jxta.logging.Logging;
@@ -85,6 +94,17 @@ public final class PSEConfig {
 
     private final static transient Logger LOG = Logging.getLogger(PSEConfig.class.getName());
 
+    /**
+     * The system property which may be used to disable the cached view of
+     * the keystore.
+     */
+    public final static String KEYSTORE_CACHE_SYSPROP = "net.jxta.impl.membership.pse.PSEConfig.keystoreCache";
+
+    /**
+     * If {@code true} then the contents of versioned keystores are cached.
+     */
+    private final static boolean KEYSTORE_CACHE = Boolean.parseBoolean(System.getProperty(KEYSTORE_CACHE_SYSPROP, "true"));
+
     /**
      * Manager for the keystore we are using.
      */
@@ -95,6 +115,178 @@ public final class PSEConfig {
      */
     private char[] keystorePassword = null;
 
+    /**
+     * The decoded contents of the keystore as of its last load or {@code null}
+     * if the keystore must be reloaded.
+     */
+    private volatile KeyStoreView view = null;
+
+    /**
+     * The number of keystore accesses answered from the cached view.
+     */
+    private final AtomicLong cacheHits = new AtomicLong(0);
+
+    /**
+     * The number of keystore accesses which required the keystore to be
+     * loaded.
+     */
+    private final AtomicLong cacheMisses = new AtomicLong(0);
+
+    /**
+     * An immutable view of the contents of the keystore at a particular
+     * version. Private keys are recovered on demand and remembered along with
+     * the passphrase which recovered them. Aliases are held in lower case as
+     * keystores commonly treat them case-insensitively.
+     */
+    private final static class KeyStoreView {
+
+        /**
+         * The keystore version from which the view was built.
+         */
+        final long version;
+
+        /**
+         * The loaded keystore. Never modified.
+         */
+        final KeyStore store;
+
+        /**
+         * The IDs of the certificate and key entries.
+         */
+        final ID[] trustedCertsList;
+
+        /**
+         * The IDs of the key entries.
+         */
+        final ID[] keysList;
+
+        /**
+         * The certificate for each alias.
+         */
+        final Map<String, X509Certificate> certificates;
+
+        /**
+         * The certificate chain for each alias which has one.
+         */
+        final Map<String, X509Certificate[]> chains;
+
+        /**
+         * The aliases of the key entries.
+         */
+        final Set<String> keyAliases;
+
+        /**
+         * The certificate of each alias, by unmodified alias in keystore
+         * order. Certificates are matched with {@code equals()} as
+         * implementations from different providers do not share hash codes.
+         */
+        final Map<String, X509Certificate> aliases;
+
+        /**
+         * The private keys which have been recovered, by alias.
+         */
+        final Map<String, RecoveredKey> keys = new ConcurrentHashMap<String, RecoveredKey>();
+
+        KeyStoreView(long version, KeyStore store) throws KeyStoreException {
+            this.version = version;
+            this.store = store;
+
+            List<ID> trusted = new ArrayList<ID>();
+            List<ID> keyed = new ArrayList<ID>();
+            Map<String, X509Certificate> certs = new HashMap<String, X509Certificate>();
+            Map<String, X509Certificate[]> certChains = new HashMap<String, X509Certificate[]>();
+            Set<String> keyEntries = new HashSet<String>();
+            Map<String, X509Certificate> certAliases = new LinkedHashMap<String, X509Certificate>();
+            Enumeration<String> eachAlias = store.aliases();
+
+            while (eachAlias.hasMoreElements()) {
+                String anAlias = eachAlias.nextElement();
+                String key = toKey(anAlias);
+                boolean isKey = store.isKeyEntry(anAlias);
+
+                if (isKey || store.isCertificateEntry(anAlias)) {
+                    try {
+                        ID id = IDFactory.fromURI(new URI(anAlias));
+
+                        trusted.add(id);
+                        if (isKey) {
+                            keyed.add(id);
+                        }
+                    } catch (URISyntaxException badID) {// ignored
+                    }
+                }
+
+                if (isKey) {
+                    keyEntries.add(key);
+                }
+
+                Certificate cert = store.getCertificate(anAlias);
+
+                if (cert instanceof X509Certificate) {
+                    certs.put(key, (X509Certificate) cert);
+                    certAliases.put(anAlias, (X509Certificate) cert);
+                }
+
+                Certificate chain[] = store.getCertificateChain(anAlias);
+
+                if (null != chain) {
+                    X509Certificate x509certs[] = new X509Certificate[chain.length];
+
+                    System.arraycopy(chain, 0, x509certs, 0, chain.length);
+                    certChains.put(key, x509certs);
+                }
+            }
+
+            trustedCertsList = trusted.toArray(new ID[trusted.size()]);
+            keysList = keyed.toArray(new ID[keyed.size()]);
+            certificates = Collections.unmodifiableMap(certs);
+            chains = Collections.unmodifiableMap(certChains);
+            keyAliases = Collections.unmodifiableSet(keyEntries);
+            aliases = Collections.unmodifiableMap(certAliases);
+        }
+
+        /**
+         * Returns the key under which an alias is held in the view.
+         *
+         * @param alias The keystore alias.
+         * @return The key for the alias.
+         */
+        static String toKey(String alias) {
+            return alias.toLowerCase(Locale.ENGLISH);
+        }
+
+        /**
+         * Returns the alias of the first entry with the given certificate.
+         *
+         * @param cert The certificate.
+         * @return The alias or {@code null} if the certificate is not present.
+         */
+        String getCertificateAlias(X509Certificate cert) {
+            for (Map.Entry<String, X509Certificate> anEntry : aliases.entrySet()) {
+                if (cert.equals(anEntry.getValue())) {
+                    return anEntry.getKey();
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * A private key and the passphrase which recovered it.
+     */
+    private final static class RecoveredKey {
+
+        final char[] password;
+
+        final PrivateKey key;
+
+        RecoveredKey(char[] password, PrivateKey key) {
+            this.password = (null == password) ? null : password.clone();
+            this.key = key;
+        }
+    }
+
     /**
      * Standard constructor.
      *
@@ -116,6 +308,8 @@ public final class PSEConfig {
      *                       {@code null} for keystores with no passphrase.
      */
     public final void setKeyStorePassword(char[] storePassword) {
+        view = null;
+
         if (null != this.keystorePassword) {
             Arrays.fill(this.keystorePassword, '\0');
         }
@@ -170,6 +364,8 @@ public final class PSEConfig {
         Logging.logCheckedInfo(LOG, "Initializing new PSE keystore...");
 
         synchronized (keystoreManager) {
+            view = null;
+
             try {
 
                 if (keystoreManager.isInitialized(keystorePassword)) {
@@ -194,10 +390,84 @@ public final class PSEConfig {
      */
     public void erase() throws IOException {
         synchronized (keystoreManager) {
+            view = null;
             keystoreManager.eraseKeyStore();
         }
     }
 
+    /**
+     * Returns the number of keystore accesses which were answered from the
+     * cached view of the keystore.
+     *
+     * @return the number of cache hits.
+     */
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    /**
+     * Returns the number of keystore accesses which required the keystore to
+     * be loaded.
+     *
+     * @return the number of cache misses.
+     */
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    /**
+     * Returns the cached view of the keystore, first reloading it if the
+     * keystore has changed since the view was built. Only the contents of
+     * keystores managed by a {@link VersionedKeyStoreManager} and unlocked
+     * with the configured keystore passphrase are cached.
+     *
+     * @param storePassword The passphrase used to unlock the keystore.
+     * @return The view of the keystore or {@code null} if the keystore must
+     *         be loaded by the caller.
+     * @throws KeyStoreException When the wrong keystore has been provided.
+     * @throws IOException       For errors related to processing the keystore.
+     */
+    private KeyStoreView getView(char[] storePassword) throws KeyStoreException, IOException {
+        if (!KEYSTORE_CACHE || !(keystoreManager instanceof VersionedKeyStoreManager) || !Arrays.equals(storePassword, keystorePassword)) {
+            cacheMisses.incrementAndGet();
+            return null;
+        }
+
+        VersionedKeyStoreManager versioned = (VersionedKeyStoreManager) keystoreManager;
+        long version = versioned.getKeyStoreVersion();
+        KeyStoreView current = view;
+
+        if ((null != current) && (current.version == version) && (VersionedKeyStoreManager.UNKNOWN_VERSION != version)) {
+            cacheHits.incrementAndGet();
+            return current;
+        }
+
+        cacheMisses.incrementAndGet();
+
+        if (VersionedKeyStoreManager.UNKNOWN_VERSION == version) {
+            return null;
+        }
+
+        synchronized (keystoreManager) {
+            // The version is read before loading so that a concurrent change
+            // can only cause an extra reload.
+            version = versioned.getKeyStoreVersion();
+            current = view;
+
+            if (VersionedKeyStoreManager.UNKNOWN_VERSION == version) {
+                return null;
+            }
+
+            // Another thread may have reloaded the view while we waited.
+            if ((null == current) || (current.version != version)) {
+                current = new KeyStoreView(version, keystoreManager.loadKeyStore(keystorePassword));
+                view = current;
+            }
+        }
+
+        return current;
+    }
+
     /**
      * Gets a copy of the KeyStore associated with this PSE instance. The
      * returned KeyStore is a copy and not tied to the instance maintained by
@@ -325,6 +595,12 @@ public final class PSEConfig {
      * @throws IOException       For errors related to processing the keystore.
      */
     public ID[] getTrustedCertsList() throws KeyStoreException, IOException {
+        KeyStoreView current = getView(keystorePassword);
+
+        if (null != current) {
+            return current.trustedCertsList.clone();
+        }
+
         List<ID> trustedCertsList = new ArrayList<ID>();
 
         synchronized (keystoreManager) {
@@ -372,6 +648,12 @@ public final class PSEConfig {
      * @throws IOException       For errors related to processing the keystore.
      */
     ID[] getKeysList(char[] storePassword) throws KeyStoreException, IOException {
+        KeyStoreView current = getView(storePassword);
+
+        if (null != current) {
+            return current.keysList.clone();
+        }
+
         List<ID> keyedRootsList = new ArrayList<ID>();
 
         synchronized (keystoreManager) {
@@ -409,11 +691,16 @@ public final class PSEConfig {
     public ID getTrustedCertificateID(X509Certificate cert) throws KeyStoreException, IOException {
 
         String anAlias = null;
+        KeyStoreView current = getView(keystorePassword);
 
-        synchronized (keystoreManager) {
-            KeyStore store = keystoreManager.loadKeyStore(keystorePassword);
+        if (null != current) {
+            anAlias = current.getCertificateAlias(cert);
+        } else {
+            synchronized (keystoreManager) {
+                KeyStore store = keystoreManager.loadKeyStore(keystorePassword);
 
-            anAlias = store.getCertificateAlias(cert);
+                anAlias = store.getCertificateAlias(cert);
+            }
         }
 
         // not found.
@@ -458,6 +745,11 @@ public final class PSEConfig {
     X509Certificate getTrustedCertificate(ID id, char[] storePassword) throws KeyStoreException, IOException {
 
         String alias = id.toString();
+        KeyStoreView current = getView(storePassword);
+
+        if (null != current) {
+            return current.certificates.get(KeyStoreView.toKey(alias));
+        }
 
         synchronized (keystoreManager) {
             KeyStore store = keystoreManager.loadKeyStore(storePassword);
@@ -482,6 +774,13 @@ public final class PSEConfig {
     public X509Certificate[] getTrustedCertificateChain(ID id) throws KeyStoreException, IOException {
 
         String alias = id.toString();
+        KeyStoreView current = getView(keystorePassword);
+
+        if (null != current) {
+            X509Certificate chain[] = current.chains.get(KeyStoreView.toKey(alias));
+
+            return (null == chain) ? null : chain.clone();
+        }
 
         synchronized (keystoreManager) {
             KeyStore store = keystoreManager.loadKeyStore(keystorePassword);
@@ -519,6 +818,30 @@ public final class PSEConfig {
         String alias = id.toString();
 
         try {
+            KeyStoreView current = getView(keystorePassword);
+
+            if (null != current) {
+                String key = KeyStoreView.toKey(alias);
+
+                if (!current.keyAliases.contains(key)) {
+                    return null;
+                }
+
+                RecoveredKey recovered = current.keys.get(key);
+
+                if ((null != recovered) && Arrays.equals(recovered.password, key_password)) {
+                    return recovered.key;
+                }
+
+                PrivateKey privateKey = (PrivateKey) current.store.getKey(alias, key_password);
+
+                if (null != privateKey) {
+                    current.keys.put(key, new RecoveredKey(key_password, privateKey));
+                }
+
+                return privateKey;
+            }
+
             synchronized (keystoreManager) {
                 KeyStore store = keystoreManager.loadKeyStore(keystorePassword);
 
@@ -577,6 +900,11 @@ public final class PSEConfig {
      */
     public boolean isKey(ID id, char[] storePassword) throws KeyStoreException, IOException {
         String alias = id.toString();
+        KeyStoreView current = getView(storePassword);
+
+        if (null != current) {
+            return current.keyAliases.contains(KeyStoreView.toKey(alias));
+        }
 
         synchronized (keystoreManager) {
             KeyStore store = keystoreManager.loadKeyStore(storePassword);
@@ -606,6 +934,7 @@ public final class PSEConfig {
             store.setCertificateEntry(alias, cert);
 
             keystoreManager.saveKeyStore(store, keystorePassword);
+            view = null;
         }
     }
 
@@ -636,6 +965,7 @@ public final class PSEConfig {
             store.setKeyEntry(alias, key, key_password, certchain);
 
             keystoreManager.saveKeyStore(store, keystorePassword);
+            view = null;
         }
     }
 
@@ -656,6 +986,7 @@ public final class PSEConfig {
             store.deleteEntry(alias);
 
             keystoreManager.saveKeyStore(store, keystorePassword);
+            view = null;
         }
     }
 }
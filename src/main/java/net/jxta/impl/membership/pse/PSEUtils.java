@@ -66,7 +66,9 @@ import java.io.StringReader;
 import java.io.StringWriter;
 import java.math.BigInteger;
 import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
 import java.security.InvalidKeyException;
+import java.security.Key;
 import java.security.KeyFactory;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
@@ -83,11 +85,15 @@ import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.crypto.Cipher;
 import javax.crypto.EncryptedPrivateKeyInfo;
@@ -103,6 +109,7 @@ import net.jxta.document.Attribute;
 import net.jxta.document.XMLElement;
 import net.jxta.impl.util.BASE64InputStream;
 import net.jxta.impl.util.BASE64OutputStream;
+import net.jxta.impl.util.LRUCache;
 import net.jxta.logging.Logger;
 import net.jxta.logging.Logging;
 
@@ -134,6 +141,157 @@ public final class PSEUtils {
     */
     public final static String symmetricAlgorithm = "DESede";
 
+    /**
+     * The system property which may be used to set the number of successful
+     * signature verifications which are remembered. {@code 0} disables the
+     * verification cache.
+     */
+    public final static String VERIFICATION_CACHE_SIZE_SYSPROP = "net.jxta.impl.membership.pse.PSEUtils.verificationCacheSize";
+
+    /**
+     * The number of successful signature verifications which are remembered.
+     */
+    private final static int VERIFICATION_CACHE_SIZE = Integer.getInteger(VERIFICATION_CACHE_SIZE_SYSPROP, 1024);
+
+    /**
+     * The digest algorithm used to identify the signed data in the
+     * verification cache.
+     */
+    private final static String VERIFICATION_DIGEST_ALGORITHM = "SHA-256";
+
+    /**
+     * Successful signature verifications.
+     */
+    private final static LRUCache<VerifiedSignature, Boolean> verified = new LRUCache<VerifiedSignature, Boolean>(Math.max(VERIFICATION_CACHE_SIZE, 1));
+
+    /**
+     * The number of signature verifications answered from the verification
+     * cache.
+     */
+    private final static AtomicLong verificationCacheHits = new AtomicLong();
+
+    /**
+     * The number of signature verifications which were not answered from the
+     * verification cache.
+     */
+    private final static AtomicLong verificationCacheMisses = new AtomicLong();
+
+    /**
+     * The signature engines of each thread, by algorithm.
+     */
+    private final static ThreadLocal<Map<String, PooledEngine<Signature>>> signatures = new ThreadLocal<Map<String, PooledEngine<Signature>>>() {
+        @Override
+        protected Map<String, PooledEngine<Signature>> initialValue() {
+            return new HashMap<String, PooledEngine<Signature>>();
+        }
+    };
+
+    /**
+     * The cipher engines of each thread, by transformation and provider.
+     */
+    private final static ThreadLocal<Map<String, PooledEngine<Cipher>>> ciphers = new ThreadLocal<Map<String, PooledEngine<Cipher>>>() {
+        @Override
+        protected Map<String, PooledEngine<Cipher>> initialValue() {
+            return new HashMap<String, PooledEngine<Cipher>>();
+        }
+    };
+
+    /**
+     * The digest engine of each thread used for the verification cache.
+     */
+    private final static ThreadLocal<MessageDigest> verificationDigests = new ThreadLocal<MessageDigest>();
+
+    /**
+     * A signature or cipher engine owned by a single thread along with the
+     * key and mode for which it is currently initialized. An engine which
+     * has completed an operation returns to its initialized state and may be
+     * reused without initializing it again.
+     */
+    private final static class PooledEngine<T> {
+
+        final T engine;
+
+        /**
+         * The key (or certificate) with which the engine was initialized or
+         * {@code null} if the engine must be initialized before use.
+         */
+        Object key = null;
+
+        int mode = 0;
+
+        /**
+         * If {@code true} the engine is in use by an operation of the thread.
+         */
+        boolean busy = false;
+
+        PooledEngine(T engine) {
+            this.engine = engine;
+        }
+
+        /**
+         * Returns {@code true} if the engine is initialized with the given
+         * key and mode.
+         *
+         * @param key The key.
+         * @param mode The mode.
+         * @return {@code true} if the engine may be used without being
+         * initialized.
+         */
+        boolean isInitializedFor(Object key, int mode) {
+            return (this.key == key) && (this.mode == mode);
+        }
+    }
+
+    /**
+     * Identifies a successfully verified signature.
+     */
+    private final static class VerifiedSignature {
+
+        final String algorithm;
+
+        final Certificate cert;
+
+        final byte[] signature;
+
+        final byte[] digest;
+
+        final int hash;
+
+        VerifiedSignature(String algorithm, Certificate cert, byte[] signature, byte[] digest) {
+            this.algorithm = algorithm;
+            this.cert = cert;
+            this.signature = signature.clone();
+            this.digest = digest;
+
+            int result = algorithm.hashCode();
+
+            result = 31 * result + Arrays.hashCode(this.signature);
+            result = 31 * result + Arrays.hashCode(digest);
+            this.hash = result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+
+            if (!(obj instanceof VerifiedSignature)) {
+                return false;
+            }
+
+            VerifiedSignature other = (VerifiedSignature) obj;
+
+            return (hash == other.hash) && algorithm.equals(other.algorithm) && Arrays.equals(digest, other.digest)
+                    && Arrays.equals(signature, other.signature) && cert.equals(other.cert);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
     /**
      * Singleton utility class
      */
@@ -423,38 +581,56 @@ public final class PSEUtils {
 
     /**
      * Compute the signature of a stream.
+     * <p/>
+     * Signature engines are kept per thread and algorithm and are only
+     * initialized again when a different key is used.
      *
      * @param key    the private key used to sign the stream
      * @param stream the stream to sign.
      * @return byte[] the signature
      */
     public static byte[] computeSignature(String algorithm, PrivateKey key, InputStream stream) throws InvalidKeyException, SignatureException, IOException {
-        Signature sign;
+        PooledEngine<Signature> pooled = getSignature(algorithm);
+        boolean completed = false;
 
         try {
-            sign = Signature.getInstance(algorithm);
-        } catch (NoSuchAlgorithmException badsigner) {
-            throw new IOException("Could not initialize signer with algorithm " + algorithm);
-        }
-        sign.initSign(key, UTILS.srng);
+            Signature sign = pooled.engine;
 
-        byte[] buffer = new byte[1024];
+            if (!pooled.isInitializedFor(key, Cipher.ENCRYPT_MODE)) {
+                sign.initSign(key, UTILS.srng);
+                pooled.key = key;
+                pooled.mode = Cipher.ENCRYPT_MODE;
+            }
 
-        while (true) {
-            int read = stream.read(buffer);
+            byte[] buffer = new byte[1024];
 
-            if (read < 0) {
-                break;
+            while (true) {
+                int read = stream.read(buffer);
+
+                if (read < 0) {
+                    break;
+                }
+
+                sign.update(buffer, 0, read);
             }
 
-            sign.update(buffer, 0, read);
-        }
+            byte[] result = sign.sign();
 
-        return sign.sign();
+            completed = true;
+            return result;
+        } finally {
+            release(pooled, completed);
+        }
     }
 
     /**
      * Verify a signature of a stream.
+     * <p/>
+     * Signature engines are kept per thread and algorithm and are only
+     * initialized again when a different certificate is used. Successful
+     * verifications are remembered by certificate, signature and digest of
+     * the signed data so that verifying the same signed data again does not
+     * repeat the public key operation.
      *
      * @param cert      The certificate containing the public key which will be used
      *                  to verify the signature.
@@ -463,29 +639,191 @@ public final class PSEUtils {
      * @return boolean true if the signature was valid otherwise false.
      */
     public static boolean verifySignature(String algorithm, Certificate cert, byte[] signature, InputStream stream) throws InvalidKeyException, SignatureException, IOException {
-        Signature sign;
+        PooledEngine<Signature> pooled = getSignature(algorithm);
+        MessageDigest digest = (VERIFICATION_CACHE_SIZE > 0) ? getVerificationDigest() : null;
+        boolean completed = false;
 
         try {
-            sign = Signature.getInstance(algorithm);
-        } catch (NoSuchAlgorithmException badsigner) {
-            throw new IOException("Could not initialize signer with algorithm " + algorithm);
+            Signature sign = pooled.engine;
+
+            if (!pooled.isInitializedFor(cert, Cipher.DECRYPT_MODE)) {
+                sign.initVerify(cert);
+                pooled.key = cert;
+                pooled.mode = Cipher.DECRYPT_MODE;
+            }
+
+            byte[] buffer = new byte[1024];
+
+            while (true) {
+                int read = stream.read(buffer);
+
+                if (read < 0) {
+                    break;
+                }
+
+                sign.update(buffer, 0, read);
+
+                if (null != digest) {
+                    digest.update(buffer, 0, read);
+                }
+            }
+
+            VerifiedSignature verification = null;
+
+            if (null != digest) {
+                verification = new VerifiedSignature(algorithm, cert, signature, digest.digest());
+
+                if (null != verified.get(verification)) {
+                    verificationCacheHits.incrementAndGet();
+
+                    // The engine still holds the data; it is reset below.
+                    return true;
+                }
+
+                verificationCacheMisses.incrementAndGet();
+            }
+
+            boolean valid = sign.verify(signature);
+
+            completed = true;
+
+            if (valid && (null != verification)) {
+                verified.put(verification, Boolean.TRUE);
+            }
+
+            return valid;
+        } finally {
+            if (null != digest) {
+                digest.reset();
+            }
+
+            release(pooled, completed);
+        }
+    }
+
+    /**
+     * Returns the number of signature verifications answered from the
+     * verification cache.
+     *
+     * @return The number of verification cache hits.
+     */
+    public static long getVerificationCacheHits() {
+        return verificationCacheHits.get();
+    }
+
+    /**
+     * Returns the number of signature verifications which were not answered
+     * from the verification cache.
+     *
+     * @return The number of verification cache misses.
+     */
+    public static long getVerificationCacheMisses() {
+        return verificationCacheMisses.get();
+    }
+
+    /**
+     * Returns a signature engine of the current thread for the algorithm.
+     *
+     * @param algorithm The signature algorithm.
+     * @return The signature engine, marked busy.
+     * @throws IOException If the algorithm is not available.
+     */
+    private static PooledEngine<Signature> getSignature(String algorithm) throws IOException {
+        Map<String, PooledEngine<Signature>> engines = signatures.get();
+        PooledEngine<Signature> pooled = engines.get(algorithm);
+
+        if ((null == pooled) || pooled.busy) {
+            try {
+                pooled = new PooledEngine<Signature>(Signature.getInstance(algorithm));
+            } catch (NoSuchAlgorithmException badsigner) {
+                throw new IOException("Could not initialize signer with algorithm " + algorithm);
+            }
+
+            if (!engines.containsKey(algorithm)) {
+                engines.put(algorithm, pooled);
+            }
         }
 
-        sign.initVerify(cert);
+        pooled.busy = true;
 
-        byte[] buffer = new byte[1024];
+        return pooled;
+    }
 
-        while (true) {
-            int read = stream.read(buffer);
+    /**
+     * Returns a cipher engine of the current thread with the same
+     * transformation and provider as the given cipher, initialized for the
+     * key and mode.
+     *
+     * @param template The cipher whose transformation and provider are used.
+     * @param mode The cipher mode.
+     * @param key The key.
+     * @return The cipher engine, marked busy.
+     * @throws GeneralSecurityException If the cipher cannot be created or
+     * initialized.
+     */
+    private static PooledEngine<Cipher> getCipher(Cipher template, int mode, Key key) throws GeneralSecurityException {
+        String name = template.getAlgorithm() + "/" + template.getProvider().getName();
+        Map<String, PooledEngine<Cipher>> engines = ciphers.get();
+        PooledEngine<Cipher> pooled = engines.get(name);
 
-            if (read < 0) {
-                break;
+        if ((null == pooled) || pooled.busy) {
+            pooled = new PooledEngine<Cipher>(Cipher.getInstance(template.getAlgorithm(), template.getProvider()));
+
+            if (!engines.containsKey(name)) {
+                engines.put(name, pooled);
             }
+        }
 
-            sign.update(buffer, 0, read);
+        pooled.busy = true;
+
+        // Ciphers which use an IV must be initialized for each operation so
+        // that a new IV is chosen.
+        if (!pooled.isInitializedFor(key, mode) || (null != pooled.engine.getIV())) {
+            pooled.key = null;
+            pooled.engine.init(mode, key);
+            pooled.key = key;
+            pooled.mode = mode;
         }
 
-        return sign.verify(signature);
+        return pooled;
+    }
+
+    /**
+     * Returns an engine to its thread's pool. An engine whose operation did
+     * not complete must be initialized again before it is reused.
+     *
+     * @param pooled The engine.
+     * @param completed If {@code true} the engine completed its operation.
+     */
+    private static void release(PooledEngine<?> pooled, boolean completed) {
+        if (!completed) {
+            pooled.key = null;
+        }
+
+        pooled.busy = false;
+    }
+
+    /**
+     * Returns the digest engine of the current thread for the verification
+     * cache.
+     *
+     * @return The digest engine or {@code null} if it is not available.
+     */
+    private static MessageDigest getVerificationDigest() {
+        MessageDigest digest = verificationDigests.get();
+
+        if (null == digest) {
+            try {
+                digest = MessageDigest.getInstance(VERIFICATION_DIGEST_ALGORITHM);
+            } catch (NoSuchAlgorithmException unavailable) {
+                Logging.logCheckedWarning(LOG, "No ", VERIFICATION_DIGEST_ALGORITHM, " digest, signature verifications will not be cached.");
+                return null;
+            }
+
+            verificationDigests.set(digest);
+        }
+
+        return digest;
     }
 
     /**
@@ -997,6 +1335,10 @@ public final class PSEUtils {
 
     /**
      * Encrypts byte array
+     * <p/>
+     * The provided cipher is used only to select the transformation and
+     * provider. The operation uses a cipher engine owned by the calling
+     * thread.
      *
      * @param data decrypted data array
      * @param data inputOffset data array offset
@@ -1007,18 +1349,15 @@ public final class PSEUtils {
      * @throws IOException
      */
     public static final byte[] encryptAsymmetric(byte[] data, int inputOffset, int inputLen, Cipher cipher, PublicKey key) throws IOException {
-        synchronized (cipher) {
-            try {
-                cipher.init(Cipher.ENCRYPT_MODE, key);
-                return cipher.doFinal(data, inputOffset, inputLen);
-            } catch (Exception ex) {
-                throw new IOException("Failed encrypting stream:", ex);
-            }
-        }
+        return doCipher(Cipher.ENCRYPT_MODE, data, inputOffset, inputLen, cipher, key);
     }
 
     /**
      * Decrypts byte array
+     * <p/>
+     * The provided cipher is used only to select the transformation and
+     * provider. The operation uses a cipher engine owned by the calling
+     * thread.
      *
      * @param data encrypted data
      * @param cipher cipher
@@ -1027,18 +1366,15 @@ public final class PSEUtils {
      * @throws IOException
      */
     public static byte[] decryptAsymmetric(byte[] data, Cipher cipher, PrivateKey key) throws IOException {
-        synchronized (cipher) {
-            try {
-                cipher.init(Cipher.DECRYPT_MODE, key);
-                return cipher.doFinal(data);
-            } catch (Exception ex) {
-                throw new IOException("Failed decrypting stream:", ex);
-            }
-        }
+        return doCipher(Cipher.DECRYPT_MODE, data, 0, data.length, cipher, key);
     }
 
     /**
      * Encrypts byte array
+     * <p/>
+     * The provided cipher is used only to select the transformation and
+     * provider. The operation uses a cipher engine owned by the calling
+     * thread.
      *
      * @param data decrypted data array
      * @param data inputOffset data array offset
@@ -1049,18 +1385,15 @@ public final class PSEUtils {
      * @throws IOException
      */
     public static final byte[] encryptSymmetric(byte[] data, int inputOffset, int inputLen, Cipher cipher, SecretKey key) throws IOException {
-        synchronized (cipher) {
-            try {
-                cipher.init(Cipher.ENCRYPT_MODE, key);
-                return cipher.doFinal(data, inputOffset, inputLen);
-            } catch (Exception ex) {
-                throw new IOException("Failed encrypting stream:", ex);
-            }
-        }
+        return doCipher(Cipher.ENCRYPT_MODE, data, inputOffset, inputLen, cipher, key);
     }
 
     /**
      * Decrypts byte array
+     * <p/>
+     * The provided cipher is used only to select the transformation and
+     * provider. The operation uses a cipher engine owned by the calling
+     * thread.
      *
      * @param data encrypted data
      * @param cipher cipher
@@ -1069,12 +1402,38 @@ public final class PSEUtils {
      * @throws IOException
      */
     public static byte[] decryptSymmetric(byte[] data, Cipher cipher, SecretKey key) throws IOException {
-        synchronized (cipher) {
-            try {
-                cipher.init(Cipher.DECRYPT_MODE, key);
-                return cipher.doFinal(data);
-            } catch (Exception ex) {
-                throw new IOException("Failed decrypting stream:", ex);
+        return doCipher(Cipher.DECRYPT_MODE, data, 0, data.length, cipher, key);
+    }
+
+    /**
+     * Encrypts or decrypts a byte array with a cipher engine of the calling
+     * thread.
+     *
+     * @param mode {@code Cipher.ENCRYPT_MODE} or {@code Cipher.DECRYPT_MODE}.
+     * @param data data array
+     * @param inputOffset data array offset
+     * @param inputLen data array length
+     * @param cipher cipher providing the transformation and provider
+     * @param key the key
+     * @return the result
+     * @throws IOException
+     */
+    private static byte[] doCipher(int mode, byte[] data, int inputOffset, int inputLen, Cipher cipher, Key key) throws IOException {
+        PooledEngine<Cipher> pooled = null;
+        boolean completed = false;
+
+        try {
+            pooled = getCipher(cipher, mode, key);
+
+            byte[] result = pooled.engine.doFinal(data, inputOffset, inputLen);
+
+            completed = true;
+            return result;
+        } catch (Exception ex) {
+            throw new IOException((Cipher.ENCRYPT_MODE == mode) ? "Failed encrypting stream:" : "Failed decrypting stream:", ex);
+        } finally {
+            if (null != pooled) {
+                release(pooled, completed);
             }
         }
     }
@@ -69,12 +69,13 @@ import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
 import java.security.cert.CertificateException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  *  Manages a Keystore located at URI. This version precludes KeyStores which
  *  are built from multiple URIs.
  **/
-public class URIKeyStoreManager implements KeyStoreManager {
+public class URIKeyStoreManager implements VersionedKeyStoreManager {
 
     private final static transient Logger LOG = Logging.getLogger(URIKeyStoreManager.class.getName());
 
@@ -98,6 +99,11 @@ public class URIKeyStoreManager implements KeyStoreManager {
      **/
     private final URI keystore_location;
 
+    /**
+     * Counts the changes made to the keystore through this manager.
+     */
+    private final AtomicLong changes = new AtomicLong(0);
+
     /**
      *  Default constructor.
      **/
@@ -252,6 +258,7 @@ public class URIKeyStoreManager implements KeyStoreManager {
                 os = keystore_location.toURL().openConnection().getOutputStream();
             }
             store.store(os, password);
+            changes.incrementAndGet();
         } catch (NoSuchAlgorithmException failed) {
             KeyStoreException failure = new KeyStoreException("NoSuchAlgorithmException during keystore processing");
 
@@ -274,6 +281,7 @@ public class URIKeyStoreManager implements KeyStoreManager {
             File asFile = new File(keystore_location);
 
             if (asFile.exists() && asFile.isFile() && asFile.canWrite()) asFile.delete();
+            changes.incrementAndGet();
 
         } else {
 
@@ -283,6 +291,19 @@ public class URIKeyStoreManager implements KeyStoreManager {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * Only keystores stored in files are versioned.
+     */
+    public long getKeyStoreVersion() {
+        if (!"file".equalsIgnoreCase(keystore_location.getScheme())) {
+            return UNKNOWN_VERSION;
+        }
+
+        return FileKeyStoreManager.fileVersion(new File(keystore_location), changes.get());
+    }
+
     /**
      *  {@inheritDoc}
      **/
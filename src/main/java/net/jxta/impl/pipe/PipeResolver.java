@@ -71,6 +71,7 @@ import net.jxta.impl.cm.SrdiManager.SrdiPushEntriesInterface;
 import net.jxta.impl.cm.Srdi;
 import net.jxta.impl.protocol.PipeResolverMsg;
 import net.jxta.impl.protocol.ResolverQuery;
+import net.jxta.impl.protocol.ResolverSrdiMsgImpl;
 import net.jxta.impl.protocol.SrdiMessageImpl;
 import net.jxta.impl.resolver.InternalQueryHandler;
 import net.jxta.impl.util.TimeUtils;
@@ -750,18 +751,11 @@ class PipeResolver implements SrdiPushEntriesInterface, InternalQueryHandler, Sr
             return false;
         }
 
-        if (message.getPayload() == null) {
-            Logging.logCheckedDebug(LOG, "empty SRDI message");
-            return false;
-        }
-
         SrdiMessage srdiMsg;
 
         try {
 
-            StructuredTextDocument asDoc = (StructuredTextDocument)
-                    StructuredDocumentFactory.newStructuredDocument(MimeMediaType.XMLUTF8, new StringReader(message.getPayload()));
-            srdiMsg = new SrdiMessageImpl(asDoc);
+            srdiMsg = ResolverSrdiMsgImpl.getSrdiMessage(message);
 
         } catch (Throwable e) {
 
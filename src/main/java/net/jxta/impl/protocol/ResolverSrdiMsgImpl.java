@@ -56,19 +56,33 @@
 package net.jxta.impl.protocol;
 
 import net.jxta.credential.Credential;
+import net.jxta.document.Attribute;
+import net.jxta.document.Attributable;
 import net.jxta.document.Document;
 import net.jxta.document.Element;
 import net.jxta.document.MimeMediaType;
+import net.jxta.document.StructuredDocument;
 import net.jxta.document.StructuredDocumentFactory;
 import net.jxta.document.StructuredDocumentUtils;
 import net.jxta.document.StructuredTextDocument;
 import net.jxta.document.XMLElement;
+import net.jxta.impl.document.LiteXMLDocument;
 import net.jxta.logging.Logger;
 import net.jxta.logging.Logging;
 import net.jxta.membership.MembershipService;
 import net.jxta.protocol.ResolverSrdiMsg;
-
+import net.jxta.protocol.SrdiMessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.Enumeration;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
  * ResolverQuery provides the binding for the message to query other nodes
@@ -92,6 +106,56 @@ public class ResolverSrdiMsgImpl extends ResolverSrdiMsg {
      */
     public final static String payloadTag = "Payload";
 
+    /**
+     * Attribute of the XML document announcing the version of the binary
+     * encoding the sending peer can read.
+     */
+    public final static String BinaryAttr = "Bin";
+
+    /**
+     * The MIME type of SRDI message elements in the binary encoding.
+     */
+    public final static MimeMediaType BINARY_MIME_TYPE = new MimeMediaType("application/x-jxta-srdi").intern();
+
+    /**
+     * System property used to disable the binary encoding, in which case it is
+     * neither announced nor sent.
+     */
+    public final static String BINARY_SYSPROP = ResolverSrdiMsgImpl.class.getName() + ".binary";
+
+    public final static boolean BINARY_ENABLED = Boolean.parseBoolean(System.getProperty(BINARY_SYSPROP, "true"));
+
+    /**
+     * The version of the binary encoding of the envelope.
+     */
+    static final int BINARY_VERSION = 1;
+
+    // Kinds of payload in the binary encoding.
+    private static final int TEXT_PAYLOAD = 0;
+    private static final int SRDI_PAYLOAD = 1;
+
+    /**
+     * Flag of the payload kind set if the payload is deflated.
+     */
+    private static final int DEFLATED = 0x80;
+
+    /**
+     * Payloads larger than this are deflated. Smaller ones would not gain
+     * enough to be worth the cost.
+     */
+    private static final int DEFLATE_THRESHOLD = 256;
+
+    /**
+     * The SRDI message carried, if known. The payload is then its XML form,
+     * produced on demand.
+     */
+    private SrdiMessage srdi = null;
+
+    /**
+     * If {@code true} the sender announced that it can read the binary encoding.
+     */
+    private boolean binaryCapable = false;
+
     /**
      * Constructor for the ResolverSrdiMsgImpl object
      */
@@ -116,6 +180,7 @@ public class ResolverSrdiMsgImpl extends ResolverSrdiMsg {
                     "Could not construct : " + getClass().getName() + "from doc containing a " + doctype);
         }
         readIt(doc, membership);
+        binaryCapable = isBinaryAnnounced(doc);
     }
 
     /**
@@ -132,6 +197,311 @@ public class ResolverSrdiMsgImpl extends ResolverSrdiMsg {
         setCredential(cred);
     }
 
+    /**
+     * Creates this object with a specific handler name, credential and SRDI
+     * message. The message is kept as is so that it may be sent in the binary
+     * encoding without being rendered to XML.
+     *
+     * @param handlerName the handler name
+     * @param cred        the credential
+     * @param srdi        the SRDI message carried as payload
+     */
+    public ResolverSrdiMsgImpl(String handlerName, Credential cred, SrdiMessage srdi) {
+
+        setHandlerName(handlerName);
+        setCredential(cred);
+        this.srdi = srdi;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * If this message was built from an SRDI message, its XML form.
+     */
+    @Override
+    public String getPayload() {
+        String payload = super.getPayload();
+
+        if ((payload == null) && (srdi != null)) {
+            payload = srdi.toString();
+            super.setPayload(payload);
+        }
+
+        return payload;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setPayload(String payload) {
+        super.setPayload(payload);
+        srdi = null;
+    }
+
+    /**
+     * Returns the SRDI message carried, parsing the payload if this message
+     * was not received in or built for the binary encoding.
+     *
+     * @return the SRDI message
+     * @throws IOException if there is no payload or it could not be parsed.
+     */
+    public SrdiMessage getSrdiMessage() throws IOException {
+        if (srdi == null) {
+            String payload = super.getPayload();
+
+            if (payload == null) {
+                throw new IOException("Empty SRDI message");
+            }
+
+            StructuredDocument<?> asDoc = LiteXMLDocument.newReadOnlyInstance(MimeMediaType.XMLUTF8, new StringReader(payload));
+
+            srdi = new SrdiMessageImpl(asDoc);
+        }
+
+        return srdi;
+    }
+
+    /**
+     * Returns the SRDI message carried by a resolver SRDI message, without
+     * parsing when it is available as is.
+     *
+     * @param msg the resolver SRDI message
+     * @return the SRDI message
+     * @throws IOException if there is no payload or it could not be parsed.
+     */
+    public static SrdiMessage getSrdiMessage(ResolverSrdiMsg msg) throws IOException {
+        if (msg instanceof ResolverSrdiMsgImpl) {
+            return ((ResolverSrdiMsgImpl) msg).getSrdiMessage();
+        }
+
+        if (msg.getPayload() == null) {
+            throw new IOException("Empty SRDI message");
+        }
+
+        StructuredDocument<?> asDoc = LiteXMLDocument.newReadOnlyInstance(MimeMediaType.XMLUTF8, new StringReader(msg.getPayload()));
+
+        return new SrdiMessageImpl(asDoc);
+    }
+
+    /**
+     * @return {@code true} if the peer which sent this message announced that
+     * it can read the binary encoding.
+     */
+    public boolean isBinaryCapable() {
+        return binaryCapable;
+    }
+
+    /**
+     * Writes this message in the binary encoding. If the message carries an
+     * SRDI message it is written with {@link SrdiMessageBinary}, otherwise the
+     * payload is written as text.
+     *
+     * @return the encoded message
+     * @throws IllegalStateException if the message has no handler name.
+     */
+    public byte[] toBinary() {
+        if (getHandlerName() == null) {
+            throw new IllegalStateException("Missing handler name");
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+
+        try {
+            out.writeByte(BINARY_VERSION);
+            out.writeUTF(getHandlerName());
+
+            byte[] cred = null;
+
+            if (getCredential() != null) {
+                try {
+                    ByteArrayOutputStream credBytes = new ByteArrayOutputStream();
+
+                    getCredential().getDocument(MimeMediaType.XMLUTF8).sendToStream(credBytes);
+                    cred = credBytes.toByteArray();
+                } catch (Exception ce) {
+                    Logging.logCheckedWarning(LOG, "Got an Exception during credential creation\n", ce);
+                }
+            }
+
+            if (cred != null) {
+                out.writeInt(cred.length);
+                out.write(cred);
+            } else {
+                out.writeInt(-1);
+            }
+
+            int kind;
+            byte[] payload;
+
+            if (srdi != null) {
+                kind = SRDI_PAYLOAD;
+                payload = SrdiMessageBinary.encode(srdi);
+            } else {
+                kind = TEXT_PAYLOAD;
+                payload = (super.getPayload() != null) ? super.getPayload().getBytes("UTF-8") : null;
+            }
+
+            if ((payload != null) && (payload.length > DEFLATE_THRESHOLD)) {
+                out.writeByte(kind | DEFLATED);
+                out.writeInt(payload.length);
+                payload = deflate(payload);
+            } else {
+                out.writeByte(kind);
+            }
+
+            if (payload != null) {
+                out.writeInt(payload.length);
+                out.write(payload);
+            } else {
+                out.writeInt(-1);
+            }
+            out.flush();
+        } catch (IOException impossible) {
+            throw new IllegalStateException("Could not write to byte array", impossible);
+        }
+
+        return bos.toByteArray();
+    }
+
+    /**
+     * Reads a message in the binary encoding.
+     *
+     * @param bytes      the encoded message
+     * @param membership membership service used to verify credentials
+     * @return the message
+     * @throws IOException if the message could not be read.
+     */
+    public static ResolverSrdiMsgImpl fromBinary(byte[] bytes, MembershipService membership) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        int version = in.readUnsignedByte();
+
+        if (version != BINARY_VERSION) {
+            throw new IOException("Unsupported resolver SRDI message version " + version);
+        }
+
+        ResolverSrdiMsgImpl msg = new ResolverSrdiMsgImpl();
+
+        msg.setHandlerName(in.readUTF());
+        msg.binaryCapable = true;
+
+        byte[] cred = readBytes(in, bytes.length);
+
+        if (cred != null) {
+            try {
+                XMLElement<?> credDoc = (XMLElement<?>) StructuredDocumentFactory.newStructuredDocument(MimeMediaType.XMLUTF8, new ByteArrayInputStream(cred));
+
+                msg.setCredential(membership.makeCredential(credDoc));
+            } catch (Exception ce) {
+                Logging.logCheckedWarning(LOG, "Credential creation failed\n", ce);
+            }
+        }
+
+        int kind = in.readUnsignedByte();
+        int inflatedLength = ((kind & DEFLATED) != 0) ? in.readInt() : -1;
+        byte[] payload = readBytes(in, bytes.length);
+
+        if ((payload != null) && (inflatedLength >= 0)) {
+            payload = inflate(payload, inflatedLength);
+        }
+
+        switch (kind & ~DEFLATED) {
+            case SRDI_PAYLOAD:
+                if (payload == null) {
+                    throw new IOException("Missing resolver SRDI message payload");
+                }
+                msg.srdi = SrdiMessageBinary.decode(payload);
+                break;
+
+            case TEXT_PAYLOAD:
+                if (payload != null) {
+                    msg.setPayload(new String(payload, "UTF-8"));
+                }
+                break;
+
+            default:
+                throw new IOException("Unsupported resolver SRDI payload " + kind);
+        }
+
+        return msg;
+    }
+
+    private static byte[] deflate(byte[] bytes) {
+        Deflater deflater = new Deflater();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2);
+        byte[] buffer = new byte[Math.min(bytes.length, 4096)];
+
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+        } finally {
+            deflater.end();
+        }
+
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] bytes, int length) throws IOException {
+        // Deflate can not compress by more than about 1032:1
+        if ((length < 0) || (length / 1032 > bytes.length)) {
+            throw new IOException("Invalid resolver SRDI message payload length " + length);
+        }
+
+        Inflater inflater = new Inflater();
+        byte[] inflated = new byte[length];
+
+        try {
+            inflater.setInput(bytes);
+
+            int count = 0;
+
+            while (count < length) {
+                int read = inflater.inflate(inflated, count, length - count);
+
+                if ((read == 0) && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                count += read;
+            }
+
+            if (count != length) {
+                throw new IOException("Invalid resolver SRDI message payload");
+            }
+        } catch (DataFormatException badData) {
+            IOException failure = new IOException("Invalid resolver SRDI message payload");
+
+            failure.initCause(badData);
+            throw failure;
+        } finally {
+            inflater.end();
+        }
+
+        return inflated;
+    }
+
+    private static byte[] readBytes(DataInputStream in, int limit) throws IOException {
+        int length = in.readInt();
+
+        if (length < 0) {
+            return null;
+        }
+
+        if (length > limit) {
+            throw new IOException("Invalid resolver SRDI message field length " + length);
+        }
+
+        byte[] field = new byte[length];
+
+        in.readFully(field);
+
+        return field;
+    }
+
     /**
      * return the string representaion of this doc
      *
@@ -159,6 +529,10 @@ public class ResolverSrdiMsgImpl extends ResolverSrdiMsg {
 
         if (adv instanceof XMLElement) {
             ((XMLElement) adv).addAttribute("xmlns:jxta", "http://jxta.org");
+
+            if (BINARY_ENABLED) {
+                ((XMLElement) adv).addAttribute(BinaryAttr, Integer.toString(BINARY_VERSION));
+            }
         }
 
         Element e;
@@ -182,6 +556,20 @@ public class ResolverSrdiMsgImpl extends ResolverSrdiMsg {
         return adv;
     }
 
+    private static boolean isBinaryAnnounced(Attributable doc) {
+        Attribute version = doc.getAttribute(BinaryAttr);
+
+        if (null == version) {
+            return false;
+        }
+
+        try {
+            return Integer.parseInt(version.getValue()) >= BINARY_VERSION;
+        } catch (NumberFormatException notVersion) {
+            return false;
+        }
+    }
+
     /**
      * Parses an XML document into this object
      *
@@ -0,0 +1,387 @@
+/*
+ * Copyright (c) 2001-2007 Sun Microsystems, Inc.  All rights reserved.
+ *
+ *  The Sun Project JXTA(TM) Software License
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *
+ *  3. The end-user documentation included with the redistribution, if any, must
+ *     include the following acknowledgment: "This product includes software
+ *     developed by Sun Microsystems, Inc. for JXTA(TM) technology."
+ *     Alternately, this acknowledgment may appear in the software itself, if
+ *     and wherever such third-party acknowledgments normally appear.
+ *
+ *  4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA" must
+ *     not be used to endorse or promote products derived from this software
+ *     without prior written permission. For written permission, please contact
+ *     Project JXTA at http://www.jxta.org.
+ *
+ *  5. Products derived from this software may not be called "JXTA", nor may
+ *     "JXTA" appear in their name, without prior written permission of Sun.
+ *
+ *  THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+ *  INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ *  FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SUN
+ *  MICROSYSTEMS OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ *  OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ *  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ *  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *  JXTA is a registered trademark of Sun Microsystems, Inc. in the United
+ *  States and other countries.
+ *
+ *  Please see the license information page at :
+ *  <http://www.jxta.org/project/www/license.html> for instructions on use of
+ *  the license in source files.
+ *
+ *  ====================================================================
+ *
+ *  This software consists of voluntary contributions made by many individuals
+ *  on behalf of Project JXTA. For more information on Project JXTA, please see
+ *  http://www.jxta.org.
+ *
+ *  This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+
+package net.jxta.impl.protocol;
+
+import net.jxta.id.IDFactory;
+import net.jxta.peer.PeerID;
+import net.jxta.protocol.SrdiMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary encoding of {@link SrdiMessage}s, used in place of the XML
+ * form between peers which announced that they can read it.
+ * <p/>
+ * All of the strings of a message (the peer id, the primary key and the keys
+ * and values of the entries) are written once to a dictionary which the rest
+ * of the message refers to by index. As most of them are ids of the same group,
+ * each string is written as the length of the prefix it shares with the
+ * previous string followed by the rest of it. Integers are written as unsigned
+ * variable length quantities. The entries are written column by column, the
+ * value indexes and expirations as zig-zag encoded differences from those of
+ * the previous entry, so that the usual runs of consecutive values and equal
+ * expirations take a byte per entry and compress well.
+ * <p/>
+ * <pre>
+ *   version          byte
+ *   dictionary size  varint, followed by each string as varint shared prefix
+ *                    length (in chars), varint suffix length + UTF-8 suffix
+ *   peer id          varint index + 1, 0 if absent
+ *   primary key      varint index + 1, 0 if absent
+ *   scope            varint
+ *   entry count      varint, followed by
+ *                    the key index of each entry as varint,
+ *                    the value index of each entry as zig-zag varint difference,
+ *                    the expiration of each entry as zig-zag varint difference
+ * </pre>
+ */
+public final class SrdiMessageBinary {
+
+    /**
+     * The version of the encoding.
+     */
+    public static final int VERSION = 1;
+
+    private SrdiMessageBinary() {}
+
+    /**
+     * Encodes a message.
+     *
+     * @param msg The message.
+     * @return The encoded message.
+     */
+    public static byte[] encode(SrdiMessage msg) {
+        Map<String, Integer> indexes = new HashMap<String, Integer>();
+        List<String> dictionary = new ArrayList<String>();
+        List<SrdiMessage.Entry> entries = new ArrayList<SrdiMessage.Entry>(msg.getEntries().size());
+
+        int peerIndex = (msg.getPeerID() != null) ? intern(msg.getPeerID().toString(), indexes, dictionary) + 1 : 0;
+        int pKeyIndex = (msg.getPrimaryKey() != null) ? intern(msg.getPrimaryKey(), indexes, dictionary) + 1 : 0;
+
+        for (SrdiMessage.Entry entry : msg.getEntries()) {
+            // Entries without a value are dropped by the XML reader as well.
+            if (entry.value == null) {
+                continue;
+            }
+
+            intern((entry.key != null) ? entry.key : "NA", indexes, dictionary);
+            intern(entry.value, indexes, dictionary);
+            entries.add(entry);
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(32 + entries.size() * 8);
+
+        out.write(VERSION);
+        writeVarInt(out, dictionary.size());
+
+        try {
+            String previous = "";
+
+            for (String each : dictionary) {
+                int shared = sharedPrefix(previous, each);
+                byte[] utf8 = each.substring(shared).getBytes("UTF-8");
+
+                writeVarInt(out, shared);
+                writeVarInt(out, utf8.length);
+                out.write(utf8, 0, utf8.length);
+                previous = each;
+            }
+        } catch (UnsupportedEncodingException impossible) {
+            throw new IllegalStateException("UTF-8 encoding not supported", impossible);
+        }
+
+        writeVarInt(out, peerIndex);
+        writeVarInt(out, pKeyIndex);
+        writeVarInt(out, Math.max(msg.getScope(), 0));
+        writeVarInt(out, entries.size());
+
+        for (SrdiMessage.Entry entry : entries) {
+            writeVarInt(out, indexes.get((entry.key != null) ? entry.key : "NA"));
+        }
+
+        long previous = 0;
+
+        for (SrdiMessage.Entry entry : entries) {
+            int index = indexes.get(entry.value);
+
+            writeVarLong(out, zigzag(index - previous));
+            previous = index;
+        }
+
+        previous = 0;
+
+        for (SrdiMessage.Entry entry : entries) {
+            writeVarLong(out, zigzag(entry.expiration - previous));
+            previous = entry.expiration;
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a message.
+     *
+     * @param bytes The encoded message.
+     * @return The message.
+     * @throws IOException If the message is truncated, malformed or of an unsupported version.
+     */
+    public static SrdiMessageImpl decode(byte[] bytes) throws IOException {
+        Reader in = new Reader(bytes);
+        int version = in.readByte();
+
+        if (version != VERSION) {
+            throw new IOException("Unsupported SRDI message version " + version);
+        }
+
+        // Every string takes at least its two length bytes.
+        String[] dictionary = new String[in.readCount(2)];
+        String last = "";
+
+        for (int i = 0; i < dictionary.length; i++) {
+            int shared = in.readIndex(last.length() + 1);
+            int length = in.readCount(1);
+
+            dictionary[i] = last.substring(0, shared) + new String(bytes, in.pos, length, "UTF-8");
+            in.pos += length;
+            last = dictionary[i];
+        }
+
+        SrdiMessageImpl msg = new SrdiMessageImpl();
+        int peerIndex = in.readIndex(dictionary.length + 1);
+        int pKeyIndex = in.readIndex(dictionary.length + 1);
+
+        if (peerIndex > 0) {
+            try {
+                msg.setPeerID((PeerID) IDFactory.fromURI(new URI(dictionary[peerIndex - 1])));
+            } catch (URISyntaxException badID) {
+                throw new IOException("Invalid PeerID in SRDI message : " + dictionary[peerIndex - 1]);
+            } catch (ClassCastException notPeer) {
+                throw new IOException("Invalid PeerID in SRDI message : " + dictionary[peerIndex - 1]);
+            }
+        }
+
+        if (pKeyIndex > 0) {
+            msg.setPrimaryKey(dictionary[pKeyIndex - 1]);
+        }
+
+        msg.setScope(in.readIndex(Integer.MAX_VALUE));
+
+        // Every entry takes at least three bytes.
+        int count = in.readCount(3);
+
+        int[] keys = new int[count];
+        int[] values = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            keys[i] = in.readIndex(dictionary.length);
+        }
+
+        long previous = 0;
+
+        for (int i = 0; i < count; i++) {
+            long index = previous + unzigzag(in.readVarLong());
+
+            if ((index < 0) || (index >= dictionary.length)) {
+                throw new IOException("Invalid index in SRDI message : " + index);
+            }
+
+            values[i] = (int) index;
+            previous = index;
+        }
+
+        previous = 0;
+
+        for (int i = 0; i < count; i++) {
+            long expiration = previous + unzigzag(in.readVarLong());
+
+            msg.addEntry(new SrdiMessage.Entry(dictionary[keys[i]], dictionary[values[i]], expiration));
+            previous = expiration;
+        }
+
+        if (in.pos != bytes.length) {
+            throw new IOException("Trailing bytes in SRDI message");
+        }
+
+        return msg;
+    }
+
+    private static int intern(String value, Map<String, Integer> indexes, List<String> dictionary) {
+        Integer index = indexes.get(value);
+
+        if (index == null) {
+            index = dictionary.size();
+            indexes.put(value, index);
+            dictionary.add(value);
+        }
+
+        return index;
+    }
+
+    /**
+     * Returns the length of the common prefix of two strings, not splitting
+     * surrogate pairs.
+     */
+    private static int sharedPrefix(String previous, String current) {
+        int limit = Math.min(previous.length(), current.length());
+        int shared = 0;
+
+        while ((shared < limit) && (previous.charAt(shared) == current.charAt(shared))) {
+            shared++;
+        }
+
+        if ((shared > 0) && Character.isHighSurrogate(current.charAt(shared - 1))) {
+            shared--;
+        }
+
+        return shared;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        writeVarLong(out, value & 0xFFFFFFFFL);
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        out.write((int) value);
+    }
+
+    /**
+     * Reads the primitives of the encoding from a byte array, checking them
+     * against the bytes remaining.
+     */
+    private static final class Reader {
+
+        private final byte[] bytes;
+        private int pos = 0;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        int readByte() throws IOException {
+            if (pos >= bytes.length) {
+                throw new IOException("Truncated SRDI message");
+            }
+
+            return bytes[pos++] & 0xFF;
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+
+                value |= (long) (b & 0x7F) << shift;
+
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+
+            throw new IOException("Malformed varint in SRDI message");
+        }
+
+        /**
+         * Reads an index which must be less than {@code limit}.
+         */
+        int readIndex(int limit) throws IOException {
+            long value = readVarLong();
+
+            if ((value < 0) || (value >= limit)) {
+                throw new IOException("Invalid index in SRDI message : " + value);
+            }
+
+            return (int) value;
+        }
+
+        /**
+         * Reads a count of items each taking at least {@code minBytes}, which
+         * must fit in the bytes remaining.
+         */
+        int readCount(int minBytes) throws IOException {
+            long value = readVarLong();
+
+            if ((value < 0) || (value * minBytes > bytes.length - pos)) {
+                throw new IOException("Invalid length in SRDI message : " + value);
+            }
+
+            return (int) value;
+        }
+    }
+}
@@ -0,0 +1,474 @@
+/*
+ * Copyright (c) 2001-2007 Sun Microsystems, Inc.  All rights reserved.
+ *
+ *  The Sun Project JXTA(TM) Software License
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *
+ *  3. The end-user documentation included with the redistribution, if any, must
+ *     include the following acknowledgment: "This product includes software
+ *     developed by Sun Microsystems, Inc. for JXTA(TM) technology."
+ *     Alternately, this acknowledgment may appear in the software itself, if
+ *     and wherever such third-party acknowledgments normally appear.
+ *
+ *  4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA" must
+ *     not be used to endorse or promote products derived from this software
+ *     without prior written permission. For written permission, please contact
+ *     Project JXTA at http://www.jxta.org.
+ *
+ *  5. Products derived from this software may not be called "JXTA", nor may
+ *     "JXTA" appear in their name, without prior written permission of Sun.
+ *
+ *  THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+ *  INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ *  FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SUN
+ *  MICROSYSTEMS OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ *  OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ *  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ *  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *  JXTA is a registered trademark of Sun Microsystems, Inc. in the United
+ *  States and other countries.
+ *
+ *  Please see the license information page at :
+ *  <http://www.jxta.org/project/www/license.html> for instructions on use of
+ *  the license in source files.
+ *
+ *  ====================================================================
+ *
+ *  This software consists of voluntary contributions made by many individuals
+ *  on behalf of Project JXTA. For more information on Project JXTA, please see
+ *  http://www.jxta.org.
+ *
+ *  This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+
+package net.jxta.impl.rendezvous;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.jxta.impl.id.UUID.UUID;
+import net.jxta.impl.util.TimeUtils;
+
+/**
+ * Records the ids of recently seen propagated messages so that duplicates
+ * can be discarded.
+ * <p/>
+ * The window of remembered ids is bounded both by count and by age. Ids are
+ * kept in a ring of generations. Each generation is an open addressing table
+ * of 64 bit fingerprints of the two UUID longs, split into independently
+ * counted stripes. New ids are added to the current generation. When a
+ * stripe of the current generation fills or the generation exceeds its
+ * lifetime the oldest generation is cleared and becomes current.
+ * <p/>
+ * Lookups and insertions are lock free. Only the rare generation rotation is
+ * serialized.
+ */
+public final class MessageIdFilter {
+
+    /**
+     * Number of generations in the ring. Must be a power of two.
+     */
+    private static final int GENERATIONS = 4;
+
+    /**
+     * Number of stripes per generation. Must be a power of two.
+     */
+    private static final int STRIPES = 16;
+
+    /**
+     * The longest probe sequence tolerated before the generation is rotated.
+     */
+    private static final int MAX_PROBES = 32;
+
+    /**
+     * The generations. The current generation is
+     * {@code ring[current & (GENERATIONS - 1)]}.
+     */
+    private final Generation[] ring = new Generation[GENERATIONS];
+
+    /**
+     * Count of generation rotations.
+     */
+    private final AtomicInteger current = new AtomicInteger(0);
+
+    /**
+     * If {@code true} then a rotation is in progress.
+     */
+    private final AtomicBoolean rotating = new AtomicBoolean(false);
+
+    /**
+     * The number of ids each stripe of a generation may hold.
+     */
+    private final int stripeCapacity;
+
+    /**
+     * The lifetime of a generation in milliseconds.
+     */
+    private final long generationLifetime;
+
+    /**
+     * Number of ids offered to {@link #addMsgId(UUID)}.
+     */
+    private final AtomicLong offered = new AtomicLong(0);
+
+    /**
+     * Number of ids offered to {@link #addMsgId(UUID)} which were duplicates.
+     */
+    private final AtomicLong duplicates = new AtomicLong(0);
+
+    /**
+     * One generation of the ring.
+     */
+    private static final class Generation {
+
+        /**
+         * Fingerprint slots. Zero marks an empty slot.
+         */
+        final AtomicLongArray slots;
+
+        /**
+         * Occupied slots per stripe.
+         */
+        final AtomicInteger[] counts = new AtomicInteger[STRIPES];
+
+        /**
+         * Slots per stripe minus one.
+         */
+        final int stripeMask;
+
+        /**
+         * When this generation became current.
+         */
+        volatile long startedAt;
+
+        Generation(int stripeSlots) {
+            slots = new AtomicLongArray(stripeSlots * STRIPES);
+            stripeMask = stripeSlots - 1;
+
+            for (int eachStripe = 0; eachStripe < STRIPES; eachStripe++) {
+                counts[eachStripe] = new AtomicInteger(0);
+            }
+        }
+
+        void reset(long now) {
+            for (int eachSlot = 0; eachSlot < slots.length(); eachSlot++) {
+                slots.set(eachSlot, 0L);
+            }
+
+            for (AtomicInteger aCount : counts) {
+                aCount.set(0);
+            }
+
+            startedAt = now;
+        }
+
+        int size() {
+            int result = 0;
+
+            for (AtomicInteger aCount : counts) {
+                result += aCount.get();
+            }
+
+            return result;
+        }
+
+        boolean contains(long fingerprint) {
+            int base = stripe(fingerprint) * (stripeMask + 1);
+            int index = (int) fingerprint & stripeMask;
+
+            for (int probe = 0; probe <= stripeMask; probe++) {
+                long slot = slots.get(base + index);
+
+                if (slot == fingerprint) {
+                    return true;
+                }
+
+                if (0L == slot) {
+                    return false;
+                }
+
+                index = (index + 1) & stripeMask;
+            }
+
+            return false;
+        }
+
+        /**
+         * Adds a fingerprint.
+         *
+         * @param fingerprint the fingerprint to add.
+         * @param stripeCapacity the maximum number of fingerprints per stripe.
+         * @return {@code Boolean.TRUE} if added, {@code Boolean.FALSE} if
+         *         already present or {@code null} if the generation is full.
+         */
+        Boolean add(long fingerprint, int stripeCapacity) {
+            int stripe = stripe(fingerprint);
+            int base = stripe * (stripeMask + 1);
+            int index = (int) fingerprint & stripeMask;
+
+            for (int probe = 0; probe < MAX_PROBES; probe++) {
+                long slot = slots.get(base + index);
+
+                if (slot == fingerprint) {
+                    return Boolean.FALSE;
+                }
+
+                if (0L == slot) {
+                    if (counts[stripe].get() >= stripeCapacity) {
+                        return null;
+                    }
+
+                    if (slots.compareAndSet(base + index, 0L, fingerprint)) {
+                        counts[stripe].incrementAndGet();
+                        return Boolean.TRUE;
+                    }
+
+                    // Lost the race for this slot, look at it again.
+                    continue;
+                }
+
+                index = (index + 1) & stripeMask;
+            }
+
+            return null;
+        }
+
+        private static int stripe(long fingerprint) {
+            return (int) (fingerprint >>> 58) & (STRIPES - 1);
+        }
+    }
+
+    /**
+     * Creates a new filter.
+     *
+     * @param windowSize The maximum number of ids remembered.
+     * @param retention  The maximum time in milliseconds an id is remembered.
+     */
+    public MessageIdFilter(int windowSize, long retention) {
+        if (windowSize < GENERATIONS * STRIPES) {
+            throw new IllegalArgumentException("Window size must be at least " + (GENERATIONS * STRIPES));
+        }
+
+        if (retention <= 0) {
+            throw new IllegalArgumentException("Retention must be positive");
+        }
+
+        stripeCapacity = windowSize / (GENERATIONS * STRIPES);
+        generationLifetime = Math.max(1, retention / GENERATIONS);
+
+        // Keep each stripe at most half full.
+        int stripeSlots = Integer.highestOneBit(stripeCapacity * 2 - 1) << 1;
+        long now = TimeUtils.timeNow();
+
+        for (int eachGeneration = 0; eachGeneration < GENERATIONS; eachGeneration++) {
+            ring[eachGeneration] = new Generation(stripeSlots);
+            ring[eachGeneration].startedAt = now;
+        }
+    }
+
+    /**
+     * Returns {@code true} if the id is within the window of remembered ids.
+     *
+     * @param id The message id.
+     * @return {@code true} if the id has been recorded.
+     */
+    public boolean isMsgIdRecorded(UUID id) {
+        long fingerprint = fingerprint(id);
+        int generation = current.get();
+
+        for (int age = 0; age < GENERATIONS; age++) {
+            if (ring[(generation - age) & (GENERATIONS - 1)].contains(fingerprint)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Records an id.
+     *
+     * @param id The message id.
+     * @return {@code true} if the id was added otherwise {@code false} if it
+     *         is a duplicate.
+     */
+    public boolean addMsgId(UUID id) {
+        offered.incrementAndGet();
+
+        long fingerprint = fingerprint(id);
+
+        while (true) {
+            int generation = current.get();
+            Generation newest = ring[generation & (GENERATIONS - 1)];
+
+            // Check the older generations, the newest is checked while adding.
+            for (int age = 1; age < GENERATIONS; age++) {
+                if (ring[(generation - age) & (GENERATIONS - 1)].contains(fingerprint)) {
+                    duplicates.incrementAndGet();
+                    return false;
+                }
+            }
+
+            if (TimeUtils.toRelativeTimeMillis(TimeUtils.timeNow(), newest.startedAt) < generationLifetime) {
+                Boolean added = newest.add(fingerprint, stripeCapacity);
+
+                if (null != added) {
+                    if (!added) {
+                        duplicates.incrementAndGet();
+                    }
+
+                    return added;
+                }
+            }
+
+            // The current generation is full or expired.
+            rotate(generation);
+        }
+    }
+
+    /**
+     * Forgets all recorded ids.
+     */
+    public void clear() {
+        long now = TimeUtils.timeNow();
+
+        for (Generation aGeneration : ring) {
+            aGeneration.reset(now);
+        }
+    }
+
+    /**
+     * Returns the number of ids currently remembered.
+     *
+     * @return the number of ids currently remembered.
+     */
+    public int getWindowSize() {
+        int result = 0;
+
+        for (Generation aGeneration : ring) {
+            result += aGeneration.size();
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the maximum number of ids which can be remembered.
+     *
+     * @return the maximum number of ids which can be remembered.
+     */
+    public int getMaxWindowSize() {
+        return stripeCapacity * STRIPES * GENERATIONS;
+    }
+
+    /**
+     * Returns the maximum time in milliseconds an id is remembered.
+     *
+     * @return the maximum time in milliseconds an id is remembered.
+     */
+    public long getRetention() {
+        return generationLifetime * GENERATIONS;
+    }
+
+    /**
+     * Returns the number of ids offered for recording.
+     *
+     * @return the number of ids offered for recording.
+     */
+    public long getOffered() {
+        return offered.get();
+    }
+
+    /**
+     * Returns the number of offered ids which were duplicates.
+     *
+     * @return the number of offered ids which were duplicates.
+     */
+    public long getDuplicates() {
+        return duplicates.get();
+    }
+
+    /**
+     * Returns the fraction of offered ids which were duplicates.
+     *
+     * @return the duplicate hit rate between 0 and 1.
+     */
+    public double getHitRate() {
+        long total = offered.get();
+
+        return (0 == total) ? 0.0 : ((double) duplicates.get()) / total;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "MessageIdFilter[window=" + getWindowSize() + "/" + getMaxWindowSize() + " retention=" + getRetention()
+                + "ms offered=" + offered.get() + " duplicates=" + duplicates.get() + "]";
+    }
+
+    /**
+     * Makes the oldest generation current, unless another thread has already
+     * rotated past the specified generation.
+     *
+     * @param generation The generation which the caller found full or expired.
+     */
+    private void rotate(int generation) {
+        if (!rotating.compareAndSet(false, true)) {
+            // Someone else is rotating. Let them finish.
+            Thread.yield();
+            return;
+        }
+
+        try {
+            if (current.get() == generation) {
+                ring[(generation + 1) & (GENERATIONS - 1)].reset(TimeUtils.timeNow());
+                current.set(generation + 1);
+            }
+        } finally {
+            rotating.set(false);
+        }
+    }
+
+    /**
+     * Returns a well mixed, non-zero 64 bit fingerprint of the id.
+     *
+     * @param id The message id.
+     * @return The fingerprint.
+     */
+    private static long fingerprint(UUID id) {
+        long result = mix(id.getMostSignificantBits()) ^ mix(id.getLeastSignificantBits() + 0x9E3779B97F4A7C15L);
+
+        return (0L == result) ? 1L : result;
+    }
+
+    /**
+     * The 64 bit finalizer from MurmurHash3.
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+
+        return value;
+    }
+}
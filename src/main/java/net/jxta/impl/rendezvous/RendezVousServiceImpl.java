@@ -129,7 +129,21 @@ public final class RendezVousServiceImpl implements RendezVousService {
     private static final double DEMOTION_FACTOR = 0.05;
     private static final long DEMOTION_MIN_PEERVIEW_COUNT = 5;
     private static final long DEMOTION_MIN_CLIENT_COUNT = 3;
-    protected static final int MAX_MSGIDS = 1000;
+
+    /**
+     * The system property which sets the maximum number of propagated
+     * message ids remembered for duplicate removal.
+     */
+    public static final String MSGID_WINDOW_SYSPROP = "net.jxta.impl.rendezvous.RendezVousServiceImpl.msgIdWindow";
+
+    /**
+     * The system property which sets the maximum time in milliseconds a
+     * propagated message id is remembered for duplicate removal.
+     */
+    public static final String MSGID_RETENTION_SYSPROP = "net.jxta.impl.rendezvous.RendezVousServiceImpl.msgIdRetention";
+
+    private static final int MSGID_WINDOW = Integer.getInteger(MSGID_WINDOW_SYSPROP, 65536);
+    private static final long MSGID_RETENTION = Long.getLong(MSGID_RETENTION_SYSPROP, 10 * TimeUtils.AMINUTE);
 
     private final static Random random = new Random();
 
@@ -151,12 +165,7 @@ public final class RendezVousServiceImpl implements RendezVousService {
     /**
      * The message IDs we have seen. Used for duplicate removal.
      */
-    private final List<UUID> msgIds = new ArrayList<UUID>(MAX_MSGIDS);
-
-    /**
-     * Total number of messages which have been received.
-     */
-    private int messagesReceived;
+    private final MessageIdFilter msgIds = new MessageIdFilter(MSGID_WINDOW, MSGID_RETENTION);
 
     private RdvConfigAdv.RendezVousConfiguration config = RdvConfigAdv.RendezVousConfiguration.EDGE;
     private boolean autoRendezvous = false;
@@ -378,6 +387,8 @@ public final class RendezVousServiceImpl implements RendezVousService {
 
         scheduledExecutor.shutdownNow();
 
+        Logging.logCheckedInfo(LOG, "Duplicate message filter : ", msgIds);
+
         msgIds.clear();
         eventListeners.clear();
 
@@ -946,11 +957,7 @@ public final class RendezVousServiceImpl implements RendezVousService {
 
     public boolean isMsgIdRecorded(UUID id) {
 
-        boolean found;
-
-        synchronized (msgIds) {
-            found = msgIds.contains(id);
-        }
+        boolean found = msgIds.isMsgIdRecorded(id);
 
         // LOGGING: was Finer
         Logging.logCheckedDebug(LOG, id, " = ", found);
@@ -968,19 +975,9 @@ public final class RendezVousServiceImpl implements RendezVousService {
      */
     public boolean addMsgId(UUID id) {
 
-        synchronized (msgIds) {
-            if (isMsgIdRecorded(id)) {
-                // Already there. Nothing to do
-                return false;
-            }
-
-            if (msgIds.size() < MAX_MSGIDS) {
-                msgIds.add(id);
-            } else {
-                msgIds.set((messagesReceived % MAX_MSGIDS), id);
-            }
-
-            messagesReceived++;
+        if (!msgIds.addMsgId(id)) {
+            // Already there. Nothing to do
+            return false;
         }
 
         // LOGGING: was Finer
@@ -989,6 +986,17 @@ public final class RendezVousServiceImpl implements RendezVousService {
         return true;
     }
 
+    /**
+     * Returns the filter used for duplicate removal of propagated messages.
+     * Provides the duplicate hit rate and the size of the window of
+     * remembered message ids.
+     *
+     * @return the duplicate message filter.
+     */
+    public MessageIdFilter getMessageIdFilter() {
+        return msgIds;
+    }
+
     public UUID createMsgId() {
         return UUIDFactory.newSeqUUID();
     }
@@ -65,6 +65,7 @@ import net.jxta.document.XMLDocument;
 import net.jxta.endpoint.*;
 import net.jxta.id.ID;
 import net.jxta.id.IDFactory;
+import net.jxta.impl.document.LiteXMLDocument;
 import net.jxta.impl.endpoint.router.RouteControl;
 import net.jxta.impl.meter.MonitorManager;
 import net.jxta.impl.protocol.ResolverQuery;
@@ -103,7 +104,9 @@ import java.net.URISyntaxException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -155,6 +158,12 @@ public class ResolverServiceImpl implements ResolverService {
     private final Map<String, QueryHandler> handlers = Collections.synchronizedMap(new HashMap<String, QueryHandler>(5));
     private final Map<String, SrdiHandler> srdiHandlers = Collections.synchronizedMap(new HashMap<String, SrdiHandler>(5));
 
+    /**
+     * Unique values of the ids of the peers which announced that they can read
+     * SRDI messages in the binary encoding.
+     */
+    private final Set<String> binarySrdiPeers = Collections.synchronizedSet(new HashSet<String>());
+
     private EndpointListener queryListener = null;
     private EndpointListener responseListener = null;
     private EndpointListener srdiListener = null;
@@ -665,10 +674,19 @@ public class ResolverServiceImpl implements ResolverService {
             }
         } else {
             try {
-                boolean success = sendMessage(destPeer, null, handlerName, srdiQueName, srdiQueName,
-                        (XMLDocument) srdi.getDocument(MimeMediaType.XMLUTF8),
-                        // compression
-                        true);
+                boolean success;
+
+                if (isBinarySrdiPeer(destPeer) && (srdi instanceof ResolverSrdiMsgImpl)) {
+                    MessageElement binElem = new ByteArrayMessageElement(srdiQueName, ResolverSrdiMsgImpl.BINARY_MIME_TYPE,
+                            ((ResolverSrdiMsgImpl) srdi).toBinary(), null);
+
+                    success = sendMessage(destPeer, null, handlerName, srdiQueName, binElem);
+                } else {
+                    success = sendMessage(destPeer, null, handlerName, srdiQueName, srdiQueName,
+                            (XMLDocument) srdi.getDocument(MimeMediaType.XMLUTF8),
+                            // compression
+                            true);
+                }
 
                 if (ResolverMeterBuildSettings.RESOLVER_METERING && (srdiHandlerMeter != null)) {
                     if (success) {
@@ -690,6 +708,26 @@ public class ResolverServiceImpl implements ResolverService {
         }
     }
 
+    /**
+     * Returns {@code true} if SRDI messages may be sent to the peer in the
+     * binary encoding. Propagated messages always use XML as their recipients
+     * are not known in advance.
+     *
+     * @param destPeer the destination peer id
+     * @return {@code true} if the peer announced that it can read the binary encoding.
+     */
+    private boolean isBinarySrdiPeer(String destPeer) {
+        if (!ResolverSrdiMsgImpl.BINARY_ENABLED) {
+            return false;
+        }
+
+        try {
+            return binarySrdiPeers.contains(IDFactory.fromURI(new URI(destPeer)).getUniqueValue().toString());
+        } catch (URISyntaxException badpeer) {
+            return false;
+        }
+    }
+
     private void repropagateQuery(Message msg, ResolverQueryMsg query) {
         RendezVousService rendezvous = group.getRendezVousService();
 
@@ -1022,6 +1060,46 @@ public class ResolverServiceImpl implements ResolverService {
      */
     private boolean sendMessage(String destPeer, RouteAdvertisement route, String pName, String pParam, String tagName, XMLDocument body, boolean gzip) {
 
+        MessageElement msgEl;
+
+        try {
+            if (gzip) {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                GZIPOutputStream gos = new GZIPOutputStream(baos);
+
+                body.sendToStream(gos);
+                gos.finish();
+                gos.close();
+                byte gzipBytes[] = baos.toByteArray();
+
+                msgEl = new ByteArrayMessageElement(tagName, GZIP_MEDIA_TYPE, gzipBytes, null);
+            } else {
+                msgEl = new TextDocumentMessageElement(tagName, body, null);
+            }
+
+        } catch (Exception ez1) {
+
+            // Not much we can do
+            Logging.logCheckedWarning(LOG, "Failed building message\n", ez1);
+            return false;
+
+        }
+
+        return sendMessage(destPeer, route, pName, pParam, msgEl);
+    }
+
+    /**
+     * Send a resolver message element to a peer
+     *
+     * @param destPeer destination peer
+     * @param route    destination route advertisement
+     * @param pName    service name on the destination
+     * @param pParam   service param on the destination
+     * @param msgEl    the message element
+     * @return {@code true} if successful
+     */
+    private boolean sendMessage(String destPeer, RouteAdvertisement route, String pName, String pParam, MessageElement msgEl) {
+
         // Get the messenger ready
         ID dest;
 
@@ -1072,34 +1150,11 @@ public class ResolverServiceImpl implements ResolverService {
         }
 
         Message msg = new Message();
-        try {
-            MessageElement msgEl;
-            if (gzip) {
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                GZIPOutputStream gos = new GZIPOutputStream(baos);
 
-                body.sendToStream(gos);
-                gos.finish();
-                gos.close();
-                byte gzipBytes[] = baos.toByteArray();
-
-                msgEl = new ByteArrayMessageElement(tagName, GZIP_MEDIA_TYPE, gzipBytes, null);
-            } else {
-                msgEl = new TextDocumentMessageElement(tagName, body, null);
-            }
-
-            msg.addMessageElement("jxta", msgEl);
-
-        } catch (Exception ez1) {
-
-            // Not much we can do
-            Logging.logCheckedWarning(LOG, "Failed building message\n", ez1);
-            return false;
-
-        }
+        msg.addMessageElement("jxta", msgEl);
 
         // Send the message
-        Logging.logCheckedDebug(LOG, "Sending ", msg, " to ", destAddress, " ", tagName);
+        Logging.logCheckedDebug(LOG, "Sending ", msg, " to ", destAddress, " ", msgEl.getElementName());
 
         // XXX 20040924 bondolo Convert this to ListenerAdaptor
         messenger.sendMessage(msg, null, null, new FailureListener(dest));
@@ -1269,9 +1324,11 @@ public class ResolverServiceImpl implements ResolverService {
 
             ResolverSrdiMsgImpl srdimsg;
             try {
-                if (element.getMimeType().getBaseMimeMediaType().equals(GZIP_MEDIA_TYPE)) {
+                if (element.getMimeType().getBaseMimeMediaType().equals(ResolverSrdiMsgImpl.BINARY_MIME_TYPE)) {
+                    srdimsg = ResolverSrdiMsgImpl.fromBinary(element.getBytes(false), membership);
+                } else if (element.getMimeType().getBaseMimeMediaType().equals(GZIP_MEDIA_TYPE)) {
                     InputStream gzipStream = new GZIPInputStream(element.getStream());
-                    StructuredDocument asDoc = StructuredDocumentFactory.newStructuredDocument(MimeMediaType.XMLUTF8, gzipStream);
+                    StructuredDocument asDoc = LiteXMLDocument.newReadOnlyInstance(MimeMediaType.XMLUTF8, gzipStream);
                     srdimsg = new ResolverSrdiMsgImpl(asDoc, membership);
                 } else {
                     StructuredDocument asDoc = StructuredDocumentFactory.newStructuredDocument(element);
@@ -1290,6 +1347,11 @@ public class ResolverServiceImpl implements ResolverService {
 
             }
 
+            // Remember the peers which can read the binary encoding for replies.
+            if (srdimsg.isBinaryCapable() && "jxta".equals(srcAddr.getProtocolName())) {
+                binarySrdiPeers.add(srcAddr.getProtocolAddress());
+            }
+
             processSrdi(srdimsg, srcAddr);
 
         }
@@ -1315,6 +1377,8 @@ public class ResolverServiceImpl implements ResolverService {
 
             Logging.logCheckedWarning(LOG, "Clearing SRDI tables for failed peer : ", dest);
 
+            binarySrdiPeers.remove(dest.getUniqueValue().toString());
+
             for (Object o : Arrays.asList(srdiHandlers.values().toArray())) {
 
                 SrdiHandler theHandler = (SrdiHandler) o;
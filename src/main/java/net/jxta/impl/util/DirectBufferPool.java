@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2001-2007 Sun Microsystems, Inc.  All rights reserved.
+ *
+ *  The Sun Project JXTA(TM) Software License
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *
+ *  3. The end-user documentation included with the redistribution, if any, must
+ *     include the following acknowledgment: "This product includes software
+ *     developed by Sun Microsystems, Inc. for JXTA(TM) technology."
+ *     Alternately, this acknowledgment may appear in the software itself, if
+ *     and wherever such third-party acknowledgments normally appear.
+ *
+ *  4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA" must
+ *     not be used to endorse or promote products derived from this software
+ *     without prior written permission. For written permission, please contact
+ *     Project JXTA at http://www.jxta.org.
+ *
+ *  5. Products derived from this software may not be called "JXTA", nor may
+ *     "JXTA" appear in their name, without prior written permission of Sun.
+ *
+ *  THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+ *  INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ *  FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SUN
+ *  MICROSYSTEMS OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ *  OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ *  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ *  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *  JXTA is a registered trademark of Sun Microsystems, Inc. in the United
+ *  States and other countries.
+ *
+ *  Please see the license information page at :
+ *  <http://www.jxta.org/project/www/license.html> for instructions on use of
+ *  the license in source files.
+ *
+ *  ====================================================================
+ *
+ *  This software consists of voluntary contributions made by many individuals
+ *  on behalf of Project JXTA. For more information on Project JXTA, please see
+ *  http://www.jxta.org.
+ *
+ *  This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of direct {@code ByteBuffer}s organized into power of two
+ * size classes. Buffers are handed out with {@link #acquire(int)} and must be
+ * handed back with {@link #release(ByteBuffer)} once their content is no
+ * longer referenced.
+ * <p/>
+ * Requests larger than the largest size class are satisfied with a fresh
+ * buffer which is not retained on release. The pool never retains more than
+ * the configured number of bytes; buffers released while the pool is full
+ * are simply dropped.
+ * <p/>
+ * All operations are thread safe and non-blocking.
+ */
+public class DirectBufferPool {
+
+    /**
+     * Size of the smallest size class as a power of two.
+     */
+    private final int minShift;
+
+    /**
+     * The free buffers of each size class.
+     */
+    private final List<Queue<ByteBuffer>> freeBuffers;
+
+    /**
+     * The maximum number of bytes which the pool will retain.
+     */
+    private final long maxPooledBytes;
+
+    /**
+     * The number of bytes currently retained by the pool.
+     */
+    private final AtomicLong pooledBytes = new AtomicLong(0);
+
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong oversized = new AtomicLong(0);
+    private final AtomicLong discards = new AtomicLong(0);
+
+    /**
+     * Creates a new pool.
+     *
+     * @param minBufferSize  The capacity of the smallest size class. Rounded up to a power of two.
+     * @param maxBufferSize  The capacity of the largest size class. Rounded up to a power of two.
+     * @param maxPooledBytes The maximum number of bytes retained by the pool.
+     */
+    public DirectBufferPool(int minBufferSize, int maxBufferSize, long maxPooledBytes) {
+        if (minBufferSize <= 0 || maxBufferSize < minBufferSize) {
+            throw new IllegalArgumentException("Invalid buffer size range " + minBufferSize + " - " + maxBufferSize);
+        }
+
+        if (maxPooledBytes < 0) {
+            throw new IllegalArgumentException("Invalid pool size " + maxPooledBytes);
+        }
+
+        this.minShift = shiftFor(minBufferSize);
+        int maxShift = shiftFor(maxBufferSize);
+
+        this.freeBuffers = new ArrayList<Queue<ByteBuffer>>(maxShift - minShift + 1);
+
+        for (int eachShift = minShift; eachShift <= maxShift; eachShift++) {
+            freeBuffers.add(new ConcurrentLinkedQueue<ByteBuffer>());
+        }
+
+        this.maxPooledBytes = maxPooledBytes;
+    }
+
+    /**
+     * Returns the exponent of the smallest power of two which is at least
+     * {@code size}.
+     *
+     * @param size the size.
+     * @return the exponent.
+     */
+    private static int shiftFor(int size) {
+        return (size <= 1) ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    /**
+     * Returns the size class index for the requested capacity or -1 if the
+     * capacity exceeds the largest size class.
+     *
+     * @param capacity the requested capacity.
+     * @return the size class index or -1.
+     */
+    private int sizeClassFor(int capacity) {
+        int sizeClass = Math.max(0, shiftFor(capacity) - minShift);
+
+        return (sizeClass < freeBuffers.size()) ? sizeClass : -1;
+    }
+
+    /**
+     * Returns a cleared direct buffer with a capacity of at least
+     * {@code capacity} bytes.
+     *
+     * @param capacity The minimum required capacity.
+     * @return A cleared buffer. The buffer limit is its capacity.
+     */
+    public ByteBuffer acquire(int capacity) {
+        int sizeClass = sizeClassFor(capacity);
+
+        if (-1 == sizeClass) {
+            oversized.incrementAndGet();
+            return ByteBuffer.allocateDirect(capacity);
+        }
+
+        ByteBuffer buffer = freeBuffers.get(sizeClass).poll();
+
+        if (null != buffer) {
+            pooledBytes.addAndGet(-buffer.capacity());
+            hits.incrementAndGet();
+            buffer.clear();
+            return buffer;
+        }
+
+        misses.incrementAndGet();
+        return ByteBuffer.allocateDirect(1 << (sizeClass + minShift));
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer must not be used by the caller
+     * after it has been released.
+     *
+     * @param buffer The buffer to be returned to the pool.
+     */
+    public void release(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            return;
+        }
+
+        int capacity = buffer.capacity();
+        int sizeClass = sizeClassFor(capacity);
+
+        // Only exact size class buffers are retained.
+        if ((-1 == sizeClass) || (capacity != (1 << (sizeClass + minShift)))) {
+            return;
+        }
+
+        if (pooledBytes.addAndGet(capacity) > maxPooledBytes) {
+            pooledBytes.addAndGet(-capacity);
+            discards.incrementAndGet();
+            return;
+        }
+
+        freeBuffers.get(sizeClass).offer(buffer);
+    }
+
+    /**
+     * Discards all of the buffers currently retained by the pool.
+     */
+    public void clear() {
+        for (Queue<ByteBuffer> eachClass : freeBuffers) {
+            ByteBuffer buffer;
+
+            while (null != (buffer = eachClass.poll())) {
+                pooledBytes.addAndGet(-buffer.capacity());
+            }
+        }
+    }
+
+    /**
+     * Returns the number of requests which were satisfied by a pooled buffer.
+     *
+     * @return the number of pool hits.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of requests which required a new buffer to be
+     * allocated, including requests for oversized buffers.
+     *
+     * @return the number of pool misses.
+     */
+    public long getMisses() {
+        return misses.get() + oversized.get();
+    }
+
+    /**
+     * Returns the number of requests which exceeded the largest size class.
+     *
+     * @return the number of oversized requests.
+     */
+    public long getOversizedRequests() {
+        return oversized.get();
+    }
+
+    /**
+     * Returns the number of released buffers which were dropped because the
+     * pool was full.
+     *
+     * @return the number of discarded buffers.
+     */
+    public long getDiscards() {
+        return discards.get();
+    }
+
+    /**
+     * Returns the number of bytes currently retained by the pool.
+     *
+     * @return the number of pooled bytes.
+     */
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    /**
+     * Returns the maximum number of bytes which the pool will retain.
+     *
+     * @return the maximum number of pooled bytes.
+     */
+    public long getMaxPooledBytes() {
+        return maxPooledBytes;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "DirectBufferPool[hits=" + getHits() + ", misses=" + getMisses() + ", pooled=" + getPooledBytes() + "/" + maxPooledBytes + "]";
+    }
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) 2001-2007 Sun Microsystems, Inc.  All rights reserved.
+ *
+ *  The Sun Project JXTA(TM) Software License
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *
+ *  3. The end-user documentation included with the redistribution, if any, must
+ *     include the following acknowledgment: "This product includes software
+ *     developed by Sun Microsystems, Inc. for JXTA(TM) technology."
+ *     Alternately, this acknowledgment may appear in the software itself, if
+ *     and wherever such third-party acknowledgments normally appear.
+ *
+ *  4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA" must
+ *     not be used to endorse or promote products derived from this software
+ *     without prior written permission. For written permission, please contact
+ *     Project JXTA at http://www.jxta.org.
+ *
+ *  5. Products derived from this software may not be called "JXTA", nor may
+ *     "JXTA" appear in their name, without prior written permission of Sun.
+ *
+ *  THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+ *  INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ *  FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SUN
+ *  MICROSYSTEMS OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ *  OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ *  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ *  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *  JXTA is a registered trademark of Sun Microsystems, Inc. in the United
+ *  States and other countries.
+ *
+ *  Please see the license information page at :
+ *  <http://www.jxta.org/project/www/license.html> for instructions on use of
+ *  the license in source files.
+ *
+ *  ====================================================================
+ *
+ *  This software consists of voluntary contributions made by many individuals
+ *  on behalf of Project JXTA. For more information on Project JXTA, please see
+ *  http://www.jxta.org.
+ *
+ *  This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A fast, byte oriented LZ77 codec. Compression uses a single hash probe per
+ * position and trades compression ratio for speed. It is intended for
+ * compressing messages and documents on the fly.
+ * <p/>
+ * The compressed form is the big-endian uncompressed length followed by a
+ * sequence of chunks, each introduced by a control byte:
+ * <ul>
+ * <li>{@code 000LLLLL} : a run of {@code L + 1} literal bytes follows.</li>
+ * <li>{@code LLLOOOOO [LLLLLLLL] OOOOOOOO} : a back reference of length
+ * {@code L + 2} at distance {@code O + 1}. A length field of 7 is extended
+ * by the following byte.</li>
+ * </ul>
+ */
+public final class LZCodec {
+
+    private static final int HASH_LOG = 14;
+
+    private static final int MAX_LITERAL = 1 << 5;
+
+    private static final int MAX_OFFSET = 1 << 13;
+
+    private static final int MAX_MATCH = (1 << 8) + (1 << 3);
+
+    private LZCodec() {}
+
+    /**
+     * Compresses the specified bytes.
+     *
+     * @param in  the source bytes.
+     * @param off the offset of the first byte to compress.
+     * @param len the number of bytes to compress.
+     * @return the compressed bytes.
+     */
+    public static byte[] compress(byte[] in, int off, int len) {
+        byte[] out = new byte[4 + len + (len + MAX_LITERAL - 1) / MAX_LITERAL];
+        int[] hashTable = new int[1 << HASH_LOG];
+        int end = off + len;
+        int ip = off;
+        int literalStart = off;
+        int op = 0;
+
+        out[op++] = (byte) (len >>> 24);
+        out[op++] = (byte) (len >>> 16);
+        out[op++] = (byte) (len >>> 8);
+        out[op++] = (byte) len;
+
+        while (ip < end - 2) {
+            int hash = hash(in, ip);
+            int ref = hashTable[hash] - 1;
+
+            // Table entries are stored with a bias of one so that zero means empty.
+            hashTable[hash] = ip + 1;
+
+            if ((ref >= off) && (ip - ref <= MAX_OFFSET) && (in[ref] == in[ip]) && (in[ref + 1] == in[ip + 1]) && (in[ref + 2] == in[ip + 2])) {
+                int maxMatch = Math.min(end - ip, MAX_MATCH);
+                int matchLen = 3;
+
+                while ((matchLen < maxMatch) && (in[ref + matchLen] == in[ip + matchLen])) {
+                    matchLen++;
+                }
+
+                op = writeLiterals(in, literalStart, ip, out, op);
+
+                int lenCode = matchLen - 2;
+                int distance = ip - ref - 1;
+
+                if (lenCode < 7) {
+                    out[op++] = (byte) ((lenCode << 5) | (distance >>> 8));
+                } else {
+                    out[op++] = (byte) ((7 << 5) | (distance >>> 8));
+                    out[op++] = (byte) (lenCode - 7);
+                }
+                out[op++] = (byte) distance;
+
+                ip += matchLen;
+                literalStart = ip;
+            } else {
+                ip++;
+            }
+        }
+
+        op = writeLiterals(in, literalStart, end, out, op);
+
+        return Arrays.copyOf(out, op);
+    }
+
+    /**
+     * Compresses the specified bytes.
+     *
+     * @param in the source bytes.
+     * @return the compressed bytes.
+     */
+    public static byte[] compress(byte[] in) {
+        return compress(in, 0, in.length);
+    }
+
+    /**
+     * Decompresses the specified bytes.
+     *
+     * @param in  the compressed bytes.
+     * @param off the offset of the first compressed byte.
+     * @param len the number of compressed bytes.
+     * @return the decompressed bytes.
+     * @throws IOException if the compressed data is corrupt.
+     */
+    public static byte[] decompress(byte[] in, int off, int len) throws IOException {
+        return decompress(in, off, len, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Decompresses the specified bytes, refusing content which would
+     * decompress to more than the specified number of bytes. The length
+     * declared by the compressed data is checked before anything is
+     * allocated.
+     *
+     * @param in     the compressed bytes.
+     * @param off    the offset of the first compressed byte.
+     * @param len    the number of compressed bytes.
+     * @param maxLen the maximum number of decompressed bytes.
+     * @return the decompressed bytes.
+     * @throws IOException if the compressed data is corrupt or would
+     *                     decompress to more than {@code maxLen} bytes.
+     */
+    public static byte[] decompress(byte[] in, int off, int len, int maxLen) throws IOException {
+        if (len < 4) {
+            throw new IOException("Truncated LZ data");
+        }
+
+        int end = off + len;
+        int ip = off;
+        int outLen = ((in[ip++] & 0xFF) << 24) | ((in[ip++] & 0xFF) << 16) | ((in[ip++] & 0xFF) << 8) | (in[ip++] & 0xFF);
+
+        if (outLen < 0) {
+            throw new IOException("Corrupt LZ data, bad length " + outLen);
+        }
+
+        if (outLen > maxLen) {
+            throw new IOException("LZ data decompresses to " + outLen + " bytes, more than the limit of " + maxLen);
+        }
+
+        // No chunk expands more than a maximal back reference does.
+        if (outLen > (long) (len - 4) * MAX_MATCH / 3 + MAX_MATCH) {
+            throw new IOException("Corrupt LZ data, length " + outLen + " is too large for " + len + " compressed bytes");
+        }
+
+        byte[] out = new byte[outLen];
+        int op = 0;
+
+        while (ip < end) {
+            int ctrl = in[ip++] & 0xFF;
+
+            if (ctrl < MAX_LITERAL) {
+                int count = ctrl + 1;
+
+                if ((ip + count > end) || (op + count > outLen)) {
+                    throw new IOException("Corrupt LZ data, literal run overflows");
+                }
+
+                System.arraycopy(in, ip, out, op, count);
+                ip += count;
+                op += count;
+            } else {
+                int count = ctrl >>> 5;
+
+                if (7 == count) {
+                    if (ip >= end) {
+                        throw new IOException("Truncated LZ data");
+                    }
+                    count += in[ip++] & 0xFF;
+                }
+
+                if (ip >= end) {
+                    throw new IOException("Truncated LZ data");
+                }
+
+                int ref = op - (((ctrl & 0x1F) << 8) | (in[ip++] & 0xFF)) - 1;
+
+                count += 2;
+
+                if ((ref < 0) || (op + count > outLen)) {
+                    throw new IOException("Corrupt LZ data, bad back reference");
+                }
+
+                // The source and destination may overlap, copy byte by byte.
+                for (int each = 0; each < count; each++) {
+                    out[op++] = out[ref++];
+                }
+            }
+        }
+
+        if (op != outLen) {
+            throw new IOException("Corrupt LZ data, expected " + outLen + " bytes but decoded " + op);
+        }
+
+        return out;
+    }
+
+    /**
+     * Decompresses the specified bytes.
+     *
+     * @param in the compressed bytes.
+     * @return the decompressed bytes.
+     * @throws IOException if the compressed data is corrupt.
+     */
+    public static byte[] decompress(byte[] in) throws IOException {
+        return decompress(in, 0, in.length);
+    }
+
+    /**
+     * Decompresses the specified bytes, refusing content which would
+     * decompress to more than the specified number of bytes.
+     *
+     * @param in     the compressed bytes.
+     * @param maxLen the maximum number of decompressed bytes.
+     * @return the decompressed bytes.
+     * @throws IOException if the compressed data is corrupt or would
+     *                     decompress to more than {@code maxLen} bytes.
+     */
+    public static byte[] decompress(byte[] in, int maxLen) throws IOException {
+        return decompress(in, 0, in.length, maxLen);
+    }
+
+    private static int hash(byte[] in, int at) {
+        int value = ((in[at] & 0xFF) << 16) | ((in[at + 1] & 0xFF) << 8) | (in[at + 2] & 0xFF);
+
+        return (value * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static int writeLiterals(byte[] in, int from, int to, byte[] out, int op) {
+        while (from < to) {
+            int count = Math.min(MAX_LITERAL, to - from);
+
+            out[op++] = (byte) (count - 1);
+            System.arraycopy(in, from, out, op, count);
+            op += count;
+            from += count;
+        }
+
+        return op;
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2001-2007 Sun Microsystems, Inc.  All rights reserved.
+ *
+ *  The Sun Project JXTA(TM) Software License
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *
+ *  3. The end-user documentation included with the redistribution, if any, must
+ *     include the following acknowledgment: "This product includes software
+ *     developed by Sun Microsystems, Inc. for JXTA(TM) technology."
+ *     Alternately, this acknowledgment may appear in the software itself, if
+ *     and wherever such third-party acknowledgments normally appear.
+ *
+ *  4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA" must
+ *     not be used to endorse or promote products derived from this software
+ *     without prior written permission. For written permission, please contact
+ *     Project JXTA at http://www.jxta.org.
+ *
+ *  5. Products derived from this software may not be called "JXTA", nor may
+ *     "JXTA" appear in their name, without prior written permission of Sun.
+ *
+ *  THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+ *  INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ *  FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SUN
+ *  MICROSYSTEMS OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ *  OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ *  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ *  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *  JXTA is a registered trademark of Sun Microsystems, Inc. in the United
+ *  States and other countries.
+ *
+ *  Please see the license information page at :
+ *  <http://www.jxta.org/project/www/license.html> for instructions on use of
+ *  the license in source files.
+ *
+ *  ====================================================================
+ *
+ *  This software consists of voluntary contributions made by many individuals
+ *  on behalf of Project JXTA. For more information on Project JXTA, please see
+ *  http://www.jxta.org.
+ *
+ *  This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.util.ternary.wild;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * An index of the trigrams (substrings of three characters) of a set of keys
+ * and their values. Used to narrow the candidate keys of a wild card search to
+ * those which contain every trigram of the literal parts of the search term.
+ * <p/>
+ * Each key is given an integer id. The ids containing a trigram are kept in
+ * a sorted array (posting list) so that the candidates are found by
+ * intersecting the posting lists, starting with the shortest. Removed keys
+ * are only marked as dead; the index is rebuilt once dead ids outnumber the
+ * live ones.
+ * <p/>
+ * This class is not thread safe. The owning tree guards it with its own lock.
+ *
+ * @param <T> the type of the values
+ */
+class NGramIndex<T> {
+
+    /**
+     * The length of the indexed substrings.
+     */
+    static final int N = 3;
+
+    /**
+     * The minimum number of dead ids before the index is rebuilt.
+     */
+    private static final int MIN_DEAD_TO_COMPACT = 1024;
+
+    private static final Comparator<Postings> BY_SIZE = new Comparator<Postings>(  ) {
+
+            public int compare( Postings a, Postings b ) {
+
+                return ( a.size < b.size ) ? ( -1 ) : ( ( a.size == b.size ) ? 0 : 1 );
+            }
+        };
+
+    /**
+     * The sorted ids of the keys containing a trigram.
+     */
+    private static final class Postings {
+
+        int[] ids = new int[ 4 ];
+        int size = 0;
+
+        void append( int id ) {
+
+            if ( size == ids.length ) {
+
+                ids = Arrays.copyOf( ids, size * 2 );
+            }
+
+            ids[ size++ ] = id;
+        }
+
+        /**
+         * Finds an id, searching from a position known to be at or before it.
+         *
+         * @return the position of the id, or a negative value as for {@link Arrays#binarySearch(int[], int, int, int)}
+         */
+        int find( int from, int id ) {
+
+            return Arrays.binarySearch( ids, from, size, id );
+        }
+    }
+
+    // The live keys and their ids
+    private final Map<String, Integer> ids = new HashMap<String, Integer>(  );
+
+    // The key and value of each id, null once removed
+    private String[] keys = new String[ 16 ];
+    private Object[] values = new Object[ 16 ];
+    private int nextId = 0;
+    private int dead = 0;
+
+    // The posting list of each trigram, keyed by the packed trigram
+    private final Map<Long, Postings> postings = new HashMap<Long, Postings>(  );
+
+    /**
+     * Adds a key to the index or replaces its value.
+     *
+     * @param key the key
+     * @param value the value
+     */
+    void put( final String key, final T value ) {
+
+        Integer existing = ids.get( key );
+
+        if ( existing != null ) {
+
+            values[ existing ] = value;
+
+            return;
+        }
+
+        int id = nextId++;
+
+        if ( id == keys.length ) {
+
+            keys = Arrays.copyOf( keys, keys.length * 2 );
+            values = Arrays.copyOf( values, values.length * 2 );
+        }
+
+        keys[ id ] = key;
+        values[ id ] = value;
+        ids.put( key, id );
+
+        for ( int i = 0; i + N <= key.length(  ); i++ ) {
+
+            Long trigram = trigram( key, i );
+            Postings list = postings.get( trigram );
+
+            if ( list == null ) {
+
+                list = new Postings(  );
+                postings.put( trigram, list );
+            }
+
+            // Ids only grow, so a repeated trigram of this key is the last entry
+            if ( ( list.size == 0 ) || ( list.ids[ list.size - 1 ] != id ) ) {
+
+                list.append( id );
+            }
+        }
+    }
+
+    /**
+     * Removes a key from the index.
+     *
+     * @param key the key
+     */
+    void remove( final String key ) {
+
+        Integer id = ids.remove( key );
+
+        if ( id == null ) {
+
+            return;
+        }
+
+        keys[ id ] = null;
+        values[ id ] = null;
+        dead++;
+
+        if ( ( dead >= MIN_DEAD_TO_COMPACT ) && ( dead > ids.size(  ) ) ) {
+
+            compact(  );
+        }
+    }
+
+    /**
+     * Removes all the keys.
+     */
+    void clear(  ) {
+
+        ids.clear(  );
+        postings.clear(  );
+        keys = new String[ 16 ];
+        values = new Object[ 16 ];
+        nextId = 0;
+        dead = 0;
+    }
+
+    /**
+     * Returns the number of live keys.
+     *
+     * @return the number of keys
+     */
+    int size(  ) {
+
+        return ids.size(  );
+    }
+
+    /**
+     * Returns the ids of the keys which contain every trigram of the given
+     * fragments. The keys still have to be matched against the full search term.
+     *
+     * @param fragments the literal parts of a search term
+     * @return the candidate ids, or {@code null} if the fragments are too
+     *  short to contain a trigram and so cannot narrow the search
+     */
+    List<Integer> candidates( final List<String> fragments ) {
+
+        List<Postings> lists = new ArrayList<Postings>(  );
+        Set<Long> seen = new HashSet<Long>(  );
+
+        for ( String fragment : fragments ) {
+
+            for ( int i = 0; i + N <= fragment.length(  ); i++ ) {
+
+                Long trigram = trigram( fragment, i );
+
+                if ( seen.add( trigram ) ) {
+
+                    Postings list = postings.get( trigram );
+
+                    if ( list == null ) {
+
+                        // No key contains this trigram
+                        return Collections.emptyList(  );
+                    }
+
+                    lists.add( list );
+                }
+            }
+        }
+
+        if ( lists.isEmpty(  ) ) {
+
+            return null;
+        }
+
+        Collections.sort( lists, BY_SIZE );
+
+        Postings shortest = lists.get( 0 );
+        int[] from = new int[ lists.size(  ) ];
+        List<Integer> result = new ArrayList<Integer>(  );
+
+        nextCandidate:
+        for ( int i = 0; i < shortest.size; i++ ) {
+
+            int id = shortest.ids[ i ];
+
+            if ( keys[ id ] == null ) {
+
+                continue;
+            }
+
+            for ( int l = 1; l < lists.size(  ); l++ ) {
+
+                int pos = lists.get( l ).find( from[ l ], id );
+
+                if ( pos < 0 ) {
+
+                    // The following ids of the shortest list are all greater
+                    from[ l ] = -( pos + 1 );
+                    continue nextCandidate;
+                }
+
+                from[ l ] = pos + 1;
+            }
+
+            result.add( id );
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the key of a candidate id.
+     *
+     * @param id the id
+     * @return the key
+     */
+    String getKey( final int id ) {
+
+        return keys[ id ];
+    }
+
+    /**
+     * Returns the value of a candidate id.
+     *
+     * @param id the id
+     * @return the value
+     */
+    @SuppressWarnings( "unchecked" )
+    T getValue( final int id ) {
+
+        return (T) values[ id ];
+    }
+
+    /**
+     * Renumbers the live keys and rebuilds the posting lists without the
+     * dead ids.
+     */
+    private void compact(  ) {
+
+        String[] liveKeys = keys;
+        Object[] liveValues = values;
+        int count = nextId;
+
+        clear(  );
+
+        for ( int id = 0; id < count; id++ ) {
+
+            if ( liveKeys[ id ] != null ) {
+
+                put( liveKeys[ id ], getValue( liveValues, id ) );
+            }
+        }
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private T getValue( final Object[] from, final int id ) {
+
+        return (T) from[ id ];
+    }
+
+    private static Long trigram( final String s, final int start ) {
+
+        return ( ( (long) s.charAt( start ) ) << 32 ) | ( ( (long) s.charAt( start + 1 ) ) << 16 ) | s.charAt( start + 2 );
+    }
+}
@@ -60,7 +60,9 @@ import net.jxta.impl.util.ternary.TernarySearchTreeImpl;
 import net.jxta.impl.util.ternary.TernarySearchTreeMatchListener;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -69,12 +71,23 @@ import java.util.regex.Pattern;
 /**
  * A Ternary Tree that provides wildcard search capabilities
  *
+ * Wild card searches are narrowed with an {@link NGramIndex} of the keys when the literal parts of the
+ * search term are long enough, otherwise with a prefix or suffix search of the tree.
+ *
  * @author Simon Temple (simon.temple@amalto.com)
  * @param <T>
  */
 public class WildcardTernarySearchTreeImpl<T> implements WildcardTernarySearchTree<T> {
 
     private static final Logger LOG = Logger.getLogger( WildcardTernarySearchTreeImpl.class.getName(  ) );
+
+    /**
+     * System property which, when set to {@code false}, disables the n-gram index by default
+     */
+    public static final String NGRAM_INDEX_SYSPROP = WildcardTernarySearchTreeImpl.class.getName(  ) + ".ngramIndex";
+
+    // The number of compiled search patterns kept
+    private static final int PATTERN_CACHE_SIZE = 128;
     private TernarySearchTree<T> prefix = new TernarySearchTreeImpl<T>(  );
 
     // Duplicate of the prefix tree except all keys are ** reversed **
@@ -82,6 +95,19 @@ public class WildcardTernarySearchTreeImpl<T> implements WildcardTernarySearchTr
     private volatile long size = 0;
     private volatile char wildcard;
 
+    // Trigrams of the keys, null if disabled. Guarded by the prefix tree lock
+    private final NGramIndex<T> ngrams;
+
+    // Recently compiled search patterns, most recently used last
+    private final Map<String, Pattern> patterns = new LinkedHashMap<String, Pattern>( 16, 0.75f, true ) {
+
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<String, Pattern> eldest ) {
+
+                return size(  ) > PATTERN_CACHE_SIZE;
+            }
+        };
+
     /**
      * Build a Wild Card Ternary Search Tree with '*' as wildcard
      */
@@ -95,7 +121,18 @@ public class WildcardTernarySearchTreeImpl<T> implements WildcardTernarySearchTr
      */
     public WildcardTernarySearchTreeImpl( char wildcard ) {
 
+        this( wildcard, !"false".equalsIgnoreCase( System.getProperty( NGRAM_INDEX_SYSPROP ) ) );
+    }
+
+    /**
+     * Build a Wild Card Ternary Search Tree
+     * @param wildcard The character to use as Wild Card
+     * @param ngramIndex If true, maintain an n-gram index of the keys to speed up wild card searches
+     */
+    public WildcardTernarySearchTreeImpl( char wildcard, boolean ngramIndex ) {
+
         this.wildcard = wildcard;
+        this.ngrams = ngramIndex ? new NGramIndex<T>(  ) : null;
     }
 
     /* (non-Javadoc)
@@ -127,6 +164,11 @@ public class WildcardTernarySearchTreeImpl<T> implements WildcardTernarySearchTr
 
                 prefixDeleted = prefix.remove( key );
                 suffixDeleted = suffix.remove( revKey );
+
+                if ( ngrams != null ) {
+
+                    ngrams.remove( key );
+                }
             }
         }
 
@@ -161,6 +203,11 @@ public class WildcardTernarySearchTreeImpl<T> implements WildcardTernarySearchTr
 
                 prefix.deleteTree(  );
                 suffix.deleteTree(  );
+
+                if ( ngrams != null ) {
+
+                    ngrams.clear(  );
+                }
             }
         }
 
@@ -230,6 +277,11 @@ public class WildcardTernarySearchTreeImpl<T> implements WildcardTernarySearchTr
                             LOG.log( Level.SEVERE, "Failed inserting value in suffix wild-tree!  Reversed key: ", revKey );
                         }
                     }
+
+                    if ( ngrams != null ) {
+
+                        ngrams.put( key, returnValue );
+                    }
                 }
             }
 
@@ -265,6 +317,11 @@ public class WildcardTernarySearchTreeImpl<T> implements WildcardTernarySearchTr
 
                     prefix.put( key, value );
                     suffix.put( revKey, value );
+
+                    if ( ngrams != null ) {
+
+                        ngrams.put( key, value );
+                    }
                 }
             }
 
@@ -339,12 +396,66 @@ public class WildcardTernarySearchTreeImpl<T> implements WildcardTernarySearchTr
         int lastWCPosition = wcPositions.get( wcPositions.size(  ) - 1 ).intValue(  );
         String termSuffix = ( ( lastWCPosition == ( term.length(  ) - 1 ) ) ? "" : term.substring( lastWCPosition + 1, term.length(  ) ) );
 
-        // Build the regular expression
-        final Pattern regexp = Pattern.compile( term.replaceAll( "\\" + wildcard, ".*?" ) );
+        // The literal parts of the term
+        List<String> fragments = new ArrayList<String>( wcPositions.size(  ) + 1 );
+        int start = 0;
+
+        for ( Integer wcPosition : wcPositions ) {
+
+            fragments.add( term.substring( start, wcPosition.intValue(  ) ) );
+            start = wcPosition.intValue(  ) + 1;
+        }
+
+        fragments.add( term.substring( start ) );
+
+        // The regular expression
+        final Pattern regexp = getPattern( term, fragments );
 
         // The Results
         final ArrayList<T> results = new ArrayList<T>(  );
 
+        // A term with a single wild-card at either end is fully answered by a prefix or suffix search.
+        // Otherwise narrow the candidates with the n-gram index if the term has a long enough literal part
+        boolean treeSearch = ( wcPositions.size(  ) == 1 ) && ( ( termPrefix.length(  ) == 0 ) || ( termSuffix.length(  ) == 0 ) );
+
+        if ( ( ngrams != null ) && !treeSearch ) {
+
+            synchronized ( prefix ) {
+
+                List<Integer> candidates = ngrams.candidates( fragments );
+
+                if ( candidates != null ) {
+
+                    for ( Integer id : candidates ) {
+
+                        if ( ( listener != null ) && !listener.continueSearch(  ) ) {
+
+                            break;
+                        }
+
+                        String key = ngrams.getKey( id );
+
+                        if ( regexp.matcher( key ).matches(  ) ) {
+
+                            T data = ngrams.getValue( id );
+
+                            if ( data != null ) {
+
+                                results.add( data );
+
+                                if ( listener != null ) {
+
+                                    listener.resultFound( key, data );
+                                }
+                            }
+                        }
+                    }
+
+                    return results;
+                }
+            }
+        }
+
         // The choice will be to perform a prefix search is the term prefix is longer than the term suffix, a suffix search otherwise
         // There are probably more clever algorithms to minimise the number of returned results
 
@@ -376,9 +487,24 @@ public class WildcardTernarySearchTreeImpl<T> implements WildcardTernarySearchTr
 
             String searchTerm = new StringBuilder( termSuffix ).reverse(  ).toString(  );
 
+            // The suffix tree reports reversed keys, turn them around before matching
+            final TernarySearchTreeMatchListener<T> forwardListener = ttlistener;
+            TernarySearchTreeMatchListener<T> reversedListener = new TernarySearchTreeMatchListener<T>(  ) {
+
+                    public void resultFound( String key, T data ) {
+
+                        forwardListener.resultFound( new StringBuilder( key ).reverse(  ).toString(  ), data );
+                    }
+
+                    public boolean continueSearch(  ) {
+
+                        return forwardListener.continueSearch(  );
+                    }
+                };
+
             synchronized ( suffix ) {
 
-                List<T> list = suffix.matchPrefix( searchTerm, ttlistener );
+                List<T> list = suffix.matchPrefix( searchTerm, reversedListener );
 
                 if ( list != null ) {
 
@@ -405,6 +531,44 @@ public class WildcardTernarySearchTreeImpl<T> implements WildcardTernarySearchTr
         return results;
     }
 
+    /**
+     * Returns the compiled pattern of a search term, the literal parts being matched literally.
+     *
+     * @param term The search term
+     * @param fragments The literal parts of the search term
+     * @return The pattern
+     */
+    private Pattern getPattern( final String term, final List<String> fragments ) {
+
+        synchronized ( patterns ) {
+
+            Pattern pattern = patterns.get( term );
+
+            if ( pattern == null ) {
+
+                StringBuilder regexp = new StringBuilder(  );
+
+                for ( int i = 0; i < fragments.size(  ); i++ ) {
+
+                    if ( i > 0 ) {
+
+                        regexp.append( ".*" );
+                    }
+
+                    if ( fragments.get( i ).length(  ) > 0 ) {
+
+                        regexp.append( Pattern.quote( fragments.get( i ) ) );
+                    }
+                }
+
+                pattern = Pattern.compile( regexp.toString(  ), Pattern.DOTALL );
+                patterns.put( term, pattern );
+            }
+
+            return pattern;
+        }
+    }
+
     /* (non-Javadoc)
      * @see net.jxta.impl.util.ternary.wild.WildcardTernarySearchTree#matchPrefix(java.lang.String)
      */
@@ -109,13 +109,29 @@ public class BTree extends Paged {
     protected static final byte STREAM = 3;
 
     /**
-     * Cache of the recently used tree nodes.
+     * System property for the default number of nodes kept in the node cache.
+     */
+    public static final String NODE_CACHE_SIZE_SYSPROP = "net.jxta.impl.xindice.core.filer.BTree.nodeCacheSize";
+
+    /**
+     * The default number of nodes kept in the node cache.
+     */
+    private static final int DEFAULT_NODE_CACHE_SIZE = 256;
+
+    /**
+     * Assures that at most one instance of each tree node exists in memory.
      *
      * Cache contains weak references to the BTreeNode objects, keys are page numbers (Long objects).
      * Access synchronized by this map itself.
      */
     private final Map<Long, WeakReference<BTreeNode>> cache = new WeakHashMap<Long, WeakReference<BTreeNode>>();
 
+    /**
+     * Cache of the recently used tree nodes, keeping them from being
+     * collected. Branch nodes are admitted to its protected segment.
+     */
+    private final SegmentedLruCache<BTreeNode> nodeCache = new SegmentedLruCache<BTreeNode>(Integer.getInteger(NODE_CACHE_SIZE_SYSPROP, DEFAULT_NODE_CACHE_SIZE));
+
     private BTreeFileHeader fileHeader;
     private BTreeRootInfo rootInfo;
     private BTreeNode rootNode;
@@ -143,6 +159,25 @@ public class BTree extends Paged {
         this.sync = sync;
     }
 
+    /**
+     * Sets the maximum number of recently used tree nodes which are kept in
+     * memory.
+     *
+     * @param nodeCacheSize the number of nodes. {@code 0} disables the cache.
+     */
+    public void setNodeCacheSize(int nodeCacheSize) {
+        nodeCache.setMaxSize(nodeCacheSize);
+    }
+
+    /**
+     * Returns the cache of recently used tree nodes, for its statistics.
+     *
+     * @return the node cache.
+     */
+    public SegmentedLruCache<?> getNodeCache() {
+        return nodeCache;
+    }
+
     @Override
     public boolean open() throws DBException {
         if (super.open()) {
@@ -156,6 +191,15 @@ public class BTree extends Paged {
         }
     }
 
+    @Override
+    public boolean close() throws DBException {
+        boolean closed = super.close();
+
+        Logging.logCheckedDebug(LOG, "Closed ", getFile(), " node cache : ", nodeCache, " page cache : ", getPageCache());
+        nodeCache.clear();
+        return closed;
+    }
+
     @Override
     public boolean create() throws DBException {
         if (super.create()) {
@@ -439,13 +483,16 @@ public class BTree extends Paged {
 
     private BTreeNode getBTreeNode(long page, BTreeNode parent) {
         try {
-            BTreeNode node = null;
+            BTreeNode node = nodeCache.get(page);
+            boolean cached = (null != node);
 
             synchronized (cache) {
-                WeakReference<BTreeNode> ref = cache.get(page);
+                if (node == null) {
+                    WeakReference<BTreeNode> ref = cache.get(page);
 
-                if (ref != null) {
-                    node = ref.get();
+                    if (ref != null) {
+                        node = ref.get();
+                    }
                 }
 
                 if (node == null) {
@@ -458,6 +505,10 @@ public class BTree extends Paged {
             }
 
             node.read();
+
+            if (!cached) {
+                nodeCache.put(page, node, node.ph.getStatus() == BRANCH);
+            }
             return node;
 
         } catch (Exception e) {
@@ -476,6 +527,7 @@ public class BTree extends Paged {
         synchronized (cache) {
             cache.put(p.getPageNum(), new WeakReference<BTreeNode>(node));
         }
+        nodeCache.put(p.getPageNum(), node, status == BRANCH);
         return node;
     }
 
@@ -61,7 +61,6 @@ import net.jxta.impl.xindice.core.FaultCodes;
 import net.jxta.impl.xindice.core.data.Key;
 import net.jxta.impl.xindice.core.data.Value;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
@@ -71,11 +70,19 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.EmptyStackException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
+import java.util.TreeSet;
 import java.util.WeakHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -101,6 +108,12 @@ import java.util.logging.Logger;
  * (DEFAULT_DESCRIPTORS_MAX).</li>
  * </ul>
  * <p/>
+ * Pages may instead be read and written in place in memory mapped segments
+ * of the file, see {@link #setMemoryMapped(boolean)} and the
+ * {@link #MMAP_SYSPROP} system property. The number of recently used pages
+ * kept strongly reachable is set by the {@link #PAGE_CACHE_SIZE_SYSPROP}
+ * system property.
+ * <p/>
  * <br>FIXME: Currently it seems that maxkeysize is not used anywhere.
  * <br>TODO: Introduce Paged interface, implementations.
  */
@@ -120,6 +133,28 @@ public abstract class Paged {
     // The maximum number of open random access files we can have
     private static final int DEFAULT_DESCRIPTORS_MAX = 16;
 
+    /**
+     * System property which, if set to {@code true}, makes memory mapped page
+     * I/O the default.
+     */
+    public static final String MMAP_SYSPROP = "net.jxta.impl.xindice.core.filer.Paged.mmap";
+
+    /**
+     * System property for the default size in bytes of mapped segments.
+     */
+    public static final String MMAP_SEGMENT_SIZE_SYSPROP = "net.jxta.impl.xindice.core.filer.Paged.mmapSegmentSize";
+
+    // The default size of a mapped segment of the file.
+    private static final int DEFAULT_MMAP_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * System property for the default number of pages kept in the page cache.
+     */
+    public static final String PAGE_CACHE_SIZE_SYSPROP = "net.jxta.impl.xindice.core.filer.Paged.pageCacheSize";
+
+    // The default number of pages kept in the page cache.
+    private static final int DEFAULT_PAGE_CACHE_SIZE = 64;
+
     /**
      * Unused page status
      */
@@ -145,15 +180,19 @@ public abstract class Paged {
      */
     protected boolean sync = true;
 
-    // TODO: This is not a cache right now, but a way to assure that only one page instance at most exists in memory at all times.
     /**
-     * Cache of recently read pages.
+     * Assures that only one page instance at most exists in memory at all times.
      * <p/>
-     * Cache contains weak references to the Page objects, keys are page numbers (Long objects).
-     * Access synchronized by this map itself.
+     * Contains weak references to the Page objects, keys are page numbers (Long objects).
+     * Access synchronized by this Paged.
      */
     private final Map<Long, WeakReference<Page>> pages = new WeakHashMap<Long, WeakReference<Page>>();
 
+    /**
+     * Cache of recently used pages, keeping them from being collected.
+     */
+    private final SegmentedLruCache<Page> pageCache = new SegmentedLruCache<Page>(Integer.getInteger(PAGE_CACHE_SIZE_SYSPROP, DEFAULT_PAGE_CACHE_SIZE));
+
     /**
      * Cache of modified pages waiting to be written out.
      * Access is synchronized by the {@link #dirtyLock}.
@@ -183,6 +222,34 @@ public abstract class Paged {
      */
     private int descriptorsMax;
 
+    /**
+     * If {@code true} then pages are accessed through {@link #segments}.
+     */
+    private boolean memoryMapped = Boolean.getBoolean(MMAP_SYSPROP);
+
+    /**
+     * The requested size of mapped segments.
+     */
+    private int mappedSegmentSize = Integer.getInteger(MMAP_SEGMENT_SIZE_SYSPROP, DEFAULT_MMAP_SEGMENT_SIZE);
+
+    /**
+     * The file mapped by {@link #segments}. Opened on first use.
+     * Access to it and to {@link #segments} is synchronized by
+     * {@link #segments}.
+     */
+    private RandomAccessFile mappedFile;
+
+    /**
+     * The mapped segments of the file following the file header, indexed by
+     * segment number. Unmapped segments are {@code null}.
+     */
+    private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+
+    /**
+     * The actual size of each mapped segment, a multiple of the page size.
+     */
+    private int segmentSize;
+
     /**
      * Whether the file is opened or not.
      */
@@ -226,6 +293,146 @@ public abstract class Paged {
         return file;
     }
 
+    /**
+     * Sets whether pages are accessed through memory mapped segments of the
+     * file. Must be set before the file is opened.
+     *
+     * @param memoryMapped if {@code true} use memory mapped page I/O.
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
+    /**
+     * Returns whether pages are accessed through memory mapped segments of the
+     * file.
+     *
+     * @return {@code true} if memory mapped page I/O is used.
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * Sets the size of the segments in which the file is mapped. Must be set
+     * before the file is opened.
+     *
+     * @param mappedSegmentSize the segment size in bytes. Rounded down to a
+     * multiple of the page size.
+     */
+    public void setMappedSegmentSize(int mappedSegmentSize) {
+        if (mappedSegmentSize <= 0) {
+            throw new IllegalArgumentException("Segment size must be positive");
+        }
+        this.mappedSegmentSize = mappedSegmentSize;
+    }
+
+    /**
+     * Sets the maximum number of recently used pages which are kept in memory.
+     *
+     * @param pageCacheSize the number of pages. {@code 0} disables the cache.
+     */
+    public void setPageCacheSize(int pageCacheSize) {
+        pageCache.setMaxSize(pageCacheSize);
+    }
+
+    /**
+     * Returns the cache of recently used pages, for its statistics.
+     *
+     * @return the page cache.
+     */
+    public SegmentedLruCache<?> getPageCache() {
+        return pageCache;
+    }
+
+    /**
+     * Returns a view of the specified page within its mapped segment, mapping
+     * the segment if necessary.
+     *
+     * @param offset the offset of the page within the file
+     * @return A buffer of page size positioned at the start of the page.
+     * @throws IOException if the segment cannot be mapped
+     */
+    private ByteBuffer getMappedPage(long offset) throws IOException {
+        long position = offset - fileHeader.headerSize;
+        MappedByteBuffer segment;
+        int pos;
+
+        synchronized (segments) {
+            if (null == mappedFile) {
+                mappedFile = new RandomAccessFile(file, "rw");
+                segmentSize = Math.max(1, mappedSegmentSize / fileHeader.pageSize) * fileHeader.pageSize;
+            }
+
+            int index = (int) (position / segmentSize);
+
+            pos = (int) (position % segmentSize);
+            while (segments.size() <= index) {
+                segments.add(null);
+            }
+
+            segment = segments.get(index);
+            if (null == segment) {
+                // Mapping beyond the end grows the file.
+                segment = mappedFile.getChannel().map(FileChannel.MapMode.READ_WRITE, fileHeader.headerSize + (long) index * segmentSize, segmentSize);
+                segments.set(index, segment);
+            }
+        }
+
+        ByteBuffer page = segment.duplicate();
+
+        page.position(pos);
+        page.limit(pos + fileHeader.pageSize);
+        return page.slice();
+    }
+
+    /**
+     * Forces the mapped segments containing the specified pages to storage.
+     *
+     * @param offsets offsets of the modified pages
+     */
+    private void forceSegments(Collection<Long> offsets) {
+        Set<Integer> indexes = new TreeSet<Integer>();
+        List<MappedByteBuffer> toForce = new ArrayList<MappedByteBuffer>();
+
+        synchronized (segments) {
+            if (null == mappedFile) {
+                return;
+            }
+
+            for (long offset : offsets) {
+                indexes.add((int) ((offset - fileHeader.headerSize) / segmentSize));
+            }
+
+            for (int index : indexes) {
+                if (index < segments.size() && null != segments.get(index)) {
+                    toForce.add(segments.get(index));
+                }
+            }
+        }
+
+        for (MappedByteBuffer segment : toForce) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Forgets the mapped segments and closes the mapped file. The mappings
+     * are released once no pages refer to them.
+     */
+    private void closeMappedFile() {
+        synchronized (segments) {
+            segments.clear();
+            if (null != mappedFile) {
+                try {
+                    mappedFile.close();
+                } catch (IOException e) {// Ignore close exception
+                }
+                mappedFile = null;
+            }
+        }
+    }
+
     /**
      * Obtain RandomAccessFile ('descriptor') object out of the pool.
      * If no descriptors available, and maximum amount already allocated,
@@ -306,19 +513,26 @@ public abstract class Paged {
             // No need to synchronize on dirtyLock thanks to atomic assignment
             page = dirty.get(lp);
 
-            // if not check if it's already loaded in the page cache
+            // if not check if it's in the page cache
             if (page == null) {
-                WeakReference<Page> ref = pages.get(lp);
+                page = pageCache.get(pageNum);
 
-                if (ref != null) {
-                    page = ref.get();
-                }
-            }
+                if (page == null) {
+                    // or otherwise still in memory
+                    WeakReference<Page> ref = pages.get(lp);
 
-            // if still not found we need to create it and add it to the page cache.
-            if (page == null) {
-                page = new Page(lp);
-                pages.put(page.pageNum, new WeakReference<Page>(page));
+                    if (ref != null) {
+                        page = ref.get();
+                    }
+
+                    // if still not found we need to create it.
+                    if (page == null) {
+                        page = new Page(lp);
+                        pages.put(page.pageNum, new WeakReference<Page>(page));
+                    }
+
+                    pageCache.put(pageNum, page, false);
+                }
             }
         }
 
@@ -616,6 +830,8 @@ public abstract class Paged {
                 // First of all, mark as closed to prevent operations
                 opened = false;
                 flush();
+                closeMappedFile();
+                pageCache.clear();
 
                 synchronized (descriptors) {
                     final int total = descriptorsCount;
@@ -695,9 +911,17 @@ public abstract class Paged {
         }
 
         // Flush dirty pages
+        List<Long> mapped = new ArrayList<Long>();
+
         for (Object page : pages) {
             Page p = (Page) page;
 
+            if (p.isMapped()) {
+                // Already written in place, force each segment only once.
+                mapped.add(p.offset);
+                continue;
+            }
+
             try {
                 p.flush();
             } catch (Exception e) {
@@ -706,6 +930,15 @@ public abstract class Paged {
             }
         }
 
+        if (sync && !mapped.isEmpty()) {
+            try {
+                forceSegments(mapped);
+            } catch (Exception e) {
+                LOG.log(Level.WARNING, "Exception while forcing mapped pages\n", e);
+                error += mapped.size();
+            }
+        }
+
         // Flush header
         if (fileHeader.dirty) {
             try {
@@ -1347,9 +1580,10 @@ public abstract class Paged {
         private final long offset;
 
         /**
-         * The data for this page. Null if page is not loaded.
+         * The data for this page. Null if page is not loaded. Either a heap
+         * buffer or a view of the page within its mapped segment.
          */
-        private byte[] data;
+        private ByteBuffer data;
 
         /**
          * The position (relative) of the Key in the data array
@@ -1373,29 +1607,58 @@ public abstract class Paged {
          */
         public synchronized void read() throws IOException {
             if (data == null) {
-                RandomAccessFile raf = null;
+                ByteBuffer data;
+
+                if (memoryMapped) {
+                    data = getMappedPage(this.offset);
+                } else {
+                    RandomAccessFile raf = null;
+
+                    try {
+                        byte[] bytes = new byte[fileHeader.pageSize];
+
+                        raf = getDescriptor();
+                        raf.seek(this.offset);
+                        raf.read(bytes);
+                        data = ByteBuffer.wrap(bytes);
+                    } finally {
+                        putDescriptor(raf);
+                    }
+                }
 
-                try {
-                    byte[] data = new byte[fileHeader.pageSize];
+                // Read in the header
+                this.header.read(new DataInputStream(new PageInputStream(data.duplicate())));
 
-                    raf = getDescriptor();
-                    raf.seek(this.offset);
-                    raf.read(data);
+                this.keyPos = fileHeader.pageHeaderSize;
+                this.dataPos = this.keyPos + this.header.keyLen;
 
-                    // Read in the header
-                    ByteArrayInputStream bis = new ByteArrayInputStream(data);
+                // Successfully read all the data
+                this.data = data;
+            }
+        }
 
-                    this.header.read(new DataInputStream(bis));
+        /**
+         * Returns {@code true} if this page is a view of a mapped segment.
+         *
+         * @return {@code true} if this page is a view of a mapped segment.
+         */
+        synchronized boolean isMapped() {
+            return (null != data) && !data.hasArray();
+        }
 
-                    this.keyPos = fileHeader.pageHeaderSize;
-                    this.dataPos = this.keyPos + this.header.keyLen;
+        /**
+         * Copies bytes into the page data.
+         *
+         * @param pos the position in the page
+         * @param b   the source bytes
+         * @param off the offset within {@code b}
+         * @param len the number of bytes
+         */
+        private void put(int pos, byte[] b, int off, int len) {
+            ByteBuffer dup = data.duplicate();
 
-                    // Successfully read all the data
-                    this.data = data;
-                } finally {
-                    putDescriptor(raf);
-                }
-            }
+            dup.position(pos);
+            dup.put(b, off, len);
         }
 
         /**
@@ -1411,7 +1674,7 @@ public abstract class Paged {
                 header.write(new DataOutputStream(bos));
                 byte[] b = bos.toByteArray();
 
-                System.arraycopy(b, 0, data, 0, b.length);
+                put(0, b, 0, b.length);
             }
 
             // Add to the list of dirty pages
@@ -1423,6 +1686,14 @@ public abstract class Paged {
          * @throws java.io.IOException if an io error occurs
          */
         public synchronized void flush() throws IOException {
+            if (!data.hasArray()) {
+                // The data was written in place, just make it durable.
+                if (sync) {
+                    forceSegments(Collections.singletonList(this.offset));
+                }
+                return;
+            }
+
             RandomAccessFile raf = null;
 
             try {
@@ -1436,7 +1707,7 @@ public abstract class Paged {
                     raf.writeByte(0);
                 }
                 raf.seek(this.offset);
-                raf.write(this.data);
+                raf.write(this.data.array());
                 if (sync) {
                     raf.getFD().sync();
                 }
@@ -1458,7 +1729,11 @@ public abstract class Paged {
         public synchronized void setKey(Key key) {
             header.setKey(key);
             // Insert the key into the data array.
-            key.copyTo(this.data, this.keyPos);
+            if (this.data.hasArray()) {
+                key.copyTo(this.data.array(), this.data.arrayOffset() + this.keyPos);
+            } else {
+                put(this.keyPos, key.getData(), 0, key.getLength());
+            }
 
             // Set the start of data to skip over the key.
             this.dataPos = this.keyPos + header.keyLen;
@@ -1466,7 +1741,16 @@ public abstract class Paged {
 
         public synchronized Key getKey() {
             if (header.keyLen > 0) {
-                return new Key(this.data, this.keyPos, header.keyLen);
+                if (this.data.hasArray()) {
+                    return new Key(this.data.array(), this.data.arrayOffset() + this.keyPos, header.keyLen);
+                }
+
+                byte[] key = new byte[header.keyLen];
+                ByteBuffer dup = this.data.duplicate();
+
+                dup.position(this.keyPos);
+                dup.get(key);
+                return new Key(key);
             } else {
                 return null;
             }
@@ -1474,7 +1758,16 @@ public abstract class Paged {
 
         public synchronized void streamTo(OutputStream os) throws IOException {
             if (header.dataLen > 0) {
-                os.write(this.data, this.dataPos, header.dataLen);
+                if (this.data.hasArray()) {
+                    os.write(this.data.array(), this.data.arrayOffset() + this.dataPos, header.dataLen);
+                } else {
+                    byte[] b = new byte[header.dataLen];
+                    ByteBuffer dup = this.data.duplicate();
+
+                    dup.position(this.dataPos);
+                    dup.get(b);
+                    os.write(b);
+                }
             }
         }
 
@@ -1486,7 +1779,16 @@ public abstract class Paged {
                 header.dataLen = avail;
             }
             if (header.dataLen > 0) {
-                is.read(this.data, this.keyPos + header.keyLen, header.dataLen);
+                if (this.data.hasArray()) {
+                    is.read(this.data.array(), this.data.arrayOffset() + this.keyPos + header.keyLen, header.dataLen);
+                } else {
+                    byte[] b = new byte[header.dataLen];
+                    int read = is.read(b);
+
+                    if (read > 0) {
+                        put(this.keyPos + header.keyLen, b, 0, read);
+                    }
+                }
             }
         }
 
@@ -1495,5 +1797,37 @@ public abstract class Paged {
             return (int) (this.pageNum - o.pageNum);
         }
     }
-}
 
+    /**
+     * Reads the contents of a page buffer.
+     */
+    private static final class PageInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        PageInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? (buffer.get() & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2001-2007 Sun Microsystems, Inc.  All rights reserved.
+ *
+ *  The Sun Project JXTA(TM) Software License
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *
+ *  3. The end-user documentation included with the redistribution, if any, must
+ *     include the following acknowledgment: "This product includes software
+ *     developed by Sun Microsystems, Inc. for JXTA(TM) technology."
+ *     Alternately, this acknowledgment may appear in the software itself, if
+ *     and wherever such third-party acknowledgments normally appear.
+ *
+ *  4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA" must
+ *     not be used to endorse or promote products derived from this software
+ *     without prior written permission. For written permission, please contact
+ *     Project JXTA at http://www.jxta.org.
+ *
+ *  5. Products derived from this software may not be called "JXTA", nor may
+ *     "JXTA" appear in their name, without prior written permission of Sun.
+ *
+ *  THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+ *  INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ *  FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SUN
+ *  MICROSYSTEMS OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ *  OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ *  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ *  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *  JXTA is a registered trademark of Sun Microsystems, Inc. in the United
+ *  States and other countries.
+ *
+ *  Please see the license information page at :
+ *  <http://www.jxta.org/project/www/license.html> for instructions on use of
+ *  the license in source files.
+ *
+ *  ====================================================================
+ *
+ *  This software consists of voluntary contributions made by many individuals
+ *  on behalf of Project JXTA. For more information on Project JXTA, please see
+ *  http://www.jxta.org.
+ *
+ *  This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+
+package net.jxta.impl.xindice.core.filer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size bounded cache of strong references using a segmented LRU eviction
+ * policy. New entries are admitted to a probationary segment and are only
+ * promoted to the protected segment when they are hit again. Entries
+ * expected to be hot, such as B-tree branch nodes, may be admitted directly
+ * to the protected segment. Entries falling out of the protected segment are
+ * given another chance in the probationary segment, so a scan of many cold
+ * entries only ever evicts other probationary entries.
+ * <p/>
+ * The cache is only concerned with keeping frequently used objects
+ * reachable. It does not guarantee that at most one object exists per key,
+ * callers keep their own identity maps for that.
+ *
+ * @param <V> The type of the cached values.
+ */
+public final class SegmentedLruCache<V> {
+
+    /**
+     * Entries which have been used only once since admission, in LRU order.
+     */
+    private final LinkedHashMap<Long, V> probation = new LinkedHashMap<Long, V>(16, 0.75f, true);
+
+    /**
+     * Entries which have been used more than once or which were admitted as
+     * hot, in LRU order.
+     */
+    private final LinkedHashMap<Long, V> protect = new LinkedHashMap<Long, V>(16, 0.75f, true);
+
+    /**
+     * The maximum number of entries in both segments.
+     */
+    private int maxSize;
+
+    /**
+     * The maximum number of entries in the protected segment.
+     */
+    private int protectedMaxSize;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Create a new cache.
+     *
+     * @param maxSize The maximum number of entries. {@code 0} disables
+     * caching.
+     */
+    public SegmentedLruCache(int maxSize) {
+        setMaxSize(maxSize);
+    }
+
+    /**
+     * Sets the maximum number of entries, evicting entries if necessary.
+     *
+     * @param maxSize The maximum number of entries. {@code 0} disables
+     * caching.
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Cache size must not be negative");
+        }
+
+        this.maxSize = maxSize;
+        this.protectedMaxSize = (maxSize * 4) / 5;
+
+        trimProtected();
+        trim();
+    }
+
+    /**
+     * Returns the maximum number of entries.
+     *
+     * @return The maximum number of entries.
+     */
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the current number of entries.
+     *
+     * @return The current number of entries.
+     */
+    public synchronized int size() {
+        return probation.size() + protect.size();
+    }
+
+    /**
+     * Returns the cached value for the key, promoting it if it was in the
+     * probationary segment.
+     *
+     * @param key The key.
+     * @return The value or {@code null} if not cached.
+     */
+    public synchronized V get(long key) {
+        V value = protect.get(key);
+
+        if (null == value) {
+            value = probation.remove(key);
+
+            if (null == value) {
+                misses++;
+                return null;
+            }
+
+            protect.put(key, value);
+            trimProtected();
+        }
+
+        hits++;
+        return value;
+    }
+
+    /**
+     * Adds a value to the cache.
+     *
+     * @param key   The key.
+     * @param value The value.
+     * @param hot   If {@code true} the value is admitted directly to the
+     *              protected segment.
+     */
+    public synchronized void put(long key, V value, boolean hot) {
+        if (0 == maxSize) {
+            return;
+        }
+
+        if (hot || protect.containsKey(key)) {
+            probation.remove(key);
+            protect.put(key, value);
+            trimProtected();
+        } else {
+            probation.put(key, value);
+        }
+
+        trim();
+    }
+
+    /**
+     * Removes a value from the cache.
+     *
+     * @param key The key.
+     */
+    public synchronized void remove(long key) {
+        if (null == protect.remove(key)) {
+            probation.remove(key);
+        }
+    }
+
+    /**
+     * Removes all values from the cache. The counters are not reset.
+     */
+    public synchronized void clear() {
+        probation.clear();
+        protect.clear();
+    }
+
+    /**
+     * Demotes the least recently used protected entries to the most recently
+     * used end of the probationary segment.
+     */
+    private void trimProtected() {
+        Iterator<Map.Entry<Long, V>> eldest = protect.entrySet().iterator();
+
+        while (protect.size() > protectedMaxSize) {
+            Map.Entry<Long, V> demote = eldest.next();
+
+            eldest.remove();
+            probation.put(demote.getKey(), demote.getValue());
+        }
+    }
+
+    /**
+     * Evicts the least recently used probationary entries until the cache is
+     * within its bounds.
+     */
+    private void trim() {
+        Iterator<Long> eldest = probation.keySet().iterator();
+
+        while ((probation.size() + protect.size()) > maxSize && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Returns the number of successful lookups.
+     *
+     * @return The number of successful lookups.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of failed lookups.
+     *
+     * @return The number of failed lookups.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of entries evicted to stay within the size bound.
+     *
+     * @return The number of evicted entries.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns the fraction of lookups which were successful.
+     *
+     * @return The hit rate between 0 and 1.
+     */
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+
+        return (0 == lookups) ? 0.0 : ((double) hits / lookups);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public synchronized String toString() {
+        return "size=" + size() + "/" + maxSize + " protected=" + protect.size() + " hits=" + hits + " misses=" + misses
+                + " evictions=" + evictions;
+    }
+}
@@ -269,7 +269,12 @@ public abstract class DiscoveryResponseMsg {
         for (Object response : responses) {
             if (response instanceof Advertisement) {
                 Advertisement tempAdvRes = (Advertisement)response;
-                this.responses.add(tempAdvRes.getSignedDocument().toString());
+
+                try {
+                    this.responses.add(new String(tempAdvRes.getSignedDocumentBytes(), "UTF-8"));
+                } catch (IOException failed) {
+                    Logging.logCheckedWarning(LOG, "Could not serialize advertisement", failed);
+                }
             } else if (response instanceof String) {
                 this.responses.add((String) response);
             } else if (response instanceof InputStream) {
@@ -72,7 +72,6 @@ import java.io.ByteArrayInputStream;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -115,27 +114,19 @@ public abstract class PeerAdvertisement extends ExtendableAdvertisement implemen
     private final Map<ID, StructuredDocument> serviceParams = new HashMap<ID, StructuredDocument>();
 
     /**
-     * Counts the changes made to this object. We rely on implementations to
-     * increment modCount every time something is changed without going through
-     * the API.
-     */
-    private final transient AtomicInteger modCount = new AtomicInteger(0);
-
-    /**
-     * Returns the number of times this object has been modified since
-     * it was created. This permits to detection of local changes that require
-     * refreshing of other data which depends upon the peer advertisement.
-     *
-     * @return int the current modification count.
+     * {@inheritDoc}
+     * <p/>
+     * All of the mutators of this class increment the modification count.
      */
-
-    public int getModCount() {
-        return modCount.get();
+    @Override
+    protected boolean isModCountTracked() {
+        return true;
     }
 
     /**
-     * Increments the modification count for this peer advertisement.
+     * {@inheritDoc}
      */
+    @Override
     protected int incModCount() {
 
         if (Logging.SHOW_DEBUG && LOG.isLoggable(Level.FINE)) {
@@ -148,7 +139,7 @@ public abstract class PeerAdvertisement extends ExtendableAdvertisement implemen
 
         }
 
-        return modCount.incrementAndGet();
+        return super.incModCount();
     }
 
     /**
@@ -351,6 +342,7 @@ public abstract class PeerAdvertisement extends ExtendableAdvertisement implemen
         serviceParams.clear();
 
         if (params == null) {
+            incModCount();
             return;
         }
 
@@ -187,6 +187,16 @@ public abstract class PipeAdvertisement extends ExtendableAdvertisement implemen
         return result;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * All of the mutators of this class increment the modification count.
+     */
+    @Override
+    protected boolean isModCountTracked() {
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -226,6 +236,7 @@ public abstract class PipeAdvertisement extends ExtendableAdvertisement implemen
      */
     public void setPipeID(ID pipeId) {
         this.pipeId = pipeId;
+        incModCount();
     }
 
     /**
@@ -244,6 +255,7 @@ public abstract class PipeAdvertisement extends ExtendableAdvertisement implemen
      */
     public void setType(String type) {
         this.type = type;
+        incModCount();
     }
 
     /**
@@ -262,6 +274,7 @@ public abstract class PipeAdvertisement extends ExtendableAdvertisement implemen
      */
     public void setName(String name) {
         this.name = name;
+        incModCount();
     }
 
     /**
@@ -289,6 +302,7 @@ public abstract class PipeAdvertisement extends ExtendableAdvertisement implemen
             setDesc(newdoc);
         } else {
             this.description = null;
+            incModCount();
         }
     }
 
@@ -318,5 +332,7 @@ public abstract class PipeAdvertisement extends ExtendableAdvertisement implemen
         } else {
             this.description = null;
         }
+
+        incModCount();
     }
 }
@@ -0,0 +1,60 @@
+package net.jxta.impl.cm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class ExpirationIndexTest {
+
+    private final ExpirationIndex index = new ExpirationIndex();
+
+    @Test
+    public void testGetExpired_earliestFirst() {
+        index.put("a/3", 300);
+        index.put("a/1", 100);
+        index.put("b/2", 200);
+        index.put("b/4", 400);
+
+        assertEquals(Arrays.asList("a/1", "b/2", "a/3"), index.getExpired(300, 10));
+        assertEquals(Arrays.asList("a/1", "b/2"), index.getExpired(300, 2));
+        assertEquals(Collections.<String>emptyList(), index.getExpired(99, 10));
+        assertEquals(100, index.getNextExpiration());
+    }
+
+    @Test
+    public void testPut_replacesExpiration() {
+        index.put("a/1", 100);
+        index.put("a/1", 500);
+
+        assertEquals(1, index.size());
+        assertTrue(index.getExpired(400, 10).isEmpty());
+        assertEquals(500, index.getNextExpiration());
+    }
+
+    @Test
+    public void testPutIfAbsent() {
+        index.put("a/1", 100);
+
+        assertFalse(index.putIfAbsent("a/1", 500));
+        assertTrue(index.putIfAbsent("a/2", 500));
+        assertEquals(100, index.getNextExpiration());
+    }
+
+    @Test
+    public void testRemove() {
+        index.put("a/1", 100);
+        index.put("a/2", 100);
+        index.remove("a/1");
+        index.remove("unknown");
+
+        assertEquals(Arrays.asList("a/2"), index.getExpired(100, 10));
+        index.clear();
+        assertEquals(0, index.size());
+        assertEquals(Long.MAX_VALUE, index.getNextExpiration());
+    }
+}
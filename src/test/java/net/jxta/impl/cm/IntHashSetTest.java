@@ -0,0 +1,59 @@
+package net.jxta.impl.cm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class IntHashSetTest {
+
+    private final IntHashSet set = new IntHashSet();
+
+    @Test
+    public void testAddRemoveContains() {
+        assertTrue(set.isEmpty());
+        assertTrue(set.add(3));
+        assertFalse(set.add(3));
+        assertTrue(set.add(0));
+        assertTrue(set.contains(3));
+        assertFalse(set.contains(4));
+        assertEquals(2, set.size());
+
+        assertTrue(set.remove(3));
+        assertFalse(set.remove(3));
+        assertFalse(set.contains(3));
+        assertTrue(set.contains(0));
+        assertEquals(1, set.size());
+    }
+
+    @Test
+    public void testMatchesHashSet() {
+        Random random = new Random(7);
+        Set<Integer> expected = new HashSet<Integer>();
+
+        for (int i = 0; i < 100000; i++) {
+            int value = random.nextInt(2000);
+
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(value), set.remove(value));
+            } else {
+                assertEquals(expected.add(value), set.add(value));
+            }
+        }
+
+        int[] values = set.toArray();
+        Arrays.sort(values);
+
+        assertEquals(expected.size(), set.size());
+        assertEquals(expected.size(), values.length);
+        for (int value : values) {
+            assertTrue(expected.contains(value));
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package net.jxta.impl.cm;
+
+import java.io.IOException;
+
+import net.jxta.impl.util.threads.TaskManager;
+
+public class LogStructuredCmConcurrencyTest extends AbstractCmConcurrencyTest {
+
+    @Override
+    protected AdvertisementCache createWrappedCache(String areaName, TaskManager taskManager) throws IOException {
+        return new LogStructuredAdvertisementCache(testFileStore.getRoot().toURI(), areaName, taskManager);
+    }
+}
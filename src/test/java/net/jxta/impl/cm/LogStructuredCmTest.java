@@ -0,0 +1,194 @@
+package net.jxta.impl.cm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import net.jxta.protocol.SrdiMessage.Entry;
+
+import org.junit.Test;
+
+public class LogStructuredCmTest extends AbstractCmTest {
+
+    private static final int SMALL_SEGMENT_SIZE = 4096;
+
+    @Override
+    public AdvertisementCache createWrappedCache(String areaName) throws Exception {
+        return new LogStructuredAdvertisementCache(testRootDir.toURI(), areaName, taskManager);
+    }
+
+    @Override
+    public String getCacheClassName() {
+        return LogStructuredAdvertisementCache.class.getName();
+    }
+
+    private LogStructuredAdvertisementCache createSmallSegmentCache() throws IOException {
+        return new LogStructuredAdvertisementCache(testRootDir.toURI(), "small", taskManager, 0, false, SMALL_SEGMENT_SIZE);
+    }
+
+    @Test
+    public void testReopen_restoresRecordsAndRemovals() throws Exception {
+        cm.save("a", "b", createPeerAdvert(groupId, "Peer1"), 100000, 50000);
+        cm.save("a", "c", createPeerAdvert(groupId, "Peer2"), 100000, 100000);
+        cm.save("a", "d", createPeerAdvert(groupId, "Peer3"), 100000, 100000);
+        cm.save("Raw", "x", new byte[] {1, 2, 3}, 100000, 100000);
+        cm.remove("a", "c");
+        cm.stop();
+
+        cm = new CacheManager(createWrappedCache("testArea"));
+
+        assertEquals(2, cm.getRecords("a", 10, null).size());
+        assertNull(cm.getInputStream("a", "c"));
+        assertEquals(0, cm.search("a", "Name", "Peer2", 10, null).size());
+        assertEquals("Peer3", getNameFromResult(cm.search("a", "Name", "Peer3", 10, null).get(0)));
+        assertEquals(50000L, cm.getExpirationtime("a", "b"));
+        assertEquals(3, cm.getInputStream("Raw", "x").available());
+    }
+
+    @Test
+    public void testReopen_discardsTornFrame() throws Exception {
+        cm.save("a", "b", createPeerAdvert(groupId, "Peer1"), 100000, 100000);
+        cm.stop();
+
+        // simulate a write interrupted by a crash
+        File segment = new File(new File(new File(testRootDir, "cmlog"), "testArea"), LogSegment.fileName(0));
+        FileOutputStream out = new FileOutputStream(segment, true);
+        out.write(new byte[] {0, 0, 1, 0, 42, 42});
+        out.close();
+
+        cm = new CacheManager(createWrappedCache("testArea"));
+        cm.save("a", "c", createPeerAdvert(groupId, "Peer2"), 100000, 100000);
+        cm.stop();
+
+        cm = new CacheManager(createWrappedCache("testArea"));
+        assertEquals(2, cm.search("a", "Name", "Peer*", 10, null).size());
+    }
+
+    @Test
+    public void testRemove_withdrawsAdvertisement() throws Exception {
+        cm.save("a", "b", createPeerAdvert(groupId, "Peer1"), 100000L, 200000L);
+        cm.getDeltas("a");
+        cm.setTrackDeltas(true);
+        cm.remove("a", "b");
+
+        List<Entry> deltas = cm.getDeltas("a");
+
+        assertEquals(2, deltas.size());
+        for (Entry delta : deltas) {
+            assertEquals(0, delta.expiration);
+        }
+    }
+
+    @Test
+    public void testGarbageCollect_dropsExpiredSegments() throws Exception {
+        LogStructuredAdvertisementCache cache = createSmallSegmentCache();
+
+        fakeTimer.currentTime = 0;
+        for (int i = 0; i < 100; i++) {
+            cache.save("a", "expired" + i, createPeerAdvert(groupId, "Peer" + i), 10000, 10000);
+        }
+        cache.save("a", "live", createPeerAdvert(groupId, "LivePeer"), 100000, 100000);
+
+        assertTrue(cache.getSegmentCount() > 2);
+
+        fakeTimer.currentTime = 50000;
+        cache.garbageCollect();
+
+        assertEquals(1, cache.getRecords("a", 1000, null).size());
+        // only the active segment, which holds the live record, remains
+        assertEquals(1, cache.getSegmentCount());
+
+        cache.stop();
+        cache = createSmallSegmentCache();
+        assertEquals(1, cache.getRecords("a", 1000, null).size());
+        assertNotNull(cache.getInputStream("a", "live"));
+        cache.stop();
+    }
+
+    @Test
+    public void testGarbageCollect_compactsReplacedAndRemovedRecords() throws Exception {
+        LogStructuredAdvertisementCache cache = createSmallSegmentCache();
+
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 20; i++) {
+                cache.save("a", "fn" + i, createPeerAdvert(groupId, "Peer" + i + "-" + round), 100000, 100000);
+            }
+        }
+        for (int i = 0; i < 20; i += 2) {
+            cache.remove("a", "fn" + i);
+        }
+
+        int segmentsBefore = cache.getSegmentCount();
+
+        cache.garbageCollect();
+
+        assertTrue(cache.getSegmentCount() < segmentsBefore);
+        checkCompacted(cache);
+
+        cache.stop();
+        cache = createSmallSegmentCache();
+        checkCompacted(cache);
+        cache.stop();
+    }
+
+    @Test
+    public void testGarbageCollect_keepsRemovalMaskingOlderVersion() throws Exception {
+        LogStructuredAdvertisementCache cache = createSmallSegmentCache();
+
+        fakeTimer.currentTime = 0;
+        // the oldest segment stays live and holds the first version
+        cache.save("a", "x", createPeerAdvert(groupId, "Old"), 1000000, 1000000);
+        saveFillers(cache, "keep", 20, 1000000);
+
+        // the removal is followed by a shorter lived version
+        cache.remove("a", "x");
+        saveFillers(cache, "short", 20, 10000);
+        cache.save("a", "x", createPeerAdvert(groupId, "New"), 100000, 100000);
+        saveFillers(cache, "medium", 20, 100000);
+
+        // compacts the removal while the new version is still live
+        fakeTimer.currentTime = 50000;
+        cache.garbageCollect();
+        assertEquals("New", getNameFromResult(cache.getInputStream("a", "x")));
+
+        // seal the copies, then compact them once the new version expired
+        saveFillers(cache, "late", 20, 100000);
+        fakeTimer.currentTime = 200000;
+        cache.garbageCollect();
+        assertNull(cache.getInputStream("a", "x"));
+
+        cache.stop();
+        cache = createSmallSegmentCache();
+        assertNull(cache.getInputStream("a", "x"));
+        assertEquals(20, cache.getRecords("a", 1000, null).size());
+        cache.stop();
+    }
+
+    private void saveFillers(LogStructuredAdvertisementCache cache, String prefix, int count, long lifetime) throws IOException {
+        for (int i = 0; i < count; i++) {
+            cache.save("a", prefix + i, createPeerAdvert(groupId, prefix + i), lifetime, lifetime);
+        }
+    }
+
+    private void checkCompacted(LogStructuredAdvertisementCache cache) throws IOException {
+        assertEquals(10, cache.getRecords("a", 1000, null).size());
+        for (int i = 0; i < 20; i++) {
+            InputStream stream = cache.getInputStream("a", "fn" + i);
+
+            if (0 == i % 2) {
+                assertNull(stream);
+            } else {
+                assertEquals("Peer" + i + "-9", getNameFromResult(stream));
+            }
+        }
+        assertEquals(1, cache.search("a", "Name", "Peer11-*", 10, null).size());
+        assertEquals(0, cache.search("a", "Name", "Peer10-*", 10, null).size());
+    }
+}
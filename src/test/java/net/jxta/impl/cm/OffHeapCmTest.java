@@ -0,0 +1,142 @@
+package net.jxta.impl.cm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import net.jxta.protocol.PeerAdvertisement;
+import net.jxta.protocol.SrdiMessage.Entry;
+
+import org.junit.Test;
+
+public class OffHeapCmTest extends AbstractCmTest {
+
+    private static final int SLAB_SIZE = 4096;
+    private static final int CHUNK_SIZE = 256;
+    private static final int CAPACITY = 4 * SLAB_SIZE;
+    private static final int RECORD_SIZE = 1000;
+
+    @Override
+    public AdvertisementCache createWrappedCache(String areaName) throws Exception {
+        return new OffHeapAdvertisementCache(testRootDir.toURI(), areaName, taskManager);
+    }
+
+    @Override
+    public String getCacheClassName() {
+        return OffHeapAdvertisementCache.class.getName();
+    }
+
+    private OffHeapAdvertisementCache createSmallCache() {
+        return new OffHeapAdvertisementCache("small", taskManager, 0, false, CAPACITY, SLAB_SIZE, CHUNK_SIZE);
+    }
+
+    @Test
+    public void testSave_evictsEarliestExpiringWhenFull() throws Exception {
+        OffHeapAdvertisementCache cache = createSmallCache();
+        // each record takes four chunks
+        int fit = CAPACITY / (4 * CHUNK_SIZE);
+
+        fakeTimer.currentTime = 0;
+        cache.save("a", "keeper", new byte[RECORD_SIZE], 100 * OffHeapAdvertisementCache.BUCKET_WIDTH, 0);
+        for (int i = 0; i < 40; i++) {
+            cache.save("a", "fn" + i, new byte[RECORD_SIZE], (i + 1) * OffHeapAdvertisementCache.BUCKET_WIDTH, 0);
+        }
+
+        assertTrue(cache.getAllocatedBytes() <= CAPACITY);
+        assertEquals(41 - fit, cache.getEvictionCount());
+        assertNotNull(cache.getInputStream("a", "keeper"));
+        assertNotNull(cache.getInputStream("a", "fn39"));
+        assertNull(cache.getInputStream("a", "fn0"));
+        assertEquals(-1, cache.getLifetime("a", "fn" + (40 - fit)));
+        assertNotNull(cache.getInputStream("a", "fn" + (41 - fit)));
+        cache.stop();
+    }
+
+    @Test
+    public void testSave_evictionWithdrawsAdvertisement() throws Exception {
+        OffHeapAdvertisementCache cache = new OffHeapAdvertisementCache("small", taskManager, 0, true, CAPACITY, SLAB_SIZE, CHUNK_SIZE);
+        PeerAdvertisement peer = createPeerAdvert(groupId, "Peer1");
+
+        fakeTimer.currentTime = 0;
+        // not shared, so the save itself generates no deltas
+        cache.save("a", "evicted", peer, OffHeapAdvertisementCache.BUCKET_WIDTH, 0);
+        for (int i = 0; i < 20; i++) {
+            cache.save("Raw", "fn" + i, new byte[RECORD_SIZE], 10 * OffHeapAdvertisementCache.BUCKET_WIDTH, 0);
+        }
+
+        assertNull(cache.getInputStream("a", "evicted"));
+
+        List<Entry> expectedDeltas = new ArrayList<Entry>(2);
+        expectedDeltas.add(new Entry("PID", peer.getPeerID().toString(), 0));
+        expectedDeltas.add(new Entry("Name", peer.getName(), 0));
+
+        List<Entry> deltas = cache.getDeltas("a");
+
+        assertEquals(expectedDeltas.size(), deltas.size());
+        assertTrue(deltas.containsAll(expectedDeltas));
+        for (Entry delta : deltas) {
+            assertEquals(0, delta.expiration);
+        }
+        assertEquals(0, cache.getDeltas("Raw").size());
+        cache.stop();
+    }
+
+    @Test
+    public void testRemove_withdrawsAdvertisement() throws Exception {
+        PeerAdvertisement peer = createPeerAdvert(groupId, "Peer1");
+
+        cm.save("a", "b", peer, 100000L, 200000L);
+        cm.getDeltas("a");
+        cm.setTrackDeltas(true);
+        cm.remove("a", "b");
+
+        List<Entry> deltas = cm.getDeltas("a");
+
+        assertEquals(2, deltas.size());
+        for (Entry delta : deltas) {
+            assertEquals(0, delta.expiration);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testSave_rejectsRecordLargerThanCapacity() throws Exception {
+        OffHeapAdvertisementCache cache = createSmallCache();
+
+        try {
+            cache.save("a", "b", new byte[CAPACITY + 1], 10000, 10000);
+        } finally {
+            cache.stop();
+        }
+    }
+
+    @Test
+    public void testGarbageCollect_releasesExpiredRecords() throws Exception {
+        OffHeapAdvertisementCache cache = createSmallCache();
+
+        fakeTimer.currentTime = 0;
+        cache.save("a", "expired", createPeerAdvert(groupId, "Peer1"), 10000, 10000);
+        cache.save("a", "live", createPeerAdvert(groupId, "Peer2"), 10 * OffHeapAdvertisementCache.BUCKET_WIDTH, 10000);
+        cache.save("Raw", "expired", new byte[RECORD_SIZE], 10000, 10000);
+
+        fakeTimer.currentTime = 50000;
+        cache.garbageCollect();
+
+        assertNull(cache.getInputStream("a", "expired"));
+        assertNull(cache.getInputStream("Raw", "expired"));
+        assertEquals(0, cache.search("a", "Name", "Peer1", 10, null).size());
+        assertEquals(1, cache.search("a", "Name", "Peer*", 10, null).size());
+        assertEquals(2, cache.getEntries("a", false).size());
+
+        // the released chunks are reused rather than evicting
+        for (int i = 0; i < 10; i++) {
+            cache.save("Raw", "fn" + i, new byte[RECORD_SIZE], 10000, 10000);
+        }
+        assertEquals(0, cache.getEvictionCount());
+        cache.stop();
+    }
+}
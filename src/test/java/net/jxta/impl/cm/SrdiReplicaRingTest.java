@@ -0,0 +1,166 @@
+package net.jxta.impl.cm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import net.jxta.id.IDFactory;
+import net.jxta.peer.PeerID;
+import net.jxta.peergroup.PeerGroupID;
+
+import org.junit.Test;
+
+public class SrdiReplicaRingTest {
+
+    private static final int KEYS = 10000;
+    private static final int PEERS = 20;
+    private static final int CHURN = 50;
+
+    private final SrdiReplicaRing ring = new SrdiReplicaRing(64);
+
+    @Test
+    public void testEmptyRing() {
+        assertNull(ring.get("key"));
+        assertEquals(0, ring.size());
+    }
+
+    @Test
+    public void testMembership() {
+        PeerID a = newPeerID();
+        PeerID b = newPeerID();
+
+        assertTrue(ring.add(a));
+        assertFalse(ring.add(a));
+        assertEquals(a, ring.get("key"));
+
+        assertTrue(ring.setMembers(Arrays.asList(a, b)));
+        assertFalse(ring.setMembers(Arrays.asList(b, a)));
+        assertEquals(2, ring.size());
+
+        assertTrue(ring.remove(a));
+        assertFalse(ring.remove(a));
+        assertEquals(Collections.singleton(b), ring.getMembers());
+        assertEquals(b, ring.get("key"));
+    }
+
+    @Test
+    public void testSameMembersSameMapping() {
+        List<PeerID> peers = newPeerIDs(PEERS);
+        SrdiReplicaRing other = new SrdiReplicaRing(64);
+
+        ring.setMembers(peers);
+        Collections.reverse(peers);
+        for (PeerID peer : peers) {
+            other.add(peer);
+        }
+
+        for (int i = 0; i < KEYS; i++) {
+            assertEquals(ring.get("key" + i), other.get("key" + i));
+        }
+    }
+
+    @Test
+    public void testDistribution() {
+        List<PeerID> peers = newPeerIDs(PEERS);
+
+        ring.setMembers(peers);
+
+        Map<PeerID, Integer> counts = new HashMap<PeerID, Integer>();
+
+        for (int i = 0; i < KEYS; i++) {
+            PeerID owner = ring.get("key" + i);
+            Integer count = counts.get(owner);
+
+            counts.put(owner, (null == count) ? 1 : count + 1);
+        }
+
+        assertEquals(PEERS, counts.size());
+        for (int count : counts.values()) {
+            // within a factor of two of the fair share
+            assertTrue(count > KEYS / PEERS / 2);
+            assertTrue(count < KEYS / PEERS * 2);
+        }
+    }
+
+    /**
+     * Simulates rendezvous joining and leaving the view and checks that only
+     * the keys owned by the changed peer move.
+     */
+    @Test
+    public void testChurnMovesOnlyAffectedKeys() {
+        Random random = new Random(42);
+        List<PeerID> peers = newPeerIDs(PEERS);
+
+        ring.setMembers(peers);
+
+        PeerID[] owners = owners();
+        long moved = 0;
+        long unexpected = 0;
+
+        for (int round = 0; round < CHURN; round++) {
+            PeerID changed;
+
+            if (random.nextBoolean() && (peers.size() > PEERS / 2)) {
+                changed = peers.remove(random.nextInt(peers.size()));
+                ring.remove(changed);
+            } else {
+                changed = newPeerID();
+                peers.add(changed);
+                ring.add(changed);
+            }
+
+            PeerID[] next = owners();
+
+            for (int i = 0; i < KEYS; i++) {
+                if (!owners[i].equals(next[i])) {
+                    moved++;
+                    // a key may only move to or from the changed peer
+                    if (!owners[i].equals(changed) && !next[i].equals(changed)) {
+                        unexpected++;
+                    }
+                }
+            }
+
+            owners = next;
+        }
+
+        double movedPerChange = (double) moved / CHURN / KEYS;
+
+        assertEquals(0, unexpected);
+        // about 1/n of the keys should move, the positional mapping moves most of them
+        assertTrue(movedPerChange < 2.0 / (PEERS / 2));
+    }
+
+    private PeerID[] owners() {
+        PeerID[] owners = new PeerID[KEYS];
+
+        for (int i = 0; i < KEYS; i++) {
+            owners[i] = ring.get("key" + i);
+        }
+
+        return owners;
+    }
+
+    private static List<PeerID> newPeerIDs(int count) {
+        List<PeerID> peers = new ArrayList<PeerID>(count);
+
+        for (int i = 0; i < count; i++) {
+            peers.add(newPeerID());
+        }
+
+        return peers;
+    }
+
+    private static PeerID newPeerID() {
+        return IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID);
+    }
+}
@@ -0,0 +1,132 @@
+package net.jxta.impl.cm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import net.jxta.document.AdvertisementFactory;
+import net.jxta.id.IDFactory;
+import net.jxta.impl.util.threads.TaskManager;
+import net.jxta.peergroup.PeerGroupID;
+import net.jxta.protocol.PeerAdvertisement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that concurrent queries of the XIndice cache see consistent results
+ * while a writer continuously updates an unrelated directory.
+ */
+public class XIndiceCmConcurrentReadWriteTest {
+
+    private static final String[] QUERY_DIRECTORIES = { "alpha", "bravo", "charlie", "delta" };
+    private static final String WRITE_DIRECTORY = "echo";
+    private static final int FILES_PER_DIRECTORY = 200;
+    private static final int PEER_NAMES = 10;
+    private static final int NUM_READERS = 4;
+    private static final int NUM_QUERIES = 200;
+
+    @Rule
+    public TemporaryFolder testFileStore = new TemporaryFolder();
+
+    private TaskManager taskManager;
+    private CacheManager cm;
+
+    @Before
+    public void setUp() throws Exception {
+        taskManager = new TaskManager();
+        cm = new CacheManager(new XIndiceAdvertisementCache(testFileStore.getRoot().toURI(), "readwrite", taskManager));
+
+        for (String dn : QUERY_DIRECTORIES) {
+            for (int fn = 0; fn < FILES_PER_DIRECTORY; fn++) {
+                cm.save(dn, Integer.toString(fn), createPeerAdvert("peer" + (fn % PEER_NAMES)));
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        cm.stop();
+        taskManager.shutdown();
+    }
+
+    @Test(timeout=60000)
+    public void testConcurrentQueries_whileWriting() throws Exception {
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        final CountDownLatch readersLatch = new CountDownLatch(NUM_READERS);
+        final CountDownLatch writerLatch = new CountDownLatch(1);
+
+        new Thread(new Runnable() {
+            public void run() {
+                Random r = new Random();
+
+                try {
+                    while (writing.get()) {
+                        String fn = Integer.toString(r.nextInt(FILES_PER_DIRECTORY));
+
+                        if (r.nextBoolean()) {
+                            cm.save(WRITE_DIRECTORY, fn, createPeerAdvert("writer"));
+                        } else {
+                            cm.remove(WRITE_DIRECTORY, fn);
+                        }
+                    }
+                } catch (Throwable t) {
+                    t.printStackTrace();
+                    failed.set(true);
+                } finally {
+                    writerLatch.countDown();
+                }
+            }
+        }, "writer").start();
+
+        for (int i = 0; i < NUM_READERS; i++) {
+            new Thread(new Runnable() {
+                public void run() {
+                    Random r = new Random();
+
+                    try {
+                        for (int query = 0; query < NUM_QUERIES; query++) {
+                            String dn = QUERY_DIRECTORIES[r.nextInt(QUERY_DIRECTORIES.length)];
+                            int fn = r.nextInt(FILES_PER_DIRECTORY);
+                            List<InputStream> results = cm.search(dn, "Name", "peer" + (fn % PEER_NAMES), CacheManager.NO_THRESHOLD, null);
+
+                            assertEquals(FILES_PER_DIRECTORY / PEER_NAMES, results.size());
+                            assertTrue(null != cm.getInputStream(dn, Integer.toString(fn)));
+                            assertTrue(cm.getExpirationtime(dn, Integer.toString(fn)) > 0);
+                        }
+                    } catch (Throwable t) {
+                        t.printStackTrace();
+                        failed.set(true);
+                    } finally {
+                        readersLatch.countDown();
+                    }
+                }
+            }, "reader " + i).start();
+        }
+
+        assertTrue("Readers did not complete", readersLatch.await(30, TimeUnit.SECONDS));
+        writing.set(false);
+        assertTrue("Writer did not complete", writerLatch.await(30, TimeUnit.SECONDS));
+        assertTrue("Worker failed", !failed.get());
+    }
+
+    private PeerAdvertisement createPeerAdvert(String peerName) {
+        PeerAdvertisement peerAdv = (PeerAdvertisement)
+        AdvertisementFactory.newAdvertisement(PeerAdvertisement.getAdvertisementType());
+
+        peerAdv.setPeerGroupID(PeerGroupID.defaultNetPeerGroupID);
+        peerAdv.setPeerID(IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID));
+        peerAdv.setName(peerName);
+        return peerAdv;
+    }
+}
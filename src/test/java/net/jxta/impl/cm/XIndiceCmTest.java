@@ -56,8 +56,13 @@
 
 package net.jxta.impl.cm;
 
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
 import java.io.IOException;
 
+import org.junit.Test;
+
 /**
  * This test overrides first AbstractCmTest which again overrides 
  * FileSystemTest, which lets us specify the testDirPrefix
@@ -84,5 +89,27 @@ public class XIndiceCmTest extends AbstractCmTest {
 	public String getCacheClassName() {
 		return XIndiceAdvertisementCache.class.getName();
 	}
+
+	@Test
+	public void testGarbageCollect_purgesOnlyExpiredRecords() throws Exception {
+		XIndiceAdvertisementCache cache = (XIndiceAdvertisementCache) wrappedCache;
+
+		fakeTimer.currentTime = 0;
+		cm.save("a", "expired", createPeerAdvert(groupId, "Peer1"), 10000, 10000);
+		cm.save("a", "live", createPeerAdvert(groupId, "Peer2"), 100000, 100000);
+		cm.save("a", "refreshed", createPeerAdvert(groupId, "Peer3"), 10000, 10000);
+		cm.save("Raw", "expired", new byte[] {1, 2, 3}, 10000, 10000);
+
+		fakeTimer.currentTime = 5000;
+		cm.save("a", "refreshed", createPeerAdvert(groupId, "Peer3"), 100000, 100000);
+
+		fakeTimer.currentTime = 50000;
+		cm.garbageCollect();
+
+		assertNull(cache.restoreBytes("a", "expired"));
+		assertNull(cache.restoreBytes("Raw", "expired"));
+		assertNotNull(cache.restoreBytes("a", "live"));
+		assertNotNull(cache.restoreBytes("a", "refreshed"));
+	}
 	
 }
@@ -1,10 +1,25 @@
 package net.jxta.impl.cm.sql;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import net.jxta.impl.cm.AbstractCmTest;
 import net.jxta.impl.cm.AdvertisementCache;
 
+import org.junit.Test;
+
 public class H2AdvertisementCacheTest extends AbstractCmTest {
 
+	/** More threads than the cache has connections. */
+	private static final int NUM_THREADS = 24;
+	private static final int NUM_OPERATIONS = 200;
+
 	@Override
 	public AdvertisementCache createWrappedCache(String areaName) throws Exception {
 		return new H2AdvertisementCache(testRootDir.toURI(), areaName, taskManager);
@@ -14,4 +29,33 @@ public class H2AdvertisementCacheTest extends AbstractCmTest {
 	public String getCacheClassName() {
 		return H2AdvertisementCache.class.getName();
 	}
+
+	@Test
+	public void testConcurrentAccess_withMoreThreadsThanConnections() throws Exception {
+		final CountDownLatch completionLatch = new CountDownLatch(NUM_THREADS);
+		final List<Throwable> failures = Collections.synchronizedList(new LinkedList<Throwable>());
+
+		for(int i=0; i < NUM_THREADS; i++) {
+			final String fn = "fn" + i;
+			new Thread(new Runnable() {
+				public void run() {
+					try {
+						for(int op=0; op < NUM_OPERATIONS; op++) {
+							wrappedCache.save("dn", fn, new byte[64], 10000L, 10000L);
+							wrappedCache.getLifetime("dn", fn);
+						}
+					} catch(Throwable t) {
+						failures.add(t);
+					} finally {
+						completionLatch.countDown();
+					}
+				}
+			}).start();
+		}
+
+		// the connection wait times out after a minute, so finishing well within it
+		// shows that released connections are handed on to waiting threads
+		assertTrue("Timed out", completionLatch.await(30, TimeUnit.SECONDS));
+		assertEquals(Collections.emptyList(), failures);
+	}
 }
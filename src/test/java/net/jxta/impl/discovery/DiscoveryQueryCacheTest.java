@@ -0,0 +1,137 @@
+package net.jxta.impl.discovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class DiscoveryQueryCacheTest {
+
+    private final DiscoveryQueryCache cache = new DiscoveryQueryCache(60 * 1000, 16);
+
+    private final AtomicInteger lookups = new AtomicInteger(0);
+
+    private final DiscoveryQueryCache.Lookup lookup = new DiscoveryQueryCache.Lookup() {
+
+        public List<String> lookup(List<Long> expirations) {
+            lookups.incrementAndGet();
+            expirations.add(10 * 60 * 1000L);
+            return Arrays.asList("<adv/>");
+        }
+    };
+
+    @Test
+    public void testIdenticalQueriesHitCache() {
+        DiscoveryQueryCache.Results first = cache.get("Adv", "Name", "foo", 10, lookup);
+        DiscoveryQueryCache.Results second = cache.get("Adv", "Name", "foo", 10, lookup);
+
+        assertEquals(1, lookups.get());
+        assertEquals(first.getResponses(), second.getResponses());
+        assertEquals(1, second.getExpirations().size());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getSavedLookups());
+        assertEquals(0.5, cache.getHitRate(), 0.0);
+    }
+
+    @Test
+    public void testDifferentQueriesMiss() {
+        cache.get("Adv", "Name", "foo", 10, lookup);
+        cache.get("Adv", "Name", "bar", 10, lookup);
+        cache.get("Adv", "Name", "foo", 5, lookup);
+        cache.get("Peers", "Name", "foo", 10, lookup);
+        cache.get("Adv", null, null, 10, lookup);
+
+        assertEquals(5, lookups.get());
+        assertEquals(0, cache.getHits());
+    }
+
+    @Test
+    public void testInvalidateMatchingField() {
+        cache.get("Adv", "Name", "foo", 10, lookup);
+        cache.get("Adv", "Desc", "foo", 10, lookup);
+        cache.get("Adv", null, null, 10, lookup);
+
+        cache.invalidate("Adv", new String[] {"Name"});
+        assertEquals(1, cache.size());
+        assertEquals(2, cache.getInvalidations());
+
+        cache.get("Adv", "Desc", "foo", 10, lookup);
+        assertEquals(3, lookups.get());
+
+        cache.invalidate("Adv", null);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testExpiredResultsAreLookedUpAgain() throws Exception {
+        DiscoveryQueryCache shortLived = new DiscoveryQueryCache(1, 16);
+
+        shortLived.get("Adv", "Name", "foo", 10, lookup);
+        Thread.sleep(20);
+        shortLived.get("Adv", "Name", "foo", 10, lookup);
+
+        assertEquals(2, lookups.get());
+    }
+
+    @Test
+    public void testConcurrentQueriesAreCoalesced() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final DiscoveryQueryCache.Lookup slow = new DiscoveryQueryCache.Lookup() {
+
+            public List<String> lookup(List<Long> expirations) {
+                lookups.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ignored) {
+                    Thread.currentThread().interrupt();
+                }
+                expirations.add(1000L);
+                return Arrays.asList("<adv/>");
+            }
+        };
+
+        Thread[] waiters = new Thread[4];
+        final AtomicInteger answered = new AtomicInteger(0);
+
+        for (int i = 0; i < waiters.length; i++) {
+            waiters[i] = new Thread() {
+
+                @Override
+                public void run() {
+                    if (1 == cache.get("Adv", "Name", "foo", 10, slow).getResponses().size()) {
+                        answered.incrementAndGet();
+                    }
+                }
+            };
+        }
+
+        waiters[0].start();
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        for (int i = 1; i < waiters.length; i++) {
+            waiters[i].start();
+        }
+
+        while (cache.getCoalesced() < waiters.length - 1) {
+            Thread.sleep(1);
+        }
+
+        release.countDown();
+        for (Thread waiter : waiters) {
+            waiter.join();
+        }
+
+        assertEquals(1, lookups.get());
+        assertEquals(waiters.length, answered.get());
+        assertEquals(waiters.length - 1, cache.getSavedLookups());
+    }
+}
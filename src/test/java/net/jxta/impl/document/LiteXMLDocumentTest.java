@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2001-2007 Sun Microsystems, Inc.  All rights reserved.
+ *
+ *  The Sun Project JXTA(TM) Software License
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *
+ *  3. The end-user documentation included with the redistribution, if any, must
+ *     include the following acknowledgment: "This product includes software
+ *     developed by Sun Microsystems, Inc. for JXTA(TM) technology."
+ *     Alternately, this acknowledgment may appear in the software itself, if
+ *     and wherever such third-party acknowledgments normally appear.
+ *
+ *  4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA" must
+ *     not be used to endorse or promote products derived from this software
+ *     without prior written permission. For written permission, please contact
+ *     Project JXTA at http://www.jxta.org.
+ *
+ *  5. Products derived from this software may not be called "JXTA", nor may
+ *     "JXTA" appear in their name, without prior written permission of Sun.
+ *
+ *  THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+ *  INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ *  FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SUN
+ *  MICROSYSTEMS OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ *  OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ *  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ *  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *  JXTA is a registered trademark of Sun Microsystems, Inc. in the United
+ *  States and other countries.
+ *
+ *  Please see the license information page at :
+ *  <http://www.jxta.org/project/www/license.html> for instructions on use of
+ *  the license in source files.
+ *
+ *  ====================================================================
+ *
+ *  This software consists of voluntary contributions made by many individuals
+ *  on behalf of Project JXTA. For more information on Project JXTA, please see
+ *  http://www.jxta.org.
+ *
+ *  This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+
+package net.jxta.impl.document;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Enumeration;
+
+import net.jxta.document.MimeMediaType;
+import net.jxta.document.XMLDocument;
+import net.jxta.document.XMLElement;
+
+import org.junit.Test;
+
+public class LiteXMLDocumentTest {
+
+    private static final String DOC =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<!DOCTYPE jxta:Test>\n"
+            + "<jxta:Test xmlns:jxta=\"http://jxta.org\" type=\"a&gt;b\">\n"
+            + "  <!-- <Ignored>comment</Ignored> -->\n"
+            + "  <Name>first</Name>\n"
+            + "  <Data><![CDATA[<NotAnElement/>]]></Data>\n"
+            + "  <Nested><Nested>inner</Nested></Nested>\n"
+            + "  <Empty attr=\"x > y\"/>\n"
+            + "  <Spaced>value</Spaced >\n"
+            + "</jxta:Test>\n";
+
+    @Test
+    public void testParseTree() throws IOException {
+        XMLDocument doc = parse(DOC, false);
+
+        assertEquals("jxta:Test", doc.getName());
+        assertEquals("a&gt;b", doc.getAttribute("type").getValue());
+        assertEquals(5, count(doc.getChildren()));
+        assertEquals("first", first(doc, "Name").getTextValue());
+        assertFalse(doc.getChildren("Ignored").hasMoreElements());
+        assertFalse(doc.getChildren("NotAnElement").hasMoreElements());
+
+        XMLElement nested = first(doc, "Nested");
+
+        assertEquals(1, count(nested.getChildren()));
+        assertEquals("inner", first(nested, "Nested").getTextValue());
+
+        XMLElement empty = first(doc, "Empty");
+
+        assertEquals("x > y", empty.getAttribute("attr").getValue());
+        assertEquals("", empty.getTextValue());
+        assertEquals("value", first(doc, "Spaced").getTextValue());
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        XMLDocument doc = parse(DOC, false);
+        XMLDocument again = parse(doc.toString(), false);
+
+        assertEquals(doc.toString(), again.toString());
+        assertEquals(count(doc.getChildren()), count(again.getChildren()));
+    }
+
+    @Test
+    public void testMutateParsed() throws IOException {
+        XMLDocument doc = parse(DOC, false);
+        XMLElement name = first(doc, "Name");
+
+        name.appendChild(doc.createElement("Child", "text"));
+        name.addAttribute("added", "yes");
+        doc.appendChild(doc.createElement("Last", "end"));
+
+        XMLDocument again = parse(doc.toString(), false);
+        XMLElement againName = first(again, "Name");
+
+        assertEquals("yes", againName.getAttribute("added").getValue());
+        assertEquals("text", first(againName, "Child").getTextValue());
+        assertEquals("end", first(again, "Last").getTextValue());
+        assertEquals("inner", first(first(again, "Nested"), "Nested").getTextValue());
+        assertEquals("value", first(again, "Spaced").getTextValue());
+    }
+
+    @Test
+    public void testCommentedOutElement() throws IOException {
+        // the previous scanner read tags inside comments as elements, the
+        // pull parser skips the whole comment.
+        XMLDocument doc = parse("<?xml version=\"1.0\"?>\n<Root><!-- <Disabled>old</Disabled> --><Name>first</Name></Root>", false);
+
+        assertEquals(1, count(doc.getChildren()));
+        assertFalse(doc.getChildren("Disabled").hasMoreElements());
+        assertEquals("first", first(doc, "Name").getTextValue());
+    }
+
+    @Test
+    public void testMalformedFallsBack() throws IOException {
+        // unclosed element, accepted by the lenient scanner
+        XMLDocument doc = parse("<?xml version=\"1.0\"?>\n<Root><Name>first</Name><Open></Root>", false);
+
+        assertEquals("Root", doc.getName());
+        assertTrue(doc.getChildren("Name").hasMoreElements());
+    }
+
+    @Test
+    public void testReadOnly() throws IOException {
+        LiteXMLDocument doc = LiteXMLDocument.newReadOnlyInstance(MimeMediaType.XMLUTF8, new StringReader(DOC));
+
+        assertTrue(doc.isReadOnly());
+        assertFalse(parse(DOC, false).isReadOnly());
+        assertEquals(parse(DOC, false).toString(), doc.toString());
+
+        XMLElement name = first(doc, "Name");
+
+        assertSame(name.getTextValue(), name.getTextValue());
+        assertNotNull(doc.getAttribute("type"));
+        assertEquals(count(doc.getAttributes()), count(doc.getAttributes()));
+
+        try {
+            doc.createElement("Child", "text");
+            fail("created an element in a read-only document");
+        } catch (UnsupportedOperationException expected) {
+            // expected
+        }
+
+        try {
+            name.addAttribute("added", "yes");
+            fail("added an attribute in a read-only document");
+        } catch (UnsupportedOperationException expected) {
+            // expected
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testLargeDocument() throws IOException {
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\"?>\n<Root>");
+        int elements = 20000;
+
+        for (int i = 0; i < elements; i++) {
+            xml.append("<Entry id=\"").append(i).append("\"><Key>k").append(i).append("</Key></Entry>");
+        }
+        xml.append("</Root>");
+
+        XMLDocument doc = parse(xml.toString(), true);
+
+        assertEquals(elements, count(doc.getChildren("Entry")));
+    }
+
+    private static LiteXMLDocument parse(String xml, boolean readOnly) throws IOException {
+        return new LiteXMLDocument(MimeMediaType.XMLUTF8, new StringReader(xml), readOnly);
+    }
+
+    private static XMLElement first(XMLElement parent, String name) {
+        return (XMLElement) parent.getChildren(name).nextElement();
+    }
+
+    private static int count(Enumeration<?> each) {
+        int count = 0;
+
+        while (each.hasMoreElements()) {
+            each.nextElement();
+            count++;
+        }
+
+        return count;
+    }
+}
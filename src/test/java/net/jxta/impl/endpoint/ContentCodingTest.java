@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2001-2007 Sun Microsystems, Inc.  All rights reserved.
+ *
+ *  The Sun Project JXTA(TM) Software License
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *
+ *  3. The end-user documentation included with the redistribution, if any, must
+ *     include the following acknowledgment: "This product includes software
+ *     developed by Sun Microsystems, Inc. for JXTA(TM) technology."
+ *     Alternately, this acknowledgment may appear in the software itself, if
+ *     and wherever such third-party acknowledgments normally appear.
+ *
+ *  4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA" must
+ *     not be used to endorse or promote products derived from this software
+ *     without prior written permission. For written permission, please contact
+ *     Project JXTA at http://www.jxta.org.
+ *
+ *  5. Products derived from this software may not be called "JXTA", nor may
+ *     "JXTA" appear in their name, without prior written permission of Sun.
+ *
+ *  THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+ *  INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ *  FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SUN
+ *  MICROSYSTEMS OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ *  OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ *  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ *  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *  JXTA is a registered trademark of Sun Microsystems, Inc. in the United
+ *  States and other countries.
+ *
+ *  Please see the license information page at :
+ *  <http://www.jxta.org/project/www/license.html> for instructions on use of
+ *  the license in source files.
+ *
+ *  ====================================================================
+ *
+ *  This software consists of voluntary contributions made by many individuals
+ *  on behalf of Project JXTA. For more information on Project JXTA, please see
+ *  http://www.jxta.org.
+ *
+ *  This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+
+package net.jxta.impl.endpoint;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import net.jxta.document.MimeMediaType;
+import net.jxta.endpoint.ByteArrayMessageElement;
+import net.jxta.endpoint.Message;
+import net.jxta.endpoint.MessageElement;
+import net.jxta.endpoint.WireFormatMessage;
+import net.jxta.endpoint.WireFormatMessageFactory;
+
+import org.junit.Test;
+
+public class ContentCodingTest {
+
+    @Test
+    public void testNegotiatePrefersPeerOrder() {
+        MimeMediaType[] accepted = new MimeMediaType[]{ContentCoding.DEFLATE, ContentCoding.LZ};
+
+        assertEquals(ContentCoding.DEFLATE, ContentCoding.negotiate(accepted));
+        assertNull(ContentCoding.negotiate(new MimeMediaType[0]));
+        assertNull(ContentCoding.negotiate(null));
+    }
+
+    @Test
+    public void testParseIgnoresUnknownEncodings() {
+        MimeMediaType[] parsed = ContentCoding.parseEncodings("application/x-unknown," + ContentCoding.LZ);
+
+        assertTrue(Arrays.equals(new MimeMediaType[]{ContentCoding.LZ}, parsed));
+    }
+
+    @Test
+    public void testEncodedMessageRoundTrip() throws Exception {
+        for (MimeMediaType encoding : ContentCoding.getSupportedEncodings()) {
+            Message msg = newLargeMessage();
+
+            WireFormatMessage serialed = new WireFormatMessageBinary(msg, WireFormatMessageFactory.DEFAULT_WIRE_MIME, new MimeMediaType[]{encoding}, true, null, false);
+
+            assertEquals(encoding, serialed.getContentEncoding());
+
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+            serialed.sendToStream(bos);
+
+            assertEquals(serialed.getByteLength(), bos.size());
+            assertTrue(bos.size() < msg.getMessageElement("test", "payload").getByteLength());
+
+            Message received = new WireFormatMessageBinary.Instantiator().fromBufferExternal(ByteBuffer.wrap(bos.toByteArray()), serialed.getMimeType(), encoding, true, null);
+            MessageElement payload = received.getMessageElement("test", "payload");
+
+            assertNotNull(payload);
+            assertTrue(Arrays.equals(msg.getMessageElement("test", "payload").getBytes(false), payload.getBytes(false)));
+        }
+    }
+
+    @Test
+    public void testDecodeStopsAtLimit() throws Exception {
+        byte[] raw = new byte[1024 * 1024];
+
+        for (MimeMediaType encoding : ContentCoding.getSupportedEncodings()) {
+            byte[] encoded = ContentCoding.encode(encoding, raw);
+
+            assertEquals(raw.length, ContentCoding.decode(encoding, ByteBuffer.wrap(encoded), raw.length).remaining());
+
+            try {
+                ContentCoding.decode(encoding, ByteBuffer.wrap(encoded), raw.length - 1);
+                fail("Decoded content larger than the limit");
+            } catch (IOException expected) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testSmallMessageIsNotEncoded() throws Exception {
+        Message msg = new Message();
+
+        msg.addMessageElement("test", new ByteArrayMessageElement("payload", null, new byte[16], null));
+
+        WireFormatMessage serialed = new WireFormatMessageBinary(msg, WireFormatMessageFactory.DEFAULT_WIRE_MIME, new MimeMediaType[]{ContentCoding.LZ}, true, null, false);
+
+        assertNull(serialed.getContentEncoding());
+    }
+
+    private static Message newLargeMessage() {
+        StringBuilder text = new StringBuilder();
+
+        for (int each = 0; each < 1000; each++) {
+            text.append("the quick brown fox jumps over the lazy dog ");
+        }
+
+        Message msg = new Message();
+
+        msg.addMessageElement("test", new ByteArrayMessageElement("payload", MimeMediaType.TEXT_DEFAULTENCODING, text.toString().getBytes(), null));
+
+        return msg;
+    }
+}
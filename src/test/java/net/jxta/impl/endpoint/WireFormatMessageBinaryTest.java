@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2001-2007 Sun Microsystems, Inc.  All rights reserved.
+ *
+ *  The Sun Project JXTA(TM) Software License
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *
+ *  3. The end-user documentation included with the redistribution, if any, must
+ *     include the following acknowledgment: "This product includes software
+ *     developed by Sun Microsystems, Inc. for JXTA(TM) technology."
+ *     Alternately, this acknowledgment may appear in the software itself, if
+ *     and wherever such third-party acknowledgments normally appear.
+ *
+ *  4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA" must
+ *     not be used to endorse or promote products derived from this software
+ *     without prior written permission. For written permission, please contact
+ *     Project JXTA at http://www.jxta.org.
+ *
+ *  5. Products derived from this software may not be called "JXTA", nor may
+ *     "JXTA" appear in their name, without prior written permission of Sun.
+ *
+ *  THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+ *  INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ *  FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SUN
+ *  MICROSYSTEMS OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ *  OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ *  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ *  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *  JXTA is a registered trademark of Sun Microsystems, Inc. in the United
+ *  States and other countries.
+ *
+ *  Please see the license information page at :
+ *  <http://www.jxta.org/project/www/license.html> for instructions on use of
+ *  the license in source files.
+ *
+ *  ====================================================================
+ *
+ *  This software consists of voluntary contributions made by many individuals
+ *  on behalf of Project JXTA. For more information on Project JXTA, please see
+ *  http://www.jxta.org.
+ *
+ *  This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+
+package net.jxta.impl.endpoint;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import net.jxta.document.MimeMediaType;
+import net.jxta.endpoint.ByteArrayMessageElement;
+import net.jxta.endpoint.Message;
+import net.jxta.endpoint.MessageElement;
+import net.jxta.endpoint.StringMessageElement;
+import net.jxta.endpoint.WireFormatMessageFactory;
+
+import org.junit.Test;
+
+public class WireFormatMessageBinaryTest {
+
+    @Test
+    public void testElementsShareReceivedBuffer() throws IOException {
+        Message msg = new Message();
+
+        msg.addMessageElement("jxta", new StringMessageElement("EndpointRouterMsg", "route", null));
+        byte[] content = new byte[5000];
+        Arrays.fill(content, (byte) 'p');
+        msg.addMessageElement("app", new ByteArrayMessageElement("payload", null, content, null));
+
+        byte[] wire = serialize(msg);
+        ByteBuffer received = ByteBuffer.wrap(wire);
+        Message result = new WireFormatMessageBinary.Instantiator().readMessage(received, WireFormatMessageFactory.DEFAULT_WIRE_MIME, true, null, false);
+
+        assertFalse(received.hasRemaining());
+
+        MessageElement route = result.getMessageElement("jxta", "EndpointRouterMsg");
+        MessageElement payload = result.getMessageElement("app", "payload");
+
+        assertEquals("route", route.toString());
+        assertEquals(5000, payload.getByteLength());
+
+        // the element content is not copied out of the received buffer
+        int contentAt = new String(wire, "ISO-8859-1").indexOf(new String(content, "ISO-8859-1"));
+        wire[contentAt] = 'x';
+        assertEquals('x', payload.getByteBuffer().get(0));
+    }
+
+    @Test
+    public void testElementBufferIsReadOnly() throws IOException {
+        Message msg = new Message();
+
+        msg.addMessageElement("app", new ByteArrayMessageElement("payload", null, new byte[100], null));
+
+        Message result = deserialize(ByteBuffer.wrap(serialize(msg)));
+        ByteBuffer content = result.getMessageElement("app", "payload").getByteBuffer();
+
+        assertTrue(content.isReadOnly());
+        assertEquals(100, content.remaining());
+    }
+
+    @Test
+    public void testForwardIsByteForByte() throws IOException {
+        Message inner = new Message();
+
+        inner.addMessageElement("app", new StringMessageElement("inner", "inner value", null));
+
+        Message msg = new Message();
+
+        msg.addMessageElement("jxta", new StringMessageElement("EndpointHeaderSrcPeer", "urn:jxta:cbid-1", null));
+        msg.addMessageElement("app", new ByteArrayMessageElement("payload", MimeMediaType.AOS, new byte[] {1, 2, 3, 4},
+                new StringMessageElement("payload-sig", "signature", null)));
+        msg.addMessageElement("app", new JxtaMessageMessageElement("nested", WireFormatMessageFactory.DEFAULT_WIRE_MIME, inner, null));
+
+        byte[] original = serialize(msg);
+        Message forwarded = deserialize(ByteBuffer.wrap(original));
+
+        assertArrayEquals(original, serialize(forwarded));
+    }
+
+    @Test
+    public void testNestedMessageDecodedOnDemand() throws IOException {
+        Message inner = new Message();
+
+        inner.addMessageElement("app", new StringMessageElement("inner", "inner value", null));
+
+        Message msg = new Message();
+
+        msg.addMessageElement("app", new JxtaMessageMessageElement("nested", WireFormatMessageFactory.DEFAULT_WIRE_MIME, inner, null));
+
+        Message result = deserialize(ByteBuffer.wrap(serialize(msg)));
+        MessageElement nested = result.getMessageElement("app", "nested");
+
+        assertTrue(nested instanceof JxtaMessageMessageElement);
+
+        Message decoded = ((JxtaMessageMessageElement) nested).getMessage();
+
+        assertEquals("inner value", decoded.getMessageElement("app", "inner").toString());
+    }
+
+    @Test(expected = IOException.class)
+    public void testTruncatedMessageRejected() throws IOException {
+        Message msg = new Message();
+
+        msg.addMessageElement("app", new ByteArrayMessageElement("payload", null, new byte[100], null));
+
+        byte[] original = serialize(msg);
+        byte[] truncated = new byte[original.length - 10];
+
+        System.arraycopy(original, 0, truncated, 0, truncated.length);
+
+        deserialize(ByteBuffer.wrap(truncated));
+    }
+
+    private static byte[] serialize(Message msg) throws IOException {
+        WireFormatMessageBinary serialed = new WireFormatMessageBinary(msg, WireFormatMessageFactory.DEFAULT_WIRE_MIME, null, true, null, false);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+        serialed.sendToStream(bos);
+
+        return bos.toByteArray();
+    }
+
+    private static Message deserialize(ByteBuffer buffer) throws IOException {
+        return new WireFormatMessageBinary.Instantiator().fromBufferExternal(buffer, WireFormatMessageFactory.DEFAULT_WIRE_MIME, null, true, null);
+    }
+}
@@ -56,10 +56,17 @@
 package net.jxta.impl.endpoint.msgframing;
 
 import java.io.*;
+import java.util.Arrays;
 
 import junit.framework.*;
 
+import net.jxta.document.MimeMediaType;
+import net.jxta.endpoint.EndpointAddress;
+import net.jxta.id.ID;
+import net.jxta.id.IDFactory;
+import net.jxta.impl.endpoint.ContentCoding;
 import net.jxta.impl.endpoint.msgframing.WelcomeMessage;
+import net.jxta.peergroup.PeerGroupID;
 
 public class WelcomeMessageTest extends TestCase {
 
@@ -138,6 +145,42 @@ public class WelcomeMessageTest extends TestCase {
         }
     }
 
+    public void testContentEncodingsRoundTrip() throws Exception {
+        EndpointAddress dest = new EndpointAddress("tcp://64.81.53.91:36815");
+        EndpointAddress pub = new EndpointAddress("tcp://209.128.126.120:9701");
+        ID peerid = IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID);
+        MimeMediaType[] encodings = new MimeMediaType[] {ContentCoding.LZ, ContentCoding.DEFLATE};
+
+        WelcomeMessage mine = new WelcomeMessage(dest, pub, peerid, false, 0, encodings);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+        mine.sendToStream(bos);
+
+        WelcomeMessage theirs = new WelcomeMessage(new ByteArrayInputStream(bos.toByteArray()));
+
+        assertEquals("3.1", theirs.getWelcomeVersion());
+        assertEquals(peerid, theirs.getPeerID());
+        assertEquals(pub, theirs.getPublicAddress());
+        assertFalse(theirs.dontPropagate());
+        assertTrue(Arrays.equals(encodings, theirs.getContentEncodings()));
+    }
+
+    public void testNoContentEncodings() throws Exception {
+        EndpointAddress dest = new EndpointAddress("tcp://64.81.53.91:36815");
+        EndpointAddress pub = new EndpointAddress("tcp://209.128.126.120:9701");
+        ID peerid = IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID);
+
+        WelcomeMessage mine = new WelcomeMessage(dest, pub, peerid, false, 0, null);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+        mine.sendToStream(bos);
+
+        WelcomeMessage theirs = new WelcomeMessage(new ByteArrayInputStream(bos.toByteArray()));
+
+        assertEquals("1.1", theirs.getWelcomeVersion());
+        assertEquals(0, theirs.getContentEncodings().length);
+    }
+
     public static Test suite() {
         TestSuite suite = new TestSuite(WelcomeMessageTest.class);
 
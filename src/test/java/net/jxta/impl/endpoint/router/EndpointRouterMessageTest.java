@@ -0,0 +1,302 @@
+/*
+ * Copyright (c) 2001-2007 Sun Microsystems, Inc.  All rights reserved.
+ *
+ *  The Sun Project JXTA(TM) Software License
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *
+ *  3. The end-user documentation included with the redistribution, if any, must
+ *     include the following acknowledgment: "This product includes software
+ *     developed by Sun Microsystems, Inc. for JXTA(TM) technology."
+ *     Alternately, this acknowledgment may appear in the software itself, if
+ *     and wherever such third-party acknowledgments normally appear.
+ *
+ *  4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA" must
+ *     not be used to endorse or promote products derived from this software
+ *     without prior written permission. For written permission, please contact
+ *     Project JXTA at http://www.jxta.org.
+ *
+ *  5. Products derived from this software may not be called "JXTA", nor may
+ *     "JXTA" appear in their name, without prior written permission of Sun.
+ *
+ *  THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+ *  INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ *  FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SUN
+ *  MICROSYSTEMS OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ *  OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ *  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ *  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *  JXTA is a registered trademark of Sun Microsystems, Inc. in the United
+ *  States and other countries.
+ *
+ *  Please see the license information page at :
+ *  <http://www.jxta.org/project/www/license.html> for instructions on use of
+ *  the license in source files.
+ *
+ *  ====================================================================
+ *
+ *  This software consists of voluntary contributions made by many individuals
+ *  on behalf of Project JXTA. For more information on Project JXTA, please see
+ *  http://www.jxta.org.
+ *
+ *  This license is based on the BSD license adopted by the Apache Foundation.
+ */
+package net.jxta.impl.endpoint.router;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Vector;
+
+import net.jxta.document.AdvertisementFactory;
+import net.jxta.endpoint.ByteArrayMessageElement;
+import net.jxta.endpoint.EndpointAddress;
+import net.jxta.endpoint.Message;
+import net.jxta.endpoint.MessageElement;
+import net.jxta.id.IDFactory;
+import net.jxta.peer.PeerID;
+import net.jxta.peergroup.PeerGroupID;
+import net.jxta.protocol.AccessPointAdvertisement;
+import net.jxta.protocol.RouteAdvertisement;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class EndpointRouterMessageTest {
+
+    private PeerID src;
+    private PeerID dest;
+    private PeerID relay;
+    private EndpointAddress srcAddress;
+    private EndpointAddress destAddress;
+    private EndpointAddress relayAddress;
+
+    @Before
+    public void setUp() {
+        src = IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID);
+        dest = IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID);
+        relay = IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID);
+        srcAddress = new EndpointAddress(src, "EndpointService:jxta-NetGroup", "PeerView");
+        destAddress = new EndpointAddress(dest, "EndpointService:jxta-NetGroup", "PeerView");
+        relayAddress = new EndpointAddress(relay, null, null);
+    }
+
+    @Test
+    public void testXml_announcesBinary() {
+        Message msg = new Message();
+        EndpointRouterMessage rm = createRouterMessage(msg);
+
+        rm.updateMessage();
+
+        MessageElement elem = msg.getMessageElement(EndpointRouterMessage.MESSAGE_NS, EndpointRouterMessage.MESSAGE_NAME);
+
+        assertFalse(EndpointRouterMessage.BINARY_MIME_TYPE.equals(elem.getMimeType()));
+
+        EndpointRouterMessage parsed = new EndpointRouterMessage(msg, false, null);
+
+        assertFalse(parsed.isBinary());
+        assertTrue(parsed.isBinaryCapable());
+        assertRouterMessage(parsed);
+    }
+
+    @Test
+    public void testBinary_roundTrip() {
+        Message msg = new Message();
+        EndpointRouterMessage rm = createRouterMessage(msg);
+
+        rm.setBinary(true);
+        rm.updateMessage();
+
+        MessageElement elem = msg.getMessageElement(EndpointRouterMessage.MESSAGE_NS, EndpointRouterMessage.MESSAGE_NAME);
+
+        assertEquals(EndpointRouterMessage.BINARY_MIME_TYPE, elem.getMimeType());
+
+        EndpointRouterMessage parsed = new EndpointRouterMessage(msg, false, null);
+
+        assertTrue(parsed.msgExists());
+        assertFalse(parsed.isDirty());
+        assertTrue(parsed.isBinary());
+        assertTrue(parsed.isBinaryCapable());
+        assertRouterMessage(parsed);
+    }
+
+    @Test
+    public void testBinary_forwardKeepsUnchangedFields() {
+        Message msg = new Message();
+        EndpointRouterMessage rm = createRouterMessage(msg);
+
+        rm.setBinary(true);
+        rm.updateMessage();
+
+        // a relay updates the last hop and the reverse route only
+        EndpointRouterMessage forwarded = new EndpointRouterMessage(msg, false, null);
+        PeerID next = IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID);
+
+        forwarded.setLastHop(new EndpointAddress(next, null, null));
+        forwarded.prependReverseHop(createHop(next, "tcp://10.0.0.3:9701"));
+        forwarded.updateMessage();
+
+        EndpointRouterMessage parsed = new EndpointRouterMessage(msg, false, null);
+
+        assertEquals(srcAddress, parsed.getSrcAddress());
+        assertEquals(destAddress, parsed.getDestAddress());
+        assertEquals(new EndpointAddress(next, null, null), parsed.getLastHop());
+        assertEquals(2, parsed.getForwardHops().size());
+        assertEquals(relay, parsed.getForwardHops().get(0).getPeerID());
+        assertEquals(2, parsed.getReverseHops().size());
+        assertEquals(next, parsed.getReverseHops().get(0).getPeerID());
+        assertEquals("tcp://10.0.0.3:9701", parsed.getReverseHops().get(0).getVectorEndpointAddresses().get(0));
+        assertEquals(src, parsed.getReverseHops().get(1).getPeerID());
+        assertEquals(dest, parsed.getRouteAdv().getDestPeerID());
+    }
+
+    @Test
+    public void testBinary_toXml() {
+        Message msg = new Message();
+        EndpointRouterMessage rm = createRouterMessage(msg);
+
+        rm.setBinary(true);
+        rm.updateMessage();
+
+        // a relay forwards to a peer which does not read the binary encoding
+        EndpointRouterMessage forwarded = new EndpointRouterMessage(msg, false, null);
+
+        forwarded.setBinary(false);
+        assertTrue(forwarded.isDirty());
+        forwarded.updateMessage();
+
+        EndpointRouterMessage parsed = new EndpointRouterMessage(msg, false, null);
+
+        assertFalse(parsed.isBinary());
+        assertRouterMessage(parsed);
+    }
+
+    @Test
+    public void testBinary_skipsUnknownFields() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        byte[] src = srcAddress.toString().getBytes("UTF-8");
+
+        out.writeByte(EndpointRouterMessage.BINARY_VERSION);
+        out.writeByte(42);
+        out.writeInt(3);
+        out.write(new byte[] { 1, 2, 3 });
+        out.writeByte(0);
+        out.writeInt(src.length);
+        out.write(src);
+
+        EndpointRouterMessage parsed = new EndpointRouterMessage(createBinaryMessage(bos.toByteArray()), false, null);
+
+        assertTrue(parsed.msgExists());
+        assertEquals(srcAddress, parsed.getSrcAddress());
+        assertNull(parsed.getDestAddress());
+    }
+
+    @Test
+    public void testBinary_rejectsUnknownVersion() {
+        byte[] encoded = { (byte) (EndpointRouterMessage.BINARY_VERSION + 1), 0, 0, 0, 0, 0 };
+        Message msg = createBinaryMessage(encoded);
+        EndpointRouterMessage parsed = new EndpointRouterMessage(msg, false, null);
+
+        assertFalse(parsed.msgExists());
+        assertTrue(parsed.isDirty());
+
+        // the unreadable element is removed
+        parsed.updateMessage();
+        assertNull(msg.getMessageElement(EndpointRouterMessage.MESSAGE_NS, EndpointRouterMessage.MESSAGE_NAME));
+    }
+
+    @Test
+    public void testBinary_isSmaller() {
+        Message xmlMsg = new Message();
+        Message binaryMsg = new Message();
+
+        createRouterMessage(xmlMsg).updateMessage();
+
+        EndpointRouterMessage rm = createRouterMessage(binaryMsg);
+
+        rm.setBinary(true);
+        rm.updateMessage();
+
+        long xmlLength = xmlMsg.getMessageElement(EndpointRouterMessage.MESSAGE_NS, EndpointRouterMessage.MESSAGE_NAME).getByteLength();
+        long binaryLength = binaryMsg.getMessageElement(EndpointRouterMessage.MESSAGE_NS, EndpointRouterMessage.MESSAGE_NAME).getByteLength();
+
+        assertTrue(binaryLength + " >= " + xmlLength, binaryLength < xmlLength);
+    }
+
+    private EndpointRouterMessage createRouterMessage(Message msg) {
+        EndpointRouterMessage rm = new EndpointRouterMessage(msg, true, null);
+        Vector<AccessPointAdvertisement> forward = new Vector<AccessPointAdvertisement>();
+        Vector<AccessPointAdvertisement> reverse = new Vector<AccessPointAdvertisement>();
+        Vector<AccessPointAdvertisement> routeHops = new Vector<AccessPointAdvertisement>();
+
+        forward.add(createHop(relay, "tcp://10.0.0.1:9701", "http://10.0.0.1:9700"));
+        forward.add(createHop(dest, "tcp://10.0.0.2:9701"));
+        reverse.add(createHop(src, "tcp://10.0.0.0:9701"));
+        routeHops.add(createHop(relay, "tcp://10.0.0.1:9701"));
+
+        rm.setSrcAddress(srcAddress);
+        rm.setDestAddress(destAddress);
+        rm.setLastHop(new EndpointAddress(src, null, null));
+        rm.setForwardHops(forward);
+        rm.setReverseHops(reverse);
+        rm.setRouteAdv(RouteAdvertisement.newRoute(dest, null, routeHops));
+
+        return rm;
+    }
+
+    private void assertRouterMessage(EndpointRouterMessage rm) {
+        assertEquals(srcAddress, rm.getSrcAddress());
+        assertEquals(destAddress, rm.getDestAddress());
+        assertEquals(new EndpointAddress(src, null, null), rm.getLastHop());
+        assertEquals(2, rm.getForwardHops().size());
+        assertEquals(relay, rm.getForwardHops().get(0).getPeerID());
+        assertArrayEquals(new String[] { "tcp://10.0.0.1:9701", "http://10.0.0.1:9700" },
+                rm.getForwardHops().get(0).getVectorEndpointAddresses().toArray());
+        assertEquals(dest, rm.getForwardHops().get(1).getPeerID());
+        assertEquals(1, rm.getReverseHops().size());
+        assertEquals(src, rm.getReverseHops().get(0).getPeerID());
+        assertEquals(dest, rm.getRouteAdv().getDestPeerID());
+        assertEquals(relay, rm.getRouteAdv().getFirstHop().getPeerID());
+        assertEquals(relayAddress, new EndpointAddress(rm.getRouteAdv().getFirstHop().getPeerID(), null, null));
+    }
+
+    private static AccessPointAdvertisement createHop(PeerID pid, String... addresses) {
+        AccessPointAdvertisement hop = (AccessPointAdvertisement)
+                AdvertisementFactory.newAdvertisement(AccessPointAdvertisement.getAdvertisementType());
+
+        hop.setPeerID(pid);
+        for (String address : addresses) {
+            hop.addEndpointAddress(address);
+        }
+
+        return hop;
+    }
+
+    private static Message createBinaryMessage(byte[] encoded) {
+        Message msg = new Message();
+
+        msg.addMessageElement(EndpointRouterMessage.MESSAGE_NS,
+                new ByteArrayMessageElement(EndpointRouterMessage.MESSAGE_NAME, EndpointRouterMessage.BINARY_MIME_TYPE, encoded, null));
+
+        return msg;
+    }
+}
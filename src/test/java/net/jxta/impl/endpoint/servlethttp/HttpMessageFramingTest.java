@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2001-2007 Sun Microsystems, Inc.  All rights reserved.
+ *
+ *  The Sun Project JXTA(TM) Software License
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *
+ *  3. The end-user documentation included with the redistribution, if any, must
+ *     include the following acknowledgment: "This product includes software
+ *     developed by Sun Microsystems, Inc. for JXTA(TM) technology."
+ *     Alternately, this acknowledgment may appear in the software itself, if
+ *     and wherever such third-party acknowledgments normally appear.
+ *
+ *  4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA" must
+ *     not be used to endorse or promote products derived from this software
+ *     without prior written permission. For written permission, please contact
+ *     Project JXTA at http://www.jxta.org.
+ *
+ *  5. Products derived from this software may not be called "JXTA", nor may
+ *     "JXTA" appear in their name, without prior written permission of Sun.
+ *
+ *  THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+ *  INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ *  FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SUN
+ *  MICROSYSTEMS OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ *  OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ *  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ *  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *  JXTA is a registered trademark of Sun Microsystems, Inc. in the United
+ *  States and other countries.
+ *
+ *  Please see the license information page at :
+ *  <http://www.jxta.org/project/www/license.html> for instructions on use of
+ *  the license in source files.
+ *
+ *  ====================================================================
+ *
+ *  This software consists of voluntary contributions made by many individuals
+ *  on behalf of Project JXTA. For more information on Project JXTA, please see
+ *  http://www.jxta.org.
+ *
+ *  This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+
+package net.jxta.impl.endpoint.servlethttp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import net.jxta.endpoint.ByteArrayMessageElement;
+import net.jxta.endpoint.Message;
+import net.jxta.endpoint.StringMessageElement;
+import net.jxta.endpoint.WireFormatMessage;
+import net.jxta.endpoint.WireFormatMessageFactory;
+import net.jxta.impl.endpoint.EndpointServiceImpl;
+
+import org.junit.Test;
+
+public class HttpMessageFramingTest {
+
+    @Test
+    public void testBatchRoundTrip() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long length = 0;
+
+        for (int i = 0; i < 10; i++) {
+            WireFormatMessage serialed = serialize(createMessage(i));
+
+            HttpMessageFraming.writeFrame(out, serialed);
+            length += HttpMessageFraming.getFrameLength(serialed);
+        }
+
+        assertEquals(length, out.size());
+
+        InputStream in = new ByteArrayInputStream(out.toByteArray());
+
+        for (int i = 0; i < 10; i++) {
+            Message msg = HttpMessageFraming.readFrame(in, EndpointServiceImpl.DEFAULT_MESSAGE_TYPE, null);
+
+            assertEquals("message " + i, msg.getMessageElement("test", "index").toString());
+        }
+
+        try {
+            HttpMessageFraming.readFrame(in, EndpointServiceImpl.DEFAULT_MESSAGE_TYPE, null);
+            fail("read past the end of the batch");
+        } catch (EOFException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testTruncatedFrame() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        HttpMessageFraming.writeFrame(out, serialize(createMessage(0)));
+
+        byte[] frame = out.toByteArray();
+        InputStream in = new ByteArrayInputStream(Arrays.copyOf(frame, frame.length - 1));
+
+        try {
+            HttpMessageFraming.readFrame(in, EndpointServiceImpl.DEFAULT_MESSAGE_TYPE, null);
+            fail("read a truncated frame");
+        } catch (EOFException unexpected) {
+            fail("truncated frame reported as end of batch");
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testLargeFrame() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Message msg = new Message();
+        byte[] payload = new byte[300 * 1024];
+
+        Arrays.fill(payload, (byte) 'x');
+        msg.addMessageElement("test", new ByteArrayMessageElement("payload", null, payload, null));
+        HttpMessageFraming.writeFrame(out, serialize(msg));
+
+        Message received = HttpMessageFraming.readFrame(new ByteArrayInputStream(out.toByteArray()), EndpointServiceImpl.DEFAULT_MESSAGE_TYPE, null);
+
+        assertTrue(Arrays.equals(payload, received.getMessageElement("test", "payload").getBytes(false)));
+    }
+
+    @Test
+    public void testOversizedLengthWithoutContent() throws IOException {
+        // a frame claiming 60 MB followed by a few bytes
+        byte[] frame = new byte[] { 0x03, (byte) 0xC0, 0, 0, 1, 2, 3 };
+
+        try {
+            HttpMessageFraming.readFrame(new ByteArrayInputStream(frame), EndpointServiceImpl.DEFAULT_MESSAGE_TYPE, null);
+            fail("read a truncated frame");
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testNegotiation() {
+        assertTrue(HttpMessageFraming.isBatched(HttpMessageFraming.BATCH_FRAMING));
+        assertTrue(HttpMessageFraming.isBatched("BATCH"));
+        assertFalse(HttpMessageFraming.isBatched(null));
+        assertFalse(HttpMessageFraming.isBatched("stream"));
+    }
+
+    private static Message createMessage(int index) {
+        Message msg = new Message();
+
+        msg.addMessageElement("test", new StringMessageElement("index", "message " + index, null));
+        return msg;
+    }
+
+    private static WireFormatMessage serialize(Message msg) {
+        return WireFormatMessageFactory.toWireExternal(msg, EndpointServiceImpl.DEFAULT_MESSAGE_TYPE, null, null);
+    }
+}
@@ -0,0 +1,476 @@
+/*
+ * Copyright (c) 2001-2007 Sun Microsystems, Inc.  All rights reserved.
+ *
+ *  The Sun Project JXTA(TM) Software License
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *
+ *  3. The end-user documentation included with the redistribution, if any, must
+ *     include the following acknowledgment: "This product includes software
+ *     developed by Sun Microsystems, Inc. for JXTA(TM) technology."
+ *     Alternately, this acknowledgment may appear in the software itself, if
+ *     and wherever such third-party acknowledgments normally appear.
+ *
+ *  4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA" must
+ *     not be used to endorse or promote products derived from this software
+ *     without prior written permission. For written permission, please contact
+ *     Project JXTA at http://www.jxta.org.
+ *
+ *  5. Products derived from this software may not be called "JXTA", nor may
+ *     "JXTA" appear in their name, without prior written permission of Sun.
+ *
+ *  THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+ *  INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ *  FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SUN
+ *  MICROSYSTEMS OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ *  OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ *  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ *  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *  JXTA is a registered trademark of Sun Microsystems, Inc. in the United
+ *  States and other countries.
+ *
+ *  Please see the license information page at :
+ *  <http://www.jxta.org/project/www/license.html> for instructions on use of
+ *  the license in source files.
+ *
+ *  ====================================================================
+ *
+ *  This software consists of voluntary contributions made by many individuals
+ *  on behalf of Project JXTA. For more information on Project JXTA, please see
+ *  http://www.jxta.org.
+ *
+ *  This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+
+package net.jxta.impl.endpoint.servlethttp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.jxta.endpoint.EndpointAddress;
+import net.jxta.endpoint.Message;
+import net.jxta.endpoint.StringMessageElement;
+import net.jxta.impl.util.threads.TaskManager;
+import net.jxta.peergroup.PeerGroupID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *  Tests the asynchronous back channel poll against a fake
+ *  {@link AsyncContext}.
+ */
+public class HttpMessageServletTest {
+
+    private TaskManager taskManager;
+
+    private HttpMessageServlet servlet;
+
+    private HttpServletMessenger messenger;
+
+    private FakeResponse response;
+
+    private FakeAsyncContext asyncContext;
+
+    @Before
+    public void setUp() {
+        taskManager = new TaskManager();
+        servlet = new HttpMessageServlet();
+    }
+
+    @After
+    public void tearDown() {
+        if (null != messenger) {
+            messenger.close();
+        }
+
+        taskManager.shutdown();
+    }
+
+    @Test
+    public void testMessageCompletesSingleResponsePoll() throws Exception {
+        HttpMessageServlet.AsyncPoll poll = startPoll("10000");
+
+        assertEquals(0, asyncContext.getTimeout());
+        assertTrue(asyncContext.listeners.contains(poll));
+
+        messenger.sendMessageB(createMessage(), null, null);
+
+        assertTrue(asyncContext.completed.await(5, TimeUnit.SECONDS));
+        assertEquals(HttpServletResponse.SC_OK, response.status);
+        assertTrue(response.body.size() > 0);
+        assertEquals(response.body.size(), response.contentLength);
+        assertTrue(waitForClose());
+    }
+
+    @Test
+    public void testExpiryCompletesPoll() throws Exception {
+        startPoll("200");
+
+        assertTrue(asyncContext.completed.await(5, TimeUnit.SECONDS));
+        assertEquals(0, response.status);
+        assertEquals(0, response.contentLength);
+        assertEquals(0, response.body.size());
+        assertTrue(waitForClose());
+    }
+
+    @Test
+    public void testFirstMessageMovesExpiryToExtraResponsesTimeout() throws Exception {
+        long started = System.currentTimeMillis();
+
+        startPoll("10000,500");
+
+        messenger.sendMessageB(createMessage(), null, null);
+
+        // The poll waits for further messages.
+        assertFalse(asyncContext.completed.await(100, TimeUnit.MILLISECONDS));
+
+        int firstMessage = response.body.size();
+
+        assertTrue(firstMessage > 0);
+
+        messenger.sendMessageB(createMessage(), null, null);
+
+        // The poll now expires at the end of the extra responses timeout
+        // rather than at the end of the response timeout.
+        assertTrue(asyncContext.completed.await(5, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - started < 5000);
+        assertTrue(response.body.size() > firstMessage);
+
+        // More than one message may be sent so no content length is given.
+        assertEquals(-1, response.contentLength);
+        assertTrue(waitForClose());
+    }
+
+    @Test
+    public void testMessengerClosedCompletesPoll() throws Exception {
+        startPoll("10000");
+
+        messenger.close();
+
+        assertTrue(asyncContext.completed.await(5, TimeUnit.SECONDS));
+        assertEquals(0, response.contentLength);
+    }
+
+    @Test
+    public void testContainerTimeoutCompletesPoll() throws Exception {
+        HttpMessageServlet.AsyncPoll poll = startPoll("10000");
+
+        asyncContext.fireTimeout();
+
+        assertTrue(asyncContext.completed.await(5, TimeUnit.SECONDS));
+        assertTrue(waitForClose());
+        assertFalse(messenger.cancelPoll(poll));
+    }
+
+    @Test
+    public void testSlowWriteDoesNotBlockSender() throws Exception {
+        startPoll("10000,10000");
+
+        response.writeGate = new CountDownLatch(1);
+
+        long started = System.currentTimeMillis();
+
+        messenger.sendMessageB(createMessage(), null, null);
+
+        long elapsed = System.currentTimeMillis() - started;
+
+        assertTrue("sender blocked for " + elapsed, elapsed < 10000);
+        assertEquals(0, response.body.size());
+
+        response.writeGate.countDown();
+        messenger.close();
+
+        assertTrue(asyncContext.completed.await(5, TimeUnit.SECONDS));
+        assertTrue(response.body.size() > 0);
+    }
+
+    /**
+     *  Starts a poll for a request with the given query string.
+     */
+    private HttpMessageServlet.AsyncPoll startPoll(String query) {
+        FakeRequest request = new FakeRequest(query);
+        HttpMessageServlet.JxtaRequest jxtaRequest = new HttpMessageServlet.JxtaRequest(request.proxy);
+        long validFor = Math.max(jxtaRequest.responseTimeout, jxtaRequest.extraResponsesTimeout);
+
+        messenger = new HttpServletMessenger(PeerGroupID.defaultNetPeerGroupID, taskManager,
+                new EndpointAddress("http", "127.0.0.1:9700", null, null),
+                new EndpointAddress("jxta", "test-peer", null, null), validFor);
+
+        response = new FakeResponse();
+        asyncContext = new FakeAsyncContext(request.proxy, response.proxy);
+        request.asyncContext = asyncContext;
+
+        HttpMessageServlet.AsyncPoll poll = servlet.new AsyncPoll(request.proxy, response.proxy, jxtaRequest, messenger,
+                null, taskManager.getScheduledExecutorService(), null);
+
+        poll.start();
+
+        return poll;
+    }
+
+    /**
+     *  Waits for the poll to close the messenger after completing the
+     *  response.
+     */
+    private boolean waitForClose() throws InterruptedException {
+        long giveUpAt = System.currentTimeMillis() + 5000;
+
+        while (!messenger.isClosed() && (System.currentTimeMillis() < giveUpAt)) {
+            Thread.sleep(10);
+        }
+
+        return messenger.isClosed();
+    }
+
+    private static Message createMessage() {
+        Message msg = new Message();
+
+        msg.addMessageElement("test", new StringMessageElement("payload", "hello", null));
+        return msg;
+    }
+
+    /**
+     *  Returns the default value for a method's return type.
+     */
+    private static Object defaultValue(Class<?> type) {
+        if (Boolean.TYPE == type) {
+            return Boolean.FALSE;
+        } else if (Integer.TYPE == type) {
+            return 0;
+        } else if (Long.TYPE == type) {
+            return 0L;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     *  A request for a poll.
+     */
+    private static class FakeRequest implements InvocationHandler {
+
+        final HttpServletRequest proxy = (HttpServletRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {HttpServletRequest.class}, this);
+
+        private final String query;
+
+        volatile AsyncContext asyncContext = null;
+
+        FakeRequest(String query) {
+            this.query = query;
+        }
+
+        public Object invoke(Object target, Method method, Object[] args) {
+            String name = method.getName();
+
+            if ("getQueryString".equals(name)) {
+                return query;
+            } else if ("getRemoteHost".equals(name)) {
+                return "127.0.0.1";
+            } else if ("startAsync".equals(name) || "getAsyncContext".equals(name)) {
+                return asyncContext;
+            } else if ("isAsyncSupported".equals(name) || "isAsyncStarted".equals(name)) {
+                return Boolean.TRUE;
+            } else if ("toString".equals(name)) {
+                return "FakeRequest " + query;
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(target);
+            } else if ("equals".equals(name)) {
+                return target == args[0];
+            }
+
+            return defaultValue(method.getReturnType());
+        }
+    }
+
+    /**
+     *  A response which records what was written to it.
+     */
+    private static class FakeResponse extends ServletOutputStream implements InvocationHandler {
+
+        final HttpServletResponse proxy = (HttpServletResponse) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {HttpServletResponse.class}, this);
+
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        volatile int status = 0;
+
+        volatile int contentLength = -1;
+
+        /**
+         *  If not {@code null} then writes wait for the latch to open.
+         */
+        volatile CountDownLatch writeGate = null;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            CountDownLatch gate = writeGate;
+
+            if (null != gate) {
+                try {
+                    if (!gate.await(30, TimeUnit.SECONDS)) {
+                        throw new IOException("write timed out");
+                    }
+                } catch (InterruptedException woken) {
+                    throw new IOException("write interrupted");
+                }
+            }
+
+            synchronized (body) {
+                body.write(b, off, len);
+            }
+        }
+
+        public Object invoke(Object target, Method method, Object[] args) {
+            String name = method.getName();
+
+            if ("setStatus".equals(name)) {
+                status = (Integer) args[0];
+            } else if ("setContentLength".equals(name)) {
+                contentLength = (Integer) args[0];
+            } else if ("getOutputStream".equals(name)) {
+                return this;
+            } else if ("toString".equals(name)) {
+                return "FakeResponse";
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(target);
+            } else if ("equals".equals(name)) {
+                return target == args[0];
+            }
+
+            return defaultValue(method.getReturnType());
+        }
+    }
+
+    /**
+     *  An asynchronous context which records how the poll uses it.
+     */
+    private static class FakeAsyncContext implements AsyncContext {
+
+        private final ServletRequest request;
+
+        private final ServletResponse response;
+
+        final List<AsyncListener> listeners = new CopyOnWriteArrayList<AsyncListener>();
+
+        final CountDownLatch completed = new CountDownLatch(1);
+
+        private volatile long timeout = 30000;
+
+        FakeAsyncContext(ServletRequest request, ServletResponse response) {
+            this.request = request;
+            this.response = response;
+        }
+
+        /**
+         *  Times out the request as the container would.
+         */
+        void fireTimeout() throws IOException {
+            for (AsyncListener each : listeners) {
+                each.onTimeout(new AsyncEvent(this));
+            }
+        }
+
+        public ServletRequest getRequest() {
+            return request;
+        }
+
+        public ServletResponse getResponse() {
+            return response;
+        }
+
+        public boolean hasOriginalRequestAndResponse() {
+            return true;
+        }
+
+        public void dispatch() {
+            throw new UnsupportedOperationException("dispatch");
+        }
+
+        public void dispatch(String path) {
+            throw new UnsupportedOperationException("dispatch");
+        }
+
+        public void dispatch(ServletContext context, String path) {
+            throw new UnsupportedOperationException("dispatch");
+        }
+
+        public void complete() {
+            if (0 == completed.getCount()) {
+                throw new IllegalStateException("already completed");
+            }
+
+            completed.countDown();
+        }
+
+        public void start(Runnable run) {
+            new Thread(run).start();
+        }
+
+        public void addListener(AsyncListener listener) {
+            listeners.add(listener);
+        }
+
+        public void addListener(AsyncListener listener, ServletRequest servletRequest, ServletResponse servletResponse) {
+            listeners.add(listener);
+        }
+
+        public <T extends AsyncListener> T createListener(Class<T> clazz) throws ServletException {
+            try {
+                return clazz.newInstance();
+            } catch (Exception failed) {
+                throw new ServletException(failed);
+            }
+        }
+
+        public void setTimeout(long timeout) {
+            this.timeout = timeout;
+        }
+
+        public long getTimeout() {
+            return timeout;
+        }
+    }
+}
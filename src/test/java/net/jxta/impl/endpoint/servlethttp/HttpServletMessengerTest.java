@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2001-2007 Sun Microsystems, Inc.  All rights reserved.
+ *
+ *  The Sun Project JXTA(TM) Software License
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *
+ *  3. The end-user documentation included with the redistribution, if any, must
+ *     include the following acknowledgment: "This product includes software
+ *     developed by Sun Microsystems, Inc. for JXTA(TM) technology."
+ *     Alternately, this acknowledgment may appear in the software itself, if
+ *     and wherever such third-party acknowledgments normally appear.
+ *
+ *  4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA" must
+ *     not be used to endorse or promote products derived from this software
+ *     without prior written permission. For written permission, please contact
+ *     Project JXTA at http://www.jxta.org.
+ *
+ *  5. Products derived from this software may not be called "JXTA", nor may
+ *     "JXTA" appear in their name, without prior written permission of Sun.
+ *
+ *  THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+ *  INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ *  FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SUN
+ *  MICROSYSTEMS OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ *  OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ *  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ *  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *  JXTA is a registered trademark of Sun Microsystems, Inc. in the United
+ *  States and other countries.
+ *
+ *  Please see the license information page at :
+ *  <http://www.jxta.org/project/www/license.html> for instructions on use of
+ *  the license in source files.
+ *
+ *  ====================================================================
+ *
+ *  This software consists of voluntary contributions made by many individuals
+ *  on behalf of Project JXTA. For more information on Project JXTA, please see
+ *  http://www.jxta.org.
+ *
+ *  This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+
+package net.jxta.impl.endpoint.servlethttp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import net.jxta.endpoint.EndpointAddress;
+import net.jxta.endpoint.Message;
+import net.jxta.endpoint.StringMessageElement;
+import net.jxta.impl.util.threads.TaskManager;
+import net.jxta.peergroup.PeerGroupID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HttpServletMessengerTest {
+
+    private static final EndpointAddress SRC_ADDRESS = new EndpointAddress("http", "127.0.0.1:9700", null, null);
+
+    private static final EndpointAddress LOGICAL_ADDRESS = new EndpointAddress("jxta", "test-peer", null, null);
+
+    private TaskManager taskManager;
+
+    private HttpServletMessenger messenger;
+
+    @Before
+    public void setUp() {
+        taskManager = new TaskManager();
+    }
+
+    @After
+    public void tearDown() {
+        if (null != messenger) {
+            messenger.close();
+        }
+
+        taskManager.shutdown();
+    }
+
+    @Test
+    public void testMessageHandedToRegisteredPoll() throws Exception {
+        messenger = createMessenger(0);
+        RecordingPoll poll = new RecordingPoll();
+
+        assertNull(messenger.registerPoll(poll));
+
+        Message msg = createMessage();
+
+        messenger.sendMessageB(msg, null, null);
+
+        assertSame(msg, poll.messages.poll(5, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), poll.writer);
+        assertTrue(poll.resumed.await(5, TimeUnit.SECONDS));
+
+        // The poll was handed the message and is no longer registered.
+        assertFalse(messenger.cancelPoll(poll));
+    }
+
+    @Test
+    public void testRegisterPollReturnsQueuedMessage() throws Exception {
+        messenger = createMessenger(0);
+        Message msg = createMessage();
+        Sender sender = new Sender(msg);
+
+        sender.start();
+
+        RecordingPoll poll = new RecordingPoll();
+
+        assertSame(msg, waitForQueued(poll));
+
+        messenger.messageSent(true);
+
+        sender.join(5000);
+        assertTrue(sender.done);
+        assertNull(sender.failure);
+
+        // The poll was not used for the queued message.
+        assertTrue(poll.messages.isEmpty());
+    }
+
+    @Test
+    public void testCancelPoll() throws Exception {
+        messenger = createMessenger(0);
+        RecordingPoll poll = new RecordingPoll();
+
+        assertNull(messenger.registerPoll(poll));
+        assertTrue(messenger.cancelPoll(poll));
+        assertFalse(messenger.cancelPoll(poll));
+
+        // A cancelled poll is not handed messages.
+        Sender sender = new Sender(createMessage());
+
+        sender.start();
+
+        assertNotNull(waitForQueued(poll));
+        messenger.messageSent(true);
+        sender.join(5000);
+
+        assertTrue(poll.messages.isEmpty());
+    }
+
+    @Test
+    public void testCloseNotifiesPoll() throws Exception {
+        messenger = createMessenger(0);
+        RecordingPoll poll = new RecordingPoll();
+
+        assertNull(messenger.registerPoll(poll));
+
+        messenger.close();
+
+        assertTrue(poll.closed.await(5, TimeUnit.SECONDS));
+        assertTrue(messenger.isClosed());
+
+        // A closed messenger does not register polls.
+        RecordingPoll late = new RecordingPoll();
+
+        assertNull(messenger.registerPoll(late));
+        assertFalse(messenger.cancelPoll(late));
+
+        try {
+            messenger.sendMessageB(createMessage(), null, null);
+        } catch (IOException expected) {
+            // expected
+        }
+
+        assertTrue(late.messages.isEmpty());
+    }
+
+    @Test
+    public void testSlowPollDoesNotBlockSender() throws Exception {
+        messenger = createMessenger(0);
+        RecordingPoll poll = new RecordingPoll();
+
+        poll.writeGate = new CountDownLatch(1);
+        assertNull(messenger.registerPoll(poll));
+
+        long started = System.currentTimeMillis();
+
+        messenger.sendMessageB(createMessage(), null, null);
+
+        long elapsed = System.currentTimeMillis() - started;
+
+        // The sender gives up waiting for the write after a few seconds.
+        assertTrue("sender blocked for " + elapsed, elapsed < 10000);
+        assertTrue(poll.messages.isEmpty());
+
+        poll.writeGate.countDown();
+
+        assertNotNull(poll.messages.poll(5, TimeUnit.SECONDS));
+        assertTrue(poll.resumed.await(5, TimeUnit.SECONDS));
+        assertFalse(messenger.isClosed());
+    }
+
+    @Test
+    public void testExpiryWaitsForWriteInProgress() throws Exception {
+        messenger = createMessenger(200);
+        RecordingPoll poll = new RecordingPoll();
+
+        poll.writeGate = new CountDownLatch(1);
+        assertNull(messenger.registerPoll(poll));
+
+        Sender sender = new Sender(createMessage());
+
+        sender.start();
+
+        // The messenger is due to expire but a write is in progress.
+        Thread.sleep(600);
+        assertFalse(messenger.isClosed());
+
+        poll.writeGate.countDown();
+
+        sender.join(5000);
+        assertTrue(sender.done);
+        assertNull(sender.failure);
+        assertEquals(1, poll.messages.size());
+
+        // Once the write has completed the messenger expires.
+        long giveUpAt = System.currentTimeMillis() + 5000;
+
+        while (!messenger.isClosed() && (System.currentTimeMillis() < giveUpAt)) {
+            Thread.sleep(50);
+        }
+
+        assertTrue(messenger.isClosed());
+    }
+
+    private HttpServletMessenger createMessenger(long validFor) {
+        return new HttpServletMessenger(PeerGroupID.defaultNetPeerGroupID, taskManager, SRC_ADDRESS, LOGICAL_ADDRESS, validFor);
+    }
+
+    private static Message createMessage() {
+        Message msg = new Message();
+
+        msg.addMessageElement("test", new StringMessageElement("payload", "hello", null));
+        return msg;
+    }
+
+    /**
+     *  Waits until the messenger has queued a message rather than handing it
+     *  to {@code poll}.
+     */
+    private Message waitForQueued(RecordingPoll poll) throws InterruptedException {
+        long giveUpAt = System.currentTimeMillis() + 5000;
+
+        while (System.currentTimeMillis() < giveUpAt) {
+            Message waiting = messenger.registerPoll(poll);
+
+            if (null != waiting) {
+                return waiting;
+            }
+
+            messenger.cancelPoll(poll);
+            Thread.sleep(10);
+        }
+
+        return null;
+    }
+
+    /**
+     *  Sends a message from its own thread.
+     */
+    private class Sender extends Thread {
+
+        private final Message msg;
+
+        volatile boolean done = false;
+
+        volatile IOException failure = null;
+
+        Sender(Message msg) {
+            this.msg = msg;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                messenger.sendMessageB(msg, null, null);
+            } catch (IOException failed) {
+                failure = failed;
+            }
+
+            done = true;
+        }
+    }
+
+    /**
+     *  Records what the messenger does with the poll.
+     */
+    private static class RecordingPoll implements HttpServletMessenger.PendingPoll {
+
+        final BlockingQueue<Message> messages = new LinkedBlockingQueue<Message>();
+
+        final CountDownLatch resumed = new CountDownLatch(1);
+
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        /**
+         *  If not {@code null} then writes wait for the latch to open.
+         */
+        volatile CountDownLatch writeGate = null;
+
+        volatile Thread writer = null;
+
+        public boolean messageAvailable(Message message) {
+            writer = Thread.currentThread();
+
+            CountDownLatch gate = writeGate;
+
+            if (null != gate) {
+                try {
+                    if (!gate.await(30, TimeUnit.SECONDS)) {
+                        return false;
+                    }
+                } catch (InterruptedException woken) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+
+            messages.add(message);
+            return true;
+        }
+
+        public void resume() {
+            resumed.countDown();
+        }
+
+        public void messengerClosed() {
+            closed.countDown();
+        }
+    }
+}
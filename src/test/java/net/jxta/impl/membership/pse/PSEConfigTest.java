@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2001-2007 Sun Microsystems, Inc.  All rights reserved.
+ *
+ *  The Sun Project JXTA(TM) Software License
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *
+ *  3. The end-user documentation included with the redistribution, if any, must
+ *     include the following acknowledgment: "This product includes software
+ *     developed by Sun Microsystems, Inc. for JXTA(TM) technology."
+ *     Alternately, this acknowledgment may appear in the software itself, if
+ *     and wherever such third-party acknowledgments normally appear.
+ *
+ *  4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA" must
+ *     not be used to endorse or promote products derived from this software
+ *     without prior written permission. For written permission, please contact
+ *     Project JXTA at http://www.jxta.org.
+ *
+ *  5. Products derived from this software may not be called "JXTA", nor may
+ *     "JXTA" appear in their name, without prior written permission of Sun.
+ *
+ *  THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+ *  INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ *  FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SUN
+ *  MICROSYSTEMS OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ *  OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ *  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ *  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *  JXTA is a registered trademark of Sun Microsystems, Inc. in the United
+ *  States and other countries.
+ *
+ *  Please see the license information page at :
+ *  <http://www.jxta.org/project/www/license.html> for instructions on use of
+ *  the license in source files.
+ *
+ *  ====================================================================
+ *
+ *  This software consists of voluntary contributions made by many individuals
+ *  on behalf of Project JXTA. For more information on Project JXTA, please see
+ *  http://www.jxta.org.
+ *
+ *  This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+
+package net.jxta.impl.membership.pse;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.cert.Certificate;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.jxta.id.ID;
+import net.jxta.id.IDFactory;
+import net.jxta.peergroup.PeerGroupID;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PSEConfigTest {
+
+    private static final char[] STORE_PASSWORD = "store password".toCharArray();
+    private static final char[] KEY_PASSWORD = "key password".toCharArray();
+
+    @Rule
+    public TemporaryFolder testFileStore = new TemporaryFolder();
+
+    private File keystoreFile;
+    private PSEConfig config;
+    private ID keyID;
+    private PSEUtils.IssuerInfo keyInfo;
+
+    @Before
+    public void setUp() throws Exception {
+        keystoreFile = new File(testFileStore.getRoot(), "keystore");
+        config = newConfig();
+        config.initialize();
+
+        keyID = IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID);
+        keyInfo = PSEUtils.genCert("key", null);
+        config.setKey(keyID, new Certificate[] { keyInfo.cert }, keyInfo.subjectPkey, KEY_PASSWORD);
+    }
+
+    @Test
+    public void testCachedReads() throws Exception {
+        assertArrayEquals(new ID[] { keyID }, config.getKeysList());
+        assertArrayEquals(new ID[] { keyID }, config.getTrustedCertsList());
+        assertEquals(keyInfo.cert, config.getTrustedCertificate(keyID));
+        assertEquals(keyID, config.getTrustedCertificateID(keyInfo.cert));
+        assertEquals(keyInfo.cert, config.getTrustedCertificateChain(keyID)[0]);
+        assertEquals(keyInfo.subjectPkey, config.getKey(keyID, KEY_PASSWORD));
+        assertTrue(config.isKey(keyID));
+
+        long misses = config.getCacheMisses();
+        long hits = config.getCacheHits();
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(keyInfo.subjectPkey, config.getKey(keyID, KEY_PASSWORD));
+            assertEquals(keyInfo.cert, config.getTrustedCertificate(keyID));
+        }
+
+        assertEquals(misses, config.getCacheMisses());
+        assertEquals(hits + 20, config.getCacheHits());
+    }
+
+    @Test
+    public void testWrongKeyPassword() throws Exception {
+        assertEquals(keyInfo.subjectPkey, config.getKey(keyID, KEY_PASSWORD));
+
+        try {
+            config.getKey(keyID, "wrong".toCharArray());
+            assertTrue("recovered key with wrong passphrase", false);
+        } catch (java.security.KeyStoreException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testChangesAreVisible() throws Exception {
+        ID certID = IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID);
+        PSEUtils.IssuerInfo certInfo = PSEUtils.genCert("cert", null);
+
+        assertNull(config.getTrustedCertificate(certID));
+
+        config.setTrustedCertificate(certID, certInfo.cert);
+        assertEquals(certInfo.cert, config.getTrustedCertificate(certID));
+        assertEquals(2, config.getTrustedCertsList().length);
+        assertEquals(1, config.getKeysList().length);
+
+        // changed through another manager of the same file
+        PSEConfig other = newConfig();
+
+        other.erase(certID);
+        assertNull(config.getTrustedCertificate(certID));
+        assertTrue(Arrays.equals(new ID[] { keyID }, config.getTrustedCertsList()));
+
+        config.erase(keyID);
+        assertNull(config.getKey(keyID, KEY_PASSWORD));
+        assertEquals(0, config.getKeysList().length);
+    }
+
+    @Test
+    public void testConcurrentMissesLoadOnce() throws Exception {
+        final CountingKeyStoreManager manager = new CountingKeyStoreManager(keystoreFile);
+        final PSEConfig counted = new PSEConfig(manager, STORE_PASSWORD);
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final CountDownLatch completionLatch = new CountDownLatch(8);
+        final AtomicBoolean failed = new AtomicBoolean(false);
+
+        for (int i = 0; i < 8; i++) {
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        startLatch.await();
+                        if (!counted.isKey(keyID)) {
+                            failed.set(true);
+                        }
+                    } catch (Throwable t) {
+                        t.printStackTrace();
+                        failed.set(true);
+                    } finally {
+                        completionLatch.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        startLatch.countDown();
+
+        assertTrue("Readers did not complete", completionLatch.await(30, TimeUnit.SECONDS));
+        assertTrue("Reader failed", !failed.get());
+        assertEquals(1, manager.loads.get());
+    }
+
+    /**
+     * Counts keystore loads, each of which takes long enough for the other
+     * readers to miss the cache and wait for it.
+     */
+    private static class CountingKeyStoreManager extends FileKeyStoreManager {
+
+        final AtomicInteger loads = new AtomicInteger();
+
+        CountingKeyStoreManager(File location) throws Exception {
+            super(null, null, location);
+        }
+
+        @Override
+        public KeyStore loadKeyStore(char[] password) throws KeyStoreException, IOException {
+            loads.incrementAndGet();
+
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException woken) {
+                Thread.interrupted();
+            }
+
+            return super.loadKeyStore(password);
+        }
+    }
+
+    private PSEConfig newConfig() throws Exception {
+        return new PSEConfig(new FileKeyStoreManager(null, null, keystoreFile), STORE_PASSWORD);
+    }
+}
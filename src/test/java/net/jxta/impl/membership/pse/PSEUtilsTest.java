@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2001-2007 Sun Microsystems, Inc.  All rights reserved.
+ *
+ *  The Sun Project JXTA(TM) Software License
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *
+ *  3. The end-user documentation included with the redistribution, if any, must
+ *     include the following acknowledgment: "This product includes software
+ *     developed by Sun Microsystems, Inc. for JXTA(TM) technology."
+ *     Alternately, this acknowledgment may appear in the software itself, if
+ *     and wherever such third-party acknowledgments normally appear.
+ *
+ *  4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA" must
+ *     not be used to endorse or promote products derived from this software
+ *     without prior written permission. For written permission, please contact
+ *     Project JXTA at http://www.jxta.org.
+ *
+ *  5. Products derived from this software may not be called "JXTA", nor may
+ *     "JXTA" appear in their name, without prior written permission of Sun.
+ *
+ *  THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+ *  INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ *  FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SUN
+ *  MICROSYSTEMS OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ *  OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ *  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ *  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *  JXTA is a registered trademark of Sun Microsystems, Inc. in the United
+ *  States and other countries.
+ *
+ *  Please see the license information page at :
+ *  <http://www.jxta.org/project/www/license.html> for instructions on use of
+ *  the license in source files.
+ *
+ *  ====================================================================
+ *
+ *  This software consists of voluntary contributions made by many individuals
+ *  on behalf of Project JXTA. For more information on Project JXTA, please see
+ *  http://www.jxta.org.
+ *
+ *  This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+
+package net.jxta.impl.membership.pse;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class PSEUtilsTest {
+
+    private static final String ALGORITHM = "SHA1WITHRSA";
+
+    private static PSEUtils.IssuerInfo first;
+    private static PSEUtils.IssuerInfo second;
+
+    @BeforeClass
+    public static void setUpClass() {
+        first = PSEUtils.genCert("first", null);
+        second = PSEUtils.genCert("second", null);
+    }
+
+    @Test
+    public void testSignAndVerify() throws Exception {
+        byte[] data = "signed data".getBytes("UTF-8");
+        byte[] firstSig = sign(first, data);
+        byte[] secondSig = sign(second, data);
+
+        assertTrue(verify(first, firstSig, data));
+        assertTrue(verify(second, secondSig, data));
+        assertFalse(verify(first, secondSig, data));
+        assertFalse(verify(first, firstSig, "other data".getBytes("UTF-8")));
+
+        // the engines are reused once initialized
+        for (int i = 0; i < 5; i++) {
+            byte[] more = ("data " + i).getBytes("UTF-8");
+
+            assertTrue(verify(first, sign(first, more), more));
+            assertTrue(verify(second, sign(second, more), more));
+        }
+    }
+
+    @Test
+    public void testVerificationCache() throws Exception {
+        byte[] data = "cached data".getBytes("UTF-8");
+        byte[] sig = sign(first, data);
+
+        assertTrue(verify(first, sig, data));
+
+        long hits = PSEUtils.getVerificationCacheHits();
+
+        assertTrue(verify(first, sig, data));
+        assertEquals(hits + 1, PSEUtils.getVerificationCacheHits());
+
+        // a different certificate does not use the cached result
+        assertFalse(verify(second, sig, data));
+        assertEquals(hits + 1, PSEUtils.getVerificationCacheHits());
+
+        // failed verifications are not cached
+        byte[] bad = sig.clone();
+
+        bad[0] ^= 1;
+        assertFalse(verify(first, bad, data));
+        assertFalse(verify(first, bad, data));
+        assertEquals(hits + 1, PSEUtils.getVerificationCacheHits());
+    }
+
+    @Test(timeout = 60000)
+    public void testConcurrentCiphers() throws Exception {
+        final SecretKey secret = PSEUtils.generateSymmetricKey();
+        final Cipher symmetric = Cipher.getInstance(PSEUtils.symmetricAlgorithm);
+        final Cipher asymmetric = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        int numThreads = 4;
+        final CountDownLatch completionLatch = new CountDownLatch(numThreads);
+
+        for (int t = 0; t < numThreads; t++) {
+            final int thread = t;
+
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 50; i++) {
+                            byte[] data = ("thread " + thread + " message " + i).getBytes("UTF-8");
+                            byte[] encrypted = PSEUtils.encryptSymmetric(data, 0, data.length, symmetric, secret);
+
+                            assertArrayEquals(data, PSEUtils.decryptSymmetric(encrypted, symmetric, secret));
+
+                            PSEUtils.IssuerInfo info = (0 == i % 2) ? first : second;
+
+                            encrypted = PSEUtils.encryptAsymmetric(data, 0, data.length, asymmetric, info.cert.getPublicKey());
+                            assertArrayEquals(data, PSEUtils.decryptAsymmetric(encrypted, asymmetric, info.subjectPkey));
+                        }
+                    } catch (Throwable failure) {
+                        failure.printStackTrace();
+                        failed.set(true);
+                    } finally {
+                        completionLatch.countDown();
+                    }
+                }
+            }, "cipher " + t).start();
+        }
+
+        assertTrue("Workers did not complete", completionLatch.await(50, TimeUnit.SECONDS));
+        assertFalse("Worker failed", failed.get());
+    }
+
+    private static byte[] sign(PSEUtils.IssuerInfo info, byte[] data) throws Exception {
+        return PSEUtils.computeSignature(ALGORITHM, info.subjectPkey, new ByteArrayInputStream(data));
+    }
+
+    private static boolean verify(PSEUtils.IssuerInfo info, byte[] sig, byte[] data) throws Exception {
+        return PSEUtils.verifySignature(ALGORITHM, info.cert, sig, new ByteArrayInputStream(data));
+    }
+}
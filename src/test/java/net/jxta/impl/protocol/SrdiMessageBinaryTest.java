@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2001-2007 Sun Microsystems, Inc.  All rights reserved.
+ *
+ *  The Sun Project JXTA(TM) Software License
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *
+ *  3. The end-user documentation included with the redistribution, if any, must
+ *     include the following acknowledgment: "This product includes software
+ *     developed by Sun Microsystems, Inc. for JXTA(TM) technology."
+ *     Alternately, this acknowledgment may appear in the software itself, if
+ *     and wherever such third-party acknowledgments normally appear.
+ *
+ *  4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA" must
+ *     not be used to endorse or promote products derived from this software
+ *     without prior written permission. For written permission, please contact
+ *     Project JXTA at http://www.jxta.org.
+ *
+ *  5. Products derived from this software may not be called "JXTA", nor may
+ *     "JXTA" appear in their name, without prior written permission of Sun.
+ *
+ *  THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+ *  INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ *  FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SUN
+ *  MICROSYSTEMS OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ *  OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ *  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ *  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *  JXTA is a registered trademark of Sun Microsystems, Inc. in the United
+ *  States and other countries.
+ *
+ *  Please see the license information page at :
+ *  <http://www.jxta.org/project/www/license.html> for instructions on use of
+ *  the license in source files.
+ *
+ *  ====================================================================
+ *
+ *  This software consists of voluntary contributions made by many individuals
+ *  on behalf of Project JXTA. For more information on Project JXTA, please see
+ *  http://www.jxta.org.
+ *
+ *  This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+
+package net.jxta.impl.protocol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import net.jxta.document.MimeMediaType;
+import net.jxta.document.StructuredDocument;
+import net.jxta.document.StructuredDocumentFactory;
+import net.jxta.id.IDFactory;
+import net.jxta.peer.PeerID;
+import net.jxta.peergroup.PeerGroupID;
+import net.jxta.protocol.SrdiMessage;
+
+import org.junit.Test;
+
+public class SrdiMessageBinaryTest {
+
+    private static final PeerID PEER = IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID);
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        SrdiMessageImpl msg = createMessage(50);
+        SrdiMessageImpl decoded = SrdiMessageBinary.decode(SrdiMessageBinary.encode(msg));
+
+        assertEquals(msg.getPeerID(), decoded.getPeerID());
+        assertEquals(msg.getPrimaryKey(), decoded.getPrimaryKey());
+        assertEquals(msg.getScope(), decoded.getScope());
+        assertEntriesEqual(msg, decoded);
+    }
+
+    @Test
+    public void testRoundTrip_emptyMessage() throws Exception {
+        SrdiMessageImpl decoded = SrdiMessageBinary.decode(SrdiMessageBinary.encode(new SrdiMessageImpl()));
+
+        assertNull(decoded.getPeerID());
+        assertNull(decoded.getPrimaryKey());
+        assertEquals(0, decoded.getScope());
+        assertTrue(decoded.getEntries().isEmpty());
+    }
+
+    @Test
+    public void testRoundTrip_sameAsXml() throws Exception {
+        SrdiMessageImpl msg = createMessage(20);
+
+        msg.addEntry(new SrdiMessage.Entry("unicode", "\u00e9t\u00e9 \u65e5\u672c", Long.MIN_VALUE));
+
+        StructuredDocument doc = StructuredDocumentFactory.newStructuredDocument(MimeMediaType.XMLUTF8, new StringReader(msg.toString()));
+        SrdiMessageImpl fromXml = new SrdiMessageImpl(doc);
+        SrdiMessageImpl fromBinary = SrdiMessageBinary.decode(SrdiMessageBinary.encode(msg));
+
+        assertEquals(fromXml.getPeerID(), fromBinary.getPeerID());
+        assertEquals(fromXml.getPrimaryKey(), fromBinary.getPrimaryKey());
+        assertEntriesEqual(fromXml, fromBinary);
+    }
+
+    @Test
+    public void testDecode_rejectsMalformed() throws Exception {
+        byte[] good = SrdiMessageBinary.encode(createMessage(10));
+
+        for (int length = 0; length < good.length; length++) {
+            byte[] truncated = new byte[length];
+
+            System.arraycopy(good, 0, truncated, 0, length);
+            assertDecodeFails(truncated);
+        }
+
+        byte[] badVersion = good.clone();
+
+        badVersion[0] = (byte) (SrdiMessageBinary.VERSION + 1);
+        assertDecodeFails(badVersion);
+
+        byte[] trailing = new byte[good.length + 1];
+
+        System.arraycopy(good, 0, trailing, 0, good.length);
+        assertDecodeFails(trailing);
+
+        // huge dictionary size
+        assertDecodeFails(new byte[] { (byte) SrdiMessageBinary.VERSION, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F });
+    }
+
+    @Test
+    public void testResolverEnvelope_roundTrip() throws Exception {
+        checkEnvelopeRoundTrip(createMessage(1));
+        checkEnvelopeRoundTrip(createMessage(100));
+    }
+
+    private void checkEnvelopeRoundTrip(SrdiMessageImpl msg) throws Exception {
+        ResolverSrdiMsgImpl envelope = new ResolverSrdiMsgImpl("handler", null, msg);
+        ResolverSrdiMsgImpl decoded = ResolverSrdiMsgImpl.fromBinary(envelope.toBinary(), null);
+
+        assertEquals("handler", decoded.getHandlerName());
+        assertNull(decoded.getCredential());
+        assertTrue(decoded.isBinaryCapable());
+        assertEntriesEqual(msg, (SrdiMessageImpl) decoded.getSrdiMessage());
+
+        // the payload is rendered on demand
+        StructuredDocument doc = StructuredDocumentFactory.newStructuredDocument(MimeMediaType.XMLUTF8, new StringReader(decoded.getPayload()));
+
+        assertEntriesEqual(msg, new SrdiMessageImpl(doc));
+    }
+
+    @Test
+    public void testResolverEnvelope_textPayload() throws Exception {
+        SrdiMessageImpl msg = createMessage(100);
+        ResolverSrdiMsgImpl envelope = new ResolverSrdiMsgImpl("handler", null, msg.toString());
+        ResolverSrdiMsgImpl decoded = ResolverSrdiMsgImpl.fromBinary(envelope.toBinary(), null);
+
+        assertEquals(msg.toString(), decoded.getPayload());
+        assertEntriesEqual(msg, (SrdiMessageImpl) decoded.getSrdiMessage());
+    }
+
+    @Test
+    public void testResolverEnvelope_xmlAnnouncesBinary() throws Exception {
+        ResolverSrdiMsgImpl envelope = new ResolverSrdiMsgImpl("handler", null, createMessage(3));
+        StructuredDocument doc = (StructuredDocument) envelope.getDocument(MimeMediaType.XMLUTF8);
+        ResolverSrdiMsgImpl parsed = new ResolverSrdiMsgImpl(doc, null);
+
+        assertEquals(ResolverSrdiMsgImpl.BINARY_ENABLED, parsed.isBinaryCapable());
+        assertEquals(3, parsed.getSrdiMessage().getEntries().size());
+    }
+
+    @Test
+    public void testResolverEnvelope_rejectsMalformed() throws Exception {
+        byte[] good = new ResolverSrdiMsgImpl("handler", null, createMessage(100)).toBinary();
+
+        for (int length = 0; length < good.length; length += 7) {
+            byte[] truncated = new byte[length];
+
+            System.arraycopy(good, 0, truncated, 0, length);
+            try {
+                ResolverSrdiMsgImpl.fromBinary(truncated, null);
+                fail("decoded a truncated message");
+            } catch (IOException expected) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Compares the size of the binary encoding with the gzipped XML form the
+     * resolver otherwise sends.
+     */
+    @Test
+    public void testSmallerThanGzippedXml() throws Exception {
+        int[] sizes = { 1, 10, 100, 1000 };
+
+        for (int size : sizes) {
+            ResolverSrdiMsgImpl msg = new ResolverSrdiMsgImpl("handler", null, createMessage(size));
+
+            byte[] xml = gzip(msg.toString());
+            byte[] binary = msg.toBinary();
+
+            assertTrue("binary larger than gzipped xml for " + size + " entries", binary.length < xml.length);
+        }
+    }
+
+    private static byte[] gzip(String xml) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        GZIPOutputStream gos = new GZIPOutputStream(baos);
+
+        gos.write(xml.getBytes("UTF-8"));
+        gos.close();
+
+        return baos.toByteArray();
+    }
+
+    private static SrdiMessageImpl createMessage(int entries) {
+        List<SrdiMessage.Entry> list = new ArrayList<SrdiMessage.Entry>(entries);
+
+        for (int i = 0; i < entries; i++) {
+            String key = (i % 2 == 0) ? "Name" : "PeerGroupID";
+
+            list.add(new SrdiMessage.Entry(key, IDFactory.newPeerID(PeerGroupID.defaultNetPeerGroupID).toString(), 7200000L));
+        }
+
+        return new SrdiMessageImpl(PEER, SrdiMessage.REPLICATE, "Peers", list);
+    }
+
+    private static void assertDecodeFails(byte[] bytes) {
+        try {
+            SrdiMessageBinary.decode(bytes);
+            fail("decoded a malformed message");
+        } catch (IOException expected) {
+            // expected
+        }
+    }
+
+    private static void assertEntriesEqual(SrdiMessage expected, SrdiMessage actual) {
+        Map<String, Long> expectedEntries = toMap(expected);
+
+        assertEquals(expectedEntries, toMap(actual));
+    }
+
+    private static Map<String, Long> toMap(SrdiMessage msg) {
+        Map<String, Long> map = new HashMap<String, Long>();
+
+        for (SrdiMessage.Entry entry : msg.getEntries()) {
+            map.put(entry.key + "=" + entry.value, entry.expiration);
+        }
+
+        return map;
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2001-2007 Sun Microsystems, Inc.  All rights reserved.
+ *
+ *  The Sun Project JXTA(TM) Software License
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *
+ *  3. The end-user documentation included with the redistribution, if any, must
+ *     include the following acknowledgment: "This product includes software
+ *     developed by Sun Microsystems, Inc. for JXTA(TM) technology."
+ *     Alternately, this acknowledgment may appear in the software itself, if
+ *     and wherever such third-party acknowledgments normally appear.
+ *
+ *  4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA" must
+ *     not be used to endorse or promote products derived from this software
+ *     without prior written permission. For written permission, please contact
+ *     Project JXTA at http://www.jxta.org.
+ *
+ *  5. Products derived from this software may not be called "JXTA", nor may
+ *     "JXTA" appear in their name, without prior written permission of Sun.
+ *
+ *  THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+ *  INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ *  FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SUN
+ *  MICROSYSTEMS OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ *  OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ *  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ *  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *  JXTA is a registered trademark of Sun Microsystems, Inc. in the United
+ *  States and other countries.
+ *
+ *  Please see the license information page at :
+ *  <http://www.jxta.org/project/www/license.html> for instructions on use of
+ *  the license in source files.
+ *
+ *  ====================================================================
+ *
+ *  This software consists of voluntary contributions made by many individuals
+ *  on behalf of Project JXTA. For more information on Project JXTA, please see
+ *  http://www.jxta.org.
+ *
+ *  This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+
+package net.jxta.impl.rendezvous;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.jxta.impl.id.UUID.UUID;
+import net.jxta.impl.id.UUID.UUIDFactory;
+import net.jxta.impl.util.FakeSystemClock;
+import net.jxta.impl.util.TimeUtils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MessageIdFilterTest {
+
+    private FakeSystemClock clock;
+
+    @Before
+    public void setUp() {
+        clock = new FakeSystemClock();
+        clock.currentTime = 1000000L;
+        TimeUtils.setClock(clock);
+    }
+
+    @After
+    public void tearDown() {
+        TimeUtils.resetClock();
+    }
+
+    @Test
+    public void testDuplicateDetected() {
+        MessageIdFilter filter = new MessageIdFilter(1024, 60000);
+        UUID id = UUIDFactory.newSeqUUID();
+
+        assertFalse(filter.isMsgIdRecorded(id));
+        assertTrue(filter.addMsgId(id));
+        assertTrue(filter.isMsgIdRecorded(id));
+        assertFalse(filter.addMsgId(id));
+
+        assertEquals(2, filter.getOffered());
+        assertEquals(1, filter.getDuplicates());
+        assertEquals(0.5, filter.getHitRate(), 0.0001);
+        assertEquals(1, filter.getWindowSize());
+    }
+
+    @Test
+    public void testWindowBoundedBySize() {
+        MessageIdFilter filter = new MessageIdFilter(1024, 60000);
+        List<UUID> ids = new ArrayList<UUID>();
+
+        for (int each = 0; each < 10000; each++) {
+            UUID id = UUIDFactory.newSeqUUID();
+
+            ids.add(id);
+            assertTrue(filter.addMsgId(id));
+        }
+
+        assertTrue(filter.getWindowSize() <= filter.getMaxWindowSize());
+        assertFalse(filter.isMsgIdRecorded(ids.get(0)));
+        assertTrue(filter.isMsgIdRecorded(ids.get(ids.size() - 1)));
+    }
+
+    @Test
+    public void testWindowBoundedByAge() {
+        MessageIdFilter filter = new MessageIdFilter(1024, 60000);
+        UUID old = UUIDFactory.newSeqUUID();
+
+        assertTrue(filter.addMsgId(old));
+
+        // Each add after a generation lifetime rotates one generation.
+        for (int each = 0; each < 4; each++) {
+            clock.currentTime += 15001;
+            assertTrue(filter.addMsgId(UUIDFactory.newSeqUUID()));
+        }
+
+        assertFalse(filter.isMsgIdRecorded(old));
+        assertTrue(filter.addMsgId(old));
+    }
+
+    @Test
+    public void testConcurrentAddsAcceptEachIdOnce() throws Exception {
+        final MessageIdFilter filter = new MessageIdFilter(65536, 60000);
+        final UUID[] ids = new UUID[5000];
+
+        for (int each = 0; each < ids.length; each++) {
+            ids[each] = UUIDFactory.newSeqUUID();
+        }
+
+        final AtomicInteger accepted = new AtomicInteger(0);
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[8];
+
+        for (int eachThread = 0; eachThread < threads.length; eachThread++) {
+            threads[eachThread] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException woken) {
+                        return;
+                    }
+
+                    for (UUID id : ids) {
+                        if (filter.addMsgId(id)) {
+                            accepted.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[eachThread].start();
+        }
+
+        start.countDown();
+
+        for (Thread aThread : threads) {
+            aThread.join();
+        }
+
+        assertEquals(ids.length, accepted.get());
+        assertEquals(ids.length * (threads.length - 1), filter.getDuplicates());
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2001-2007 Sun Microsystems, Inc.  All rights reserved.
+ *
+ *  The Sun Project JXTA(TM) Software License
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *
+ *  3. The end-user documentation included with the redistribution, if any, must
+ *     include the following acknowledgment: "This product includes software
+ *     developed by Sun Microsystems, Inc. for JXTA(TM) technology."
+ *     Alternately, this acknowledgment may appear in the software itself, if
+ *     and wherever such third-party acknowledgments normally appear.
+ *
+ *  4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA" must
+ *     not be used to endorse or promote products derived from this software
+ *     without prior written permission. For written permission, please contact
+ *     Project JXTA at http://www.jxta.org.
+ *
+ *  5. Products derived from this software may not be called "JXTA", nor may
+ *     "JXTA" appear in their name, without prior written permission of Sun.
+ *
+ *  THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+ *  INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ *  FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SUN
+ *  MICROSYSTEMS OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ *  OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ *  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ *  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *  JXTA is a registered trademark of Sun Microsystems, Inc. in the United
+ *  States and other countries.
+ *
+ *  Please see the license information page at :
+ *  <http://www.jxta.org/project/www/license.html> for instructions on use of
+ *  the license in source files.
+ *
+ *  ====================================================================
+ *
+ *  This software consists of voluntary contributions made by many individuals
+ *  on behalf of Project JXTA. For more information on Project JXTA, please see
+ *  http://www.jxta.org.
+ *
+ *  This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+package net.jxta.impl.util;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class DirectBufferPoolTest {
+
+    @Test
+    public void testAcquireRoundsUpToSizeClass() {
+        DirectBufferPool pool = new DirectBufferPool(8192, 65536, 1024 * 1024);
+
+        assertEquals(8192, pool.acquire(1).capacity());
+        assertEquals(8192, pool.acquire(8192).capacity());
+        assertEquals(16384, pool.acquire(8193).capacity());
+        assertEquals(65536, pool.acquire(65536).capacity());
+        assertTrue(pool.acquire(100).isDirect());
+    }
+
+    @Test
+    public void testReleasedBufferIsReused() {
+        DirectBufferPool pool = new DirectBufferPool(8192, 65536, 1024 * 1024);
+
+        ByteBuffer first = pool.acquire(10000);
+        first.put((byte) 1);
+        pool.release(first);
+
+        assertEquals(first.capacity(), pool.getPooledBytes());
+
+        ByteBuffer second = pool.acquire(9000);
+
+        assertSame(first, second);
+        assertEquals(0, second.position());
+        assertEquals(second.capacity(), second.limit());
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+        assertEquals(0, pool.getPooledBytes());
+    }
+
+    @Test
+    public void testOversizedBuffersAreNotPooled() {
+        DirectBufferPool pool = new DirectBufferPool(8192, 65536, 1024 * 1024);
+
+        ByteBuffer big = pool.acquire(100000);
+
+        assertEquals(100000, big.capacity());
+        assertEquals(1, pool.getOversizedRequests());
+
+        pool.release(big);
+        assertEquals(0, pool.getPooledBytes());
+    }
+
+    @Test
+    public void testPoolIsBounded() {
+        DirectBufferPool pool = new DirectBufferPool(8192, 65536, 16384);
+
+        ByteBuffer one = pool.acquire(8192);
+        ByteBuffer two = pool.acquire(8192);
+        ByteBuffer three = pool.acquire(8192);
+
+        pool.release(one);
+        pool.release(two);
+        pool.release(three);
+
+        assertEquals(16384, pool.getPooledBytes());
+        assertEquals(1, pool.getDiscards());
+
+        pool.clear();
+        assertEquals(0, pool.getPooledBytes());
+    }
+
+    @Test
+    public void testHeapBuffersAreIgnored() {
+        DirectBufferPool pool = new DirectBufferPool(8192, 65536, 1024 * 1024);
+
+        pool.release(ByteBuffer.allocate(8192));
+
+        assertEquals(0, pool.getPooledBytes());
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2001-2007 Sun Microsystems, Inc.  All rights reserved.
+ *
+ *  The Sun Project JXTA(TM) Software License
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *
+ *  2. Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *
+ *  3. The end-user documentation included with the redistribution, if any, must
+ *     include the following acknowledgment: "This product includes software
+ *     developed by Sun Microsystems, Inc. for JXTA(TM) technology."
+ *     Alternately, this acknowledgment may appear in the software itself, if
+ *     and wherever such third-party acknowledgments normally appear.
+ *
+ *  4. The names "Sun", "Sun Microsystems, Inc.", "JXTA" and "Project JXTA" must
+ *     not be used to endorse or promote products derived from this software
+ *     without prior written permission. For written permission, please contact
+ *     Project JXTA at http://www.jxta.org.
+ *
+ *  5. Products derived from this software may not be called "JXTA", nor may
+ *     "JXTA" appear in their name, without prior written permission of Sun.
+ *
+ *  THIS SOFTWARE IS PROVIDED ``AS IS'' AND ANY EXPRESSED OR IMPLIED WARRANTIES,
+ *  INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ *  FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL SUN
+ *  MICROSYSTEMS OR ITS CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ *  LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA,
+ *  OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ *  LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ *  NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ *  EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ *  JXTA is a registered trademark of Sun Microsystems, Inc. in the United
+ *  States and other countries.
+ *
+ *  Please see the license information page at :
+ *  <http://www.jxta.org/project/www/license.html> for instructions on use of
+ *  the license in source files.
+ *
+ *  ====================================================================
+ *
+ *  This software consists of voluntary contributions made by many individuals
+ *  on behalf of Project JXTA. For more information on Project JXTA, please see
+ *  http://www.jxta.org.
+ *
+ *  This license is based on the BSD license adopted by the Apache Foundation.
+ */
+
+
+package net.jxta.impl.util;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LZCodecTest {
+
+    @Test
+    public void testEmpty() throws IOException {
+        byte[] compressed = LZCodec.compress(new byte[0]);
+
+        assertEquals(0, LZCodec.decompress(compressed).length);
+    }
+
+    @Test
+    public void testRepetitiveInputShrinks() throws IOException {
+        StringBuilder text = new StringBuilder();
+
+        for (int each = 0; each < 500; each++) {
+            text.append("<jxta:PA><PID>urn:jxta:uuid-59616261646162614A78746150325033</PID></jxta:PA>");
+        }
+
+        byte[] original = text.toString().getBytes("UTF-8");
+        byte[] compressed = LZCodec.compress(original);
+
+        assertTrue(compressed.length < original.length / 4);
+        assertArrayEquals(original, LZCodec.decompress(compressed));
+    }
+
+    @Test
+    public void testRandomInputRoundTrip() throws IOException {
+        Random random = new Random(1234);
+
+        for (int size : new int[]{1, 2, 3, 31, 32, 33, 4096, 100000}) {
+            byte[] original = new byte[size];
+
+            random.nextBytes(original);
+
+            assertArrayEquals(original, LZCodec.decompress(LZCodec.compress(original)));
+        }
+    }
+
+    @Test
+    public void testOffsetAndLength() throws IOException {
+        byte[] original = "abcabcabcabcabcabcabcabcXYZ".getBytes("UTF-8");
+        byte[] compressed = LZCodec.compress(original, 3, 20);
+
+        assertArrayEquals(Arrays.copyOfRange(original, 3, 23), LZCodec.decompress(compressed));
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptInputRejected() throws IOException {
+        byte[] original = new byte[1000];
+        byte[] compressed = LZCodec.compress(original);
+
+        LZCodec.decompress(Arrays.copyOf(compressed, compressed.length / 2));
+    }
+
+    @Test(expected = IOException.class)
+    public void testLengthAboveLimitRejected() throws IOException {
+        byte[] compressed = LZCodec.compress(new byte[1000]);
+
+        LZCodec.decompress(compressed, 999);
+    }
+
+    @Test(expected = IOException.class)
+    public void testForgedLengthRejected() throws IOException {
+        // A header claiming 1 GB followed by a single literal.
+        byte[] forged = new byte[]{0x40, 0, 0, 0, 0, 'x'};
+
+        LZCodec.decompress(forged);
+    }
+}
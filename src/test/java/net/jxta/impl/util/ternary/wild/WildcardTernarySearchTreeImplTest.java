@@ -0,0 +1,176 @@
+package net.jxta.impl.util.ternary.wild;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class WildcardTernarySearchTreeImplTest {
+
+    // Terms narrowed with the n-gram index
+    private static final String[] NGRAM_TERMS = {
+        "Adv.Name=*", "Adv.Name=value1*", "Adv.Name=*42*", "*.Name=*abc*", "Adv.*=value3*9", "Adv.Name=value12",
+        "Adv.Name=*c*d*", "Peer.Desc=*xyz", "*value99*", "Adv.Name=va?ue*"
+    };
+
+    // Terms too short for the n-gram index, searched in the tree
+    private static final String[] TREE_TERMS = { "*7", "Ad*", "Adv.Name=*7*" };
+
+    private final WildcardTernarySearchTreeImpl<String> indexed = new WildcardTernarySearchTreeImpl<String>( '*', true );
+    private final WildcardTernarySearchTreeImpl<String> plain = new WildcardTernarySearchTreeImpl<String>( '*', false );
+    private final Set<String> live = new TreeSet<String>(  );
+
+    @Test
+    public void testSameResultsAsTreeSearch(  ) {
+
+        List<String> keys = populate( 5000 );
+
+        assertSameResults( NGRAM_TERMS );
+        assertSameResults( TREE_TERMS );
+
+        // Remove most keys so that the n-gram index is rebuilt
+        for ( int i = 0; i < keys.size(  ); i += 5 ) {
+
+            for ( int j = i; ( j < ( i + 4 ) ) && ( j < keys.size(  ) ); j++ ) {
+
+                indexed.remove( keys.get( j ) );
+                plain.remove( keys.get( j ) );
+                live.remove( keys.get( j ) );
+            }
+        }
+
+        assertSameResults( NGRAM_TERMS );
+    }
+
+    @Test
+    public void testLiteralCharacters(  ) {
+
+        indexed.put( "Adv.Name=a.c", "dot" );
+        indexed.put( "Adv.Name=abc", "abc" );
+
+        assertEquals( 1, search( indexed, "Adv.Name=a.c*" ).size(  ) );
+        assertEquals( 1, search( indexed, "*a.c" ).size(  ) );
+    }
+
+    @Test
+    public void testListenerStopsSearch(  ) {
+
+        populate( 100 );
+
+        final List<String> found = new ArrayList<String>(  );
+
+        indexed.search( "Adv.Name=*val*", new WildcardTernarySearchTreeMatchListener<String>(  ) {
+
+                public void resultFound( String key, String value ) {
+
+                    found.add( key );
+                }
+
+                public boolean continueSearch(  ) {
+
+                    return found.size(  ) < 3;
+                }
+            } );
+
+        assertEquals( 3, found.size(  ) );
+    }
+
+    @Test
+    public void testDeleteTree(  ) {
+
+        populate( 100 );
+        indexed.deleteTree(  );
+
+        assertEquals( 0, search( indexed, "*value*" ).size(  ) );
+        assertFalse( indexed.contains( "Adv.Name=value1" ) );
+    }
+
+    private List<String> populate( int count ) {
+
+        Random random = new Random( 7 );
+        List<String> keys = new ArrayList<String>(  );
+
+        for ( int i = 0; i < count; i++ ) {
+
+            String key = ( ( i % 3 == 0 ) ? "Peer.Desc=" : "Adv.Name=" ) + "value" + i + Integer.toString( random.nextInt( 1 << 20 ), 36 );
+
+            keys.add( key );
+            indexed.put( key, key );
+            plain.put( key, key );
+            live.add( key );
+        }
+
+        return keys;
+    }
+
+    private void assertSameResults( String[] terms ) {
+
+        for ( String term : terms ) {
+
+            Set<String> expected = bruteForce( term );
+
+            assertEquals( term, expected, search( indexed, term ) );
+
+            // The tree search needs a literal prefix or suffix
+            if ( !( term.startsWith( "*" ) && term.endsWith( "*" ) ) ) {
+
+                assertEquals( term, expected, search( plain, term ) );
+            }
+        }
+    }
+
+    private Set<String> bruteForce( String term ) {
+
+        StringBuilder regexp = new StringBuilder(  );
+
+        for ( String fragment : term.split( "\\*", -1 ) ) {
+
+            if ( regexp.length(  ) > 0 || term.startsWith( "*" ) ) {
+
+                regexp.append( ".*" );
+            }
+
+            regexp.append( Pattern.quote( fragment ) );
+        }
+
+        Pattern pattern = Pattern.compile( regexp.toString(  ) );
+        Set<String> found = new TreeSet<String>(  );
+
+        for ( String key : live ) {
+
+            if ( pattern.matcher( key ).matches(  ) ) {
+
+                found.add( key );
+            }
+        }
+
+        return found;
+    }
+
+    private static Set<String> search( WildcardTernarySearchTree<String> tree, String term ) {
+
+        final Set<String> found = new TreeSet<String>(  );
+
+        tree.search( term, new WildcardTernarySearchTreeMatchListener<String>(  ) {
+
+                public void resultFound( String key, String value ) {
+
+                    found.add( key );
+                }
+
+                public boolean continueSearch(  ) {
+
+                    return true;
+                }
+            } );
+
+        return found;
+    }
+}
@@ -0,0 +1,127 @@
+package net.jxta.impl.xindice.core.filer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import net.jxta.impl.xindice.core.DBException;
+import net.jxta.impl.xindice.core.data.Key;
+import net.jxta.impl.xindice.core.data.Record;
+import net.jxta.impl.xindice.core.data.Value;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedPagedTest {
+
+    private static final int RECORDS = 500;
+    private static final int MAX_VALUE_SIZE = 10000;
+
+    // small enough that the records span many segments
+    private static final int SEGMENT_SIZE = 64 * 1024;
+
+    @Rule
+    public TemporaryFolder testFileStore = new TemporaryFolder();
+
+    private Key[] keys;
+    private Value[] values;
+
+    @Before
+    public void setUp() {
+        Random random = new Random(42);
+
+        keys = new Key[RECORDS];
+        values = new Value[RECORDS];
+        for (int i = 0; i < RECORDS; i++) {
+            byte[] val = new byte[random.nextInt(MAX_VALUE_SIZE)];
+
+            random.nextBytes(val);
+            keys[i] = new Key("k" + i);
+            values[i] = new Value(val);
+        }
+    }
+
+    @Test
+    public void testMappedWrite_readUnmapped() throws Exception {
+        BTreeFiler filer = openFiler(true);
+
+        assertTrue(filer.isMemoryMapped());
+        writeAll(filer);
+        filer.close();
+
+        filer = openFiler(false);
+        assertFalse(filer.isMemoryMapped());
+        checkAll(filer);
+        filer.close();
+    }
+
+    @Test
+    public void testUnmappedWrite_readMapped() throws Exception {
+        BTreeFiler filer = openFiler(false);
+
+        writeAll(filer);
+        filer.close();
+
+        filer = openFiler(true);
+        checkAll(filer);
+        filer.close();
+    }
+
+    @Test
+    public void testMappedDeleteAndRewrite() throws Exception {
+        BTreeFiler filer = openFiler(true);
+
+        writeAll(filer);
+        for (int i = 0; i < RECORDS; i += 2) {
+            assertTrue(filer.deleteRecord(keys[i]));
+        }
+        for (int i = 0; i < RECORDS; i += 2) {
+            assertNull(filer.readRecord(keys[i]));
+        }
+
+        // reuses the freed pages
+        writeAll(filer);
+        filer.close();
+
+        filer = openFiler(true);
+        checkAll(filer);
+        filer.close();
+    }
+
+    private BTreeFiler openFiler(boolean mapped) throws DBException {
+        BTreeFiler filer = new BTreeFiler();
+
+        filer.setMemoryMapped(mapped);
+        filer.setMappedSegmentSize(SEGMENT_SIZE);
+        filer.setSync(false);
+        filer.setLocation(testFileStore.getRoot().getAbsolutePath(), "mapped");
+        if (!filer.open()) {
+            filer.create();
+            assertTrue(filer.open());
+        }
+
+        return filer;
+    }
+
+    private void writeAll(BTreeFiler filer) throws DBException {
+        for (int i = 0; i < RECORDS; i++) {
+            filer.writeRecord(keys[i], values[i]);
+        }
+        filer.flush();
+        assertEquals(RECORDS, filer.getRecordCount());
+    }
+
+    private void checkAll(BTreeFiler filer) throws DBException {
+        assertEquals(RECORDS, filer.getRecordCount());
+        for (int i = 0; i < RECORDS; i++) {
+            Record record = filer.readRecord(keys[i]);
+
+            assertTrue("record " + i, values[i].equals(record.getValue()));
+        }
+    }
+}
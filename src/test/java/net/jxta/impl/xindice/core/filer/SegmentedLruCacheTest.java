@@ -0,0 +1,94 @@
+package net.jxta.impl.xindice.core.filer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class SegmentedLruCacheTest {
+
+    @Test
+    public void testGet_countsHitsAndMisses() {
+        SegmentedLruCache<String> cache = new SegmentedLruCache<String>(10);
+
+        assertNull(cache.get(1));
+        cache.put(1, "one", false);
+        assertEquals("one", cache.get(1));
+        assertEquals("one", cache.get(1));
+
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(2.0 / 3.0, cache.getHitRate(), 0.0001);
+    }
+
+    @Test
+    public void testPut_evictsLeastRecentlyUsedProbationary() {
+        SegmentedLruCache<String> cache = new SegmentedLruCache<String>(3);
+
+        cache.put(1, "one", false);
+        cache.put(2, "two", false);
+        cache.put(3, "three", false);
+        cache.put(4, "four", false);
+
+        assertEquals(3, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.get(1));
+        assertNotNull(cache.get(2));
+    }
+
+    @Test
+    public void testScan_doesNotEvictHotEntries() {
+        SegmentedLruCache<String> cache = new SegmentedLruCache<String>(10);
+
+        cache.put(0, "root", true);
+        cache.put(1, "one", false);
+        // second use promotes
+        cache.get(1);
+
+        // a scan of many entries used only once
+        for (long each = 100; each < 200; each++) {
+            cache.put(each, "cold", false);
+        }
+
+        assertEquals(10, cache.size());
+        assertEquals("root", cache.get(0));
+        assertEquals("one", cache.get(1));
+    }
+
+    @Test
+    public void testProtectedOverflow_demotesToProbation() {
+        SegmentedLruCache<String> cache = new SegmentedLruCache<String>(5);
+
+        // protected segment holds 4
+        for (long each = 0; each < 5; each++) {
+            cache.put(each, "hot", true);
+        }
+
+        // the eldest was demoted, not evicted
+        assertEquals(5, cache.size());
+        assertEquals(0, cache.getEvictions());
+
+        cache.put(10, "cold", false);
+        assertEquals(5, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.get(0));
+    }
+
+    @Test
+    public void testSetMaxSize() {
+        SegmentedLruCache<String> cache = new SegmentedLruCache<String>(10);
+
+        for (long each = 0; each < 10; each++) {
+            cache.put(each, "value", (each % 2) == 0);
+        }
+
+        cache.setMaxSize(4);
+        assertEquals(4, cache.size());
+
+        cache.setMaxSize(0);
+        assertEquals(0, cache.size());
+        cache.put(1, "one", true);
+        assertNull(cache.get(1));
+    }
+}
@@ -146,6 +146,34 @@ public class PipeAdvertisementTest extends TestCase {
         // FIXME: test services
     }
 
+    public void testDocumentBytes() throws IOException {
+        PipeAdvertisement pipe = buildPipe();
+        byte[] bytes = pipe.getSignedDocumentBytes();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+        pipe.getSignedDocument().sendToStream(bos);
+        assertTrue("Serialized form is corrupted", java.util.Arrays.equals(bos.toByteArray(), bytes));
+        assertSame("Serialized form was not cached", bytes, pipe.getSignedDocumentBytes());
+
+        byte[] plain = pipe.getDocumentBytes(MimeMediaType.XMLUTF8);
+
+        assertSame("Serialized form was not cached", plain, pipe.getDocumentBytes(MimeMediaType.XMLUTF8));
+
+        PipeAdvertisement clone = pipe.clone();
+
+        clone.setName("Clone");
+        assertSame("Clone modification invalidated the original", bytes, pipe.getSignedDocumentBytes());
+
+        pipe.setName("Renamed");
+
+        byte[] renamed = pipe.getSignedDocumentBytes();
+
+        assertNotSame("Modification did not invalidate the serialized form", bytes, renamed);
+        assertTrue("Modification is missing", new String(renamed, "UTF-8").contains("Renamed"));
+        assertTrue("Modification is missing", new String(pipe.getDocumentBytes(MimeMediaType.XMLUTF8), "UTF-8").contains("Renamed"));
+        assertTrue("Clone modification is missing", new String(clone.getSignedDocumentBytes(), "UTF-8").contains("Clone"));
+    }
+
     private Element buildDesc() {
         StructuredTextDocument desc = (StructuredTextDocument) StructuredDocumentFactory.newStructuredDocument(
                 MimeMediaType.XMLUTF8, "Desc");